@@ -0,0 +1,74 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.bukkit;
+
+import me.lucko.spark.common.util.ClassSourceLookup;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Identifies classes by the {@code PluginClassLoader} which loaded them.
+ */
+public class BukkitClassSourceLookup implements ClassSourceLookup {
+    private static final Class<?> PLUGIN_CLASS_LOADER;
+    private static final Field PLUGIN_FIELD;
+
+    static {
+        try {
+            PLUGIN_CLASS_LOADER = Class.forName("org.bukkit.plugin.java.PluginClassLoader");
+            PLUGIN_FIELD = PLUGIN_CLASS_LOADER.getDeclaredField("plugin");
+            PLUGIN_FIELD.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final PluginManager pluginManager;
+
+    public BukkitClassSourceLookup(PluginManager pluginManager) {
+        this.pluginManager = pluginManager;
+    }
+
+    @Override
+    public String identify(Class<?> clazz) throws ReflectiveOperationException {
+        ClassLoader loader = clazz.getClassLoader();
+        if (PLUGIN_CLASS_LOADER.isInstance(loader)) {
+            JavaPlugin plugin = (JavaPlugin) PLUGIN_FIELD.get(loader);
+            return plugin == null ? null : plugin.getName();
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<ClassLoader> getClassLoaders() {
+        List<ClassLoader> loaders = new ArrayList<>();
+        for (Plugin plugin : this.pluginManager.getPlugins()) {
+            loaders.add(plugin.getClass().getClassLoader());
+        }
+        return loaders;
+    }
+}
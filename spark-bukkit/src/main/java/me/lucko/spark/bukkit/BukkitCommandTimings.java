@@ -0,0 +1,122 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.bukkit;
+
+import me.lucko.spark.common.monitor.timing.InvocationTimer;
+import me.lucko.spark.common.monitor.timing.InvocationTimings;
+import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.command.TabCompleter;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times plugin commands by replacing the {@link CommandExecutor} of each
+ * {@link PluginCommand} in the command map with one which records the time taken.
+ *
+ * <p>This covers commands however they are dispatched - by players, the console, or by
+ * other plugins calling {@link Bukkit#dispatchCommand}. Commands which aren't owned by
+ * a plugin (e.g. vanilla commands) can't be timed.</p>
+ */
+public class BukkitCommandTimings extends InvocationTimings {
+
+    /** The original executor of each command which has been instrumented */
+    private final Map<PluginCommand, CommandExecutor> originals = new IdentityHashMap<>();
+
+    public BukkitCommandTimings() {
+        super(true);
+
+        // fail early if the command map can't be accessed
+        CommandMapUtil.getKnownCommands();
+    }
+
+    @Override
+    protected int install() {
+        for (Command command : CommandMapUtil.getKnownCommands().values()) {
+            if (!(command instanceof PluginCommand) || this.originals.containsKey(command)) {
+                continue;
+            }
+
+            PluginCommand pluginCommand = (PluginCommand) command;
+            CommandExecutor executor = pluginCommand.getExecutor();
+            pluginCommand.setExecutor(new TimedCommandExecutor(this, executor, pluginCommand.getPlugin().getName(), "/" + pluginCommand.getName()));
+            this.originals.put(pluginCommand, executor);
+        }
+        return this.originals.size();
+    }
+
+    @Override
+    protected void uninstall() {
+        for (Map.Entry<PluginCommand, CommandExecutor> entry : this.originals.entrySet()) {
+            PluginCommand command = entry.getKey();
+            CommandExecutor current = command.getExecutor();
+
+            // don't clobber the executor if something else has replaced ours since
+            if (current instanceof TimedCommandExecutor && ((TimedCommandExecutor) current).delegate == entry.getValue()) {
+                command.setExecutor(entry.getValue());
+            }
+        }
+        this.originals.clear();
+    }
+
+    /**
+     * Stands in for the executor of a command.
+     *
+     * <p>If the command has no separate tab completer, {@link PluginCommand} falls back
+     * to the executor, so tab completion is passed through as well.</p>
+     */
+    private static final class TimedCommandExecutor implements CommandExecutor, TabCompleter {
+        private final CommandExecutor delegate;
+        private final InvocationTimer syncTimer;
+        private final InvocationTimer asyncTimer;
+
+        TimedCommandExecutor(InvocationTimings timings, CommandExecutor delegate, String plugin, String name) {
+            this.delegate = delegate;
+            this.syncTimer = timings.getTimer(plugin, SYNC, name);
+            this.asyncTimer = timings.getTimer(plugin, ASYNC, name);
+        }
+
+        @Override
+        public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+            long start = System.nanoTime();
+            try {
+                return this.delegate.onCommand(sender, command, label, args);
+            } finally {
+                long duration = System.nanoTime() - start;
+                (Bukkit.isPrimaryThread() ? this.syncTimer : this.asyncTimer).record(duration);
+            }
+        }
+
+        @Override
+        public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+            if (this.delegate instanceof TabCompleter) {
+                return ((TabCompleter) this.delegate).onTabComplete(sender, command, alias, args);
+            }
+            return null;
+        }
+    }
+
+}
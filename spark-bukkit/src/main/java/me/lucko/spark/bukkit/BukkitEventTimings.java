@@ -0,0 +1,171 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.bukkit;
+
+import me.lucko.spark.common.monitor.timing.InvocationTimer;
+import me.lucko.spark.common.monitor.timing.InvocationTimings;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.RegisteredListener;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Times event listeners by replacing the {@link EventExecutor} of each
+ * {@link RegisteredListener} with one which records the time taken.
+ *
+ * <p>The original executors are put back when disabled, so there is no overhead
+ * once the timings are turned off.</p>
+ */
+public class BukkitEventTimings extends InvocationTimings {
+    private static final Field EXECUTOR_FIELD;
+
+    static {
+        try {
+            EXECUTOR_FIELD = RegisteredListener.class.getDeclaredField("executor");
+            EXECUTOR_FIELD.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** The original executor of each listener which has been instrumented */
+    private final Map<RegisteredListener, EventExecutor> originals = new IdentityHashMap<>();
+
+    public BukkitEventTimings() {
+        super(false);
+    }
+
+    @Override
+    protected int install() throws ReflectiveOperationException {
+        for (HandlerList handlerList : HandlerList.getHandlerLists()) {
+            for (RegisteredListener listener : handlerList.getRegisteredListeners()) {
+                if (this.originals.containsKey(listener)) {
+                    continue;
+                }
+
+                EventExecutor executor = (EventExecutor) EXECUTOR_FIELD.get(listener);
+                String name = describeListener(listener.getListener(), executor);
+                EXECUTOR_FIELD.set(listener, new TimedEventExecutor(this, executor, listener.getPlugin().getName(), name));
+                this.originals.put(listener, executor);
+            }
+        }
+        return this.originals.size();
+    }
+
+    @Override
+    protected void uninstall() throws ReflectiveOperationException {
+        for (Map.Entry<RegisteredListener, EventExecutor> entry : this.originals.entrySet()) {
+            RegisteredListener listener = entry.getKey();
+            Object current = EXECUTOR_FIELD.get(listener);
+
+            // don't clobber the executor if something else has replaced ours since
+            if (current instanceof TimedEventExecutor && ((TimedEventExecutor) current).delegate == entry.getValue()) {
+                EXECUTOR_FIELD.set(listener, entry.getValue());
+            }
+        }
+        this.originals.clear();
+    }
+
+    /**
+     * Gets a name for the listener method called by the executor.
+     *
+     * <p>The executors created by Bukkit (and Paper) hold a reference to the method they
+     * call, which is found by reflection. If it can't be found, the listener class is used.</p>
+     *
+     * @param listener the listener
+     * @param executor the executor
+     * @return the name
+     */
+    private static String describeListener(Listener listener, EventExecutor executor) {
+        for (Class<?> clazz = executor.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (field.getType() != Method.class || Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    Method method = (Method) field.get(executor);
+                    if (method != null) {
+                        return method.getDeclaringClass().getName() + "#" + method.getName();
+                    }
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+        return listener.getClass().getName();
+    }
+
+    private static final class TimedEventExecutor implements EventExecutor {
+        private final InvocationTimings timings;
+        private final EventExecutor delegate;
+        private final String plugin;
+        private final String name;
+
+        /** The timer for the most recent event type - listeners are almost always called with the same type */
+        private volatile CachedTimer cachedTimer = null;
+
+        TimedEventExecutor(InvocationTimings timings, EventExecutor delegate, String plugin, String name) {
+            this.timings = timings;
+            this.delegate = delegate;
+            this.plugin = plugin;
+            this.name = name;
+        }
+
+        @Override
+        public void execute(Listener listener, Event event) throws EventException {
+            long start = System.nanoTime();
+            try {
+                this.delegate.execute(listener, event);
+            } finally {
+                timer(event.getClass()).record(System.nanoTime() - start);
+            }
+        }
+
+        private InvocationTimer timer(Class<? extends Event> eventClass) {
+            CachedTimer cached = this.cachedTimer;
+            if (cached == null || cached.eventClass != eventClass) {
+                cached = new CachedTimer(eventClass, this.timings.getTimer(this.plugin, eventClass.getName(), this.name));
+                this.cachedTimer = cached;
+            }
+            return cached.timer;
+        }
+    }
+
+    private static final class CachedTimer {
+        private final Class<? extends Event> eventClass;
+        private final InvocationTimer timer;
+
+        CachedTimer(Class<? extends Event> eventClass, InvocationTimer timer) {
+            this.eventClass = eventClass;
+            this.timer = timer;
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.bukkit;
+
+import me.lucko.spark.common.monitor.timing.InvocationTimer;
+import me.lucko.spark.common.monitor.timing.SchedulerTimings;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+/**
+ * Times scheduler tasks by replacing the {@link Runnable} (or {@link Consumer}) held by
+ * each pending CraftTask with one which records the time taken.
+ *
+ * <p>There is no hook for tasks as they are scheduled, so the pending tasks are rescanned
+ * every second while enabled, and any new ones are instrumented. Tasks which only run
+ * once within a second of being scheduled may therefore be missed.</p>
+ */
+public class BukkitSchedulerTimings extends SchedulerTimings {
+    private static final long RESCAN_INTERVAL_TICKS = 20;
+
+    private final Plugin plugin;
+    private final BukkitScheduler scheduler;
+
+    /** The task field (and period field, if any) for each CraftTask class */
+    private final Map<Class<?>, TaskFields> taskFields = new HashMap<>();
+    /** The tasks which have been instrumented */
+    private final Map<BukkitTask, WrappedTask> wrapped = new IdentityHashMap<>();
+    private BukkitTask rescanTask = null;
+
+    /** The pool used to run async tasks, or null if it couldn't be found */
+    private final ThreadPoolExecutor asyncPool;
+
+    public BukkitSchedulerTimings(Plugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = plugin.getServer().getScheduler();
+        this.asyncPool = findThreadPool(this.scheduler, true);
+    }
+
+    @Override
+    protected synchronized int install() throws ReflectiveOperationException {
+        scan();
+        this.rescanTask = this.scheduler.runTaskTimer(this.plugin, () -> {
+            try {
+                if (isEnabled()) {
+                    scan();
+                }
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }, RESCAN_INTERVAL_TICKS, RESCAN_INTERVAL_TICKS);
+        return this.wrapped.size();
+    }
+
+    @Override
+    protected synchronized void uninstall() throws ReflectiveOperationException {
+        if (this.rescanTask != null) {
+            this.rescanTask.cancel();
+            this.rescanTask = null;
+        }
+
+        for (Map.Entry<BukkitTask, WrappedTask> entry : this.wrapped.entrySet()) {
+            WrappedTask wrapped = entry.getValue();
+
+            // don't clobber the task if something else has replaced ours since
+            if (wrapped.field.get(entry.getKey()) == wrapped.timed) {
+                wrapped.field.set(entry.getKey(), wrapped.timed.delegate);
+            }
+        }
+        this.wrapped.clear();
+    }
+
+    /**
+     * Instruments any pending tasks which haven't been seen before, and forgets about
+     * those which are no longer pending.
+     */
+    private synchronized void scan() throws ReflectiveOperationException {
+        Set<BukkitTask> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BukkitTask task : this.scheduler.getPendingTasks()) {
+            if (task == this.rescanTask || task.isCancelled()) {
+                continue;
+            }
+            pending.add(task);
+
+            if (!this.wrapped.containsKey(task)) {
+                wrap(task);
+            }
+        }
+
+        for (Iterator<BukkitTask> it = this.wrapped.keySet().iterator(); it.hasNext(); ) {
+            if (!pending.contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    private void wrap(BukkitTask task) throws ReflectiveOperationException {
+        TaskFields fields = this.taskFields.computeIfAbsent(task.getClass(), TaskFields::new);
+        for (Field field : fields.task) {
+            Object delegate = field.get(task);
+            if (delegate == null || delegate instanceof TimedTask) {
+                continue;
+            }
+
+            String name = describeTask(delegate, fields.getPeriod(task));
+            InvocationTimer timer = getTimer(task.getOwner().getName(), task.isSync() ? SYNC : ASYNC, name);
+            TimedTask timed = new TimedTask(delegate, timer);
+            field.set(task, timed);
+            this.wrapped.put(task, new WrappedTask(field, timed));
+            return;
+        }
+    }
+
+    /**
+     * Gets a name for a task, from the class of the runnable and how often it repeats.
+     *
+     * @param delegate the runnable or consumer
+     * @param period the period of the task in ticks
+     * @return the name
+     */
+    private static String describeTask(Object delegate, long period) {
+        String name = delegate.getClass().getName();
+
+        // classes spun at runtime for lambdas have a unique suffix - use the class which defined them
+        int lambda = name.indexOf("$$Lambda");
+        if (lambda != -1) {
+            name = name.substring(0, lambda) + " (lambda)";
+        }
+
+        if (period > 0) {
+            name += " (every " + period + (period == 1 ? " tick)" : " ticks)");
+        }
+        return name;
+    }
+
+    @Override
+    public ExecutorStatus getExecutorStatus() {
+        int running = this.scheduler.getActiveWorkers().size();
+        int scheduled = 0;
+        for (BukkitTask task : this.scheduler.getPendingTasks()) {
+            if (!task.isSync()) {
+                scheduled++;
+            }
+        }
+        // running async tasks are included in the pending tasks
+        scheduled = Math.max(0, scheduled - running);
+
+        ThreadPoolExecutor pool = this.asyncPool;
+        if (pool == null) {
+            return new ExecutorStatus(running, scheduled, -1, -1, -1);
+        }
+        return new ExecutorStatus(running, scheduled, pool.getPoolSize(), pool.getActiveCount(), pool.getQueue().size());
+    }
+
+    /**
+     * Finds the thread pool used to run async tasks, by searching the fields of the
+     * scheduler.
+     *
+     * <p>CraftBukkit keeps the pool in the scheduler itself, whereas Paper delegates async
+     * tasks to a separate scheduler object, so that is searched too.</p>
+     *
+     * @param scheduler the scheduler
+     * @param recurse if nested schedulers should be searched
+     * @return the pool, or null if it couldn't be found
+     */
+    private static ThreadPoolExecutor findThreadPool(Object scheduler, boolean recurse) {
+        for (Class<?> clazz = scheduler.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    Object value = field.get(scheduler);
+                    if (value instanceof ThreadPoolExecutor) {
+                        return (ThreadPoolExecutor) value;
+                    }
+                    if (recurse && value instanceof BukkitScheduler && value != scheduler) {
+                        ThreadPoolExecutor pool = findThreadPool(value, false);
+                        if (pool != null) {
+                            return pool;
+                        }
+                    }
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The fields of a CraftTask class which hold the task to run, and its period.
+     */
+    private static final class TaskFields {
+        private final List<Field> task = new ArrayList<>();
+        private Field period = null;
+
+        TaskFields(Class<?> taskClass) {
+            for (Class<?> clazz = taskClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (Field field : clazz.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    if (field.getType() == Runnable.class || field.getType() == Consumer.class) {
+                        field.setAccessible(true);
+                        this.task.add(field);
+                    } else if (field.getType() == long.class && field.getName().equals("period") && this.period == null) {
+                        field.setAccessible(true);
+                        this.period = field;
+                    }
+                }
+            }
+        }
+
+        long getPeriod(BukkitTask task) {
+            if (this.period == null) {
+                return -1;
+            }
+            try {
+                return this.period.getLong(task);
+            } catch (IllegalAccessException e) {
+                return -1;
+            }
+        }
+    }
+
+    private static final class WrappedTask {
+        private final Field field;
+        private final TimedTask timed;
+
+        WrappedTask(Field field, TimedTask timed) {
+            this.field = field;
+            this.timed = timed;
+        }
+    }
+
+    /**
+     * Stands in for either the {@link Runnable} or the {@link Consumer} of a task.
+     */
+    private static final class TimedTask implements Runnable, Consumer<Object> {
+        private final Object delegate;
+        private final InvocationTimer timer;
+
+        TimedTask(Object delegate, InvocationTimer timer) {
+            this.delegate = delegate;
+            this.timer = timer;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                ((Runnable) this.delegate).run();
+            } finally {
+                this.timer.record(System.nanoTime() - start);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void accept(Object task) {
+            long start = System.nanoTime();
+            try {
+                ((Consumer<Object>) this.delegate).accept(task);
+            } finally {
+                this.timer.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+}
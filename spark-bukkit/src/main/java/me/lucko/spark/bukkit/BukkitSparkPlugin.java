@@ -24,15 +24,25 @@ import me.lucko.spark.bukkit.placeholder.SparkMVdWPlaceholders;
 import me.lucko.spark.bukkit.placeholder.SparkPlaceholderApi;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.SparkPlugin;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector;
+import me.lucko.spark.common.monitor.timing.InvocationTimings;
+import me.lucko.spark.common.monitor.timing.SchedulerTimings;
 import me.lucko.spark.common.platform.PlatformInfo;
 import me.lucko.spark.common.sampler.ThreadDumper;
 import me.lucko.spark.common.sampler.tick.TickHook;
 import me.lucko.spark.common.sampler.tick.TickReporter;
+import me.lucko.spark.common.util.ClassSourceLookup;
 import net.kyori.adventure.platform.bukkit.BukkitAudiences;
 import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.server.PluginEnableEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.nio.file.Path;
@@ -49,12 +59,11 @@ public class BukkitSparkPlugin extends JavaPlugin implements SparkPlugin {
     @Override
     public void onEnable() {
         this.audienceFactory = BukkitAudiences.create(this);
+        this.serverThread = Thread.currentThread();
 
         this.platform = new SparkPlatform(this);
         this.platform.enable();
 
-        this.serverThread = Thread.currentThread();
-
         // override Spigot's TPS command with our own.
         if (getConfig().getBoolean("override-tps-command", true)) {
             this.tpsCommand = (sender, command, label, args) -> {
@@ -75,6 +84,9 @@ public class BukkitSparkPlugin extends JavaPlugin implements SparkPlugin {
             CommandMapUtil.registerCommand(this, this.tpsCommand, "tps");
         }
 
+        // classes are attributed to plugins by their loader, which changes if plugins are reloaded
+        getServer().getPluginManager().registerEvents(new ClassSourceInvalidator(this.platform), this);
+
         if (getServer().getPluginManager().isPluginEnabled("PlaceholderAPI")) {
             new SparkPlaceholderApi(this, this.platform);
             getLogger().info("Registered PlaceholderAPI placeholders");
@@ -156,6 +168,49 @@ public class BukkitSparkPlugin extends JavaPlugin implements SparkPlugin {
         return null;
     }
 
+    @Override
+    public ClassSourceLookup createClassSourceLookup() {
+        try {
+            return new BukkitClassSourceLookup(getServer().getPluginManager());
+        } catch (ExceptionInInitializerError e) {
+            getLogger().warning("Unable to identify plugin class loaders, memory will not be attributed to plugins");
+            return ClassSourceLookup.NO_OP;
+        }
+    }
+
+    @Override
+    public InvocationTimings createEventTimings() {
+        try {
+            return new BukkitEventTimings();
+        } catch (ExceptionInInitializerError e) {
+            getLogger().warning("Unable to access event listener executors, event timings will not be available");
+            return null;
+        }
+    }
+
+    @Override
+    public InvocationTimings createCommandTimings() {
+        try {
+            return new BukkitCommandTimings();
+        } catch (ExceptionInInitializerError | RuntimeException e) {
+            getLogger().warning("Unable to access the command map, command timings will not be available");
+            return null;
+        }
+    }
+
+    @Override
+    public SchedulerTimings createTaskTimings() {
+        return new BukkitSchedulerTimings(this);
+    }
+
+    @Override
+    public HotspotCollector createHotspotCollector() {
+        if (methodExists(Chunk.class, "getTileEntities", boolean.class) && methodExists(World.class, "getTickableTileEntityCount")) {
+            return new PaperHotspotCollector(this, this.serverThread);
+        }
+        return null;
+    }
+
     @Override
     public PlatformInfo getPlatformInfo() {
         return new BukkitPlatformInfo(getServer());
@@ -169,4 +224,31 @@ public class BukkitSparkPlugin extends JavaPlugin implements SparkPlugin {
             return false;
         }
     }
+
+    private static boolean methodExists(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            clazz.getMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static final class ClassSourceInvalidator implements Listener {
+        private final SparkPlatform platform;
+
+        ClassSourceInvalidator(SparkPlatform platform) {
+            this.platform = platform;
+        }
+
+        @EventHandler
+        public void onPluginEnable(PluginEnableEvent e) {
+            this.platform.getClassSourceLookup().invalidate();
+        }
+
+        @EventHandler
+        public void onPluginDisable(PluginDisableEvent e) {
+            this.platform.getClassSourceLookup().invalidate();
+        }
+    }
 }
@@ -46,6 +46,7 @@ public class BukkitTickHook extends AbstractTickHook implements TickHook, Runnab
     @Override
     public void close() {
         this.task.cancel();
+        super.close();
     }
 
 }
@@ -81,6 +81,16 @@ enum CommandMapUtil {
         }
     }
 
+    /**
+     * Gets the commands known to the server, keyed by label (including aliases and
+     * fallback prefixes).
+     *
+     * @return the known commands map
+     */
+    static Map<String, Command> getKnownCommands() {
+        return getKnownCommandMap(getCommandMap());
+    }
+
     /**
      * Registers a CommandExecutor with the server
      *
@@ -0,0 +1,124 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.bukkit;
+
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects chunk hotspots using the Paper API.
+ *
+ * <p>Tile entities are listed without taking snapshots of them, which is only possible
+ * on Paper, and Paper also exposes the number of ticking tile entities in each world.</p>
+ *
+ * <p>The API doesn't say whether an individual tile entity ticks, so the counts for each
+ * chunk include non-ticking tile entities (e.g. signs), and only the world total is split.</p>
+ */
+public class PaperHotspotCollector extends HotspotCollector {
+    private static final long SCAN_INTERVAL_TICKS = 200;
+
+    /** The methods which tick each entity - using both Spigot and Mojang mapped names */
+    private static final Set<String> ENTITY_TICK_METHODS = new HashSet<>(Arrays.asList(
+            "entityJoinedWorld", "tickNonPassenger", "tickPassenger"
+    ));
+    /** The methods which tick the tile entities in a world */
+    private static final Set<String> TILE_ENTITY_TICK_METHODS = new HashSet<>(Arrays.asList(
+            "tickBlockEntities", "tickTileEntities"
+    ));
+
+    private final Plugin plugin;
+    private BukkitTask scanTask = null;
+
+    public PaperHotspotCollector(Plugin plugin, Thread serverThread) {
+        super(serverThread);
+        this.plugin = plugin;
+    }
+
+    @Override
+    protected void install() {
+        this.scanTask = this.plugin.getServer().getScheduler().runTaskTimer(this.plugin, this::scan, 0, SCAN_INTERVAL_TICKS);
+    }
+
+    @Override
+    protected void uninstall() {
+        if (this.scanTask != null) {
+            this.scanTask.cancel();
+            this.scanTask = null;
+        }
+    }
+
+    private void scan() {
+        for (World world : this.plugin.getServer().getWorlds()) {
+            Map<Long, ChunkCounts> chunks = new HashMap<>();
+
+            for (Entity entity : world.getEntities()) {
+                Location location = entity.getLocation();
+                counts(chunks, location.getBlockX() >> 4, location.getBlockZ() >> 4).addEntity(entity.getType().name());
+            }
+            for (Chunk chunk : world.getLoadedChunks()) {
+                BlockState[] tileEntities = chunk.getTileEntities(false);
+                if (tileEntities.length == 0) {
+                    continue;
+                }
+                ChunkCounts counts = counts(chunks, chunk.getX(), chunk.getZ());
+                for (BlockState tileEntity : tileEntities) {
+                    counts.addTileEntity(tileEntity.getType().name());
+                }
+            }
+
+            recordScan(world.getName(), new ArrayList<>(chunks.values()), world.getTickableTileEntityCount());
+        }
+    }
+
+    private static ChunkCounts counts(Map<Long, ChunkCounts> chunks, int x, int z) {
+        return chunks.computeIfAbsent(((long) x << 32) | (z & 0xFFFFFFFFL), key -> new ChunkCounts(x, z));
+    }
+
+    @Override
+    protected boolean isEntityTickFrame(StackTraceElement frame) {
+        return ENTITY_TICK_METHODS.contains(frame.getMethodName());
+    }
+
+    @Override
+    protected boolean isTileEntityTickFrame(StackTraceElement frame) {
+        return TILE_ENTITY_TICK_METHODS.contains(frame.getMethodName());
+    }
+
+    @Override
+    protected boolean isTickWrapperFrame(StackTraceElement frame) {
+        // since 1.17, block entities are ticked through a wrapper which holds the ticker
+        return frame.getClassName().contains("TickingBlockEntity") || frame.getClassName().contains("$$Lambda");
+    }
+
+}
@@ -48,6 +48,7 @@ public class PaperTickHook extends AbstractTickHook implements TickHook, Listene
     @Override
     public void close() {
         HandlerList.unregisterAll(this);
+        super.close();
     }
 
 }
@@ -48,6 +48,7 @@ public class PaperTickReporter extends AbstractTickReporter implements TickRepor
     @Override
     public void close() {
         HandlerList.unregisterAll(this);
+        super.close();
     }
 
 }
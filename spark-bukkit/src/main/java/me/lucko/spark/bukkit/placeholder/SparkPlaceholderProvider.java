@@ -23,14 +23,20 @@ package me.lucko.spark.bukkit.placeholder;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.command.modules.HealthModule;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.memory.GarbageCollectionAnalytics;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
+import me.lucko.spark.common.util.FormatUtil;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 
+import java.text.DecimalFormat;
+
 enum SparkPlaceholderProvider {
     ;
 
+    private static final DecimalFormat DF = new DecimalFormat("#.##");
+
     public static TextComponent respondComponent(SparkPlatform platform, String placeholder) {
         if (placeholder.startsWith("tps")) {
             TickStatistics tickStatistics = platform.getTickStatistics();
@@ -108,9 +114,30 @@ enum SparkPlaceholderProvider {
             }
         }
 
+        if (placeholder.startsWith("gc")) {
+            GarbageCollectionAnalytics gcAnalytics = platform.getGcAnalytics();
+            switch (placeholder) {
+                case "gc_pause_p50":
+                    return formatMillis(gcAnalytics.getPauses(GarbageCollectionAnalytics.Window.FIVE_MINUTES).getPercentile(50));
+                case "gc_pause_p99":
+                    return formatMillis(gcAnalytics.getPauses(GarbageCollectionAnalytics.Window.FIVE_MINUTES).getPercentile(99));
+                case "gc_pause_max":
+                    return formatMillis(gcAnalytics.getPauses(GarbageCollectionAnalytics.Window.FIVE_MINUTES).getMax());
+                case "gc_allocation_rate":
+                    return Component.text(FormatUtil.formatBytes((long) gcAnalytics.getAllocationRate(GarbageCollectionAnalytics.Window.ONE_MINUTE)) + "/s");
+                case "gc_promotion_rate":
+                    double promotionRate = gcAnalytics.getPromotionRate(GarbageCollectionAnalytics.Window.ONE_MINUTE);
+                    return promotionRate == -1 ? null : Component.text(FormatUtil.formatBytes((long) promotionRate) + "/s");
+            }
+        }
+
         return null;
     }
 
+    private static TextComponent formatMillis(double millis) {
+        return Component.text(DF.format(millis) + "ms");
+    }
+
     public static String respond(SparkPlatform platform, String placeholder) {
         TextComponent result = respondComponent(platform, placeholder);
         if (result == null) {
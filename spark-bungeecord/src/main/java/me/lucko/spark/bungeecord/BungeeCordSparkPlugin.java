@@ -23,6 +23,9 @@ package me.lucko.spark.bungeecord;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.SparkPlugin;
 import me.lucko.spark.common.platform.PlatformInfo;
+import me.lucko.spark.common.sampler.tick.EventLoopProbe;
+import me.lucko.spark.common.sampler.tick.TickHook;
+import me.lucko.spark.common.sampler.tick.TickReporter;
 import net.kyori.adventure.platform.bungeecord.BungeeAudiences;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.plugin.Command;
@@ -30,11 +33,14 @@ import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.api.plugin.TabExecutor;
 
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
 public class BungeeCordSparkPlugin extends Plugin implements SparkPlugin {
     private BungeeAudiences audienceFactory;
     private SparkPlatform platform;
+    private EventLoopProbe eventLoopProbe = null;
 
     @Override
     public void onEnable() {
@@ -77,6 +83,37 @@ public class BungeeCordSparkPlugin extends Plugin implements SparkPlugin {
         getProxy().getScheduler().runAsync(BungeeCordSparkPlugin.this, task);
     }
 
+    @Override
+    public TickHook createTickHook() {
+        EventLoopProbe probe = getEventLoopProbe();
+        if (probe == null) {
+            getLogger().warning("Unable to find the Netty event loops, tick monitoring will not be available");
+            return null;
+        }
+        return new EventLoopProbe.Hook(probe);
+    }
+
+    @Override
+    public TickReporter createTickReporter() {
+        EventLoopProbe probe = getEventLoopProbe();
+        return probe == null ? null : new EventLoopProbe.Reporter(probe);
+    }
+
+    /**
+     * Gets a probe for the Netty event loops, which are held by the proxy instance.
+     *
+     * @return the probe, or null if the event loops couldn't be found
+     */
+    private EventLoopProbe getEventLoopProbe() {
+        if (this.eventLoopProbe == null) {
+            List<Executor> eventLoops = EventLoopProbe.findEventLoops(getProxy());
+            if (!eventLoops.isEmpty()) {
+                this.eventLoopProbe = new EventLoopProbe(eventLoops);
+            }
+        }
+        return this.eventLoopProbe;
+    }
+
     @Override
     public PlatformInfo getPlatformInfo() {
         return new BungeeCordPlatformInfo(getProxy());
@@ -23,27 +23,46 @@ package me.lucko.spark.common;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import me.lucko.spark.common.activitylog.ActivityLog;
+import me.lucko.spark.common.archive.ProfileArchive;
 import me.lucko.spark.common.auto.AutoSampler;
+import me.lucko.spark.common.auto.HeapPressureMonitor;
 import me.lucko.spark.common.command.Arguments;
 import me.lucko.spark.common.command.Command;
 import me.lucko.spark.common.command.CommandModule;
 import me.lucko.spark.common.command.CommandResponseHandler;
 import me.lucko.spark.common.command.modules.ActivityLogModule;
+import me.lucko.spark.common.command.modules.ArchiveModule;
+import me.lucko.spark.common.command.modules.CommandTimingModule;
+import me.lucko.spark.common.command.modules.EventTimingModule;
 import me.lucko.spark.common.command.modules.GcMonitoringModule;
 import me.lucko.spark.common.command.modules.HealthModule;
 import me.lucko.spark.common.command.modules.HeapAnalysisModule;
+import me.lucko.spark.common.command.modules.HotspotModule;
+import me.lucko.spark.common.command.modules.SamplerDiffModule;
 import me.lucko.spark.common.command.modules.SamplerModule;
+import me.lucko.spark.common.command.modules.TaskTimingModule;
 import me.lucko.spark.common.command.modules.TickMonitoringModule;
 import me.lucko.spark.common.command.sender.CommandSender;
 import me.lucko.spark.common.command.tabcomplete.CompletionSupplier;
 import me.lucko.spark.common.command.tabcomplete.TabCompleter;
 import me.lucko.spark.common.grafana.GrafanaClient;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector;
+import me.lucko.spark.common.monitor.memory.GarbageCollectionAnalytics;
+import me.lucko.spark.common.monitor.memory.GarbageCollectionMonitor;
 import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
+import me.lucko.spark.common.monitor.tick.WorldTickStatistics;
+import me.lucko.spark.common.monitor.timing.InvocationTimings;
+import me.lucko.spark.common.monitor.timing.SchedulerTimings;
 import me.lucko.spark.common.sampler.tick.TickHook;
 import me.lucko.spark.common.sampler.tick.TickReporter;
+import me.lucko.spark.common.sampler.tick.WorldTickReporter;
 import me.lucko.spark.common.util.BytebinClient;
+import me.lucko.spark.common.util.ClassSourceLookup;
+import me.lucko.spark.common.viewer.LocalViewerServer;
 import net.kyori.adventure.text.event.ClickEvent;
 import okhttp3.OkHttpClient;
 
@@ -65,8 +84,8 @@ import static net.kyori.adventure.text.format.TextDecoration.*;
 public class SparkPlatform {
 
     /** The URL of the viewer frontend */
-    public static final String VIEWER_URL = System.getProperty("me.lucko.spark.viewer.url", "https://spark.lucko.me/#");
-    public static final String BYTEBIN_URL = System.getProperty("me.lucko.spark.bytebin.url", "https://bytebin.lucko.me");
+    public static final String VIEWER_URL = System.getProperty("me.lucko.spark.viewer.url", LocalViewerServer.ENABLED ? LocalViewerServer.viewerUrl() : "https://spark.lucko.me/#");
+    public static final String BYTEBIN_URL = System.getProperty("me.lucko.spark.bytebin.url", LocalViewerServer.ENABLED ? LocalViewerServer.bytebinUrl() : "https://bytebin.lucko.me");
 
     /** The shared okhttp client */
     private static final OkHttpClient OK_HTTP_CLIENT = new OkHttpClient();
@@ -79,10 +98,24 @@ public class SparkPlatform {
     private final List<CommandModule> commandModules;
     private final List<Command> commands;
     private final ActivityLog activityLog;
+    private final ProfileArchive profileArchive;
     private final TickHook tickHook;
     private final TickReporter tickReporter;
     private final TickStatistics tickStatistics;
+    private final TickPhaseProfiler tickPhaseProfiler;
+    private final TickPhaseStatistics tickPhaseStatistics;
+    private final WorldTickReporter worldTickReporter;
+    private final WorldTickStatistics worldTickStatistics;
+    private final InvocationTimings eventTimings;
+    private final SchedulerTimings taskTimings;
+    private final InvocationTimings commandTimings;
+    private final HotspotCollector hotspotCollector;
+    private final ClassSourceLookup classSourceLookup;
+    private final GarbageCollectionAnalytics gcAnalytics;
     private final AutoSampler autoSampler;
+    private final HeapPressureMonitor heapPressureMonitor;
+    private final LocalViewerServer localViewerServer;
+    private GarbageCollectionMonitor gcMonitor;
     private Map<String, GarbageCollectorStatistics> startupGcStatistics = ImmutableMap.of();
     private long serverNormalOperationStartTime;
 
@@ -93,11 +126,17 @@ public class SparkPlatform {
 
         this.commandModules = ImmutableList.of(
                 samplerModule,
+                new SamplerDiffModule(),
                 new HealthModule(),
                 new TickMonitoringModule(),
                 new GcMonitoringModule(),
                 new HeapAnalysisModule(),
-                new ActivityLogModule()
+                new ActivityLogModule(),
+                new ArchiveModule(),
+                new EventTimingModule(),
+                new TaskTimingModule(),
+                new CommandTimingModule(),
+                new HotspotModule()
         );
 
         ImmutableList.Builder<Command> commandsBuilder = ImmutableList.builder();
@@ -109,9 +148,26 @@ public class SparkPlatform {
         this.activityLog = new ActivityLog(plugin.getPluginDirectory().resolve("activity.json"));
         this.activityLog.load();
 
+        if (ProfileArchive.ENABLED) {
+            this.profileArchive = new ProfileArchive(plugin.getPluginDirectory().resolve("archive"));
+            this.profileArchive.load();
+        } else {
+            this.profileArchive = null;
+        }
+
         this.tickHook = plugin.createTickHook();
         this.tickReporter = plugin.createTickReporter();
         this.tickStatistics = this.tickHook != null ? new TickStatistics() : null;
+        this.tickPhaseProfiler = plugin.createTickPhaseProfiler();
+        this.tickPhaseStatistics = this.tickPhaseProfiler != null ? new TickPhaseStatistics() : null;
+        this.worldTickReporter = plugin.createWorldTickReporter();
+        this.worldTickStatistics = this.worldTickReporter != null ? new WorldTickStatistics() : null;
+        this.eventTimings = plugin.createEventTimings();
+        this.taskTimings = plugin.createTaskTimings();
+        this.commandTimings = plugin.createCommandTimings();
+        this.hotspotCollector = plugin.createHotspotCollector();
+        this.classSourceLookup = ClassSourceLookup.cached(plugin.createClassSourceLookup());
+        this.gcAnalytics = new GarbageCollectionAnalytics();
 
         Logger logger = Logger.getLogger("Spark");
 
@@ -120,6 +176,10 @@ public class SparkPlatform {
         } else {
             autoSampler = null;
         }
+
+        this.heapPressureMonitor = HeapPressureMonitor.ENABLED ? new HeapPressureMonitor(this, logger) : null;
+
+        this.localViewerServer = LocalViewerServer.ENABLED ? new LocalViewerServer(plugin.getPluginDirectory()) : null;
     }
 
     public void enable() {
@@ -131,7 +191,33 @@ public class SparkPlatform {
             this.tickReporter.addCallback(this.tickStatistics);
             this.tickReporter.start();
         }
+        if (this.tickPhaseProfiler != null) {
+            this.tickPhaseProfiler.addCallback(this.tickPhaseStatistics);
+            this.tickPhaseProfiler.start();
+        }
+        if (this.worldTickReporter != null) {
+            this.worldTickReporter.addCallback(this.worldTickStatistics);
+            this.worldTickReporter.start();
+        }
         CpuMonitor.ensureMonitoring();
+        this.gcMonitor = new GarbageCollectionMonitor();
+        this.gcMonitor.addListener(this.gcAnalytics);
+        if (this.tickStatistics != null) {
+            this.gcMonitor.addListener(this.tickStatistics);
+        }
+        if (this.heapPressureMonitor != null) {
+            this.heapPressureMonitor.start();
+        }
+
+        if (this.localViewerServer != null) {
+            try {
+                this.localViewerServer.start();
+                Logger.getLogger("Spark").info("Started local viewer server on " + LocalViewerServer.PUBLIC_URL);
+            } catch (Exception e) {
+                Logger.getLogger("Spark").severe("Unable to start local viewer server on " + LocalViewerServer.ADDRESS + ":" + LocalViewerServer.PORT);
+                e.printStackTrace();
+            }
+        }
 
         // poll startup GC statistics after plugins & the world have loaded
         this.plugin.executeAsync(() -> {
@@ -144,6 +230,9 @@ public class SparkPlatform {
         if (autoSampler != null) {
             autoSampler.close();
         }
+        if (this.heapPressureMonitor != null) {
+            this.heapPressureMonitor.close();
+        }
 
         if (this.tickHook != null) {
             this.tickHook.close();
@@ -151,10 +240,37 @@ public class SparkPlatform {
         if (this.tickReporter != null) {
             this.tickReporter.close();
         }
+        if (this.tickPhaseProfiler != null) {
+            this.tickPhaseProfiler.close();
+        }
+        if (this.worldTickReporter != null) {
+            this.worldTickReporter.close();
+        }
+        if (this.eventTimings != null) {
+            this.eventTimings.close();
+        }
+        if (this.taskTimings != null) {
+            this.taskTimings.close();
+        }
+        if (this.commandTimings != null) {
+            this.commandTimings.close();
+        }
+        if (this.hotspotCollector != null) {
+            this.hotspotCollector.close();
+        }
 
         for (CommandModule module : this.commandModules) {
             module.close();
         }
+
+        if (this.gcMonitor != null) {
+            this.gcMonitor.close();
+            this.gcMonitor = null;
+        }
+
+        if (this.localViewerServer != null) {
+            this.localViewerServer.close();
+        }
     }
 
     public SparkPlugin getPlugin() {
@@ -165,6 +281,15 @@ public class SparkPlatform {
         return this.activityLog;
     }
 
+    /**
+     * Gets the local profile archive.
+     *
+     * @return the archive, or null if archiving is disabled
+     */
+    public ProfileArchive getProfileArchive() {
+        return this.profileArchive;
+    }
+
     public TickHook getTickHook() {
         return this.tickHook;
     }
@@ -177,6 +302,38 @@ public class SparkPlatform {
         return this.tickStatistics;
     }
 
+    public TickPhaseStatistics getTickPhaseStatistics() {
+        return this.tickPhaseStatistics;
+    }
+
+    public WorldTickStatistics getWorldTickStatistics() {
+        return this.worldTickStatistics;
+    }
+
+    public InvocationTimings getEventTimings() {
+        return this.eventTimings;
+    }
+
+    public SchedulerTimings getTaskTimings() {
+        return this.taskTimings;
+    }
+
+    public InvocationTimings getCommandTimings() {
+        return this.commandTimings;
+    }
+
+    public HotspotCollector getHotspotCollector() {
+        return this.hotspotCollector;
+    }
+
+    public ClassSourceLookup getClassSourceLookup() {
+        return this.classSourceLookup;
+    }
+
+    public GarbageCollectionAnalytics getGcAnalytics() {
+        return this.gcAnalytics;
+    }
+
     public Map<String, GarbageCollectorStatistics> getStartupGcStatistics() {
         return this.startupGcStatistics;
     }
@@ -22,9 +22,15 @@ package me.lucko.spark.common;
 
 import me.lucko.spark.common.command.sender.CommandSender;
 import me.lucko.spark.common.platform.PlatformInfo;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector;
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
+import me.lucko.spark.common.monitor.timing.InvocationTimings;
+import me.lucko.spark.common.monitor.timing.SchedulerTimings;
 import me.lucko.spark.common.sampler.ThreadDumper;
 import me.lucko.spark.common.sampler.tick.TickHook;
 import me.lucko.spark.common.sampler.tick.TickReporter;
+import me.lucko.spark.common.sampler.tick.WorldTickReporter;
+import me.lucko.spark.common.util.ClassSourceLookup;
 
 import java.nio.file.Path;
 import java.util.stream.Stream;
@@ -102,6 +108,74 @@ public interface SparkPlugin {
         return null;
     }
 
+    /**
+     * Creates a profiler which times the phases of each tick, if supported.
+     *
+     * <p>Returns {@code null} if the platform can't instrument its tick loop</p>
+     *
+     * @return a new tick phase profiler
+     */
+    default TickPhaseProfiler createTickPhaseProfiler() {
+        return null;
+    }
+
+    /**
+     * Creates a reporter which times the tick of each world, if supported.
+     *
+     * <p>Returns {@code null} if the platform can't time worlds individually</p>
+     *
+     * @return a new world tick reporter
+     */
+    default WorldTickReporter createWorldTickReporter() {
+        return null;
+    }
+
+    /**
+     * Creates the instrumentation used to time event listeners.
+     *
+     * @return a new event timings instance, or null if unsupported
+     */
+    default InvocationTimings createEventTimings() {
+        return null;
+    }
+
+    /**
+     * Creates the instrumentation used to time sync and async scheduler tasks.
+     *
+     * @return a new task timings instance, or null if unsupported
+     */
+    default SchedulerTimings createTaskTimings() {
+        return null;
+    }
+
+    /**
+     * Creates the instrumentation used to time command executors and tab completers.
+     *
+     * @return a new command timings instance, or null if unsupported
+     */
+    default InvocationTimings createCommandTimings() {
+        return null;
+    }
+
+    /**
+     * Creates a collector for the chunks with the most entities and tile entities.
+     *
+     * @return a new hotspot collector, or null if unsupported
+     */
+    default HotspotCollector createHotspotCollector() {
+        return null;
+    }
+
+    /**
+     * Creates a class source lookup function, used to attribute classes to the
+     * plugin or mod which owns them.
+     *
+     * @return the class source lookup function
+     */
+    default ClassSourceLookup createClassSourceLookup() {
+        return ClassSourceLookup.NO_OP;
+    }
+
     /**
      * Gets information for the platform.
      *
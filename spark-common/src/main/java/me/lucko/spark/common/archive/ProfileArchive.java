@@ -0,0 +1,374 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.archive;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local archive of the payloads produced by spark (sampler results & heap summaries).
+ *
+ * <p>Payloads are stored as they would be uploaded (gzipped protobuf), alongside an index
+ * which describes each entry, so the archive can be listed without reading the payloads.</p>
+ *
+ * <p>The archive is bounded by both total size and age - the oldest entries are removed
+ * first when either limit is exceeded.</p>
+ */
+public class ProfileArchive {
+
+    /** If payloads should be archived */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("me.lucko.spark.archive.enabled", "true"));
+    /** The maximum total size of archived payloads, in bytes */
+    private static final long MAX_SIZE = Long.getLong("me.lucko.spark.archive.maxSizeMb", 256) * 1024 * 1024;
+    /** The maximum age of an archived payload, in milliseconds */
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(Long.getLong("me.lucko.spark.archive.maxAgeDays", 30));
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final JsonParser PARSER = new JsonParser();
+
+    private final Path directory;
+    private final Path indexFile;
+
+    private final LinkedList<Entry> entries = new LinkedList<>();
+    private int nextId = 1;
+    private final Object[] mutex = new Object[0];
+
+    public ProfileArchive(Path directory) {
+        this.directory = directory;
+        this.indexFile = directory.resolve("index.json");
+    }
+
+    /**
+     * Adds a payload to the archive.
+     *
+     * @param type the type of payload, e.g. "Sampler"
+     * @param payload the (compressed) payload
+     * @param time the time the payload was created
+     * @param duration the duration of the profile in milliseconds, or -1 if not applicable
+     * @param peakMspt the peak tick duration while the profile was recorded, or -1 if unknown
+     * @param reason the reason the payload was created
+     * @return the new entry
+     * @throws IOException if the payload could not be written
+     */
+    public Entry add(String type, byte[] payload, long time, long duration, double peakMspt, String reason) throws IOException {
+        Files.createDirectories(this.directory);
+
+        Entry entry;
+        synchronized (this.mutex) {
+            int id = this.nextId++;
+            String fileName = type.toLowerCase().replace(' ', '-') + "-" + id + ".pb.gz";
+            entry = new Entry(id, time, type, fileName, payload.length, duration, peakMspt, reason, null);
+            this.entries.addFirst(entry);
+        }
+
+        Files.write(this.directory.resolve(entry.fileName), payload);
+        applyRetention();
+        save();
+        return entry;
+    }
+
+    /**
+     * Records the URL an archived payload was uploaded to.
+     *
+     * @param entry the entry
+     * @param url the url
+     */
+    public void setUrl(Entry entry, String url) {
+        synchronized (this.mutex) {
+            entry.url = url;
+        }
+        save();
+    }
+
+    public List<Entry> getEntries() {
+        synchronized (this.mutex) {
+            return new LinkedList<>(this.entries);
+        }
+    }
+
+    public Entry getEntry(int id) {
+        synchronized (this.mutex) {
+            for (Entry entry : this.entries) {
+                if (entry.id == id) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the payload of an archived entry.
+     *
+     * @param entry the entry
+     * @return the payload
+     * @throws IOException if the payload could not be read
+     */
+    public byte[] read(Entry entry) throws IOException {
+        return Files.readAllBytes(this.directory.resolve(entry.fileName));
+    }
+
+    private void applyRetention() {
+        long now = System.currentTimeMillis();
+        List<Entry> removed = new LinkedList<>();
+
+        synchronized (this.mutex) {
+            long totalSize = 0;
+            for (Entry entry : this.entries) {
+                totalSize += entry.size;
+            }
+
+            // entries are ordered newest first, so walk backwards from the oldest
+            // always keep the most recent entry, regardless of its size
+            Iterator<Entry> it = this.entries.descendingIterator();
+            while (it.hasNext() && this.entries.size() > 1) {
+                Entry entry = it.next();
+                if (now - entry.time > MAX_AGE || totalSize > MAX_SIZE) {
+                    it.remove();
+                    removed.add(entry);
+                    totalSize -= entry.size;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        for (Entry entry : removed) {
+            try {
+                Files.deleteIfExists(this.directory.resolve(entry.fileName));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the index to disk.
+     *
+     * <p>The lock is held while the index is written, so concurrent saves can't be written
+     * out of order. The index is written to a temporary file first and then moved into
+     * place, so a crash part way through never leaves a truncated index.</p>
+     */
+    public void save() {
+        synchronized (this.mutex) {
+            JsonObject object = new JsonObject();
+            JsonArray array = new JsonArray();
+            object.addProperty("nextId", this.nextId);
+            for (Entry entry : this.entries) {
+                array.add(entry.serialize());
+            }
+            object.add("entries", array);
+
+            Path tempFile = this.indexFile.resolveSibling("index.json.tmp");
+            try {
+                Files.createDirectories(this.directory);
+                try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                    GSON.toJson(object, writer);
+                }
+                try {
+                    Files.move(tempFile, this.indexFile, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, this.indexFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void load() {
+        if (!Files.exists(this.indexFile)) {
+            return;
+        }
+
+        JsonObject object;
+        try (BufferedReader reader = Files.newBufferedReader(this.indexFile, StandardCharsets.UTF_8)) {
+            object = PARSER.parse(reader).getAsJsonObject();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+
+        synchronized (this.mutex) {
+            this.entries.clear();
+            this.nextId = object.get("nextId").getAsInt();
+            for (JsonElement element : object.getAsJsonArray("entries")) {
+                try {
+                    Entry entry = Entry.deserialize(element);
+                    if (!isInDirectory(entry.fileName)) {
+                        throw new IllegalArgumentException("Archive entry " + entry.id + " refers to a file outside the archive: " + entry.fileName);
+                    }
+                    if (Files.exists(this.directory.resolve(entry.fileName))) {
+                        this.entries.add(entry);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        applyRetention();
+        save();
+    }
+
+    /**
+     * Checks that a file name read from the index refers to a file directly inside the
+     * archive directory.
+     *
+     * @param fileName the file name
+     * @return true if the file is inside the archive directory
+     */
+    private boolean isInDirectory(String fileName) {
+        Path directory = this.directory.toAbsolutePath().normalize();
+        Path file = directory.resolve(fileName).normalize();
+        return directory.equals(file.getParent());
+    }
+
+    public static final class Entry {
+        private final int id;
+        private final long time;
+        private final String type;
+        private final String fileName;
+        private final long size;
+        private final long duration;
+        private final double peakMspt;
+        private final String reason;
+        private String url;
+
+        private Entry(int id, long time, String type, String fileName, long size, long duration, double peakMspt, String reason, String url) {
+            this.id = id;
+            this.time = time;
+            this.type = type;
+            this.fileName = fileName;
+            this.size = size;
+            this.duration = duration;
+            this.peakMspt = peakMspt;
+            this.reason = reason;
+            this.url = url;
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public long getTime() {
+            return this.time;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public long getSize() {
+            return this.size;
+        }
+
+        /**
+         * Gets the duration of the profile in milliseconds.
+         *
+         * @return the duration, or -1 if not applicable
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+        /**
+         * Gets the peak tick duration (in milliseconds) at the time the profile was recorded.
+         *
+         * @return the peak mspt, or -1 if unknown
+         */
+        public double getPeakMspt() {
+            return this.peakMspt;
+        }
+
+        /**
+         * Gets the reason the payload was created.
+         *
+         * @return the reason, or null if it was not recorded
+         */
+        public String getReason() {
+            return this.reason;
+        }
+
+        /**
+         * Gets the URL the payload was uploaded to.
+         *
+         * @return the url, or null if the payload has not been uploaded
+         */
+        public String getUrl() {
+            return this.url;
+        }
+
+        public JsonObject serialize() {
+            JsonObject object = new JsonObject();
+            object.addProperty("id", this.id);
+            object.addProperty("time", this.time);
+            object.addProperty("type", this.type);
+            object.addProperty("file", this.fileName);
+            object.addProperty("size", this.size);
+            object.addProperty("duration", this.duration);
+            object.addProperty("peakMspt", this.peakMspt);
+            object.addProperty("reason", this.reason);
+            if (this.url != null) {
+                object.addProperty("url", this.url);
+            }
+            return object;
+        }
+
+        public static Entry deserialize(JsonElement element) {
+            JsonObject object = element.getAsJsonObject();
+            return new Entry(
+                    object.get("id").getAsInt(),
+                    object.get("time").getAsLong(),
+                    object.get("type").getAsString(),
+                    object.get("file").getAsString(),
+                    object.get("size").getAsLong(),
+                    object.get("duration").getAsLong(),
+                    object.get("peakMspt").getAsDouble(),
+                    getOptionalString(object, "reason"),
+                    getOptionalString(object, "url")
+            );
+        }
+
+        private static String getOptionalString(JsonObject object, String key) {
+            JsonElement element = object.get(key);
+            return element == null || element.isJsonNull() ? null : element.getAsString();
+        }
+    }
+
+}
@@ -21,23 +21,26 @@ public class AutoSampler implements AutoCloseable {
     public static final int CONSECUTIVE_STABLE_TICKS_THRESHOLD = 2;
     private static final double SAMPLING_INTERVAL_MILLISECONDS = 4;
     public static final int LATE_TICK_MILLISECONDS = 200;
+    private static final int LATE_TICK_POLL_MILLISECONDS = 25;
     public static final double AVG_TPS_THRESHOLD = 19.5;
     public static final int BACKOFF_SECONDS = 10;
 
     private final SparkPlatform sparkPlatform;
     private final SamplerModule samplerModule;
     private final TickStatistics tickStatistics;
+    private final TickHook tickHook;
 
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
     private final CommandResponseHandler commandResponseHandler;
     private final Logger logger;
 
-    private ScheduledFuture<?> lateTickHandler;
+    private final ScheduledFuture<?> lateTickWatchdog;
     private int consecutiveStableTicks = 0;
     private Sampler sampler;
 
     private long lastProfileMilliseconds = 0;
-    private long lastTickMilliseconds = 0;
+    private volatile long lastTickNanos = 0;
+    private long lastLateTickNanos = 0;
 
     enum StartReason {
         AVG_TPS("Starting profiler because average tps for the past 5 seconds < " + AVG_TPS_THRESHOLD),
@@ -63,6 +66,7 @@ public class AutoSampler implements AutoCloseable {
         this.sparkPlatform = sparkPlatform;
         this.samplerModule = samplerModule;
         this.tickStatistics = tickStatistics;
+        this.tickHook = tickHook;
         this.logger = logger;
 
         @SuppressWarnings("OptionalGetWithoutIsPresent")
@@ -72,28 +76,27 @@ public class AutoSampler implements AutoCloseable {
         commandResponseHandler = new CommandResponseHandler(sparkPlatform, consoleCommandSender);
 
         tickHook.addCallback(this::onTick);
+
+        // ticks are reported asynchronously, so a stalled tick is detected by polling instead
+        // of scheduling (and cancelling) a task for every tick
+        lateTickWatchdog = scheduler.scheduleAtFixedRate(this::checkLateTick, LATE_TICK_POLL_MILLISECONDS, LATE_TICK_POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void close() {
-        if (lateTickHandler != null) {
-            lateTickHandler.cancel(true);
-        }
+        lateTickWatchdog.cancel(true);
+        scheduler.shutdown();
     }
 
-    private void onTick(int tick) {
+    private void onTick(int tick, long startTime) {
         // Ignore first 10 seconds of ticks (allow the server to stabilize when booting)
         if (tick < 20 * 10) {
             return;
         }
 
-        if (lateTickHandler != null) {
-            lateTickHandler.cancel(false);
-        }
-
-        long now = System.currentTimeMillis();
-        if (lastTickMilliseconds != -1) {
-            if (now - lastTickMilliseconds < LATE_TICK_MILLISECONDS) {
+        long lastTickNanos = this.lastTickNanos;
+        if (lastTickNanos != 0) {
+            if (startTime - lastTickNanos < TimeUnit.MILLISECONDS.toNanos(LATE_TICK_MILLISECONDS)) {
                 consecutiveStableTicks++;
             } else {
                 consecutiveStableTicks = 0;
@@ -105,17 +108,22 @@ public class AutoSampler implements AutoCloseable {
             stopProfiling();
         }
 
-        lateTickHandler = scheduler.schedule(this::handleLateTick, LATE_TICK_MILLISECONDS, TimeUnit.MILLISECONDS);
-
         if (tickStatistics.tps5Sec() < AVG_TPS_THRESHOLD) {
             startProfiling(AVG_TPS);
         }
 
-        this.lastTickMilliseconds = now;
+        this.lastTickNanos = startTime;
     }
 
-    private void handleLateTick() {
-        if (!isProfiling()) {
+    private void checkLateTick() {
+        // once past the warm up, use the time published by the game thread, as callbacks may be behind it
+        long lastTickNanos = this.tickHook.getLastTickTime();
+        if (this.lastTickNanos == 0 || lastTickNanos == 0 || lastTickNanos == lastLateTickNanos || isProfiling()) {
+            return;
+        }
+
+        if (System.nanoTime() - lastTickNanos >= TimeUnit.MILLISECONDS.toNanos(LATE_TICK_MILLISECONDS)) {
+            lastLateTickNanos = lastTickNanos;
             startProfiling(LATE_TICK);
         }
     }
@@ -140,6 +148,8 @@ public class AutoSampler implements AutoCloseable {
         builder.ignoreNative(false);
         builder.samplingInterval(0.1);
         builder.completeAfter(1, TimeUnit.MINUTES);
+        builder.tickPhases(sparkPlatform.getTickPhaseStatistics());
+        builder.classSourceLookup(sparkPlatform.getClassSourceLookup());
 
         final Sampler sampler = builder.start();
         this.sampler = sampler;
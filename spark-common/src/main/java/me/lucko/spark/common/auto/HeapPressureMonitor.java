@@ -0,0 +1,278 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.auto;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.activitylog.ActivityLog.Activity;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.command.modules.HeapAnalysisModule;
+import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.heapdump.HeapDump;
+import me.lucko.spark.common.heapdump.HeapDumpSummary;
+import me.lucko.spark.common.util.FormatUtil;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+
+/**
+ * Watches the occupancy of the old generation, and captures diagnostics when it stays
+ * high after garbage collection - a strong indicator that an OutOfMemoryError is coming.
+ *
+ * <p>Thresholds are set on the tenured memory pools. When the usage after a collection
+ * exceeds the threshold, a class histogram (and optionally a heap dump) is captured,
+ * subject to a cooldown. Exceeding the usage threshold (before collection) is only
+ * logged, as the old generation regularly fills before it is collected.</p>
+ */
+public class HeapPressureMonitor implements NotificationListener, AutoCloseable {
+    private static final double DEFAULT_THRESHOLD_PERCENT = 85;
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("me.lucko.spark.heapPressure.enabled", "false"));
+    public static final double THRESHOLD_PERCENT = parseThreshold(System.getProperty("me.lucko.spark.heapPressure.threshold"));
+    public static final boolean HEAP_DUMP = Boolean.parseBoolean(System.getProperty("me.lucko.spark.heapPressure.heapDump", "false"));
+    public static final long COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("me.lucko.spark.heapPressure.cooldown", 600));
+
+    private final SparkPlatform platform;
+    private final Logger logger;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = Executors.defaultThreadFactory().newThread(r);
+        thread.setName("spark-heap-pressure-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    private NotificationEmitter emitter = null;
+
+    private volatile long lastCapture = 0;
+    private volatile long lastWarning = 0;
+
+    public HeapPressureMonitor(SparkPlatform platform, Logger logger) {
+        this.platform = platform;
+        this.logger = logger;
+    }
+
+    /**
+     * Parses the threshold property, falling back to the default if it is malformed and
+     * clamping it to between 1 and 100 percent.
+     */
+    private static double parseThreshold(String value) {
+        if (value == null) {
+            return DEFAULT_THRESHOLD_PERCENT;
+        }
+
+        double threshold;
+        try {
+            threshold = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            threshold = Double.NaN;
+        }
+        if (Double.isNaN(threshold)) {
+            Logger.getLogger("Spark").warning("Invalid heap pressure threshold '" + value + "', using " + DEFAULT_THRESHOLD_PERCENT + "% instead");
+            return DEFAULT_THRESHOLD_PERCENT;
+        }
+
+        double clamped = Math.max(1, Math.min(100, threshold));
+        if (clamped != threshold) {
+            Logger.getLogger("Spark").warning("Heap pressure threshold " + value + " is out of range, using " + clamped + "% instead");
+        }
+        return clamped;
+    }
+
+    private static boolean isTenuredPool(MemoryPoolMXBean pool) {
+        if (pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported()) {
+            return false;
+        }
+        // eden & survivor spaces don't support usage thresholds, but check by name too
+        // for collectors with a single pool for the whole heap (e.g. ZGC)
+        String name = pool.getName();
+        return !name.contains("Eden") && !name.contains("Survivor");
+    }
+
+    public void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (!isTenuredPool(pool)) {
+                continue;
+            }
+
+            long max = pool.getUsage().getMax();
+            if (max <= 0) {
+                continue;
+            }
+
+            long threshold = (long) (max * THRESHOLD_PERCENT / 100d);
+            try {
+                pool.setUsageThreshold(threshold);
+                if (pool.isCollectionUsageThresholdSupported()) {
+                    pool.setCollectionUsageThreshold(threshold);
+                }
+            } catch (RuntimeException e) {
+                this.logger.warning("Unable to set a usage threshold on the " + pool.getName() + " memory pool: " + e);
+                resetThresholds(pool);
+                continue;
+            }
+            this.pools.add(pool);
+        }
+
+        if (this.pools.isEmpty()) {
+            this.logger.warning("Unable to monitor heap pressure - no suitable memory pools were found");
+            return;
+        }
+
+        try {
+            NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+            emitter.addNotificationListener(this, null, null);
+            this.emitter = emitter;
+        } catch (RuntimeException e) {
+            this.logger.warning("Unable to monitor heap pressure - could not listen for memory notifications: " + e);
+            close();
+        }
+    }
+
+    private static void resetThresholds(MemoryPoolMXBean pool) {
+        try {
+            pool.setUsageThreshold(0);
+            if (pool.isCollectionUsageThresholdSupported()) {
+                pool.setCollectionUsageThreshold(0);
+            }
+        } catch (RuntimeException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        boolean collection = type.equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED);
+        if (!collection && !type.equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED)) {
+            return;
+        }
+
+        MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+        MemoryUsage usage = info.getUsage();
+        String description = info.getPoolName() + " is " + FormatUtil.percent(usage.getUsed(), usage.getMax()) +
+                " full (" + FormatUtil.formatBytes(usage.getUsed()) + " / " + FormatUtil.formatBytes(usage.getMax()) + ")";
+
+        long now = System.currentTimeMillis();
+        if (!collection) {
+            if (now - this.lastWarning > COOLDOWN_MILLIS) {
+                this.lastWarning = now;
+                this.logger.warning(description);
+            }
+            return;
+        }
+
+        if (now - this.lastCapture < COOLDOWN_MILLIS) {
+            return;
+        }
+        this.lastCapture = now;
+        this.executor.execute(() -> capture(description + " after garbage collection"));
+    }
+
+    private void capture(String description) {
+        CommandResponseHandler resp = createResponseHandler();
+        if (resp == null) {
+            return;
+        }
+
+        resp.broadcastPrefixed(text("Heap pressure detected: " + description, RED));
+        resp.broadcastPrefixed(text("Capturing diagnostics, please wait..."));
+
+        try {
+            HeapDumpSummary heapDump = HeapDumpSummary.createNew(this.platform.getClassSourceLookup());
+            HeapAnalysisModule.handleSummaryUpload(this.platform, resp, heapDump, "Heap dump summary (heap pressure)", "Heap pressure");
+        } catch (Exception e) {
+            resp.broadcastPrefixed(text("An error occurred whilst inspecting the heap.", RED));
+            e.printStackTrace();
+        }
+
+        if (HEAP_DUMP) {
+            Path pluginFolder = this.platform.getPlugin().getPluginDirectory();
+            Path file = pluginFolder.resolve("heap-pressure-" + DateTimeFormatter.ofPattern("yyyy-MM-dd_HH.mm.ss").format(LocalDateTime.now()) + (HeapDump.isOpenJ9() ? ".phd" : ".hprof"));
+            try {
+                Files.createDirectories(pluginFolder);
+                HeapDump.dumpHeap(file, true);
+            } catch (Exception e) {
+                resp.broadcastPrefixed(text("An error occurred whilst creating a heap dump.", RED));
+                e.printStackTrace();
+                return;
+            }
+
+            resp.broadcastPrefixed(text()
+                    .content("Heap dump written to: ")
+                    .color(GOLD)
+                    .append(text(file.toString(), GRAY))
+                    .build()
+            );
+            this.platform.getActivityLog().addToLog(Activity.fileActivity(resp.sender(), System.currentTimeMillis(), "Heap dump (heap pressure)", file.toString()));
+        }
+    }
+
+    private CommandResponseHandler createResponseHandler() {
+        CommandSender console = this.platform.getPlugin().getSendersWithPermission("spark.console")
+                .reduce((first, second) -> second)
+                .orElse(null);
+        if (console == null) {
+            return null;
+        }
+        return new CommandResponseHandler(this.platform, console);
+    }
+
+    @Override
+    public void close() {
+        if (this.emitter != null) {
+            try {
+                this.emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                e.printStackTrace();
+            }
+            this.emitter = null;
+        }
+
+        for (MemoryPoolMXBean pool : this.pools) {
+            resetThresholds(pool);
+        }
+        this.pools.clear();
+        this.executor.shutdown();
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.command.modules;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.command.Arguments;
+import me.lucko.spark.common.command.Command;
+import me.lucko.spark.common.command.Command.ArgumentInfo;
+import me.lucko.spark.common.command.CommandModule;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.command.tabcomplete.TabCompleter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+
+/**
+ * Base for modules which control a collector that is switched on and off with
+ * <code>--start</code> and <code>--stop</code>, and which report on what it has collected.
+ *
+ * @param <T> the collector type
+ */
+abstract class AbstractCollectorModule<T> implements CommandModule {
+
+    /** The name of the collected data, used in messages, e.g. "Event listener timings" */
+    private final String name;
+    /** The default number of report entries when no --limit is given */
+    private final int defaultLimit;
+    /** The command aliases, the first is used in hints */
+    private final String[] aliases;
+
+    protected AbstractCollectorModule(String name, int defaultLimit, String... aliases) {
+        this.name = name;
+        this.defaultLimit = defaultLimit;
+        this.aliases = aliases;
+    }
+
+    /**
+     * Gets the collector from the platform.
+     *
+     * @param platform the platform
+     * @return the collector, or null if the platform doesn't support it
+     */
+    protected abstract T getCollector(SparkPlatform platform);
+
+    /**
+     * Enables the collector.
+     *
+     * @param collector the collector
+     * @return the number of things now being collected from, or -1 if already enabled
+     * @throws Exception if the collector could not be enabled
+     */
+    protected abstract int enable(T collector) throws Exception;
+
+    protected abstract void disable(T collector) throws Exception;
+
+    protected abstract boolean isEnabled(T collector);
+
+    protected abstract void reset(T collector);
+
+    /**
+     * Tells the sender that the collector has been enabled.
+     *
+     * @param resp the response handler
+     * @param count the value returned by {@link #enable(Object)}
+     */
+    protected abstract void sendEnabled(CommandResponseHandler resp, int count);
+
+    protected abstract void sendReport(CommandResponseHandler resp, Arguments arguments, T collector, int limit);
+
+    /**
+     * Gets any arguments accepted in addition to start, stop, reset and limit.
+     *
+     * @return the extra arguments
+     */
+    protected List<ArgumentInfo> getExtraArguments() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Handles any extra arguments which perform an action of their own.
+     *
+     * @return true if the command has been handled
+     */
+    protected boolean handleExtraArguments(SparkPlatform platform, CommandSender sender, CommandResponseHandler resp, Arguments arguments, T collector) {
+        return false;
+    }
+
+    protected void sendNotEnabled(CommandResponseHandler resp, T collector) {
+        resp.replyPrefixed(text(this.name + " are not enabled. Use '/spark " + this.aliases[0] + " --start' to enable them."));
+    }
+
+    @Override
+    public void registerCommands(Consumer<Command> consumer) {
+        List<ArgumentInfo> extraArguments = getExtraArguments();
+
+        Command.Builder builder = Command.builder()
+                .aliases(this.aliases)
+                .argumentUsage("start", null)
+                .argumentUsage("stop", null)
+                .argumentUsage("reset", null);
+        for (ArgumentInfo argument : extraArguments) {
+            builder.argumentUsage(argument.argumentName(), argument.parameterDescription());
+        }
+        builder.argumentUsage("limit", "count");
+
+        List<String> options = new ArrayList<>(Arrays.asList("--start", "--stop", "--reset"));
+        for (ArgumentInfo argument : extraArguments) {
+            options.add("--" + argument.argumentName());
+        }
+        options.add("--limit");
+        String[] completions = options.toArray(new String[0]);
+
+        consumer.accept(builder
+                .executor(this::execute)
+                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, completions))
+                .build()
+        );
+    }
+
+    private void execute(SparkPlatform platform, CommandSender sender, CommandResponseHandler resp, Arguments arguments) {
+        T collector = getCollector(platform);
+        if (collector == null) {
+            resp.replyPrefixed(text(this.name + " are not supported on this platform.", RED));
+            return;
+        }
+
+        int limit = arguments.intFlag("limit");
+        if (limit == -1) {
+            limit = this.defaultLimit;
+        }
+
+        if (arguments.boolFlag("start")) {
+            int count;
+            try {
+                count = enable(collector);
+            } catch (Exception e) {
+                resp.broadcastPrefixed(text("An error occurred whilst enabling " + this.name.toLowerCase(Locale.ROOT) + ".", RED));
+                e.printStackTrace();
+                return;
+            }
+            if (count == -1) {
+                resp.replyPrefixed(text(this.name + " are already enabled.", RED));
+            } else {
+                sendEnabled(resp, count);
+            }
+            return;
+        }
+
+        if (arguments.boolFlag("stop")) {
+            if (!isEnabled(collector)) {
+                resp.replyPrefixed(text(this.name + " are not enabled.", RED));
+                return;
+            }
+            sendReport(resp, arguments, collector, limit);
+            try {
+                disable(collector);
+            } catch (Exception e) {
+                resp.broadcastPrefixed(text("An error occurred whilst disabling " + this.name.toLowerCase(Locale.ROOT) + ".", RED));
+                e.printStackTrace();
+                return;
+            }
+            resp.broadcastPrefixed(text(this.name + " disabled.", GOLD));
+            return;
+        }
+
+        if (arguments.boolFlag("reset")) {
+            reset(collector);
+            resp.broadcastPrefixed(text(this.name + " have been reset."));
+            return;
+        }
+
+        if (handleExtraArguments(platform, sender, resp, arguments, collector)) {
+            return;
+        }
+
+        if (!isEnabled(collector)) {
+            sendNotEnabled(resp, collector);
+            return;
+        }
+        sendReport(resp, arguments, collector, limit);
+    }
+
+}
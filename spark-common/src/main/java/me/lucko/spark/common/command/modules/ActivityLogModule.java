@@ -120,7 +120,7 @@ public class ActivityLogModule implements CommandModule, RowRenderer<Activity> {
         );
     }
 
-    private static String formatDateDiff(long time) {
+    static String formatDateDiff(long time) {
         long seconds = (System.currentTimeMillis() - time) / 1000;
 
         if (seconds <= 0) {
@@ -0,0 +1,254 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.command.modules;
+
+import com.google.common.collect.Iterables;
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.activitylog.ActivityLog.Activity;
+import me.lucko.spark.common.archive.ProfileArchive;
+import me.lucko.spark.common.archive.ProfileArchive.Entry;
+import me.lucko.spark.common.command.Command;
+import me.lucko.spark.common.command.CommandModule;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.command.tabcomplete.TabCompleter;
+import me.lucko.spark.common.monitor.tick.TickStatistics;
+import me.lucko.spark.common.sampler.diff.SamplerDiff;
+import me.lucko.spark.common.util.FormatUtil;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.feature.pagination.Pagination;
+import net.kyori.adventure.text.feature.pagination.Pagination.Renderer;
+import net.kyori.adventure.text.feature.pagination.Pagination.Renderer.RowRenderer;
+import okhttp3.MediaType;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static me.lucko.spark.common.command.CommandResponseHandler.*;
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+import static net.kyori.adventure.text.format.TextDecoration.*;
+
+public class ArchiveModule implements CommandModule, RowRenderer<Entry> {
+    private static final MediaType SPARK_SAMPLER_MEDIA_TYPE = MediaType.parse("application/x-spark-sampler");
+    private static final MediaType SPARK_HEAP_MEDIA_TYPE = MediaType.parse("application/x-spark-heap");
+    private static final DecimalFormat df = new DecimalFormat("#.##");
+
+    private final Pagination.Builder pagination = Pagination.builder()
+            .renderer(new Renderer() {
+                @Override
+                public Component renderEmpty() {
+                    return applyPrefix(text("There are no entries present in the archive."));
+                }
+
+                @Override
+                public Component renderUnknownPage(int page, int pages) {
+                    return applyPrefix(text("Unknown page selected. " + pages + " total pages."));
+                }
+            })
+            .resultsPerPage(4);
+
+    /**
+     * Adds a payload to the platform's archive, if archiving is enabled.
+     *
+     * @param platform the platform
+     * @param type the type of payload, matching the activity log type
+     * @param payload the compressed payload
+     * @param duration the duration of the profile in milliseconds, or -1 if not applicable
+     * @param reason the reason the payload was created
+     * @return the archive entry, or null if the payload was not archived
+     */
+    public static Entry archivePayload(SparkPlatform platform, String type, byte[] payload, long duration, String reason) {
+        ProfileArchive archive = platform.getProfileArchive();
+        if (archive == null) {
+            return null;
+        }
+
+        double peakMspt = -1;
+        TickStatistics tickStatistics = platform.getTickStatistics();
+        if (tickStatistics != null && tickStatistics.isDurationSupported()) {
+            peakMspt = tickStatistics.duration1Min().getMax();
+        }
+
+        try {
+            return archive.add(type, payload, System.currentTimeMillis(), duration, peakMspt, reason);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public Collection<Component> renderRow(Entry entry, int index) {
+        List<Component> reply = new ArrayList<>(5);
+        reply.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("#" + entry.getId(), WHITE))
+                .append(text(" - ", DARK_GRAY))
+                .append(text(entry.getType(), YELLOW))
+                .append(text(" - ", DARK_GRAY))
+                .append(text(ActivityLogModule.formatDateDiff(entry.getTime()), GRAY))
+                .build()
+        );
+
+        Component details = text()
+                .content("  ")
+                .append(text("Reason: ", GRAY))
+                .append(text(entry.getReason() == null ? "unknown" : entry.getReason(), WHITE))
+                .append(text(", size: ", GRAY))
+                .append(text(FormatUtil.formatBytes(entry.getSize()), WHITE))
+                .build();
+        if (entry.getDuration() != -1) {
+            details = details.append(text(", duration: ", GRAY)).append(text((entry.getDuration() / 1000) + "s", WHITE));
+        }
+        if (entry.getPeakMspt() != -1) {
+            details = details.append(text(", peak: ", GRAY)).append(text(df.format(entry.getPeakMspt()) + "ms/tick", WHITE));
+        }
+        reply.add(details);
+
+        if (entry.getUrl() != null) {
+            reply.add(text()
+                    .content("  ")
+                    .append(text("Url: ", GRAY))
+                    .append(text(entry.getUrl(), WHITE).clickEvent(ClickEvent.openUrl(entry.getUrl())))
+                    .build()
+            );
+        } else {
+            reply.add(text()
+                    .content("  ")
+                    .append(text("Not uploaded", GRAY))
+                    .build()
+            );
+        }
+        reply.add(space());
+        return reply;
+    }
+
+    @Override
+    public void registerCommands(Consumer<Command> consumer) {
+        consumer.accept(Command.builder()
+                .aliases("archive")
+                .argumentUsage("page", "page no")
+                .argumentUsage("upload", "id")
+                .argumentUsage("diff", "id id")
+                .executor((platform, sender, resp, arguments) -> {
+                    ProfileArchive archive = platform.getProfileArchive();
+                    if (archive == null) {
+                        resp.replyPrefixed(text("The profile archive is disabled.", RED));
+                        return;
+                    }
+
+                    if (arguments.boolFlag("upload")) {
+                        Entry entry = parseEntry(archive, Iterables.getFirst(arguments.stringFlag("upload"), ""));
+                        platform.getPlugin().executeAsync(() -> handleUpload(platform, resp, archive, entry));
+                        return;
+                    }
+
+                    if (arguments.boolFlag("diff")) {
+                        String[] ids = Iterables.getFirst(arguments.stringFlag("diff"), "").split(" ");
+                        if (ids.length != 2) {
+                            throw new IllegalArgumentException("Please specify the two archive entries to compare, e.g. --diff 1 2");
+                        }
+
+                        Entry before = parseEntry(archive, ids[0]);
+                        Entry after = parseEntry(archive, ids[1]);
+                        if (!before.getType().equals("Sampler") || !after.getType().equals("Sampler")) {
+                            throw new IllegalArgumentException("Only sampler profiles can be compared.");
+                        }
+
+                        resp.replyPrefixed(text("Comparing profiles, please wait..."));
+                        platform.getPlugin().executeAsync(() -> {
+                            SamplerDiff diff;
+                            try {
+                                diff = SamplerDiff.compare(SamplerDiff.decode(archive.read(before)), SamplerDiff.decode(archive.read(after)));
+                            } catch (IOException e) {
+                                resp.replyPrefixed(text("Unable to read archived profiles: " + e.getMessage(), RED));
+                                e.printStackTrace();
+                                return;
+                            }
+
+                            SamplerDiffModule.sendSummary(resp, diff);
+                            SamplerDiffModule.handleUpload(platform, resp, diff);
+                        });
+                        return;
+                    }
+
+                    List<Entry> entries = archive.getEntries();
+                    if (entries.isEmpty()) {
+                        resp.replyPrefixed(text("There are no entries present in the archive."));
+                        return;
+                    }
+
+                    int page = Math.max(1, arguments.intFlag("page"));
+
+                    Pagination<Entry> archivePagination = this.pagination.build(
+                            text("Archived profiles", GOLD),
+                            this,
+                            value -> "/" + platform.getPlugin().getCommandName() + " archive --page " + value
+                    );
+                    archivePagination.render(entries, page).forEach(resp::reply);
+                })
+                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--page", "--upload", "--diff"))
+                .build()
+        );
+    }
+
+    private static Entry parseEntry(ProfileArchive archive, String id) {
+        Entry entry;
+        try {
+            entry = archive.getEntry(Integer.parseInt(id.startsWith("#") ? id.substring(1) : id));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid archive entry '" + id + "'. Please specify a number!");
+        }
+        if (entry == null) {
+            throw new IllegalArgumentException("There is no archive entry #" + id);
+        }
+        return entry;
+    }
+
+    private static void handleUpload(SparkPlatform platform, CommandResponseHandler resp, ProfileArchive archive, Entry entry) {
+        MediaType mediaType = entry.getType().equals("Sampler") ? SPARK_SAMPLER_MEDIA_TYPE : SPARK_HEAP_MEDIA_TYPE;
+        try {
+            String key = SparkPlatform.BYTEBIN_CLIENT.postContent(archive.read(entry), mediaType, false).key();
+            String url = SparkPlatform.VIEWER_URL + key;
+
+            resp.replyPrefixed(text("Archive entry #" + entry.getId() + ":", GOLD));
+            resp.reply(text()
+                    .content(url)
+                    .color(GRAY)
+                    .clickEvent(ClickEvent.openUrl(url))
+                    .build()
+            );
+
+            archive.setUrl(entry, url);
+            platform.getActivityLog().addToLog(Activity.urlActivity(resp.sender(), System.currentTimeMillis(), entry.getType(), url));
+        } catch (IOException | RuntimeException e) {
+            resp.replyPrefixed(text("An error occurred whilst uploading the archived data.", RED));
+            e.printStackTrace();
+        }
+    }
+
+}
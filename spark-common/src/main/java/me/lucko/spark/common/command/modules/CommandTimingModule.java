@@ -0,0 +1,101 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.command.modules;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.command.Arguments;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.monitor.timing.InvocationTimer;
+import me.lucko.spark.common.monitor.timing.InvocationTimings;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+
+public class CommandTimingModule extends AbstractCollectorModule<InvocationTimings> {
+
+    public CommandTimingModule() {
+        super("Command timings", 10, "commands", "commandtimings");
+    }
+
+    @Override
+    protected InvocationTimings getCollector(SparkPlatform platform) {
+        return platform.getCommandTimings();
+    }
+
+    @Override
+    protected int enable(InvocationTimings timings) throws Exception {
+        return timings.enable();
+    }
+
+    @Override
+    protected void disable(InvocationTimings timings) throws Exception {
+        timings.disable();
+    }
+
+    @Override
+    protected boolean isEnabled(InvocationTimings timings) {
+        return timings.isEnabled();
+    }
+
+    @Override
+    protected void reset(InvocationTimings timings) {
+        timings.reset();
+    }
+
+    @Override
+    protected void sendEnabled(CommandResponseHandler resp, int commands) {
+        resp.broadcastPrefixed(text("Command timings enabled for " + commands + " commands.", GOLD));
+        resp.broadcastPrefixed(text("Commands registered from now on will not be timed. Use '/spark commands --stop' to remove the instrumentation.", GRAY));
+    }
+
+    @Override
+    protected void sendReport(CommandResponseHandler resp, Arguments arguments, InvocationTimings timings, int limit) {
+        double seconds = Math.max(1, timings.getElapsedNanos()) / (double) TimeUnit.SECONDS.toNanos(1);
+        List<InvocationTimer> timers = timings.getTimers();
+        if (timers.isEmpty()) {
+            resp.replyPrefixed(text("No commands have been run yet."));
+            return;
+        }
+
+        resp.replyPrefixed(text("Most expensive commands (total ms) from the last " + Math.round(seconds) + "s:", GOLD));
+        for (InvocationTimer timer : timers.subList(0, Math.min(timers.size(), limit))) {
+            boolean async = timer.getType().equals(InvocationTimings.ASYNC);
+            resp.replyPrefixed(text()
+                    .content(" ")
+                    .append(text(String.format("%.2f", timer.getTotalNanos() / 1000000d), WHITE))
+                    .append(text("  " + timer.getSource(), GREEN))
+                    .append(text("  " + timer.getName(), GRAY))
+                    .append(async ? text("  (off the main thread)", DARK_GRAY) : empty())
+                    .build()
+            );
+            resp.replyPrefixed(text(String.format("   %d runs, p50 %.2fms, p99 %.2fms, max %.2fms",
+                    timer.getInvocations(),
+                    timer.getPercentileNanos(50) / 1000000d,
+                    timer.getPercentileNanos(99) / 1000000d,
+                    timer.getMaxNanos() / 1000000d
+            ), DARK_GRAY));
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.command.modules;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.activitylog.ActivityLog.Activity;
+import me.lucko.spark.common.command.Arguments;
+import me.lucko.spark.common.command.Command.ArgumentInfo;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.monitor.timing.InvocationTimer;
+import me.lucko.spark.common.monitor.timing.InvocationTimings;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+
+public class EventTimingModule extends AbstractCollectorModule<InvocationTimings> {
+
+    public EventTimingModule() {
+        super("Event listener timings", 10, "events", "eventtimings");
+    }
+
+    @Override
+    protected InvocationTimings getCollector(SparkPlatform platform) {
+        return platform.getEventTimings();
+    }
+
+    @Override
+    protected int enable(InvocationTimings timings) throws Exception {
+        return timings.enable();
+    }
+
+    @Override
+    protected void disable(InvocationTimings timings) throws Exception {
+        timings.disable();
+    }
+
+    @Override
+    protected boolean isEnabled(InvocationTimings timings) {
+        return timings.isEnabled();
+    }
+
+    @Override
+    protected void reset(InvocationTimings timings) {
+        timings.reset();
+    }
+
+    @Override
+    protected List<ArgumentInfo> getExtraArguments() {
+        return Collections.singletonList(new ArgumentInfo("export", null));
+    }
+
+    @Override
+    protected boolean handleExtraArguments(SparkPlatform platform, CommandSender sender, CommandResponseHandler resp, Arguments arguments, InvocationTimings timings) {
+        if (arguments.boolFlag("export")) {
+            platform.getPlugin().executeAsync(() -> export(platform, sender, resp, timings));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void sendEnabled(CommandResponseHandler resp, int listeners) {
+        resp.broadcastPrefixed(text("Event listener timings enabled for " + listeners + " listeners.", GOLD));
+        resp.broadcastPrefixed(text("Listeners registered from now on will not be timed. Use '/spark events --stop' to remove the instrumentation.", GRAY));
+    }
+
+    @Override
+    protected void sendReport(CommandResponseHandler resp, Arguments arguments, InvocationTimings timings, int limit) {
+        double seconds = Math.max(1, timings.getElapsedNanos()) / (double) TimeUnit.SECONDS.toNanos(1);
+        List<InvocationTimer> timers = timings.getTimers();
+        if (timers.isEmpty()) {
+            resp.replyPrefixed(text("No listeners have been called yet."));
+            return;
+        }
+
+        resp.replyPrefixed(text("Most expensive event listeners (ms per second) from the last " + Math.round(seconds) + "s:", GOLD));
+        for (InvocationTimer timer : timers.subList(0, Math.min(timers.size(), limit))) {
+            resp.replyPrefixed(text()
+                    .content(" ")
+                    .append(text(String.format("%.2f", timer.getTotalNanos() / 1000000d / seconds), WHITE))
+                    .append(text("  " + timer.getSource(), GREEN))
+                    .append(text("  " + simpleName(timer.getType()), GRAY))
+                    .build()
+            );
+            resp.replyPrefixed(text()
+                    .content("   ")
+                    .append(text(timer.getName(), GRAY))
+                    .append(text(String.format("  (%.1f calls/s, avg %.1fµs, max %.2fms)",
+                            timer.getInvocations() / seconds,
+                            timer.getAverageNanos() / 1000d,
+                            timer.getMaxNanos() / 1000000d
+                    ), DARK_GRAY))
+                    .build()
+            );
+        }
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static void export(SparkPlatform platform, CommandSender sender, CommandResponseHandler resp, InvocationTimings timings) {
+        Path pluginFolder = platform.getPlugin().getPluginDirectory();
+        Path file = pluginFolder.resolve("events-" + DateTimeFormatter.ofPattern("yyyy-MM-dd_HH.mm.ss").format(LocalDateTime.now()) + ".csv");
+        double seconds = Math.max(1, timings.getElapsedNanos()) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        try {
+            Files.createDirectories(pluginFolder);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write("plugin,event,listener,invocations,total_ms,avg_us,max_ms,ms_per_second");
+                writer.newLine();
+                for (InvocationTimer timer : timings.getTimers()) {
+                    writer.write(String.format(Locale.ROOT, "%s,%s,%s,%d,%.3f,%.3f,%.3f,%.4f",
+                            timer.getSource(),
+                            timer.getType(),
+                            timer.getName(),
+                            timer.getInvocations(),
+                            timer.getTotalNanos() / 1000000d,
+                            timer.getAverageNanos() / 1000d,
+                            timer.getMaxNanos() / 1000000d,
+                            timer.getTotalNanos() / 1000000d / seconds
+                    ));
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            resp.broadcastPrefixed(text("An error occurred whilst exporting the event timings.", RED));
+            e.printStackTrace();
+            return;
+        }
+
+        resp.broadcastPrefixed(text()
+                .content("Event timings written to: ")
+                .color(GOLD)
+                .append(text(file.toString(), GRAY))
+                .build()
+        );
+        platform.getActivityLog().addToLog(Activity.fileActivity(sender, System.currentTimeMillis(), "Event timings", file.toString()));
+    }
+
+}
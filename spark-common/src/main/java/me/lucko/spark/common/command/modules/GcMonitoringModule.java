@@ -25,10 +25,13 @@ import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.command.Command;
 import me.lucko.spark.common.command.CommandModule;
 import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.monitor.memory.GarbageCollectionAnalytics;
 import me.lucko.spark.common.monitor.memory.GarbageCollectionMonitor;
 import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
 import me.lucko.spark.common.util.FormatUtil;
+import me.lucko.spark.common.util.LogHistogram;
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
 
 import java.lang.management.MemoryUsage;
 import java.text.DecimalFormat;
@@ -124,6 +127,7 @@ public class GcMonitoringModule implements CommandModule {
                     if (report.size() == 1) {
                         resp.replyPrefixed(text("No garbage collectors are reporting data."));
                     } else {
+                        addAnalyticsReport(report, platform.getGcAnalytics());
                         report.forEach(resp::reply);
                     }
                 })
@@ -145,6 +149,72 @@ public class GcMonitoringModule implements CommandModule {
         );
     }
 
+    private static void addAnalyticsReport(List<Component> report, GarbageCollectionAnalytics analytics) {
+        GarbageCollectionAnalytics.Window[] windows = {
+                GarbageCollectionAnalytics.Window.ONE_MINUTE,
+                GarbageCollectionAnalytics.Window.FIVE_MINUTES,
+                GarbageCollectionAnalytics.Window.FIFTEEN_MINUTES
+        };
+
+        report.add(empty());
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("Pauses & allocation", GOLD))
+                .build()
+        );
+        report.add(empty());
+
+        for (GarbageCollectionAnalytics.Window window : windows) {
+            LogHistogram pauses = analytics.getPauses(window);
+            report.add(text()
+                    .content("    ")
+                    .append(text("last " + window.getName() + ":", GRAY))
+                    .build()
+            );
+            report.add(text()
+                    .content("      ")
+                    .append(text(df.format(pauses.getPercentile(50)), GOLD))
+                    .append(text(" ms p50", GRAY))
+                    .append(text(", ", DARK_GRAY))
+                    .append(text(df.format(pauses.getPercentile(99)), GOLD))
+                    .append(text(" ms p99", GRAY))
+                    .append(text(", ", DARK_GRAY))
+                    .append(text(pauses.getMax(), GOLD))
+                    .append(text(" ms max", GRAY))
+                    .append(text(" (" + pauses.getCount() + " pauses)", DARK_GRAY))
+                    .build()
+            );
+
+            TextComponent.Builder rates = text()
+                    .content("      ")
+                    .append(text(FormatUtil.formatBytes((long) analytics.getAllocationRate(window)) + "/s", WHITE))
+                    .append(text(" allocated", GRAY));
+            double promotionRate = analytics.getPromotionRate(window);
+            if (promotionRate != -1) {
+                rates.append(text(", ", DARK_GRAY))
+                        .append(text(FormatUtil.formatBytes((long) promotionRate) + "/s", WHITE))
+                        .append(text(" promoted", GRAY));
+            }
+            report.add(rates.build());
+        }
+
+        MemoryUsage oldGen = analytics.getOldGenAfterGc();
+        if (oldGen != null) {
+            report.add(empty());
+            TextComponent.Builder line = text()
+                    .content("    ")
+                    .append(text("Old gen after GC: ", GRAY))
+                    .append(text(FormatUtil.formatBytes(oldGen.getUsed()), WHITE));
+            if (oldGen.getMax() > 0) {
+                line.append(text(" / ", GRAY))
+                        .append(text(FormatUtil.formatBytes(oldGen.getMax()), WHITE))
+                        .append(text(" (" + FormatUtil.percent(oldGen.getUsed(), oldGen.getMax()) + ")", DARK_GRAY));
+            }
+            report.add(line.build());
+        }
+    }
+
     private static String formatTime(long millis) {
         if (millis <= 0) {
             return "0ms";
@@ -25,9 +25,12 @@ import me.lucko.spark.common.command.Command;
 import me.lucko.spark.common.command.CommandModule;
 import me.lucko.spark.common.command.tabcomplete.TabCompleter;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.tick.TickPhase;
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
+import me.lucko.spark.common.monitor.tick.WorldTickStatistics;
 import me.lucko.spark.common.util.FormatUtil;
-import me.lucko.spark.common.util.RollingAverage;
+import me.lucko.spark.common.util.RollingHistogram;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
 import net.kyori.adventure.text.format.TextColor;
@@ -57,7 +60,29 @@ public class HealthModule implements CommandModule {
     public void registerCommands(Consumer<Command> consumer) {
         consumer.accept(Command.builder()
                 .aliases("tps", "cpu")
+                .argumentUsage("worlds", null)
                 .executor((platform, sender, resp, arguments) -> {
+                    if (arguments.boolFlag("worlds")) {
+                        WorldTickStatistics worldTickStatistics = platform.getWorldTickStatistics();
+                        if (worldTickStatistics == null) {
+                            resp.replyPrefixed(text("Per-world tick durations are not supported on this platform.", RED));
+                            return;
+                        }
+
+                        List<WorldTickStatistics.World> worlds = worldTickStatistics.getWorlds();
+                        if (worlds.isEmpty()) {
+                            resp.replyPrefixed(text("No worlds have been ticked yet."));
+                            return;
+                        }
+
+                        resp.replyPrefixed(text("World tick durations (avg/max ms) from last 10s, 1m:"));
+                        for (WorldTickStatistics.World world : worlds) {
+                            resp.replyPrefixed(formatWorldTick(world));
+                            resp.replyPrefixed(formatWorldCounts(world));
+                        }
+                        return;
+                    }
+
                     TickStatistics tickStatistics = platform.getTickStatistics();
                     if (tickStatistics != null) {
                         resp.replyPrefixed(text("TPS from last 5s, 10s, 1m, 5m, 15m:"));
@@ -81,9 +106,43 @@ public class HealthModule implements CommandModule {
                                     .build()
                             );
                             resp.replyPrefixed(empty());
+
+                            resp.replyPrefixed(text("GC-adjusted tick durations from last 10s, 1m:"));
+                            resp.replyPrefixed(text()
+                                    .content(" ")
+                                    .append(formatTickDurations(tickStatistics.adjustedDuration10Sec())).append(text(";  "))
+                                    .append(formatTickDurations(tickStatistics.adjustedDuration1Min()))
+                                    .build()
+                            );
+                            resp.replyPrefixed(text()
+                                    .content(" ")
+                                    .append(formatGcShare(tickStatistics))
+                                    .build()
+                            );
+                            resp.replyPrefixed(empty());
+                        } else {
+                            RollingHistogram intervals = tickStatistics.tickIntervals1Min();
+                            if (intervals != null) {
+                                resp.replyPrefixed(text("Tick intervals (min/med/95%ile/max ms) from last 1m:"));
+                                resp.replyPrefixed(text()
+                                        .content(" ")
+                                        .append(formatTickDurations(intervals))
+                                        .build()
+                                );
+                                resp.replyPrefixed(empty());
+                            }
                         }
                     }
 
+                    TickPhaseStatistics tickPhaseStatistics = platform.getTickPhaseStatistics();
+                    if (tickPhaseStatistics != null) {
+                        resp.replyPrefixed(text("Tick phases (avg/max ms per tick) from last 10s, 1m:"));
+                        for (TickPhase phase : TickPhase.values()) {
+                            resp.replyPrefixed(formatTickPhase(tickPhaseStatistics, phase));
+                        }
+                        resp.replyPrefixed(empty());
+                    }
+
                     resp.replyPrefixed(text("CPU usage from last 10s, 1m, 15m:"));
                     resp.replyPrefixed(text()
                             .content(" ")
@@ -102,7 +161,7 @@ public class HealthModule implements CommandModule {
                             .build()
                     );
                 })
-                .tabCompleter(Command.TabCompleter.empty())
+                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--worlds"))
                 .build()
         );
 
@@ -148,6 +207,25 @@ public class HealthModule implements CommandModule {
                                         .build()
                                 );
                                 report.add(empty());
+
+                                report.add(text()
+                                        .append(text(">", DARK_GRAY, BOLD))
+                                        .append(space())
+                                        .append(text("GC-adjusted tick durations from last 10s, 1m:", GOLD))
+                                        .build()
+                                );
+                                report.add(text()
+                                        .content("    ")
+                                        .append(formatTickDurations(tickStatistics.adjustedDuration10Sec())).append(text("; "))
+                                        .append(formatTickDurations(tickStatistics.adjustedDuration1Min()))
+                                        .build()
+                                );
+                                report.add(text()
+                                        .content("    ")
+                                        .append(formatGcShare(tickStatistics))
+                                        .build()
+                                );
+                                report.add(empty());
                             }
                         }
 
@@ -313,7 +391,7 @@ public class HealthModule implements CommandModule {
         return text((tps > 20.0 ? "*" : "") + Math.min(Math.round(tps * 100.0) / 100.0, 20.0), color);
     }
 
-    public static TextComponent formatTickDurations(RollingAverage average){
+    public static TextComponent formatTickDurations(RollingHistogram average){
         return text()
                 .append(formatTickDuration(average.getMin()))
                 .append(text('/', GRAY))
@@ -325,6 +403,62 @@ public class HealthModule implements CommandModule {
                 .build();
     }
 
+    public static TextComponent formatTickPhase(TickPhaseStatistics tickPhaseStatistics, TickPhase phase) {
+        RollingHistogram phase10Sec = tickPhaseStatistics.phase10Sec(phase);
+        RollingHistogram phase1Min = tickPhaseStatistics.phase1Min(phase);
+        return text()
+                .content(phase.getParent() == null ? " " : "   ")
+                .append(formatTickDuration(phase10Sec.getAverage()))
+                .append(text('/', GRAY))
+                .append(formatTickDuration(phase10Sec.getMax()))
+                .append(text(";  "))
+                .append(formatTickDuration(phase1Min.getAverage()))
+                .append(text('/', GRAY))
+                .append(formatTickDuration(phase1Min.getMax()))
+                .append(text("  " + phase.getName(), GRAY))
+                .build();
+    }
+
+    public static TextComponent formatWorldTick(WorldTickStatistics.World world) {
+        return text()
+                .content(" ")
+                .append(formatTickDuration(world.duration10Sec().getAverage()))
+                .append(text('/', GRAY))
+                .append(formatTickDuration(world.duration10Sec().getMax()))
+                .append(text(";  "))
+                .append(formatTickDuration(world.duration1Min().getAverage()))
+                .append(text('/', GRAY))
+                .append(formatTickDuration(world.duration1Min().getMax()))
+                .append(text("  " + world.getName(), GRAY))
+                .build();
+    }
+
+    public static TextComponent formatWorldCounts(WorldTickStatistics.World world) {
+        if (world.getEntities() < 0) {
+            return text("   (entities and chunks not yet counted)", DARK_GRAY);
+        }
+        return text()
+                .content("   ")
+                .append(text(world.getEntities(), WHITE))
+                .append(text(" entities", GRAY))
+                .append(text(" (1m avg " + Math.round(world.entities1Min().getAverage()) + ", max " + Math.round(world.entities1Min().getMax()) + ")", DARK_GRAY))
+                .append(text(", "))
+                .append(text(world.getChunks(), WHITE))
+                .append(text(" chunks", GRAY))
+                .append(text(" (1m avg " + Math.round(world.chunks1Min().getAverage()) + ", max " + Math.round(world.chunks1Min().getMax()) + ")", DARK_GRAY))
+                .build();
+    }
+
+    public static TextComponent formatGcShare(TickStatistics tickStatistics) {
+        return text()
+                .append(text(String.format("%.1f%%", tickStatistics.gcShare10Sec() * 100), WHITE))
+                .append(text(", "))
+                .append(text(String.format("%.1f%%", tickStatistics.gcShare1Min() * 100), WHITE))
+                .append(text(" of tick time in GC", GRAY))
+                .append(text("  (pauses in " + FormatUtil.percent(tickStatistics.gcTicks10Sec(), 1d) + ", " + FormatUtil.percent(tickStatistics.gcTicks1Min(), 1d) + " of ticks)", DARK_GRAY))
+                .build();
+    }
+
     public static TextComponent formatTickDuration(double duration){
         TextColor color;
         if (duration >= 50d) {
@@ -22,31 +22,38 @@ package me.lucko.spark.common.command.modules;
 
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.activitylog.ActivityLog.Activity;
+import me.lucko.spark.common.archive.ProfileArchive;
 import me.lucko.spark.common.command.Command;
 import me.lucko.spark.common.command.CommandModule;
+import me.lucko.spark.common.command.CommandResponseHandler;
 import me.lucko.spark.common.command.tabcomplete.TabCompleter;
 import me.lucko.spark.common.heapdump.HeapDump;
+import me.lucko.spark.common.heapdump.HeapDumpAnalysis;
 import me.lucko.spark.common.heapdump.HeapDumpSummary;
+import me.lucko.spark.common.heapdump.HeapGrowthTracker;
 import me.lucko.spark.common.util.FormatUtil;
+import me.lucko.spark.common.util.ParallelGzipCompressor;
+import me.lucko.spark.common.util.ParallelXzCompressor;
 import net.kyori.adventure.text.event.ClickEvent;
 import okhttp3.MediaType;
 import org.tukaani.xz.LZMA2Options;
 import org.tukaani.xz.LZMAOutputStream;
-import org.tukaani.xz.XZOutputStream;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.text.DecimalFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.LongConsumer;
-import java.util.zip.GZIPOutputStream;
 
 import static net.kyori.adventure.text.Component.*;
 import static net.kyori.adventure.text.format.NamedTextColor.*;
@@ -54,6 +61,16 @@ import static net.kyori.adventure.text.format.NamedTextColor.*;
 public class HeapAnalysisModule implements CommandModule {
     private static final MediaType SPARK_HEAP_MEDIA_TYPE = MediaType.parse("application/x-spark-heap");
 
+    private HeapGrowthTracker activeGrowthTracker = null;
+
+    @Override
+    public void close() {
+        if (this.activeGrowthTracker != null) {
+            this.activeGrowthTracker.close();
+            this.activeGrowthTracker = null;
+        }
+    }
+
     @Override
     public void registerCommands(Consumer<Command> consumer) {
         consumer.accept(Command.builder()
@@ -70,31 +87,14 @@ public class HeapAnalysisModule implements CommandModule {
 
                         HeapDumpSummary heapDump;
                         try {
-                            heapDump = HeapDumpSummary.createNew();
+                            heapDump = HeapDumpSummary.createNew(platform.getClassSourceLookup());
                         } catch (Exception e) {
                             resp.broadcastPrefixed(text("An error occurred whilst inspecting the heap.", RED));
                             e.printStackTrace();
                             return;
                         }
 
-                        byte[] output = heapDump.formCompressedDataPayload(platform.getPlugin().getPlatformInfo(), sender);
-                        try {
-                            String key = SparkPlatform.BYTEBIN_CLIENT.postContent(output, SPARK_HEAP_MEDIA_TYPE, false).key();
-                            String url = SparkPlatform.VIEWER_URL + key;
-
-                            resp.broadcastPrefixed(text("Heap dump summmary output:", GOLD));
-                            resp.broadcast(text()
-                                    .content(url)
-                                    .color(GRAY)
-                                    .clickEvent(ClickEvent.openUrl(url))
-                                    .build()
-                            );
-
-                            platform.getActivityLog().addToLog(Activity.urlActivity(sender, System.currentTimeMillis(), "Heap dump summary", url));
-                        } catch (IOException e) {
-                            resp.broadcastPrefixed(text("An error occurred whilst uploading the data.", RED));
-                            e.printStackTrace();
-                        }
+                        handleSummaryUpload(platform, resp, heapDump, "Heap dump summary", "Manual");
                     });
                 })
                 .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--run-gc-before"))
@@ -106,6 +106,7 @@ public class HeapAnalysisModule implements CommandModule {
                 .argumentUsage("compress", "type")
                 .argumentUsage("run-gc-before", null)
                 .argumentUsage("include-non-live", null)
+                .argumentUsage("analyse", null)
                 .executor((platform, sender, resp, arguments) -> {
                     platform.getPlugin().executeAsync(() -> {
                         Path pluginFolder = platform.getPlugin().getPluginDirectory();
@@ -141,6 +142,13 @@ public class HeapAnalysisModule implements CommandModule {
                         );
                         platform.getActivityLog().addToLog(Activity.fileActivity(sender, System.currentTimeMillis(), "Heap dump", file.toString()));
 
+                        if (arguments.boolFlag("analyse")) {
+                            if (HeapDump.isOpenJ9()) {
+                                resp.broadcastPrefixed(text("Heap dumps in the OpenJ9 format cannot be analysed.", RED));
+                            } else {
+                                handleAnalysis(platform, resp, file);
+                            }
+                        }
 
                         CompressionMethod compress = null;
                         Iterator<String> compressArgs = arguments.stringFlag("compress").iterator();
@@ -206,9 +214,209 @@ public class HeapAnalysisModule implements CommandModule {
                         }
                     });
                 })
-                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--compress", "--run-gc-before", "--include-non-live"))
+                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--compress", "--run-gc-before", "--include-non-live", "--analyse"))
+                .build()
+        );
+
+        consumer.accept(Command.builder()
+                .aliases("heapgrowth")
+                .argumentUsage("start", null)
+                .argumentUsage("interval", "seconds")
+                .argumentUsage("budget", "percent")
+                .argumentUsage("stop", null)
+                .executor((platform, sender, resp, arguments) -> {
+                    if (arguments.boolFlag("start")) {
+                        if (this.activeGrowthTracker != null) {
+                            resp.replyPrefixed(text("Heap growth tracking is already running.", RED));
+                            return;
+                        }
+
+                        int interval = arguments.intFlag("interval");
+                        if (interval == -1) {
+                            interval = 60;
+                        }
+                        double budget = arguments.doubleFlag("budget");
+                        if (budget == -1) {
+                            budget = 1;
+                        }
+
+                        this.activeGrowthTracker = new HeapGrowthTracker(TimeUnit.SECONDS.toMillis(interval), budget);
+                        this.activeGrowthTracker.start();
+                        resp.broadcastPrefixed(text()
+                                .color(GOLD)
+                                .append(text("Heap growth tracking started. Taking a class histogram every "))
+                                .append(text(interval + "s", WHITE))
+                                .append(text(", using at most "))
+                                .append(text(budget + "%", WHITE))
+                                .append(text(" of the time."))
+                                .build()
+                        );
+                        return;
+                    }
+
+                    if (this.activeGrowthTracker == null) {
+                        resp.replyPrefixed(text("Heap growth tracking isn't running. Use '/spark heapgrowth --start' to start it.", RED));
+                        return;
+                    }
+
+                    HeapGrowthTracker tracker = this.activeGrowthTracker;
+                    if (arguments.boolFlag("stop")) {
+                        close();
+                        resp.broadcastPrefixed(text("Heap growth tracking stopped.", GOLD));
+                    }
+                    sendGrowthReport(resp, tracker);
+                })
+                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--start", "--interval", "--budget", "--stop"))
+                .build()
+        );
+    }
+
+    /**
+     * Uploads a heap dump summary, reporting the rollups and the viewer url to all senders.
+     *
+     * @param platform the platform
+     * @param resp the response handler
+     * @param heapDump the heap dump summary
+     * @param activityType the type recorded in the activity log
+     * @param reason the reason the summary was created, recorded in the archive
+     */
+    public static void handleSummaryUpload(SparkPlatform platform, CommandResponseHandler resp, HeapDumpSummary heapDump, String activityType, String reason) {
+        if (!heapDump.getSources().isEmpty()) {
+            sendRollup(resp, "Memory usage by plugin/mod:", heapDump.getSources());
+        }
+        sendRollup(resp, "Memory usage by package:", heapDump.getPackages());
+
+        byte[] output = heapDump.formCompressedDataPayload(platform.getPlugin().getPlatformInfo(), resp.sender());
+        ProfileArchive.Entry archiveEntry = ArchiveModule.archivePayload(platform, "Heap dump summary", output, -1, reason);
+        try {
+            String key = SparkPlatform.BYTEBIN_CLIENT.postContent(output, SPARK_HEAP_MEDIA_TYPE, false).key();
+            String url = SparkPlatform.VIEWER_URL + key;
+
+            resp.broadcastPrefixed(text("Heap dump summmary output:", GOLD));
+            resp.broadcast(text()
+                    .content(url)
+                    .color(GRAY)
+                    .clickEvent(ClickEvent.openUrl(url))
+                    .build()
+            );
+
+            platform.getActivityLog().addToLog(Activity.urlActivity(resp.sender(), System.currentTimeMillis(), activityType, url));
+            if (archiveEntry != null) {
+                platform.getProfileArchive().setUrl(archiveEntry, url);
+            }
+        } catch (IOException | RuntimeException e) {
+            resp.broadcastPrefixed(text("An error occurred whilst uploading the data.", RED));
+            if (archiveEntry != null) {
+                resp.broadcastPrefixed(text("The data has been saved to the archive as #" + archiveEntry.getId() + ".", GRAY));
+            }
+            e.printStackTrace();
+        }
+    }
+
+    private static void sendRollup(CommandResponseHandler resp, String title, List<HeapDumpSummary.Rollup> rollups) {
+        resp.broadcastPrefixed(text(title, GOLD));
+        for (HeapDumpSummary.Rollup rollup : rollups.subList(0, Math.min(5, rollups.size()))) {
+            resp.broadcast(text()
+                    .content("    ")
+                    .append(text(FormatUtil.formatBytes(rollup.getBytes()), WHITE))
+                    .append(space())
+                    .append(text(rollup.getName(), GRAY))
+                    .append(text(" (" + rollup.getInstances() + " instances of " + rollup.getClasses() + " classes)", DARK_GRAY))
+                    .build()
+            );
+        }
+    }
+
+    private static void sendGrowthReport(CommandResponseHandler resp, HeapGrowthTracker tracker) {
+        DecimalFormat df = new DecimalFormat("#.##");
+        resp.replyPrefixed(text()
+                .color(GOLD)
+                .append(text("Heap growth over "))
+                .append(text(tracker.getSampleCount(), WHITE))
+                .append(text(" histograms (one every "))
+                .append(text(TimeUnit.MILLISECONDS.toSeconds(tracker.getEffectiveIntervalMillis()) + "s", WHITE))
+                .append(text(", overhead "))
+                .append(text(df.format(tracker.getOverheadPercent()) + "%", WHITE))
+                .append(text("):"))
+                .build()
+        );
+
+        List<HeapGrowthTracker.Growth> growth = tracker.getTopGrowth(10);
+        if (growth.isEmpty()) {
+            resp.reply(text("    No sustained growth has been observed yet.", GRAY));
+            return;
+        }
+
+        for (HeapGrowthTracker.Growth entry : growth) {
+            resp.reply(text()
+                    .content("    ")
+                    .append(text("+" + FormatUtil.formatBytes((long) entry.getBytesPerMinute()) + "/min", WHITE))
+                    .append(space())
+                    .append(text(entry.getType(), GRAY))
+                    .append(text(" (" + FormatUtil.formatBytes(entry.getBytes()) + ", " + entry.getInstances() + " instances, grew in " + FormatUtil.percent(entry.getConsistency(), 1) + " of intervals)", DARK_GRAY))
+                    .build()
+            );
+        }
+    }
+
+    private static void handleAnalysis(SparkPlatform platform, CommandResponseHandler resp, Path file) {
+        resp.broadcastPrefixed(text("Analysing heap dump, please wait..."));
+
+        HeapDumpAnalysis analysis;
+        Path workDirectory = file.getParent().resolve(file.getFileName().toString() + ".analysis");
+        try {
+            analysis = HeapDumpAnalysis.analyse(file, workDirectory, message -> resp.broadcastPrefixed(text(message, GRAY)));
+        } catch (Exception e) {
+            resp.broadcastPrefixed(text("An error occurred whilst analysing the heap dump.", RED));
+            e.printStackTrace();
+            return;
+        } finally {
+            try {
+                Files.deleteIfExists(workDirectory);
+            } catch (IOException e) {
+                // ignore - index files may still be mapped
+            }
+        }
+
+        resp.broadcastPrefixed(text()
+                .color(GOLD)
+                .append(text(analysis.getObjectCount() + " reachable objects, totalling "))
+                .append(text(FormatUtil.formatBytes(analysis.getTotalSize()), WHITE))
+                .append(text(". Largest retainers:"))
                 .build()
         );
+        for (HeapDumpAnalysis.Retainer retainer : analysis.getRetainers().subList(0, Math.min(5, analysis.getRetainers().size()))) {
+            resp.broadcast(text()
+                    .content("    ")
+                    .append(text(FormatUtil.formatBytes(retainer.getRetainedSize()), WHITE))
+                    .append(space())
+                    .append(text(retainer.getType(), GRAY))
+                    .build()
+            );
+        }
+
+        byte[] output = analysis.formCompressedDataPayload(platform.getPlugin().getPlatformInfo(), resp.sender());
+        ProfileArchive.Entry archiveEntry = ArchiveModule.archivePayload(platform, "Heap dump analysis", output, -1, "Manual");
+        try {
+            String key = SparkPlatform.BYTEBIN_CLIENT.postContent(output, SPARK_HEAP_MEDIA_TYPE, false).key();
+            String url = SparkPlatform.VIEWER_URL + key;
+
+            resp.broadcastPrefixed(text("Heap dump analysis output:", GOLD));
+            resp.broadcast(text()
+                    .content(url)
+                    .color(GRAY)
+                    .clickEvent(ClickEvent.openUrl(url))
+                    .build()
+            );
+
+            platform.getActivityLog().addToLog(Activity.urlActivity(resp.sender(), System.currentTimeMillis(), "Heap dump analysis", url));
+            if (archiveEntry != null) {
+                platform.getProfileArchive().setUrl(archiveEntry, url);
+            }
+        } catch (IOException | RuntimeException e) {
+            resp.broadcastPrefixed(text("An error occurred whilst uploading the data.", RED));
+            e.printStackTrace();
+        }
     }
 
     public enum CompressionMethod {
@@ -216,12 +424,8 @@ public class HeapAnalysisModule implements CommandModule {
             @Override
             public Path compress(Path file, LongConsumer progressHandler) throws IOException {
                 Path compressedFile = file.getParent().resolve(file.getFileName().toString() + ".gz");
-                try (InputStream in = Files.newInputStream(file)) {
-                    try (OutputStream out = Files.newOutputStream(compressedFile)) {
-                        try (GZIPOutputStream compressionOut = new GZIPOutputStream(out, 1024 * 64)) {
-                            copy(in, compressionOut, progressHandler);
-                        }
-                    }
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(compressedFile), 1024 * 64)) {
+                    new ParallelGzipCompressor().compress(file, out, progressHandler);
                 }
                 return compressedFile;
             }
@@ -230,12 +434,8 @@ public class HeapAnalysisModule implements CommandModule {
             @Override
             public Path compress(Path file, LongConsumer progressHandler) throws IOException {
                 Path compressedFile = file.getParent().resolve(file.getFileName().toString() + ".xz");
-                try (InputStream in = Files.newInputStream(file)) {
-                    try (OutputStream out = Files.newOutputStream(compressedFile)) {
-                        try (XZOutputStream compressionOut = new XZOutputStream(out, new LZMA2Options())) {
-                            copy(in, compressionOut, progressHandler);
-                        }
-                    }
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(compressedFile), 1024 * 64)) {
+                    new ParallelXzCompressor().compress(file, out, progressHandler);
                 }
                 return compressedFile;
             }
@@ -0,0 +1,166 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.command.modules;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.command.Arguments;
+import me.lucko.spark.common.command.Command.ArgumentInfo;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector.ChunkCounts;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector.Hotspot;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector.TickSamples;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector.TickType;
+import me.lucko.spark.common.monitor.hotspot.HotspotCollector.WorldHotspots;
+import net.kyori.adventure.text.TextComponent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+
+public class HotspotModule extends AbstractCollectorModule<HotspotCollector> {
+    private static final int TYPE_LIMIT = 3;
+
+    public HotspotModule() {
+        super("Chunk hotspots", 5, "hotspots");
+    }
+
+    @Override
+    protected HotspotCollector getCollector(SparkPlatform platform) {
+        return platform.getHotspotCollector();
+    }
+
+    @Override
+    protected int enable(HotspotCollector collector) throws Exception {
+        return collector.enable() ? 0 : -1;
+    }
+
+    @Override
+    protected void disable(HotspotCollector collector) throws Exception {
+        collector.disable();
+    }
+
+    @Override
+    protected boolean isEnabled(HotspotCollector collector) {
+        return collector.isEnabled();
+    }
+
+    @Override
+    protected void reset(HotspotCollector collector) {
+        collector.reset();
+    }
+
+    @Override
+    protected List<ArgumentInfo> getExtraArguments() {
+        return Collections.singletonList(new ArgumentInfo("world", "name"));
+    }
+
+    @Override
+    protected void sendEnabled(CommandResponseHandler resp, int count) {
+        resp.broadcastPrefixed(text("Started collecting chunk hotspots.", GOLD));
+        resp.broadcastPrefixed(text("Use '/spark hotspots' to view the results so far, and '/spark hotspots --stop' when done.", GRAY));
+    }
+
+    @Override
+    protected void sendReport(CommandResponseHandler resp, Arguments arguments, HotspotCollector collector, int limit) {
+        Set<String> worldFilter = arguments.stringFlag("world");
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(collector.getElapsedNanos());
+        List<WorldHotspots> worlds = collector.getWorlds().stream()
+                .filter(world -> worldFilter.isEmpty() || worldFilter.contains(world.getName()))
+                .collect(Collectors.toList());
+
+        if (worlds.isEmpty()) {
+            resp.replyPrefixed(text("No worlds have been scanned yet."));
+        } else {
+            resp.replyPrefixed(text("Chunk hotspots from the last " + seconds + "s:", GOLD));
+            resp.replyPrefixed(text(" Tile entity counts per chunk include tile entities which don't tick.", DARK_GRAY));
+        }
+
+        for (WorldHotspots world : worlds) {
+            resp.replyPrefixed(empty());
+            resp.replyPrefixed(text()
+                    .append(text(world.getName(), WHITE))
+                    .append(text(String.format("  %d entities, %d tile entities%s in %d chunks",
+                            world.getEntities(),
+                            world.getTileEntities(),
+                            world.getTickingTileEntities() == -1 ? "" : " (" + world.getTickingTileEntities() + " ticking)",
+                            world.getOccupiedChunks()
+                    ), GRAY))
+                    .build()
+            );
+
+            List<Hotspot> hotspots = world.getHotspots();
+            for (Hotspot hotspot : hotspots.subList(0, Math.min(hotspots.size(), limit))) {
+                resp.replyPrefixed(formatHotspot(hotspot));
+                resp.replyPrefixed(text(String.format("     one of the heaviest in %d/%d scans, peak %d", hotspot.getScans(), world.getScans(), hotspot.getPeakWeight()), DARK_GRAY));
+            }
+        }
+
+        TickSamples samples = collector.getTickSamples();
+        if (samples.getTotal() == 0) {
+            return;
+        }
+
+        resp.replyPrefixed(empty());
+        resp.replyPrefixed(text("Server thread samples (" + samples.getTotal() + "):", GOLD));
+        resp.replyPrefixed(text(" Classes are the owners of the tick method, so inherited ticks show the superclass.", DARK_GRAY));
+        resp.replyPrefixed(formatTickShare(samples, TickType.ENTITY, "ticking entities"));
+        resp.replyPrefixed(formatTickShare(samples, TickType.TILE_ENTITY, "ticking tile entities"));
+    }
+
+    private static TextComponent formatHotspot(Hotspot hotspot) {
+        ChunkCounts chunk = hotspot.getLatest();
+        String types = chunk.getTopTypes(TYPE_LIMIT).stream()
+                .map(e -> e.getKey() + " " + e.getValue())
+                .collect(Collectors.joining(", "));
+
+        return text()
+                .content("  ")
+                .append(text(String.format("%d, %d", chunk.getX(), chunk.getZ()), WHITE))
+                .append(text(String.format(" (block %d, %d)", chunk.getX() << 4, chunk.getZ() << 4), DARK_GRAY))
+                .append(text("  " + chunk.getEntityCount() + " entities, " + chunk.getTileEntityCount() + " tile entities", GRAY))
+                .append(text("  " + types, GREEN))
+                .build();
+    }
+
+    private static TextComponent formatTickShare(TickSamples samples, TickType type, String label) {
+        String classes = samples.getTopClasses(type, TYPE_LIMIT).stream()
+                .map(e -> simpleName(e.getKey()) + " " + String.format("%.1f%%", e.getValue() * 100))
+                .collect(Collectors.joining(", "));
+
+        return text()
+                .content(" ")
+                .append(text(String.format("%.1f%%", samples.getShare(type) * 100), WHITE))
+                .append(text(" " + label, GRAY))
+                .append(classes.isEmpty() ? empty() : text("  " + classes, GREEN))
+                .build();
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.command.modules;
+
+import com.google.common.collect.Iterables;
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.activitylog.ActivityLog.Activity;
+import me.lucko.spark.common.archive.ProfileArchive;
+import me.lucko.spark.common.command.Command;
+import me.lucko.spark.common.command.CommandModule;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.command.tabcomplete.TabCompleter;
+import me.lucko.spark.common.sampler.diff.SamplerDiff;
+import me.lucko.spark.common.sampler.diff.SamplerDiff.MethodDelta;
+import me.lucko.spark.common.sampler.export.ExportFormat;
+import me.lucko.spark.proto.SparkProtos.SamplerData;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import okhttp3.MediaType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+import static net.kyori.adventure.text.format.TextDecoration.*;
+
+public class SamplerDiffModule implements CommandModule {
+    private static final MediaType SPARK_SAMPLER_MEDIA_TYPE = MediaType.parse("application/x-spark-sampler");
+    private static final DecimalFormat df = new DecimalFormat("#.##");
+
+    /** The number of regressions/improvements to show in the summary */
+    private static final int SUMMARY_SIZE = 5;
+
+    @Override
+    public void registerCommands(Consumer<Command> consumer) {
+        consumer.accept(Command.builder()
+                .aliases("profilerdiff", "diff")
+                .argumentUsage("before", "profile")
+                .argumentUsage("after", "profile")
+                .argumentUsage("no-upload", null)
+                .executor((platform, sender, resp, arguments) -> {
+                    String beforeRef = Iterables.getFirst(arguments.stringFlag("before"), null);
+                    String afterRef = Iterables.getFirst(arguments.stringFlag("after"), null);
+                    if (beforeRef == null || afterRef == null) {
+                        resp.replyPrefixed(text("Please specify the profiles to compare using --before and --after.", RED));
+                        resp.replyPrefixed(text("A profile can be an activity log entry (e.g. #2), an archive entry (e.g. archive:3), a viewer URL, or a file in the plugin directory.", GRAY));
+                        return;
+                    }
+
+                    resp.replyPrefixed(text("Comparing profiles, please wait..."));
+                    platform.getPlugin().executeAsync(() -> {
+                        SamplerDiff diff;
+                        try {
+                            diff = SamplerDiff.compare(loadProfile(platform, beforeRef), loadProfile(platform, afterRef));
+                        } catch (Exception e) {
+                            resp.replyPrefixed(text("Unable to load profiles: " + e.getMessage(), RED));
+                            e.printStackTrace();
+                            return;
+                        }
+
+                        sendSummary(resp, diff);
+
+                        if (!arguments.boolFlag("no-upload")) {
+                            handleUpload(platform, resp, diff);
+                        }
+                    });
+                })
+                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--before", "--after", "--no-upload"))
+                .build()
+        );
+    }
+
+    /**
+     * Loads the sampler data referred to by the given reference.
+     *
+     * <p>The reference can be an activity log entry number (as shown by /spark activity), an
+     * archive entry (e.g. archive:3, as shown by /spark archive), a viewer URL or bytebin key,
+     * or the path to a payload file.</p>
+     *
+     * @param platform the platform
+     * @param ref the reference
+     * @return the sampler data
+     * @throws IOException if the data could not be loaded
+     */
+    public static SamplerData loadProfile(SparkPlatform platform, String ref) throws IOException {
+        if (ref.matches("archive:#?\\d+")) {
+            ProfileArchive archive = platform.getProfileArchive();
+            ProfileArchive.Entry entry = archive == null ? null : archive.getEntry(Integer.parseInt(ref.replaceAll("\\D", "")));
+            if (entry == null) {
+                throw new IllegalArgumentException("no archive entry " + ref);
+            }
+            if (!entry.getType().equals("Sampler")) {
+                throw new IllegalArgumentException("archive entry " + ref + " is not a profile");
+            }
+            return SamplerDiff.decode(archive.read(entry));
+        }
+
+        if (ref.matches("#?\\d+")) {
+            int index = Integer.parseInt(ref.startsWith("#") ? ref.substring(1) : ref) - 1;
+            List<Activity> log = platform.getActivityLog().getLog();
+            if (index < 0 || index >= log.size()) {
+                throw new IllegalArgumentException("no activity log entry " + ref);
+            }
+
+            Activity activity = log.get(index);
+            if (!activity.getType().equals("Sampler")) {
+                throw new IllegalArgumentException("activity log entry " + ref + " is not a profile");
+            }
+            if (activity.getDataType().equals("file")) {
+                // the path is stored as it was written, so isn't relative to the plugin directory
+                Path file = checkPluginFile(platform, Paths.get(activity.getDataValue()));
+                ExportFormat format = ExportFormat.fromFileName(file.getFileName().toString());
+                if (format != null) {
+                    throw new IllegalArgumentException("activity log entry " + ref + " is a " + format.name().toLowerCase() + " export, which can't be compared - use a viewer URL or archive entry instead");
+                }
+                if (!Files.isRegularFile(file)) {
+                    throw new IllegalArgumentException("the file for activity log entry " + ref + " no longer exists");
+                }
+                return SamplerDiff.decode(Files.readAllBytes(file));
+            }
+            ref = activity.getDataValue();
+        }
+
+        if (!ref.contains("://")) {
+            Path file = resolvePluginFile(platform, ref);
+            if (Files.isRegularFile(file)) {
+                return SamplerDiff.decode(Files.readAllBytes(file));
+            }
+        }
+
+        String key = ref.startsWith(SparkPlatform.VIEWER_URL) ? ref.substring(SparkPlatform.VIEWER_URL.length()) : ref.substring(Math.max(ref.lastIndexOf('/'), ref.lastIndexOf('#')) + 1);
+        return SamplerDiff.decode(SparkPlatform.BYTEBIN_CLIENT.getContent(key));
+    }
+
+    /**
+     * Resolves a path relative to the plugin directory, rejecting any which point outside of it.
+     *
+     * @param platform the platform
+     * @param path the path
+     * @return the resolved path
+     */
+    private static Path resolvePluginFile(SparkPlatform platform, String path) {
+        return checkPluginFile(platform, platform.getPlugin().getPluginDirectory().toAbsolutePath().resolve(path));
+    }
+
+    /**
+     * Checks that a path is inside the plugin directory.
+     *
+     * @param platform the platform
+     * @param file the path
+     * @return the normalized absolute path
+     */
+    private static Path checkPluginFile(SparkPlatform platform, Path file) {
+        Path pluginDirectory = platform.getPlugin().getPluginDirectory().toAbsolutePath().normalize();
+        file = file.toAbsolutePath().normalize();
+        if (!file.startsWith(pluginDirectory)) {
+            throw new IllegalArgumentException("profile files must be in the plugin directory");
+        }
+        return file;
+    }
+
+    static void sendSummary(CommandResponseHandler resp, SamplerDiff diff) {
+        List<MethodDelta> deltas = diff.getMethodDeltas();
+
+        List<Component> report = new ArrayList<>();
+        report.add(empty());
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("Sampled time: ", GOLD))
+                .append(text(df.format(diff.getBeforeTotal()) + "ms", WHITE))
+                .append(text(" → ", DARK_GRAY))
+                .append(text(df.format(diff.getAfterTotal()) + "ms", WHITE))
+                .build()
+        );
+        report.add(empty());
+
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("Top regressions (change in share of self time):", GOLD))
+                .build()
+        );
+        for (int i = 0; i < Math.min(SUMMARY_SIZE, deltas.size()) && deltas.get(i).getNormalisedDelta() > 0; i++) {
+            report.add(formatDelta(deltas.get(i)));
+        }
+        report.add(empty());
+
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("Top improvements (change in share of self time):", GOLD))
+                .build()
+        );
+        for (int i = deltas.size() - 1; i >= Math.max(0, deltas.size() - SUMMARY_SIZE) && deltas.get(i).getNormalisedDelta() < 0; i--) {
+            report.add(formatDelta(deltas.get(i)));
+        }
+        report.add(empty());
+
+        report.forEach(resp::reply);
+    }
+
+    private static Component formatDelta(MethodDelta delta) {
+        double percent = delta.getNormalisedDelta() * 100d;
+        return text()
+                .content("    ")
+                .append(text((percent > 0 ? "+" : "") + df.format(percent) + "%", percent > 0 ? RED : GREEN))
+                .append(space())
+                .append(text(delta.getFrame().toString(), WHITE))
+                .append(text("  (", DARK_GRAY))
+                .append(text(df.format(delta.getBefore()) + "ms", GRAY))
+                .append(text(" → ", DARK_GRAY))
+                .append(text(df.format(delta.getAfter()) + "ms", GRAY))
+                .append(text(")", DARK_GRAY))
+                .build();
+    }
+
+    static void handleUpload(SparkPlatform platform, CommandResponseHandler resp, SamplerDiff diff) {
+        byte[] output = diff.formCompressedDataPayload();
+        try {
+            String key = SparkPlatform.BYTEBIN_CLIENT.postContent(output, SPARK_SAMPLER_MEDIA_TYPE, false).key();
+            String url = SparkPlatform.VIEWER_URL + key;
+
+            resp.replyPrefixed(text("Profile diff (node times are the change in time):", GOLD));
+            resp.reply(text()
+                    .content(url)
+                    .color(GRAY)
+                    .clickEvent(ClickEvent.openUrl(url))
+                    .build()
+            );
+
+            platform.getActivityLog().addToLog(Activity.urlActivity(resp.sender(), System.currentTimeMillis(), "Profiler diff", url));
+        } catch (IOException e) {
+            resp.replyPrefixed(text("An error occurred whilst uploading the diff.", RED));
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ package me.lucko.spark.common.command.modules;
 import com.google.common.collect.Iterables;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.activitylog.ActivityLog.Activity;
+import me.lucko.spark.common.archive.ProfileArchive;
 import me.lucko.spark.common.command.Command;
 import me.lucko.spark.common.command.CommandModule;
 import me.lucko.spark.common.command.CommandResponseHandler;
@@ -31,16 +32,20 @@ import me.lucko.spark.common.command.tabcomplete.TabCompleter;
 import me.lucko.spark.common.grafana.GrafanaClient;
 import me.lucko.spark.common.sampler.Sampler;
 import me.lucko.spark.common.sampler.SamplerBuilder;
+import me.lucko.spark.common.sampler.SourceRollup;
 import me.lucko.spark.common.sampler.ThreadDumper;
 import me.lucko.spark.common.sampler.ThreadGrouper;
 import me.lucko.spark.common.sampler.ThreadNodeOrder;
+import me.lucko.spark.common.sampler.export.ExportFormat;
 import me.lucko.spark.common.sampler.node.MergeMode;
 import me.lucko.spark.common.sampler.tick.TickHook;
+import me.lucko.spark.common.util.FormatUtil;
 import me.lucko.spark.common.util.MethodDisambiguator;
 import net.kyori.adventure.text.event.ClickEvent;
 import okhttp3.MediaType;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -49,12 +54,15 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static net.kyori.adventure.text.Component.*;
 import static net.kyori.adventure.text.format.NamedTextColor.*;
 
 public class SamplerModule implements CommandModule {
     private static final MediaType SPARK_SAMPLER_MEDIA_TYPE = MediaType.parse("application/x-spark-sampler");
+    /** The number of plugins/mods to list after a profile is uploaded */
+    private static final int SOURCE_SUMMARY_LIMIT = 5;
 
     /** The WarmRoast instance currently running, if any */
     private Sampler activeSampler = null;
@@ -86,6 +94,7 @@ public class SamplerModule implements CommandModule {
                 .argumentUsage("ignore-native", null)
                 .argumentUsage("order-by-time", null)
                 .argumentUsage("separate-parent-calls", null)
+                .argumentUsage("export", "format")
                 .executor((platform, sender, resp, arguments) -> {
                     if (arguments.boolFlag("info")) {
                         if (this.activeSampler == null) {
@@ -119,13 +128,19 @@ public class SamplerModule implements CommandModule {
                         if (this.activeSampler == null) {
                             resp.replyPrefixed(text("There isn't an active sampling task running."));
                         } else {
+                            ExportFormat exportFormat = parseExportFormat(arguments.stringFlag("export"));
                             this.activeSampler.cancel();
-                            resp.broadcastPrefixed(text("The active sampling operation has been stopped! Uploading results..."));
                             ThreadNodeOrder threadOrder = arguments.boolFlag("order-by-time") ? ThreadNodeOrder.BY_TIME : ThreadNodeOrder.BY_NAME;
                             String comment = Iterables.getFirst(arguments.stringFlag("comment"), null);
-                            MethodDisambiguator methodDisambiguator = new MethodDisambiguator();
-                            MergeMode mergeMode = arguments.boolFlag("separate-parent-calls") ? MergeMode.separateParentCalls(methodDisambiguator) : MergeMode.sameMethod(methodDisambiguator);
-                            handleUpload(platform, resp, this.activeSampler, threadOrder, comment, mergeMode);
+                            if (exportFormat != null) {
+                                resp.broadcastPrefixed(text("The active sampling operation has been stopped! Exporting results..."));
+                                handleExport(platform, resp, this.activeSampler, exportFormat, threadOrder, comment);
+                            } else {
+                                resp.broadcastPrefixed(text("The active sampling operation has been stopped! Uploading results..."));
+                                MethodDisambiguator methodDisambiguator = new MethodDisambiguator();
+                                MergeMode mergeMode = arguments.boolFlag("separate-parent-calls") ? MergeMode.separateParentCalls(methodDisambiguator) : MergeMode.sameMethod(methodDisambiguator);
+                                handleUpload(platform, resp, this.activeSampler, threadOrder, comment, mergeMode);
+                            }
                             this.activeSampler = null;
                         }
                         return;
@@ -176,6 +191,8 @@ public class SamplerModule implements CommandModule {
                         threadGrouper = ThreadGrouper.BY_POOL;
                     }
 
+                    ExportFormat exportFormat = parseExportFormat(arguments.stringFlag("export"));
+
                     int ticksOver = arguments.intFlag("only-ticks-over");
                     TickHook tickHook = null;
                     if (ticksOver != -1) {
@@ -205,6 +222,8 @@ public class SamplerModule implements CommandModule {
                     if (ticksOver != -1) {
                         builder.ticksOver(ticksOver, tickHook);
                     }
+                    builder.tickPhases(platform.getTickPhaseStatistics());
+                    builder.classSourceLookup(platform.getClassSourceLookup());
                     Sampler sampler = this.activeSampler = builder.start();
 
                     resp.broadcastPrefixed(text("Profiler now active!", GOLD));
@@ -238,8 +257,13 @@ public class SamplerModule implements CommandModule {
                         MethodDisambiguator methodDisambiguator = new MethodDisambiguator();
                         MergeMode mergeMode = arguments.boolFlag("separate-parent-calls") ? MergeMode.separateParentCalls(methodDisambiguator) : MergeMode.sameMethod(methodDisambiguator);
                         future.thenAcceptAsync(s -> {
-                            resp.broadcastPrefixed(text("The active sampling operation has completed! Uploading results..."));
-                            handleUpload(platform, resp, s, threadOrder, comment, mergeMode);
+                            if (exportFormat != null) {
+                                resp.broadcastPrefixed(text("The active sampling operation has completed! Exporting results..."));
+                                handleExport(platform, resp, s, exportFormat, threadOrder, comment);
+                            } else {
+                                resp.broadcastPrefixed(text("The active sampling operation has completed! Uploading results..."));
+                                handleUpload(platform, resp, s, threadOrder, comment, mergeMode);
+                            }
                         });
                     }
                 })
@@ -249,13 +273,13 @@ public class SamplerModule implements CommandModule {
                     }
 
                     if (arguments.contains("--stop") || arguments.contains("--upload")) {
-                        return TabCompleter.completeForOpts(arguments, "--order-by-time", "--separate-parent-calls", "--comment");
+                        return TabCompleter.completeForOpts(arguments, "--order-by-time", "--separate-parent-calls", "--comment", "--export");
                     }
 
                     List<String> opts = new ArrayList<>(Arrays.asList("--info", "--stop", "--cancel",
                             "--timeout", "--regex", "--combine-all", "--not-combined", "--interval",
                             "--only-ticks-over", "--ignore-sleeping", "--ignore-native", "--order-by-time",
-                            "--separate-parent-calls", "--comment"));
+                            "--separate-parent-calls", "--comment", "--export"));
                     opts.removeAll(arguments);
                     opts.add("--thread"); // allowed multiple times
 
@@ -270,6 +294,7 @@ public class SamplerModule implements CommandModule {
     public void handleUpload(SparkPlatform platform, CommandResponseHandler resp, Sampler sampler, ThreadNodeOrder threadOrder, String comment, MergeMode mergeMode) {
         platform.getPlugin().executeAsync(() -> {
             byte[] output = sampler.formCompressedDataPayload(platform.getPlugin().getPlatformInfo(), resp.sender(), threadOrder, comment, mergeMode);
+            ProfileArchive.Entry archiveEntry = ArchiveModule.archivePayload(platform, "Sampler", output, sampler.getEndTime() - sampler.getStartTime(), comment != null ? comment : "Manual");
             try {
                 String key = SparkPlatform.BYTEBIN_CLIENT.postContent(output, SPARK_SAMPLER_MEDIA_TYPE, false).key();
                 String url = SparkPlatform.VIEWER_URL + key;
@@ -281,19 +306,82 @@ public class SamplerModule implements CommandModule {
                         .clickEvent(ClickEvent.openUrl(url))
                         .build()
                 );
+                sendSourceSummary(resp, sampler);
 
                 if (SparkPlatform.GRAFANA_CLIENT != null) {
                     SparkPlatform.GRAFANA_CLIENT.updateAnnotation(sampler.getAnnotationId(), url, sampler.getEndTime());
                 }
 
                 platform.getActivityLog().addToLog(Activity.urlActivity(resp.sender(), System.currentTimeMillis(), "Sampler", url));
-            } catch (IOException e) {
+                if (archiveEntry != null) {
+                    platform.getProfileArchive().setUrl(archiveEntry, url);
+                }
+            } catch (IOException | RuntimeException e) {
                 resp.broadcastPrefixed(text("An error occurred whilst uploading the results.", RED));
+                if (archiveEntry != null) {
+                    resp.broadcastPrefixed(text("The results have been saved to the archive as #" + archiveEntry.getId() + ".", GRAY));
+                }
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private static void sendSourceSummary(CommandResponseHandler resp, Sampler sampler) {
+        SourceRollup sourceRollup = sampler.getSourceRollup();
+        if (sourceRollup == null || sourceRollup.getSources().isEmpty()) {
+            return;
+        }
+
+        resp.broadcastPrefixed(text("Top plugins/mods by sampled time:", GOLD));
+        for (SourceRollup.Source source : Iterables.limit(sourceRollup.getSources(), SOURCE_SUMMARY_LIMIT)) {
+            SourceRollup.SourceThread thread = source.getThreads().get(0);
+            resp.broadcastPrefixed(text()
+                    .content(" ")
+                    .append(text(source.getName() + ": ", source.isPlatform() ? GRAY : WHITE))
+                    .append(text(FormatUtil.percent(thread.getShare(), 1d), GREEN))
+                    .append(text(" of " + thread.getName(), GRAY))
+                    .build()
+            );
+        }
+    }
+
+    public void handleExport(SparkPlatform platform, CommandResponseHandler resp, Sampler sampler, ExportFormat format, ThreadNodeOrder threadOrder, String comment) {
+        platform.getPlugin().executeAsync(() -> {
+            Path file;
+            try {
+                file = format.export(sampler, threadOrder, comment, platform.getPlugin().getPluginDirectory());
+            } catch (IOException | RuntimeException e) {
+                resp.broadcastPrefixed(text("An error occurred whilst exporting the results.", RED));
                 e.printStackTrace();
+                return;
             }
+
+            resp.broadcastPrefixed(text()
+                    .content("Sampling results written to: ")
+                    .color(GOLD)
+                    .append(text(file.toString(), GRAY))
+                    .build()
+            );
+
+            platform.getActivityLog().addToLog(Activity.fileActivity(resp.sender(), System.currentTimeMillis(), "Sampler", file.toString()));
         });
     }
 
+    private static ExportFormat parseExportFormat(Set<String> exportArgs) {
+        String name = Iterables.getFirst(exportArgs, null);
+        if (name == null) {
+            return null;
+        }
+
+        ExportFormat format = ExportFormat.parse(name);
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown export format '" + name + "'. Valid formats: " + Arrays.stream(ExportFormat.values())
+                    .map(f -> f.name().toLowerCase())
+                    .collect(Collectors.joining(", ")));
+        }
+        return format;
+    }
+
     public Sampler getActiveSampler() {
         return activeSampler;
     }
@@ -0,0 +1,159 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.command.modules;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.command.Arguments;
+import me.lucko.spark.common.command.CommandResponseHandler;
+import me.lucko.spark.common.monitor.timing.InvocationTimer;
+import me.lucko.spark.common.monitor.timing.SchedulerTimings;
+import me.lucko.spark.common.monitor.timing.SchedulerTimings.ExecutorStatus;
+import net.kyori.adventure.text.TextComponent;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static net.kyori.adventure.text.Component.*;
+import static net.kyori.adventure.text.format.NamedTextColor.*;
+
+public class TaskTimingModule extends AbstractCollectorModule<SchedulerTimings> {
+
+    public TaskTimingModule() {
+        super("Scheduler task timings", 10, "tasks", "tasktimings");
+    }
+
+    @Override
+    protected SchedulerTimings getCollector(SparkPlatform platform) {
+        return platform.getTaskTimings();
+    }
+
+    @Override
+    protected int enable(SchedulerTimings timings) throws Exception {
+        return timings.enable();
+    }
+
+    @Override
+    protected void disable(SchedulerTimings timings) throws Exception {
+        timings.disable();
+    }
+
+    @Override
+    protected boolean isEnabled(SchedulerTimings timings) {
+        return timings.isEnabled();
+    }
+
+    @Override
+    protected void reset(SchedulerTimings timings) {
+        timings.reset();
+    }
+
+    @Override
+    protected void sendEnabled(CommandResponseHandler resp, int tasks) {
+        resp.broadcastPrefixed(text("Scheduler task timings enabled for " + tasks + " scheduled tasks.", GOLD));
+        resp.broadcastPrefixed(text("Tasks scheduled from now on will be timed once they are picked up (within a second).", GRAY));
+    }
+
+    @Override
+    protected void sendNotEnabled(CommandResponseHandler resp, SchedulerTimings timings) {
+        super.sendNotEnabled(resp, timings);
+        sendExecutorStatus(resp, timings.getExecutorStatus());
+    }
+
+    @Override
+    protected void sendReport(CommandResponseHandler resp, Arguments arguments, SchedulerTimings timings, int limit) {
+        double seconds = Math.max(1, timings.getElapsedNanos()) / (double) TimeUnit.SECONDS.toNanos(1);
+        List<InvocationTimer> timers = timings.getTimers();
+
+        List<InvocationTimer> sync = timers.stream().filter(t -> t.getType().equals(SchedulerTimings.SYNC)).limit(limit).collect(Collectors.toList());
+        List<InvocationTimer> async = timers.stream().filter(t -> t.getType().equals(SchedulerTimings.ASYNC)).limit(limit).collect(Collectors.toList());
+
+        resp.replyPrefixed(text("Most expensive sync tasks (ms per second of server time) from the last " + Math.round(seconds) + "s:", GOLD));
+        if (sync.isEmpty()) {
+            resp.replyPrefixed(text(" None have run yet.", GRAY));
+        }
+        for (InvocationTimer timer : sync) {
+            resp.replyPrefixed(formatTimer(timer, seconds));
+            resp.replyPrefixed(formatTimerDetail(timer, seconds));
+        }
+        resp.replyPrefixed(empty());
+
+        resp.replyPrefixed(text("Most expensive async tasks (ms per second):", GOLD));
+        if (async.isEmpty()) {
+            resp.replyPrefixed(text(" None have run yet.", GRAY));
+        }
+        for (InvocationTimer timer : async) {
+            resp.replyPrefixed(formatTimer(timer, seconds));
+            resp.replyPrefixed(formatTimerDetail(timer, seconds));
+        }
+        resp.replyPrefixed(empty());
+
+        sendExecutorStatus(resp, timings.getExecutorStatus());
+    }
+
+    private static void sendExecutorStatus(CommandResponseHandler resp, ExecutorStatus status) {
+        resp.replyPrefixed(text("Async executor:", GOLD));
+        resp.replyPrefixed(text()
+                .content(" ")
+                .append(formatCount(status.getRunningTasks(), "running"))
+                .append(text(", "))
+                .append(formatCount(status.getScheduledTasks(), "scheduled"))
+                .build()
+        );
+        if (status.getPoolSize() != -1) {
+            resp.replyPrefixed(text()
+                    .content(" ")
+                    .append(formatCount(status.getPoolSize(), "threads"))
+                    .append(text(", "))
+                    .append(formatCount(status.getActiveThreads(), "active"))
+                    .append(text(", "))
+                    .append(formatCount(status.getQueuedTasks(), "queued"))
+                    .build()
+            );
+        }
+    }
+
+    private static TextComponent formatCount(int count, String label) {
+        return text()
+                .append(text(count == -1 ? "?" : Integer.toString(count), WHITE))
+                .append(text(" " + label, GRAY))
+                .build();
+    }
+
+    private static TextComponent formatTimer(InvocationTimer timer, double seconds) {
+        return text()
+                .content(" ")
+                .append(text(String.format("%.2f", timer.getTotalNanos() / 1000000d / seconds), WHITE))
+                .append(text("  " + timer.getSource(), GREEN))
+                .append(text("  " + timer.getName(), GRAY))
+                .build();
+    }
+
+    private static TextComponent formatTimerDetail(InvocationTimer timer, double seconds) {
+        return text(String.format("   %.1f runs/s, p50 %.2fms, p99 %.2fms, max %.2fms",
+                timer.getInvocations() / seconds,
+                timer.getPercentileNanos(50) / 1000000d,
+                timer.getPercentileNanos(99) / 1000000d,
+                timer.getMaxNanos() / 1000000d
+        ), DARK_GRAY);
+    }
+
+}
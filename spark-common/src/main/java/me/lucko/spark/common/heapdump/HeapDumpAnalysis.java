@@ -0,0 +1,1198 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.platform.PlatformInfo;
+import me.lucko.spark.common.util.ParallelGzipCompressor;
+import me.lucko.spark.proto.SparkProtos;
+import me.lucko.spark.proto.SparkProtos.HeapData;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * An analysis of a HPROF heap dump, computed on the server.
+ *
+ * <p>The dump is read using memory mapped I/O. Objects are indexed into primitive arrays,
+ * which are themselves memory mapped files in a working directory, so the analysis needs
+ * very little heap regardless of the size of the dump.</p>
+ *
+ * <p>The analysis computes the dominator tree of the object graph (using the
+ * Lengauer-Tarjan algorithm), and from that the retained size of every reachable object.
+ * The result contains a class histogram of reachable objects, the objects which retain the
+ * most memory, and a path from each of them to a GC root.</p>
+ *
+ * <p>Shallow sizes are estimated from the dump, as HPROF doesn't record object headers,
+ * padding or whether compressed references are in use.</p>
+ */
+public final class HeapDumpAnalysis {
+
+    /** The number of top retainers to include */
+    private static final int RETAINER_COUNT = 50;
+    /** The maximum length of a path to a GC root */
+    private static final int MAX_PATH_LENGTH = 32;
+
+    // record tags
+    private static final int TAG_STRING = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_HEAP_DUMP = 0x0C;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+    // heap dump sub-record tags
+    private static final int ROOT_UNKNOWN = 0xFF;
+    private static final int ROOT_JNI_GLOBAL = 0x01;
+    private static final int ROOT_JNI_LOCAL = 0x02;
+    private static final int ROOT_JAVA_FRAME = 0x03;
+    private static final int ROOT_NATIVE_STACK = 0x04;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_BLOCK = 0x06;
+    private static final int ROOT_MONITOR_USED = 0x07;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    private static final int CLASS_DUMP = 0x20;
+    private static final int INSTANCE_DUMP = 0x21;
+    private static final int OBJECT_ARRAY_DUMP = 0x22;
+    private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    /**
+     * Analyses a heap dump.
+     *
+     * @param file the heap dump file
+     * @param workDirectory the directory to write temporary index files to
+     * @param progress receives progress messages
+     * @return the analysis
+     * @throws IOException if an error occurs reading the dump or writing the indexes
+     */
+    public static HeapDumpAnalysis analyse(Path file, Path workDirectory, Consumer<String> progress) throws IOException {
+        Files.createDirectories(workDirectory);
+        try (HprofFile hprof = new HprofFile(file); Analyser analyser = new Analyser(hprof, workDirectory, progress)) {
+            return analyser.run();
+        }
+    }
+
+    private final List<HeapDumpSummary.Entry> histogram;
+    private final List<Retainer> retainers;
+    private final long totalSize;
+    private final long objectCount;
+
+    private HeapDumpAnalysis(List<HeapDumpSummary.Entry> histogram, List<Retainer> retainers, long totalSize, long objectCount) {
+        this.histogram = histogram;
+        this.retainers = retainers;
+        this.totalSize = totalSize;
+        this.objectCount = objectCount;
+    }
+
+    public List<HeapDumpSummary.Entry> getHistogram() {
+        return this.histogram;
+    }
+
+    public List<Retainer> getRetainers() {
+        return this.retainers;
+    }
+
+    /**
+     * Gets the total (estimated) size of all reachable objects.
+     *
+     * @return the total size in bytes
+     */
+    public long getTotalSize() {
+        return this.totalSize;
+    }
+
+    /**
+     * Gets the number of reachable objects.
+     *
+     * @return the object count
+     */
+    public long getObjectCount() {
+        return this.objectCount;
+    }
+
+    private HeapData toProto(PlatformInfo platformInfo, CommandSender creator) {
+        HeapData.Builder proto = HeapData.newBuilder();
+        proto.setMetadata(SparkProtos.HeapMetadata.newBuilder()
+                .setPlatform(platformInfo.toData().toProto())
+                .setUser(creator.toData().toProto())
+                .build()
+        );
+
+        for (HeapDumpSummary.Entry entry : this.histogram) {
+            proto.addEntries(entry.toProto());
+        }
+        for (Retainer retainer : this.retainers) {
+            proto.addRetainers(retainer.toProto());
+        }
+
+        return proto.build();
+    }
+
+    public byte[] formCompressedDataPayload(PlatformInfo platformInfo, CommandSender creator) {
+        return ParallelGzipCompressor.compressData(toProto(platformInfo, creator));
+    }
+
+    /**
+     * An object which retains a large amount of memory.
+     */
+    public static final class Retainer {
+        private final String type;
+        private final long shallowSize;
+        private final long retainedSize;
+        private final List<PathElement> pathToRoot;
+
+        Retainer(String type, long shallowSize, long retainedSize, List<PathElement> pathToRoot) {
+            this.type = type;
+            this.shallowSize = shallowSize;
+            this.retainedSize = retainedSize;
+            this.pathToRoot = pathToRoot;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public long getShallowSize() {
+            return this.shallowSize;
+        }
+
+        public long getRetainedSize() {
+            return this.retainedSize;
+        }
+
+        /**
+         * Gets the path of references from a GC root to this object, starting with the
+         * object itself.
+         *
+         * @return the path
+         */
+        public List<PathElement> getPathToRoot() {
+            return this.pathToRoot;
+        }
+
+        public SparkProtos.HeapRetainer toProto() {
+            SparkProtos.HeapRetainer.Builder proto = SparkProtos.HeapRetainer.newBuilder()
+                    .setType(this.type)
+                    .setShallowSize(this.shallowSize)
+                    .setRetainedSize(this.retainedSize);
+            for (PathElement element : this.pathToRoot) {
+                proto.addPathToRoot(SparkProtos.HeapPathElement.newBuilder()
+                        .setType(element.type)
+                        .setReference(element.reference)
+                        .build()
+                );
+            }
+            return proto.build();
+        }
+    }
+
+    /**
+     * An object on a path to a GC root, and how it is referenced by the next element.
+     */
+    public static final class PathElement {
+        private final String type;
+        private final String reference;
+
+        PathElement(String type, String reference) {
+            this.type = type;
+            this.reference = reference;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        /**
+         * Gets a description of how this object is referenced, e.g. a field name,
+         * array index or "GC root".
+         *
+         * @return the reference
+         */
+        public String getReference() {
+            return this.reference;
+        }
+    }
+
+    /**
+     * Information about a class, from its CLASS DUMP record.
+     */
+    private static final class ClassInfo {
+        long superId;
+        int typeIndex;
+        long[] fieldNameIds;
+        byte[] fieldTypes;
+        long[] staticRefIds;
+        long[] staticRefNameIds;
+        long staticSize;
+        int[] refOffsets;
+    }
+
+    /**
+     * Performs the analysis. Arrays are indexed either by object index (position in the
+     * sorted id index) or by depth-first number - the super root that links all GC roots
+     * is object index {@code n} and depth-first number 0.
+     */
+    private static final class Analyser implements AutoCloseable {
+        private final HprofFile hprof;
+        private final Path workDirectory;
+        private final Consumer<String> progress;
+        private final int idSize;
+        private final List<MappedArray> arrays = new ArrayList<>();
+
+        private final LongLongMap strings = new LongLongMap();
+        private final Map<Long, Long> classNameIds = new HashMap<>();
+        private final Map<Long, ClassInfo> classes = new HashMap<>();
+        private final List<String> typeNames = new ArrayList<>();
+        private final int[] primitiveArrayTypes = new int[12];
+        private int classTypeIndex;
+
+        private long objectCount;
+        private long rootCount;
+
+        // object index -> id, file offset (sorted by id)
+        private MappedArray ids;
+        private MappedArray offsets;
+        private MappedArray roots;
+
+        Analyser(HprofFile hprof, Path workDirectory, Consumer<String> progress) {
+            this.hprof = hprof;
+            this.workDirectory = workDirectory;
+            this.progress = progress;
+            this.idSize = hprof.idSize();
+        }
+
+        private MappedArray ints(String name, long length) throws IOException {
+            MappedArray array = MappedArray.ints(Files.createTempFile(this.workDirectory, name, ".idx"), length);
+            this.arrays.add(array);
+            return array;
+        }
+
+        private MappedArray longs(String name, long length) throws IOException {
+            MappedArray array = MappedArray.longs(Files.createTempFile(this.workDirectory, name, ".idx"), length);
+            this.arrays.add(array);
+            return array;
+        }
+
+        private void free(MappedArray array) {
+            this.arrays.remove(array);
+            array.close();
+        }
+
+        @Override
+        public void close() {
+            for (MappedArray array : this.arrays) {
+                array.close();
+            }
+            this.arrays.clear();
+        }
+
+        HeapDumpAnalysis run() throws IOException {
+            this.progress.accept("Indexing objects...");
+            scan(false);
+            this.ids = longs("ids", this.objectCount);
+            this.offsets = longs("offsets", this.objectCount);
+            this.roots = longs("roots", this.rootCount);
+            this.objectCount = 0;
+            this.rootCount = 0;
+            scan(true);
+            sort(this.ids, this.offsets, 0, this.objectCount - 1);
+            resolveTypes();
+
+            long n = this.objectCount;
+            this.progress.accept("Building reference graph for " + n + " objects...");
+            MappedArray typeIndexes = ints("types", n);
+            MappedArray shallowSizes = longs("shallow", n + 1);
+            MappedArray refStart = longs("refstart", n + 2);
+            MappedArray refs = buildGraph(typeIndexes, shallowSizes, refStart);
+
+            this.progress.accept("Computing dominator tree...");
+            MappedArray dfn = ints("dfn", n + 1);
+            MappedArray vertex = ints("vertex", n + 1);
+            MappedArray parent = ints("parent", n + 1);
+            int reachable = depthFirstSearch(refStart, refs, dfn, vertex, parent);
+
+            MappedArray pathParent = shortestPaths(refStart, refs);
+
+            MappedArray predStart = longs("predstart", reachable + 1L);
+            MappedArray preds = buildPredecessors(refStart, refs, dfn, vertex, predStart, reachable);
+            free(refs);
+            free(refStart);
+
+            MappedArray idom = dominators(predStart, preds, parent, reachable);
+            free(preds);
+            free(predStart);
+
+            this.progress.accept("Computing retained sizes...");
+            MappedArray retained = longs("retained", reachable);
+            for (int d = 0; d < reachable; d++) {
+                retained.setLong(d, shallowSizes.getLong(vertex.getInt(d)));
+            }
+            for (int d = reachable - 1; d > 0; d--) {
+                int dom = idom.getInt(d);
+                retained.setLong(dom, retained.getLong(dom) + retained.getLong(d));
+            }
+
+            List<HeapDumpSummary.Entry> histogram = histogram(vertex, typeIndexes, shallowSizes, reachable);
+            List<Retainer> retainers = retainers(vertex, pathParent, idom, retained, typeIndexes, shallowSizes, reachable);
+            return new HeapDumpAnalysis(histogram, retainers, retained.getLong(0), reachable - 1);
+        }
+
+        /*
+         * Pass over the records in the dump. The first pass only counts objects and roots,
+         * so the index arrays can be sized - the second pass fills them.
+         */
+        private void scan(boolean collect) throws IOException {
+            HprofFile hprof = this.hprof;
+            long pos = hprof.recordsStart();
+            while (pos < hprof.size()) {
+                int tag = hprof.getUnsignedByte(pos);
+                long length = hprof.getUnsignedInt(pos + 5);
+                long body = pos + 9;
+
+                if (collect && tag == TAG_STRING) {
+                    this.strings.put(hprof.getId(body), pos);
+                } else if (collect && tag == TAG_LOAD_CLASS) {
+                    this.classNameIds.put(hprof.getId(body + 4), hprof.getId(body + 8 + this.idSize));
+                } else if (tag == TAG_HEAP_DUMP || tag == TAG_HEAP_DUMP_SEGMENT) {
+                    scanHeapDump(body, body + length, collect);
+                }
+
+                pos = body + length;
+            }
+        }
+
+        private void scanHeapDump(long pos, long end, boolean collect) throws IOException {
+            HprofFile hprof = this.hprof;
+            int idSize = this.idSize;
+            while (pos < end) {
+                int tag = hprof.getUnsignedByte(pos);
+                long record = pos++;
+                switch (tag) {
+                    case ROOT_UNKNOWN:
+                    case ROOT_STICKY_CLASS:
+                    case ROOT_MONITOR_USED:
+                        addRoot(pos, collect);
+                        pos += idSize;
+                        break;
+                    case ROOT_JNI_GLOBAL:
+                        addRoot(pos, collect);
+                        pos += idSize * 2;
+                        break;
+                    case ROOT_JNI_LOCAL:
+                    case ROOT_JAVA_FRAME:
+                    case ROOT_THREAD_OBJECT:
+                        addRoot(pos, collect);
+                        pos += idSize + 8;
+                        break;
+                    case ROOT_NATIVE_STACK:
+                    case ROOT_THREAD_BLOCK:
+                        addRoot(pos, collect);
+                        pos += idSize + 4;
+                        break;
+                    case CLASS_DUMP:
+                        addObject(pos, record, collect);
+                        pos = readClassDump(pos, collect);
+                        break;
+                    case INSTANCE_DUMP:
+                        addObject(pos, record, collect);
+                        pos += idSize + 4 + idSize;
+                        pos += 4 + hprof.getUnsignedInt(pos);
+                        break;
+                    case OBJECT_ARRAY_DUMP: {
+                        addObject(pos, record, collect);
+                        pos += idSize + 4;
+                        long count = hprof.getUnsignedInt(pos);
+                        pos += 4 + idSize + count * idSize;
+                        break;
+                    }
+                    case PRIMITIVE_ARRAY_DUMP: {
+                        addObject(pos, record, collect);
+                        pos += idSize + 4;
+                        long count = hprof.getUnsignedInt(pos);
+                        int type = hprof.getUnsignedByte(pos + 4);
+                        pos += 5 + count * hprof.sizeOf(type);
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unsupported heap dump sub-record 0x" + Integer.toHexString(tag) + " at offset " + record);
+                }
+            }
+        }
+
+        private void addRoot(long pos, boolean collect) {
+            if (collect) {
+                this.roots.setLong(this.rootCount, this.hprof.getId(pos));
+            }
+            this.rootCount++;
+        }
+
+        private void addObject(long pos, long record, boolean collect) {
+            if (collect) {
+                this.ids.setLong(this.objectCount, this.hprof.getId(pos));
+                this.offsets.setLong(this.objectCount, record);
+            }
+            this.objectCount++;
+        }
+
+        private long readClassDump(long pos, boolean collect) {
+            HprofFile hprof = this.hprof;
+            int idSize = this.idSize;
+
+            long classId = hprof.getId(pos);
+            ClassInfo info = new ClassInfo();
+            List<Long> staticRefIds = new ArrayList<>();
+            List<Long> staticRefNameIds = new ArrayList<>();
+
+            pos += idSize + 4;
+            info.superId = hprof.getId(pos);
+            // loader, signers, protection domain
+            for (int i = 1; i <= 3; i++) {
+                long id = hprof.getId(pos + (long) i * idSize);
+                if (id != 0) {
+                    staticRefIds.add(id);
+                    staticRefNameIds.add(-(long) i);
+                }
+            }
+            pos += idSize * 6L + 4; // super, loader, signers, protection domain, 2 reserved, instance size
+
+            int constantPoolSize = hprof.getUnsignedShort(pos);
+            pos += 2;
+            for (int i = 0; i < constantPoolSize; i++) {
+                int type = hprof.getUnsignedByte(pos + 2);
+                if (type == HprofFile.TYPE_OBJECT) {
+                    long id = hprof.getId(pos + 3);
+                    if (id != 0) {
+                        staticRefIds.add(id);
+                        staticRefNameIds.add(0L);
+                    }
+                }
+                pos += 3 + hprof.sizeOf(type);
+            }
+
+            int staticFields = hprof.getUnsignedShort(pos);
+            pos += 2;
+            for (int i = 0; i < staticFields; i++) {
+                long nameId = hprof.getId(pos);
+                int type = hprof.getUnsignedByte(pos + idSize);
+                if (type == HprofFile.TYPE_OBJECT) {
+                    long id = hprof.getId(pos + idSize + 1);
+                    if (id != 0) {
+                        staticRefIds.add(id);
+                        staticRefNameIds.add(nameId);
+                    }
+                }
+                int size = hprof.sizeOf(type);
+                info.staticSize += size;
+                pos += idSize + 1 + size;
+            }
+
+            int instanceFields = hprof.getUnsignedShort(pos);
+            pos += 2;
+            info.fieldNameIds = new long[instanceFields];
+            info.fieldTypes = new byte[instanceFields];
+            for (int i = 0; i < instanceFields; i++) {
+                info.fieldNameIds[i] = hprof.getId(pos);
+                info.fieldTypes[i] = hprof.getByte(pos + idSize);
+                pos += idSize + 1;
+            }
+
+            if (collect) {
+                info.staticRefIds = staticRefIds.stream().mapToLong(Long::longValue).toArray();
+                info.staticRefNameIds = staticRefNameIds.stream().mapToLong(Long::longValue).toArray();
+                this.classes.put(classId, info);
+            }
+            return pos;
+        }
+
+        private String getString(long id) {
+            long record = this.strings.get(id);
+            if (record == -1) {
+                return "<unknown>";
+            }
+            int length = (int) this.hprof.getUnsignedInt(record + 5) - this.idSize;
+            return this.hprof.getString(record + 9 + this.idSize, length);
+        }
+
+        private String getClassName(long classId) {
+            Long nameId = this.classNameIds.get(classId);
+            if (nameId == null) {
+                return "<unknown class 0x" + Long.toHexString(classId) + ">";
+            }
+            String name = getString(nameId);
+            if (name.startsWith("[")) {
+                try {
+                    return Type.getType(name.replace('.', '/')).getClassName();
+                } catch (IllegalArgumentException e) {
+                    return name;
+                }
+            }
+            return name.replace('/', '.');
+        }
+
+        /*
+         * Assigns a type index to each class & primitive array type, and works out where
+         * the references are in instances of each class.
+         */
+        private void resolveTypes() {
+            this.classTypeIndex = this.typeNames.size();
+            this.typeNames.add("java.lang.Class");
+
+            for (int type = HprofFile.TYPE_BOOLEAN; type <= HprofFile.TYPE_LONG; type++) {
+                this.primitiveArrayTypes[type] = this.typeNames.size();
+                this.typeNames.add(HprofFile.primitiveArrayName(type));
+            }
+
+            for (Map.Entry<Long, ClassInfo> entry : this.classes.entrySet()) {
+                ClassInfo info = entry.getValue();
+                info.typeIndex = this.typeNames.size();
+                this.typeNames.add(getClassName(entry.getKey()));
+
+                // instance data contains the fields of the class, then its superclass, etc
+                List<Integer> refOffsets = new ArrayList<>();
+                int offset = 0;
+                for (ClassInfo c = info; c != null; c = this.classes.get(c.superId)) {
+                    for (byte type : c.fieldTypes) {
+                        if (type == HprofFile.TYPE_OBJECT) {
+                            refOffsets.add(offset);
+                        }
+                        offset += this.hprof.sizeOf(type);
+                    }
+                }
+                info.refOffsets = refOffsets.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        private int typeIndexForClass(long classId) {
+            ClassInfo info = this.classes.get(classId);
+            if (info != null) {
+                return info.typeIndex;
+            }
+            // an array class with no CLASS DUMP record
+            String name = getClassName(classId);
+            int index = this.typeNames.size();
+            this.typeNames.add(name);
+            ClassInfo placeholder = new ClassInfo();
+            placeholder.typeIndex = index;
+            placeholder.fieldNameIds = new long[0];
+            placeholder.fieldTypes = new byte[0];
+            placeholder.refOffsets = new int[0];
+            placeholder.staticRefIds = new long[0];
+            placeholder.staticRefNameIds = new long[0];
+            this.classes.put(classId, placeholder);
+            return index;
+        }
+
+        private long indexOf(long id) {
+            long low = 0;
+            long high = this.objectCount - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                long midId = this.ids.getLong(mid);
+                if (midId < id) {
+                    low = mid + 1;
+                } else if (midId > id) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private long align(long size) {
+            return (size + 7) & ~7L;
+        }
+
+        private long headerSize() {
+            return this.idSize * 2L;
+        }
+
+        /*
+         * Builds the outgoing references of each object in compressed sparse row form:
+         * the references of object i are refs[refStart[i] .. refStart[i + 1]).
+         */
+        private MappedArray buildGraph(MappedArray typeIndexes, MappedArray shallowSizes, MappedArray refStart) throws IOException {
+            HprofFile hprof = this.hprof;
+            int idSize = this.idSize;
+            long n = this.objectCount;
+
+            // count (an upper bound on) the number of references, so the array can be sized
+            long capacity = this.rootCount;
+            for (long i = 0; i < n; i++) {
+                long pos = this.offsets.getLong(i);
+                int tag = hprof.getUnsignedByte(pos);
+                pos++;
+                switch (tag) {
+                    case CLASS_DUMP:
+                        capacity += this.classes.get(hprof.getId(pos)).staticRefIds.length + 1;
+                        break;
+                    case INSTANCE_DUMP: {
+                        ClassInfo info = this.classes.get(hprof.getId(pos + idSize + 4));
+                        capacity += (info == null ? 0 : info.refOffsets.length) + 1;
+                        break;
+                    }
+                    case OBJECT_ARRAY_DUMP:
+                        capacity += hprof.getUnsignedInt(pos + idSize + 4) + 1;
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            MappedArray refs = ints("refs", Math.max(1, capacity));
+            long count = 0;
+            for (long i = 0; i < n; i++) {
+                refStart.setLong(i, count);
+
+                long pos = this.offsets.getLong(i);
+                int tag = hprof.getUnsignedByte(pos);
+                pos++;
+                switch (tag) {
+                    case CLASS_DUMP: {
+                        ClassInfo info = this.classes.get(hprof.getId(pos));
+                        typeIndexes.setInt(i, this.classTypeIndex);
+                        shallowSizes.setLong(i, align(headerSize() + info.staticSize));
+                        count = addRef(refs, count, info.superId);
+                        for (long id : info.staticRefIds) {
+                            count = addRef(refs, count, id);
+                        }
+                        break;
+                    }
+                    case INSTANCE_DUMP: {
+                        long classId = hprof.getId(pos + idSize + 4);
+                        long length = hprof.getUnsignedInt(pos + idSize * 2L + 4);
+                        long data = pos + idSize * 2L + 8;
+                        typeIndexes.setInt(i, typeIndexForClass(classId));
+                        shallowSizes.setLong(i, align(headerSize() + length));
+                        count = addRef(refs, count, classId);
+                        for (int offset : this.classes.get(classId).refOffsets) {
+                            if (offset + idSize <= length) {
+                                count = addRef(refs, count, hprof.getId(data + offset));
+                            }
+                        }
+                        break;
+                    }
+                    case OBJECT_ARRAY_DUMP: {
+                        long length = hprof.getUnsignedInt(pos + idSize + 4);
+                        long classId = hprof.getId(pos + idSize + 8);
+                        long data = pos + idSize * 2L + 8;
+                        typeIndexes.setInt(i, typeIndexForClass(classId));
+                        shallowSizes.setLong(i, align(headerSize() + 4 + length * idSize));
+                        count = addRef(refs, count, classId);
+                        for (long j = 0; j < length; j++) {
+                            count = addRef(refs, count, hprof.getId(data + j * idSize));
+                        }
+                        break;
+                    }
+                    case PRIMITIVE_ARRAY_DUMP: {
+                        long length = hprof.getUnsignedInt(pos + idSize + 4);
+                        int type = hprof.getUnsignedByte(pos + idSize + 8);
+                        typeIndexes.setInt(i, this.primitiveArrayTypes[type]);
+                        shallowSizes.setLong(i, align(headerSize() + 4 + length * hprof.sizeOf(type)));
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unexpected object record 0x" + Integer.toHexString(tag));
+                }
+            }
+
+            // the super root references every GC root
+            refStart.setLong(n, count);
+            for (long i = 0; i < this.rootCount; i++) {
+                count = addRef(refs, count, this.roots.getLong(i));
+            }
+            refStart.setLong(n + 1, count);
+            return refs;
+        }
+
+        private long addRef(MappedArray refs, long count, long id) {
+            if (id == 0) {
+                return count;
+            }
+            long index = indexOf(id);
+            if (index == -1) {
+                return count;
+            }
+            refs.setInt(count, (int) index);
+            return count + 1;
+        }
+
+        /*
+         * Depth-first search from the super root, numbering reachable objects in preorder.
+         * Returns the number of reachable objects (including the super root).
+         */
+        private int depthFirstSearch(MappedArray refStart, MappedArray refs, MappedArray dfn, MappedArray vertex, MappedArray parent) throws IOException {
+            int n = (int) this.objectCount;
+            dfn.fill(-1);
+
+            MappedArray stack = ints("stack", n + 1);
+            MappedArray stackEdge = longs("stackedge", n + 1);
+
+            int sp = 0;
+            int d = 0;
+            dfn.setInt(n, d);
+            vertex.setInt(d, n);
+            parent.setInt(d, -1);
+            d++;
+            stack.setInt(sp, n);
+            stackEdge.setLong(sp, refStart.getLong(n));
+            sp++;
+
+            while (sp > 0) {
+                int v = stack.getInt(sp - 1);
+                long e = stackEdge.getLong(sp - 1);
+                if (e < refStart.getLong(v + 1)) {
+                    stackEdge.setLong(sp - 1, e + 1);
+                    int w = refs.getInt(e);
+                    if (dfn.getInt(w) == -1) {
+                        dfn.setInt(w, d);
+                        vertex.setInt(d, w);
+                        parent.setInt(d, dfn.getInt(v));
+                        d++;
+                        stack.setInt(sp, w);
+                        stackEdge.setLong(sp, refStart.getLong(w));
+                        sp++;
+                    }
+                } else {
+                    sp--;
+                }
+            }
+
+            free(stack);
+            free(stackEdge);
+            return d;
+        }
+
+        /*
+         * Breadth-first search from the super root, recording the parent of each object on
+         * its shortest path from a GC root. Indexed by object index.
+         */
+        private MappedArray shortestPaths(MappedArray refStart, MappedArray refs) throws IOException {
+            int n = (int) this.objectCount;
+            MappedArray pathParent = ints("pathparent", n + 1);
+            pathParent.fill(-1);
+            pathParent.setInt(n, n);
+
+            MappedArray queue = ints("queue", n + 1);
+            int head = 0;
+            int tail = 0;
+            queue.setInt(tail++, n);
+            while (head < tail) {
+                int v = queue.getInt(head++);
+                for (long e = refStart.getLong(v), end = refStart.getLong(v + 1); e < end; e++) {
+                    int w = refs.getInt(e);
+                    if (pathParent.getInt(w) == -1) {
+                        pathParent.setInt(w, v);
+                        queue.setInt(tail++, w);
+                    }
+                }
+            }
+
+            free(queue);
+            return pathParent;
+        }
+
+        /*
+         * Builds the incoming references of each reachable object, indexed by depth-first number.
+         */
+        private MappedArray buildPredecessors(MappedArray refStart, MappedArray refs, MappedArray dfn, MappedArray vertex, MappedArray predStart, int reachable) throws IOException {
+            // count
+            long total = 0;
+            for (int d = 0; d < reachable; d++) {
+                int v = vertex.getInt(d);
+                for (long e = refStart.getLong(v), end = refStart.getLong(v + 1); e < end; e++) {
+                    int w = dfn.getInt(refs.getInt(e));
+                    predStart.setLong(w + 1, predStart.getLong(w + 1) + 1);
+                    total++;
+                }
+            }
+            for (int d = 1; d <= reachable; d++) {
+                predStart.setLong(d, predStart.getLong(d) + predStart.getLong(d - 1));
+            }
+
+            // fill
+            MappedArray preds = ints("preds", Math.max(1, total));
+            MappedArray cursor = longs("cursor", reachable);
+            for (int d = 0; d < reachable; d++) {
+                cursor.setLong(d, predStart.getLong(d));
+            }
+            for (int d = 0; d < reachable; d++) {
+                int v = vertex.getInt(d);
+                for (long e = refStart.getLong(v), end = refStart.getLong(v + 1); e < end; e++) {
+                    int w = dfn.getInt(refs.getInt(e));
+                    long c = cursor.getLong(w);
+                    preds.setInt(c, d);
+                    cursor.setLong(w, c + 1);
+                }
+            }
+            free(cursor);
+            return preds;
+        }
+
+        /*
+         * Computes immediate dominators using the (simple) Lengauer-Tarjan algorithm,
+         * in depth-first number space.
+         */
+        private MappedArray dominators(MappedArray predStart, MappedArray preds, MappedArray parent, int reachable) throws IOException {
+            MappedArray semi = ints("semi", reachable);
+            MappedArray label = ints("label", reachable);
+            MappedArray ancestor = ints("ancestor", reachable);
+            MappedArray idom = ints("idom", reachable);
+            MappedArray bucketHead = ints("buckethead", reachable);
+            MappedArray bucketNext = ints("bucketnext", reachable);
+            MappedArray path = ints("path", reachable);
+
+            for (int d = 0; d < reachable; d++) {
+                semi.setInt(d, d);
+                label.setInt(d, d);
+                ancestor.setInt(d, -1);
+                bucketHead.setInt(d, -1);
+            }
+
+            for (int w = reachable - 1; w > 0; w--) {
+                for (long e = predStart.getLong(w), end = predStart.getLong(w + 1); e < end; e++) {
+                    int u = eval(preds.getInt(e), semi, label, ancestor, path);
+                    if (semi.getInt(u) < semi.getInt(w)) {
+                        semi.setInt(w, semi.getInt(u));
+                    }
+                }
+
+                int s = semi.getInt(w);
+                bucketNext.setInt(w, bucketHead.getInt(s));
+                bucketHead.setInt(s, w);
+
+                int p = parent.getInt(w);
+                ancestor.setInt(w, p);
+
+                for (int v = bucketHead.getInt(p); v != -1; v = bucketNext.getInt(v)) {
+                    int u = eval(v, semi, label, ancestor, path);
+                    idom.setInt(v, semi.getInt(u) < semi.getInt(v) ? u : p);
+                }
+                bucketHead.setInt(p, -1);
+            }
+
+            for (int w = 1; w < reachable; w++) {
+                if (idom.getInt(w) != semi.getInt(w)) {
+                    idom.setInt(w, idom.getInt(idom.getInt(w)));
+                }
+            }
+            idom.setInt(0, -1);
+
+            free(semi);
+            free(label);
+            free(ancestor);
+            free(bucketHead);
+            free(bucketNext);
+            free(path);
+            return idom;
+        }
+
+        private static int eval(int v, MappedArray semi, MappedArray label, MappedArray ancestor, MappedArray path) {
+            if (ancestor.getInt(v) == -1) {
+                return v;
+            }
+
+            // path compression, iteratively
+            int sp = 0;
+            int u = v;
+            while (ancestor.getInt(ancestor.getInt(u)) != -1) {
+                path.setInt(sp++, u);
+                u = ancestor.getInt(u);
+            }
+            while (sp > 0) {
+                int x = path.getInt(--sp);
+                int a = ancestor.getInt(x);
+                if (semi.getInt(label.getInt(a)) < semi.getInt(label.getInt(x))) {
+                    label.setInt(x, label.getInt(a));
+                }
+                ancestor.setInt(x, ancestor.getInt(a));
+            }
+            return label.getInt(v);
+        }
+
+        private List<HeapDumpSummary.Entry> histogram(MappedArray vertex, MappedArray typeIndexes, MappedArray shallowSizes, int reachable) {
+            int types = this.typeNames.size();
+            long[] instances = new long[types];
+            long[] bytes = new long[types];
+            for (int d = 1; d < reachable; d++) {
+                int v = vertex.getInt(d);
+                int type = typeIndexes.getInt(v);
+                instances[type]++;
+                bytes[type] += shallowSizes.getLong(v);
+            }
+
+            Integer[] order = new Integer[types];
+            for (int i = 0; i < types; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong((Integer i) -> bytes[i]).reversed());
+
+            List<HeapDumpSummary.Entry> histogram = new ArrayList<>();
+            for (int i : order) {
+                if (instances[i] == 0) {
+                    break;
+                }
+                histogram.add(new HeapDumpSummary.Entry(histogram.size() + 1, (int) Math.min(Integer.MAX_VALUE, instances[i]), bytes[i], this.typeNames.get(i)));
+            }
+            return histogram;
+        }
+
+        /*
+         * The top retainers are the objects immediately dominated by the super root (so they
+         * don't overlap), ordered by retained size.
+         */
+        private List<Retainer> retainers(MappedArray vertex, MappedArray pathParent, MappedArray idom, MappedArray retained, MappedArray typeIndexes, MappedArray shallowSizes, int reachable) {
+            int superRoot = (int) this.objectCount;
+            PriorityQueue<Integer> top = new PriorityQueue<>(Comparator.comparingLong((Integer d) -> retained.getLong(d)));
+            for (int d = 1; d < reachable; d++) {
+                if (idom.getInt(d) != 0) {
+                    continue;
+                }
+                top.add(d);
+                if (top.size() > RETAINER_COUNT) {
+                    top.poll();
+                }
+            }
+
+            List<Retainer> retainers = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                int d = top.poll();
+                int v = vertex.getInt(d);
+
+                List<PathElement> path = new ArrayList<>();
+                for (int x = v; x != superRoot && path.size() < MAX_PATH_LENGTH; x = pathParent.getInt(x)) {
+                    int p = pathParent.getInt(x);
+                    String reference = p == superRoot ? "GC root" : describeReference(p, x);
+                    path.add(new PathElement(describeObject(x, typeIndexes), reference));
+                }
+
+                retainers.add(new Retainer(describeObject(v, typeIndexes), shallowSizes.getLong(v), retained.getLong(d), path));
+            }
+            Collections.reverse(retainers);
+            return retainers;
+        }
+
+        private String describeObject(int index, MappedArray typeIndexes) {
+            int type = typeIndexes.getInt(index);
+            if (type == this.classTypeIndex) {
+                return "class " + getClassName(this.ids.getLong(index));
+            }
+            return this.typeNames.get(type);
+        }
+
+        /*
+         * Describes how the "from" object references the "to" object.
+         */
+        private String describeReference(long from, long to) {
+            HprofFile hprof = this.hprof;
+            int idSize = this.idSize;
+            long toId = this.ids.getLong(to);
+            String fromType;
+
+            long pos = this.offsets.getLong(from);
+            int tag = hprof.getUnsignedByte(pos);
+            pos++;
+            switch (tag) {
+                case CLASS_DUMP: {
+                    fromType = getClassName(hprof.getId(pos));
+                    ClassInfo info = this.classes.get(hprof.getId(pos));
+                    if (info.superId == toId) {
+                        return "<superclass> of " + fromType;
+                    }
+                    for (int i = 0; i < info.staticRefIds.length; i++) {
+                        if (info.staticRefIds[i] == toId) {
+                            long nameId = info.staticRefNameIds[i];
+                            if (nameId == -1) {
+                                return "<classloader> of " + fromType;
+                            } else if (nameId == -2) {
+                                return "<signers> of " + fromType;
+                            } else if (nameId == -3) {
+                                return "<protection domain> of " + fromType;
+                            } else if (nameId == 0) {
+                                return "<constant pool> of " + fromType;
+                            }
+                            return "static " + getString(nameId) + " in " + fromType;
+                        }
+                    }
+                    break;
+                }
+                case INSTANCE_DUMP: {
+                    long classId = hprof.getId(pos + idSize + 4);
+                    long length = hprof.getUnsignedInt(pos + idSize * 2L + 4);
+                    long data = pos + idSize * 2L + 8;
+                    fromType = getClassName(classId);
+                    if (classId == toId) {
+                        return "<class> of " + fromType;
+                    }
+
+                    int offset = 0;
+                    for (ClassInfo c = this.classes.get(classId); c != null; c = this.classes.get(c.superId)) {
+                        for (int i = 0; i < c.fieldTypes.length; i++) {
+                            if (c.fieldTypes[i] == HprofFile.TYPE_OBJECT && offset + idSize <= length && hprof.getId(data + offset) == toId) {
+                                return getString(c.fieldNameIds[i]) + " in " + fromType;
+                            }
+                            offset += hprof.sizeOf(c.fieldTypes[i]);
+                        }
+                    }
+                    break;
+                }
+                case OBJECT_ARRAY_DUMP: {
+                    long length = hprof.getUnsignedInt(pos + idSize + 4);
+                    long data = pos + idSize * 2L + 8;
+                    fromType = getClassName(hprof.getId(pos + idSize + 8));
+                    for (long j = 0; j < length; j++) {
+                        if (hprof.getId(data + j * idSize) == toId) {
+                            return "[" + j + "] in " + fromType;
+                        }
+                    }
+                    break;
+                }
+                default:
+                    return "<unknown>";
+            }
+            return "<reference> from " + fromType;
+        }
+
+        /*
+         * Sorts the keys (and values, in parallel) between the given indexes, inclusive.
+         */
+        private static void sort(MappedArray keys, MappedArray values, long low, long high) {
+            while (high - low > 16) {
+                // median of three pivot
+                long mid = (low + high) >>> 1;
+                if (keys.getLong(mid) < keys.getLong(low)) swap(keys, values, mid, low);
+                if (keys.getLong(high) < keys.getLong(low)) swap(keys, values, high, low);
+                if (keys.getLong(high) < keys.getLong(mid)) swap(keys, values, high, mid);
+                long pivot = keys.getLong(mid);
+
+                long i = low;
+                long j = high;
+                while (i <= j) {
+                    while (keys.getLong(i) < pivot) i++;
+                    while (keys.getLong(j) > pivot) j--;
+                    if (i <= j) {
+                        swap(keys, values, i, j);
+                        i++;
+                        j--;
+                    }
+                }
+
+                // recurse into the smaller partition, loop on the larger
+                if (j - low < high - i) {
+                    sort(keys, values, low, j);
+                    low = i;
+                } else {
+                    sort(keys, values, i, high);
+                    high = j;
+                }
+            }
+
+            // insertion sort for small ranges
+            for (long i = low + 1; i <= high; i++) {
+                long key = keys.getLong(i);
+                long value = values.getLong(i);
+                long j = i - 1;
+                while (j >= low && keys.getLong(j) > key) {
+                    keys.setLong(j + 1, keys.getLong(j));
+                    values.setLong(j + 1, values.getLong(j));
+                    j--;
+                }
+                keys.setLong(j + 1, key);
+                values.setLong(j + 1, value);
+            }
+        }
+
+        private static void swap(MappedArray keys, MappedArray values, long a, long b) {
+            long key = keys.getLong(a);
+            long value = values.getLong(a);
+            keys.setLong(a, keys.getLong(b));
+            values.setLong(a, values.getLong(b));
+            keys.setLong(b, key);
+            values.setLong(b, value);
+        }
+    }
+
+    /**
+     * A minimal open addressing long to long hash map, to avoid boxing the (potentially
+     * millions of) string records in a dump.
+     */
+    private static final class LongLongMap {
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024];
+        private int size;
+
+        void put(long key, long value) {
+            if ((this.size + 1) * 2 > this.keys.length) {
+                resize();
+            }
+            int mask = this.keys.length - 1;
+            int i = hash(key) & mask;
+            while (this.keys[i] != 0 && this.keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (this.keys[i] == 0) {
+                this.size++;
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+        }
+
+        long get(long key) {
+            int mask = this.keys.length - 1;
+            int i = hash(key) & mask;
+            while (this.keys[i] != 0) {
+                if (this.keys[i] == key) {
+                    return this.values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void resize() {
+            long[] oldKeys = this.keys;
+            long[] oldValues = this.values;
+            this.keys = new long[oldKeys.length * 2];
+            this.values = new long[oldValues.length * 2];
+            this.size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+}
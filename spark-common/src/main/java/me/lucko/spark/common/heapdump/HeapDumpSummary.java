@@ -22,21 +22,25 @@ package me.lucko.spark.common.heapdump;
 
 import me.lucko.spark.common.command.sender.CommandSender;
 import me.lucko.spark.common.platform.PlatformInfo;
+import me.lucko.spark.common.util.ClassSourceLookup;
 import me.lucko.spark.proto.SparkProtos;
 import me.lucko.spark.proto.SparkProtos.HeapData;
 import me.lucko.spark.proto.SparkProtos.HeapEntry;
+import me.lucko.spark.proto.SparkProtos.HeapRollup;
 import org.objectweb.asm.Type;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.management.ManagementFactory;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.zip.GZIPOutputStream;
 
 import javax.management.JMX;
@@ -53,8 +57,10 @@ public final class HeapDumpSummary {
 
     /** The object name of the com.sun.management.DiagnosticCommandMBean */
     private static final String DIAGNOSTIC_BEAN = "com.sun.management:type=DiagnosticCommand";
-    /** A regex pattern representing the expected format of the raw heap output */
-    private static final Pattern OUTPUT_FORMAT = Pattern.compile("^\\s*(\\d+):\\s*(\\d+)\\s*(\\d+)\\s*([^\\s]+).*$");
+    /** The rollup name used for classes which couldn't be attributed to a plugin or mod */
+    public static final String UNATTRIBUTED = "(unattributed)";
+    /** The rollup name used for primitive arrays and classes in the default package */
+    public static final String NO_PACKAGE = "(none)";
 
     /**
      * Obtains the raw heap data output from the DiagnosticCommandMBean.
@@ -91,41 +97,156 @@ public final class HeapDumpSummary {
      * @throws RuntimeException if an error occurred whilst requesting a heap dump from the VM
      */
     public static HeapDumpSummary createNew() {
+        return createNew(ClassSourceLookup.NO_OP);
+    }
+
+    /**
+     * Creates a new heap dump based on the current VM, attributing each class to the
+     * plugin or mod which owns it.
+     *
+     * @param classSourceLookup the lookup used to identify the owner of each class
+     * @return the created heap dump
+     * @throws RuntimeException if an error occurred whilst requesting a heap dump from the VM
+     */
+    public static HeapDumpSummary createNew(ClassSourceLookup classSourceLookup) {
+        List<Entry> entries = new ArrayList<>();
+        takeHistogram(entries::add);
+
+        if (classSourceLookup == ClassSourceLookup.NO_OP) {
+            return new HeapDumpSummary(entries, false);
+        }
+
+        List<Entry> attributed = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            attributed.add(entry.withSource(classSourceLookup.identifyClassName(entry.getType())));
+        }
+        return new HeapDumpSummary(attributed, true);
+    }
+
+    /**
+     * Requests a class histogram from the VM, passing each entry to the consumer as it is parsed.
+     *
+     * <p>Note that this triggers a full GC.</p>
+     *
+     * @param consumer the entry consumer
+     * @throws RuntimeException if an error occurred whilst requesting a histogram from the VM
+     */
+    public static void takeHistogram(Consumer<Entry> consumer) {
         String rawOutput;
         try {
             rawOutput = getRawHeapData();
         } catch (Exception e) {
             throw new RuntimeException("Unable to get heap dump", e);
         }
+        parseHistogram(rawOutput, consumer);
+    }
 
-        return new HeapDumpSummary(Arrays.stream(rawOutput.split("\n"))
-                .map(line -> {
-                    Matcher matcher = OUTPUT_FORMAT.matcher(line);
-                    if (!matcher.matches()) {
-                        return null;
-                    }
+    /**
+     * Parses the output of the GC.class_histogram diagnostic command.
+     *
+     * <p>Lines are scanned in place, without splitting the output or matching each line
+     * against a regex. Lines which aren't entries (the header and total) are skipped.</p>
+     *
+     * @param output the raw output
+     * @param consumer the entry consumer
+     */
+    static void parseHistogram(String output, Consumer<Entry> consumer) {
+        int length = output.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = output.indexOf('\n', lineStart);
+            if (lineEnd == -1) {
+                lineEnd = length;
+            }
+
+            // expected format: "<order>: <instances> <bytes> <type> [(module)]"
+            int pos = skipWhitespace(output, lineStart, lineEnd);
+            int orderEnd = skipDigits(output, pos, lineEnd);
+            if (orderEnd != pos && orderEnd < lineEnd && output.charAt(orderEnd) == ':') {
+                int instancesStart = skipWhitespace(output, orderEnd + 1, lineEnd);
+                int instancesEnd = skipDigits(output, instancesStart, lineEnd);
+                int bytesStart = skipWhitespace(output, instancesEnd, lineEnd);
+                int bytesEnd = skipDigits(output, bytesStart, lineEnd);
+                int typeStart = skipWhitespace(output, bytesEnd, lineEnd);
+                int typeEnd = typeStart;
+                while (typeEnd < lineEnd && !Character.isWhitespace(output.charAt(typeEnd))) {
+                    typeEnd++;
+                }
 
+                if (instancesEnd != instancesStart && bytesEnd != bytesStart && typeEnd != typeStart) {
                     try {
-                        return new Entry(
-                                Integer.parseInt(matcher.group(1)),
-                                Integer.parseInt(matcher.group(2)),
-                                Long.parseLong(matcher.group(3)),
-                                typeToClassName(matcher.group(4))
-                        );
+                        consumer.accept(new Entry(
+                                Integer.parseInt(output.substring(pos, orderEnd)),
+                                Integer.parseInt(output.substring(instancesStart, instancesEnd)),
+                                Long.parseLong(output.substring(bytesStart, bytesEnd)),
+                                typeToClassName(output.substring(typeStart, typeEnd))
+                        ));
                     } catch (Exception e) {
-                        new IllegalArgumentException("Exception parsing line: " + line, e).printStackTrace();
-                        return null;
+                        new IllegalArgumentException("Exception parsing line: " + output.substring(lineStart, lineEnd), e).printStackTrace();
                     }
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList()));
+                }
+            }
+
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private static int skipWhitespace(String s, int pos, int end) {
+        while (pos < end && Character.isWhitespace(s.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipDigits(String s, int pos, int end) {
+        while (pos < end && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos;
     }
 
     /** The entries in this heap dump */
     private final List<Entry> entries;
+    /** The entries rolled up by the plugin/mod which owns them, or an empty list if not attributed */
+    private final List<Rollup> sources;
+    /** The entries rolled up by package */
+    private final List<Rollup> packages;
 
-    private HeapDumpSummary(List<Entry> entries) {
+    private HeapDumpSummary(List<Entry> entries, boolean attributed) {
         this.entries = entries;
+        this.sources = attributed ? Rollup.group(entries, entry -> entry.getSource() == null ? UNATTRIBUTED : entry.getSource()) : Collections.emptyList();
+        this.packages = Rollup.group(entries, entry -> packageName(entry.getType()));
+    }
+
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Gets the entries rolled up by the plugin or mod which owns them, largest first.
+     *
+     * @return the rollup, or an empty list if the entries were not attributed
+     */
+    public List<Rollup> getSources() {
+        return this.sources;
+    }
+
+    /**
+     * Gets the entries rolled up by package, largest first.
+     *
+     * @return the rollup
+     */
+    public List<Rollup> getPackages() {
+        return this.packages;
+    }
+
+    private static String packageName(String type) {
+        int end = type.indexOf('[');
+        if (end == -1) {
+            end = type.length();
+        }
+        int dot = type.lastIndexOf('.', end);
+        return dot == -1 ? NO_PACKAGE : type.substring(0, dot);
     }
 
     private HeapData toProto(PlatformInfo platformInfo, CommandSender creator) {
@@ -139,6 +260,12 @@ public final class HeapDumpSummary {
         for (Entry entry : this.entries) {
             proto.addEntries(entry.toProto());
         }
+        for (Rollup rollup : this.sources) {
+            proto.addSources(rollup.toProto());
+        }
+        for (Rollup rollup : this.packages) {
+            proto.addPackages(rollup.toProto());
+        }
 
         return proto.build();
     }
@@ -158,12 +285,18 @@ public final class HeapDumpSummary {
         private final int instances;
         private final long bytes;
         private final String type;
+        private final String source;
 
-        Entry(int order, int instances, long bytes, String type) {
+        Entry(int order, int instances, long bytes, String type, String source) {
             this.order = order;
             this.instances = instances;
             this.bytes = bytes;
             this.type = type;
+            this.source = source;
+        }
+
+        Entry(int order, int instances, long bytes, String type) {
+            this(order, instances, bytes, type, null);
         }
 
         public int getOrder() {
@@ -182,12 +315,81 @@ public final class HeapDumpSummary {
             return this.type;
         }
 
+        /**
+         * Gets the name of the plugin or mod which owns the type.
+         *
+         * @return the source, or null if unknown
+         */
+        public String getSource() {
+            return this.source;
+        }
+
+        Entry withSource(String source) {
+            return new Entry(this.order, this.instances, this.bytes, this.type, source);
+        }
+
         public HeapEntry toProto() {
-            return HeapEntry.newBuilder()
+            HeapEntry.Builder proto = HeapEntry.newBuilder()
                     .setOrder(this.order)
                     .setInstances(this.instances)
                     .setSize(this.bytes)
-                    .setType(this.type)
+                    .setType(this.type);
+            if (this.source != null) {
+                proto.setSource(this.source);
+            }
+            return proto.build();
+        }
+    }
+
+    /**
+     * The total instances and size of a group of entries.
+     */
+    public static final class Rollup {
+        private final String name;
+        private int classes;
+        private long instances;
+        private long bytes;
+
+        Rollup(String name) {
+            this.name = name;
+        }
+
+        static List<Rollup> group(List<Entry> entries, Function<Entry, String> key) {
+            Map<String, Rollup> rollups = new HashMap<>();
+            for (Entry entry : entries) {
+                Rollup rollup = rollups.computeIfAbsent(key.apply(entry), Rollup::new);
+                rollup.classes++;
+                rollup.instances += entry.getInstances();
+                rollup.bytes += entry.getBytes();
+            }
+
+            List<Rollup> list = new ArrayList<>(rollups.values());
+            list.sort(Comparator.comparingLong(Rollup::getBytes).reversed());
+            return list;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getClasses() {
+            return this.classes;
+        }
+
+        public long getInstances() {
+            return this.instances;
+        }
+
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        public HeapRollup toProto() {
+            return HeapRollup.newBuilder()
+                    .setName(this.name)
+                    .setClasses(this.classes)
+                    .setInstances(this.instances)
+                    .setSize(this.bytes)
                     .build();
         }
     }
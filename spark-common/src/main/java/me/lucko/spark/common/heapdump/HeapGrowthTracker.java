@@ -0,0 +1,321 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes class histograms periodically, and keeps a short time series of the instance
+ * count and size of each class in order to find those which are steadily growing.
+ *
+ * <p>Each histogram triggers a full GC, so the interval between histograms is stretched
+ * when necessary to keep the time spent taking them within a budget.</p>
+ */
+public class HeapGrowthTracker implements AutoCloseable {
+
+    /** The number of samples kept for each class */
+    private static final int CAPACITY = 60;
+    /** The minimum number of samples needed before a class is ranked */
+    private static final int MIN_SAMPLES = 3;
+    /** The proportion of intervals in which a class must have grown for the growth to be considered sustained */
+    private static final double SUSTAINED_THRESHOLD = 0.75;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = Executors.defaultThreadFactory().newThread(r);
+        thread.setName("spark-heap-growth-tracker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The requested interval between histograms, in milliseconds */
+    private final long intervalMillis;
+    /** The maximum percentage of wall time to spend taking histograms */
+    private final double budgetPercent;
+
+    /** The time each sample was taken, indexed by sample number modulo the capacity */
+    private final long[] sampleTimes = new long[CAPACITY];
+    /** The series for each class */
+    private final Map<String, Series> series = new HashMap<>();
+    /** The number of samples taken so far */
+    private int sampleCount = 0;
+
+    private long lastDuration = 0;
+    private long totalDuration = 0;
+    private long startTime;
+
+    public HeapGrowthTracker(long intervalMillis, double budgetPercent) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        if (budgetPercent <= 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budget must be between 0 and 100 percent");
+        }
+        this.intervalMillis = intervalMillis;
+        this.budgetPercent = budgetPercent;
+    }
+
+    public void start() {
+        this.startTime = System.currentTimeMillis();
+        this.executor.execute(this::sample);
+    }
+
+    private void sample() {
+        long start = System.currentTimeMillis();
+        try {
+            // take the histogram (and the GC it triggers) without holding the lock
+            List<HeapDumpSummary.Entry> histogram = new ArrayList<>();
+            HeapDumpSummary.takeHistogram(histogram::add);
+            synchronized (this) {
+                record(start, histogram);
+            }
+        } catch (Exception e) {
+            Logger.getLogger("Spark").log(Level.WARNING, "Unable to take class histogram", e);
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        synchronized (this) {
+            this.lastDuration = duration;
+            this.totalDuration += duration;
+        }
+
+        if (!this.executor.isShutdown()) {
+            this.executor.schedule(this::sample, nextDelay(duration), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void record(long time, List<HeapDumpSummary.Entry> histogram) {
+        int slot = this.sampleCount % CAPACITY;
+        int sample = this.sampleCount;
+
+        for (HeapDumpSummary.Entry entry : histogram) {
+            Series series = this.series.computeIfAbsent(entry.getType(), type -> new Series(sample));
+            series.instances[slot] = entry.getInstances();
+            series.bytes[slot] = entry.getBytes();
+            series.lastSeen = sample;
+        }
+
+        // classes missing from this histogram no longer have any live instances
+        for (Iterator<Series> it = this.series.values().iterator(); it.hasNext(); ) {
+            Series series = it.next();
+            if (series.lastSeen != sample) {
+                if (sample - series.lastSeen >= CAPACITY) {
+                    it.remove();
+                } else {
+                    series.instances[slot] = 0;
+                    series.bytes[slot] = 0;
+                }
+            }
+        }
+
+        this.sampleTimes[slot] = time;
+        this.sampleCount++;
+    }
+
+    /**
+     * Gets the delay until the next histogram, given how long the last one took.
+     *
+     * <p>The delay is at least the configured interval, and is extended so that time spent
+     * taking histograms stays within the budget.</p>
+     *
+     * @param lastDuration the duration of the last histogram, in milliseconds
+     * @return the delay in milliseconds
+     */
+    private long nextDelay(long lastDuration) {
+        long budgeted = (long) (lastDuration * 100 / this.budgetPercent) - lastDuration;
+        return Math.max(this.intervalMillis, budgeted);
+    }
+
+    /**
+     * Ranks the classes by their rate of sustained growth.
+     *
+     * <p>The growth rate is the least-squares slope of the retained bytes over time. Only
+     * classes which grew in most of the sampled intervals are included, so that classes
+     * which simply fluctuate are not reported.</p>
+     *
+     * @param limit the maximum number of results
+     * @return the fastest growing classes
+     */
+    public synchronized List<Growth> getTopGrowth(int limit) {
+        List<Growth> results = new ArrayList<>();
+        int newest = this.sampleCount - 1;
+
+        for (Map.Entry<String, Series> entry : this.series.entrySet()) {
+            Series series = entry.getValue();
+            int first = Math.max(series.firstSeen, this.sampleCount - CAPACITY);
+            int samples = this.sampleCount - first;
+            if (samples < MIN_SAMPLES) {
+                continue;
+            }
+
+            int increases = 0;
+            double meanTime = 0, meanBytes = 0, meanInstances = 0;
+            for (int i = first; i <= newest; i++) {
+                int slot = i % CAPACITY;
+                meanTime += this.sampleTimes[slot];
+                meanBytes += series.bytes[slot];
+                meanInstances += series.instances[slot];
+                if (i != first && series.bytes[slot] > series.bytes[(i - 1) % CAPACITY]) {
+                    increases++;
+                }
+            }
+            if (increases < (samples - 1) * SUSTAINED_THRESHOLD) {
+                continue;
+            }
+            meanTime /= samples;
+            meanBytes /= samples;
+            meanInstances /= samples;
+
+            double covBytes = 0, covInstances = 0, varTime = 0;
+            for (int i = first; i <= newest; i++) {
+                int slot = i % CAPACITY;
+                double dt = this.sampleTimes[slot] - meanTime;
+                covBytes += dt * (series.bytes[slot] - meanBytes);
+                covInstances += dt * (series.instances[slot] - meanInstances);
+                varTime += dt * dt;
+            }
+            if (varTime == 0 || covBytes <= 0) {
+                continue;
+            }
+
+            double perMinute = TimeUnit.MINUTES.toMillis(1) / varTime;
+            int slot = newest % CAPACITY;
+            results.add(new Growth(
+                    entry.getKey(),
+                    series.instances[slot],
+                    series.bytes[slot],
+                    covInstances * perMinute,
+                    covBytes * perMinute,
+                    (double) increases / (samples - 1)
+            ));
+        }
+
+        results.sort(Comparator.comparingDouble(Growth::getBytesPerMinute).reversed());
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    public synchronized int getSampleCount() {
+        return this.sampleCount;
+    }
+
+    public long getIntervalMillis() {
+        return this.intervalMillis;
+    }
+
+    public double getBudgetPercent() {
+        return this.budgetPercent;
+    }
+
+    /**
+     * Gets the current delay between histograms, after the budget has been applied.
+     *
+     * @return the effective interval in milliseconds
+     */
+    public synchronized long getEffectiveIntervalMillis() {
+        return nextDelay(this.lastDuration);
+    }
+
+    /**
+     * Gets the percentage of time since the tracker was started that has been spent taking histograms.
+     *
+     * @return the overhead percentage
+     */
+    public synchronized double getOverheadPercent() {
+        long elapsed = System.currentTimeMillis() - this.startTime;
+        return elapsed <= 0 ? 0 : this.totalDuration * 100d / elapsed;
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * The ring buffers of samples for a single class.
+     */
+    private static final class Series {
+        private final int[] instances = new int[CAPACITY];
+        private final long[] bytes = new long[CAPACITY];
+        private final int firstSeen;
+        private int lastSeen;
+
+        Series(int firstSeen) {
+            this.firstSeen = firstSeen;
+        }
+    }
+
+    public static final class Growth {
+        private final String type;
+        private final int instances;
+        private final long bytes;
+        private final double instancesPerMinute;
+        private final double bytesPerMinute;
+        private final double consistency;
+
+        Growth(String type, int instances, long bytes, double instancesPerMinute, double bytesPerMinute, double consistency) {
+            this.type = type;
+            this.instances = instances;
+            this.bytes = bytes;
+            this.instancesPerMinute = instancesPerMinute;
+            this.bytesPerMinute = bytesPerMinute;
+            this.consistency = consistency;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public int getInstances() {
+            return this.instances;
+        }
+
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        public double getInstancesPerMinute() {
+            return this.instancesPerMinute;
+        }
+
+        public double getBytesPerMinute() {
+            return this.bytesPerMinute;
+        }
+
+        /**
+         * Gets the proportion of sampled intervals in which the class grew.
+         *
+         * @return the consistency, between 0 and 1
+         */
+        public double getConsistency() {
+            return this.consistency;
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only, memory mapped access to a HPROF heap dump file.
+ *
+ * <p>The file is mapped in 1GB chunks. Each chunk overlaps the next slightly, so that
+ * any primitive value can be read from the chunk it starts in.</p>
+ */
+final class HprofFile implements AutoCloseable {
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final int CHUNK_OVERLAP = 64;
+
+    // basic types, as used in the heap dump records
+    static final int TYPE_OBJECT = 2;
+    static final int TYPE_BOOLEAN = 4;
+    static final int TYPE_CHAR = 5;
+    static final int TYPE_FLOAT = 6;
+    static final int TYPE_DOUBLE = 7;
+    static final int TYPE_BYTE = 8;
+    static final int TYPE_SHORT = 9;
+    static final int TYPE_INT = 10;
+    static final int TYPE_LONG = 11;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+    private final int idSize;
+    private final long recordsStart;
+
+    HprofFile(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = this.channel.size();
+
+        this.chunks = new MappedByteBuffer[(int) ((this.size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < this.chunks.length; i++) {
+            long position = (long) i << CHUNK_SHIFT;
+            this.chunks[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min((1L << CHUNK_SHIFT) + CHUNK_OVERLAP, this.size - position));
+        }
+
+        // header: null terminated format name, u4 identifier size, u8 timestamp
+        long pos = 0;
+        StringBuilder format = new StringBuilder();
+        byte b;
+        while (pos < this.size && (b = getByte(pos++)) != 0) {
+            format.append((char) b);
+        }
+        if (!format.toString().startsWith("JAVA PROFILE")) {
+            close();
+            throw new IOException("Not a HPROF file: " + file);
+        }
+
+        this.idSize = getInt(pos);
+        this.recordsStart = pos + 4 + 8;
+        if (this.idSize != 4 && this.idSize != 8) {
+            close();
+            throw new IOException("Unsupported identifier size: " + this.idSize);
+        }
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    int idSize() {
+        return this.idSize;
+    }
+
+    long recordsStart() {
+        return this.recordsStart;
+    }
+
+    byte getByte(long pos) {
+        return this.chunks[(int) (pos >>> CHUNK_SHIFT)].get((int) (pos & CHUNK_MASK));
+    }
+
+    int getUnsignedByte(long pos) {
+        return getByte(pos) & 0xFF;
+    }
+
+    int getUnsignedShort(long pos) {
+        return this.chunks[(int) (pos >>> CHUNK_SHIFT)].getShort((int) (pos & CHUNK_MASK)) & 0xFFFF;
+    }
+
+    int getInt(long pos) {
+        return this.chunks[(int) (pos >>> CHUNK_SHIFT)].getInt((int) (pos & CHUNK_MASK));
+    }
+
+    long getUnsignedInt(long pos) {
+        return getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    long getLong(long pos) {
+        return this.chunks[(int) (pos >>> CHUNK_SHIFT)].getLong((int) (pos & CHUNK_MASK));
+    }
+
+    long getId(long pos) {
+        return this.idSize == 4 ? getUnsignedInt(pos) : getLong(pos);
+    }
+
+    String getString(long pos, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = getByte(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the size of a value of the given basic type.
+     *
+     * @param type the type
+     * @return the size in bytes
+     */
+    int sizeOf(int type) {
+        switch (type) {
+            case TYPE_OBJECT:
+                return this.idSize;
+            case TYPE_BOOLEAN:
+            case TYPE_BYTE:
+                return 1;
+            case TYPE_CHAR:
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_FLOAT:
+            case TYPE_INT:
+                return 4;
+            case TYPE_DOUBLE:
+            case TYPE_LONG:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown basic type: " + type);
+        }
+    }
+
+    static String primitiveArrayName(int type) {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return "boolean[]";
+            case TYPE_CHAR:
+                return "char[]";
+            case TYPE_FLOAT:
+                return "float[]";
+            case TYPE_DOUBLE:
+                return "double[]";
+            case TYPE_BYTE:
+                return "byte[]";
+            case TYPE_SHORT:
+                return "short[]";
+            case TYPE_INT:
+                return "int[]";
+            case TYPE_LONG:
+                return "long[]";
+            default:
+                throw new IllegalArgumentException("Unknown primitive type: " + type);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
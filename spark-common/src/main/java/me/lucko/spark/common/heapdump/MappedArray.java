@@ -0,0 +1,116 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A primitive int or long array, stored in a memory mapped file rather than on the heap.
+ *
+ * <p>Used for the per-object indexes built whilst analysing a heap dump, which can be
+ * far larger than the heap of the VM doing the analysis.</p>
+ */
+final class MappedArray implements AutoCloseable {
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    static MappedArray ints(Path file, long length) throws IOException {
+        return new MappedArray(file, length, 2);
+    }
+
+    static MappedArray longs(Path file, long length) throws IOException {
+        return new MappedArray(file, length, 3);
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+    private final int shift;
+
+    private MappedArray(Path file, long length, int shift) throws IOException {
+        this.file = file;
+        this.length = length;
+        this.shift = shift;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // elements are a power of two in size, so never straddle two chunks
+        long bytes = length << shift;
+        this.chunks = new MappedByteBuffer[(int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < this.chunks.length; i++) {
+            long position = (long) i << CHUNK_SHIFT;
+            this.chunks[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(1L << CHUNK_SHIFT, bytes - position));
+        }
+    }
+
+    long length() {
+        return this.length;
+    }
+
+    int getInt(long index) {
+        long pos = index << 2;
+        return this.chunks[(int) (pos >>> CHUNK_SHIFT)].getInt((int) (pos & CHUNK_MASK));
+    }
+
+    void setInt(long index, int value) {
+        long pos = index << 2;
+        this.chunks[(int) (pos >>> CHUNK_SHIFT)].putInt((int) (pos & CHUNK_MASK), value);
+    }
+
+    long getLong(long index) {
+        long pos = index << 3;
+        return this.chunks[(int) (pos >>> CHUNK_SHIFT)].getLong((int) (pos & CHUNK_MASK));
+    }
+
+    void setLong(long index, long value) {
+        long pos = index << 3;
+        this.chunks[(int) (pos >>> CHUNK_SHIFT)].putLong((int) (pos & CHUNK_MASK), value);
+    }
+
+    void fill(int value) {
+        for (long i = 0; i < this.length; i++) {
+            setInt(i, value);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+
+        // the mapping is only released once the buffers are collected, which may prevent
+        // deletion on some platforms - fall back to deleting on exit
+        try {
+            Files.deleteIfExists(this.file);
+        } catch (IOException e) {
+            this.file.toFile().deleteOnExit();
+        }
+    }
+
+}
@@ -20,10 +20,9 @@
 
 package me.lucko.spark.common.monitor.cpu;
 
-import me.lucko.spark.common.util.RollingAverage;
+import me.lucko.spark.common.util.RollingHistogram;
 
 import java.lang.management.ManagementFactory;
-import java.math.BigDecimal;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -51,12 +50,12 @@ public enum CpuMonitor {
     });
 
     // Rolling averages for system/process data
-    private static final RollingAverage SYSTEM_AVERAGE_10_SEC = new RollingAverage(10);
-    private static final RollingAverage SYSTEM_AVERAGE_1_MIN = new RollingAverage(60);
-    private static final RollingAverage SYSTEM_AVERAGE_15_MIN = new RollingAverage(60 * 15);
-    private static final RollingAverage PROCESS_AVERAGE_10_SEC = new RollingAverage(10);
-    private static final RollingAverage PROCESS_AVERAGE_1_MIN = new RollingAverage(60);
-    private static final RollingAverage PROCESS_AVERAGE_15_MIN = new RollingAverage(60 * 15);
+    private static final RollingHistogram SYSTEM_AVERAGE_10_SEC = new RollingHistogram(10);
+    private static final RollingHistogram SYSTEM_AVERAGE_1_MIN = new RollingHistogram(60);
+    private static final RollingHistogram SYSTEM_AVERAGE_15_MIN = new RollingHistogram(60 * 15);
+    private static final RollingHistogram PROCESS_AVERAGE_10_SEC = new RollingHistogram(10);
+    private static final RollingHistogram PROCESS_AVERAGE_1_MIN = new RollingHistogram(60);
+    private static final RollingHistogram PROCESS_AVERAGE_15_MIN = new RollingHistogram(60 * 15);
 
     static {
         try {
@@ -143,12 +142,12 @@ public enum CpuMonitor {
      * Task to poll CPU loads and add to the rolling averages in the enclosing class.
      */
     private static final class RollingAverageCollectionTask implements Runnable {
-        private final RollingAverage[] systemAverages = new RollingAverage[]{
+        private final RollingHistogram[] systemAverages = new RollingHistogram[]{
                 SYSTEM_AVERAGE_10_SEC,
                 SYSTEM_AVERAGE_1_MIN,
                 SYSTEM_AVERAGE_15_MIN
         };
-        private final RollingAverage[] processAverages = new RollingAverage[]{
+        private final RollingHistogram[] processAverages = new RollingHistogram[]{
                 PROCESS_AVERAGE_10_SEC,
                 PROCESS_AVERAGE_1_MIN,
                 PROCESS_AVERAGE_15_MIN
@@ -156,17 +155,17 @@ public enum CpuMonitor {
 
         @Override
         public void run() {
-            BigDecimal systemCpuLoad = new BigDecimal(systemLoad());
-            BigDecimal processCpuLoad = new BigDecimal(processLoad());
+            double systemCpuLoad = systemLoad();
+            double processCpuLoad = processLoad();
 
-            if (systemCpuLoad.signum() != -1) { // if value is not negative
-                for (RollingAverage average : this.systemAverages) {
+            if (systemCpuLoad >= 0) { // if value is not negative
+                for (RollingHistogram average : this.systemAverages) {
                     average.add(systemCpuLoad);
                 }
             }
 
-            if (processCpuLoad.signum() != -1) { // if value is not negative
-                for (RollingAverage average : this.processAverages) {
+            if (processCpuLoad >= 0) { // if value is not negative
+                for (RollingHistogram average : this.processAverages) {
                     average.add(processCpuLoad);
                 }
             }
@@ -0,0 +1,500 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.hotspot;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the chunks in each world which contain the most entities and tile entities.
+ *
+ * <p>The platform periodically counts the entities and tile entities in each loaded chunk
+ * and passes the counts to {@link #recordScan}. The heaviest chunks from each scan are
+ * kept in a bounded set per world, ranked by a moving average of their weight, so chunks
+ * which are consistently heavy rank above those which were only briefly busy.</p>
+ *
+ * <p>Alongside the scans, the server thread is sampled to find the proportion of time
+ * spent ticking entities and tile entities, and which tick methods were running. This
+ * shows whether the counts actually matter.</p>
+ */
+public abstract class HotspotCollector implements AutoCloseable {
+    /** The number of chunks kept for each world */
+    public static final int TOP_CHUNKS = 16;
+    /** The weight given to the latest scan in the moving average */
+    private static final double SCORE_ALPHA = 0.25;
+    private static final long SAMPLE_INTERVAL_MILLIS = 20;
+
+    private final Thread serverThread;
+    private final Map<String, WorldHotspots> worlds = new ConcurrentHashMap<>();
+    private final TickSamples tickSamples = new TickSamples();
+
+    private ScheduledExecutorService sampler = null;
+    private boolean enabled = false;
+    private volatile long startTime = System.nanoTime();
+
+    protected HotspotCollector(Thread serverThread) {
+        this.serverThread = serverThread;
+    }
+
+    /**
+     * Starts periodically scanning the loaded chunks.
+     *
+     * @throws Exception if an error occurs
+     */
+    protected abstract void install() throws Exception;
+
+    /**
+     * Stops scanning the loaded chunks.
+     *
+     * @throws Exception if an error occurs
+     */
+    protected abstract void uninstall() throws Exception;
+
+    /**
+     * Gets if the given frame is one which dispatches the tick of an entity.
+     *
+     * @param frame the frame
+     * @return true if the frame ticks an entity
+     */
+    protected abstract boolean isEntityTickFrame(StackTraceElement frame);
+
+    /**
+     * Gets if the given frame is one which dispatches the tick of a tile entity.
+     *
+     * @param frame the frame
+     * @return true if the frame ticks a tile entity
+     */
+    protected abstract boolean isTileEntityTickFrame(StackTraceElement frame);
+
+    /**
+     * Gets if the given frame only adapts or wraps the tick of an entity or tile entity,
+     * and so should be skipped when identifying the class being ticked.
+     *
+     * @param frame the frame
+     * @return true if the frame should be skipped
+     */
+    protected boolean isTickWrapperFrame(StackTraceElement frame) {
+        return false;
+    }
+
+    public synchronized boolean enable() throws Exception {
+        if (this.enabled) {
+            return false;
+        }
+        reset();
+        install();
+
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setName("spark-hotspot-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sampler.scheduleAtFixedRate(this::sampleServerThread, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        this.enabled = true;
+        return true;
+    }
+
+    public synchronized void disable() throws Exception {
+        if (!this.enabled) {
+            return;
+        }
+        this.enabled = false;
+        this.sampler.shutdown();
+        this.sampler = null;
+        uninstall();
+    }
+
+    public synchronized boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public void reset() {
+        this.worlds.clear();
+        this.tickSamples.reset();
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Records the result of scanning the loaded chunks in a world.
+     *
+     * @param world the name of the world
+     * @param chunks the chunks which contain any entities or tile entities
+     * @param tickingTileEntities the number of ticking tile entities in the world, or -1 if unknown
+     */
+    protected void recordScan(String world, List<ChunkCounts> chunks, int tickingTileEntities) {
+        this.worlds.computeIfAbsent(world, WorldHotspots::new).record(chunks, tickingTileEntities);
+    }
+
+    private void sampleServerThread() {
+        StackTraceElement[] stack = this.serverThread.getStackTrace();
+
+        // find the innermost tick dispatch, the frame inside it is the tick method being run.
+        // stack frames only give the class which declares the method, not the runtime class
+        // of the entity, so inherited tick methods are reported under the superclass
+        for (int i = 0; i < stack.length; i++) {
+            boolean entity = isEntityTickFrame(stack[i]);
+            if (!entity && !isTileEntityTickFrame(stack[i])) {
+                continue;
+            }
+
+            int ticked = i - 1;
+            while (ticked > 0 && isTickWrapperFrame(stack[ticked])) {
+                ticked--;
+            }
+            String className = ticked >= 0 ? stack[ticked].getClassName() : null;
+            this.tickSamples.record(entity ? TickType.ENTITY : TickType.TILE_ENTITY, className);
+            return;
+        }
+        this.tickSamples.record(null, null);
+    }
+
+    /**
+     * Gets the worlds which have been scanned, ordered by name.
+     *
+     * @return the worlds
+     */
+    public List<WorldHotspots> getWorlds() {
+        List<WorldHotspots> worlds = new ArrayList<>(this.worlds.values());
+        worlds.sort(Comparator.comparing(WorldHotspots::getName));
+        return worlds;
+    }
+
+    /**
+     * Gets the samples of the server thread taken since the collector was last reset.
+     *
+     * @return the samples
+     */
+    public TickSamples getTickSamples() {
+        return this.tickSamples;
+    }
+
+    /**
+     * Gets the time since the collector was last reset.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - this.startTime;
+    }
+
+    @Override
+    public void close() {
+        try {
+            disable();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public enum TickType {
+        ENTITY, TILE_ENTITY
+    }
+
+    /**
+     * The number of entities and tile entities of each type in a chunk.
+     */
+    public static final class ChunkCounts {
+        private final int x;
+        private final int z;
+        private final Map<String, Integer> entities = new HashMap<>();
+        private final Map<String, Integer> tileEntities = new HashMap<>();
+        private int entityCount = 0;
+        private int tileEntityCount = 0;
+
+        public ChunkCounts(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+
+        public void addEntity(String type) {
+            this.entities.merge(type, 1, Integer::sum);
+            this.entityCount++;
+        }
+
+        public void addTileEntity(String type) {
+            this.tileEntities.merge(type, 1, Integer::sum);
+            this.tileEntityCount++;
+        }
+
+        public int getX() {
+            return this.x;
+        }
+
+        public int getZ() {
+            return this.z;
+        }
+
+        public int getEntityCount() {
+            return this.entityCount;
+        }
+
+        public int getTileEntityCount() {
+            return this.tileEntityCount;
+        }
+
+        /**
+         * Gets the weight used to rank the chunk - the total number of entities and tile entities.
+         *
+         * @return the weight
+         */
+        public int getWeight() {
+            return this.entityCount + this.tileEntityCount;
+        }
+
+        /**
+         * Gets the most common entity and tile entity types in the chunk.
+         *
+         * @param limit the maximum number of types
+         * @return the types and their counts, highest first
+         */
+        public List<Map.Entry<String, Integer>> getTopTypes(int limit) {
+            List<Map.Entry<String, Integer>> types = new ArrayList<>(this.entities.entrySet());
+            types.addAll(this.tileEntities.entrySet());
+            types.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+            return types.size() > limit ? types.subList(0, limit) : types;
+        }
+
+        private long key() {
+            return ((long) this.x << 32) | (this.z & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * A chunk which has been one of the heaviest in its world.
+     */
+    public static final class Hotspot {
+        private ChunkCounts latest;
+        private double score;
+        private int peakWeight;
+        private int scans = 0;
+
+        Hotspot(ChunkCounts latest) {
+            this.latest = latest;
+            this.score = latest.getWeight();
+        }
+
+        /**
+         * Gets the counts from the most recent scan in which the chunk was one of the heaviest.
+         *
+         * @return the counts
+         */
+        public ChunkCounts getLatest() {
+            return this.latest;
+        }
+
+        /**
+         * Gets the moving average of the weight of the chunk, used to rank it.
+         *
+         * @return the score
+         */
+        public double getScore() {
+            return this.score;
+        }
+
+        public int getPeakWeight() {
+            return this.peakWeight;
+        }
+
+        /**
+         * Gets the number of scans in which the chunk was one of the heaviest.
+         *
+         * @return the number of scans
+         */
+        public int getScans() {
+            return this.scans;
+        }
+    }
+
+    public static final class WorldHotspots {
+        private final String name;
+        private final Map<Long, Hotspot> hotspots = new HashMap<>();
+        private int scans = 0;
+        private int occupiedChunks = 0;
+        private int entities = 0;
+        private int tileEntities = 0;
+        private int tickingTileEntities = -1;
+
+        WorldHotspots(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(List<ChunkCounts> chunks, int tickingTileEntities) {
+            this.scans++;
+            this.occupiedChunks = chunks.size();
+            this.tickingTileEntities = tickingTileEntities;
+            this.entities = 0;
+            this.tileEntities = 0;
+            for (ChunkCounts chunk : chunks) {
+                this.entities += chunk.getEntityCount();
+                this.tileEntities += chunk.getTileEntityCount();
+            }
+
+            List<ChunkCounts> heaviest = new ArrayList<>(chunks);
+            heaviest.sort(Comparator.comparingInt(ChunkCounts::getWeight).reversed());
+            if (heaviest.size() > TOP_CHUNKS) {
+                heaviest = heaviest.subList(0, TOP_CHUNKS);
+            }
+
+            // decay the score of every chunk, then add the weight of those in this scan
+            for (Hotspot hotspot : this.hotspots.values()) {
+                hotspot.score *= 1 - SCORE_ALPHA;
+            }
+            for (ChunkCounts chunk : heaviest) {
+                Hotspot hotspot = this.hotspots.get(chunk.key());
+                if (hotspot == null) {
+                    hotspot = new Hotspot(chunk);
+                    this.hotspots.put(chunk.key(), hotspot);
+                } else {
+                    hotspot.latest = chunk;
+                    hotspot.score += SCORE_ALPHA * chunk.getWeight();
+                }
+                hotspot.peakWeight = Math.max(hotspot.peakWeight, chunk.getWeight());
+                hotspot.scans++;
+            }
+
+            // evict the lowest scoring chunks
+            if (this.hotspots.size() > TOP_CHUNKS) {
+                List<Hotspot> ranked = new ArrayList<>(this.hotspots.values());
+                ranked.sort(Comparator.comparingDouble(Hotspot::getScore));
+                for (Iterator<Hotspot> it = ranked.subList(0, ranked.size() - TOP_CHUNKS).iterator(); it.hasNext(); ) {
+                    this.hotspots.remove(it.next().latest.key());
+                }
+            }
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets the heaviest chunks in the world, ordered by score (highest first).
+         *
+         * @return the chunks
+         */
+        public synchronized List<Hotspot> getHotspots() {
+            List<Hotspot> hotspots = new ArrayList<>(this.hotspots.values());
+            hotspots.sort(Comparator.comparingDouble(Hotspot::getScore).reversed());
+            return hotspots;
+        }
+
+        public synchronized int getScans() {
+            return this.scans;
+        }
+
+        /**
+         * Gets the number of chunks which contained entities or tile entities in the latest scan.
+         *
+         * @return the number of chunks
+         */
+        public synchronized int getOccupiedChunks() {
+            return this.occupiedChunks;
+        }
+
+        public synchronized int getEntities() {
+            return this.entities;
+        }
+
+        public synchronized int getTileEntities() {
+            return this.tileEntities;
+        }
+
+        /**
+         * Gets the number of ticking tile entities in the world at the latest scan.
+         *
+         * @return the number of ticking tile entities, or -1 if unknown
+         */
+        public synchronized int getTickingTileEntities() {
+            return this.tickingTileEntities;
+        }
+    }
+
+    /**
+     * Counts the samples of the server thread which were ticking entities or tile entities.
+     */
+    public static final class TickSamples {
+        private long total = 0;
+        private final Map<TickType, Long> byType = new HashMap<>();
+        private final Map<TickType, Map<String, Long>> byClass = new HashMap<>();
+
+        synchronized void record(TickType type, String className) {
+            this.total++;
+            if (type == null) {
+                return;
+            }
+            this.byType.merge(type, 1L, Long::sum);
+            if (className != null) {
+                this.byClass.computeIfAbsent(type, t -> new HashMap<>()).merge(className, 1L, Long::sum);
+            }
+        }
+
+        synchronized void reset() {
+            this.total = 0;
+            this.byType.clear();
+            this.byClass.clear();
+        }
+
+        public synchronized long getTotal() {
+            return this.total;
+        }
+
+        /**
+         * Gets the proportion of samples which were ticking the given type.
+         *
+         * @param type the type
+         * @return the proportion, between 0 and 1
+         */
+        public synchronized double getShare(TickType type) {
+            return this.total == 0 ? 0 : this.byType.getOrDefault(type, 0L) / (double) this.total;
+        }
+
+        /**
+         * Gets the classes declaring the tick methods which were most often running when sampled.
+         *
+         * <p>This is the owner of the method, so entities which inherit their tick method
+         * are counted under the superclass which declares it.</p>
+         *
+         * @param type the type
+         * @param limit the maximum number of classes
+         * @return the class names and their proportion of all samples, highest first
+         */
+        public synchronized List<Map.Entry<String, Double>> getTopClasses(TickType type, int limit) {
+            Map<String, Long> classes = this.byClass.getOrDefault(type, Collections.emptyMap());
+            List<Map.Entry<String, Double>> result = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : classes.entrySet()) {
+                result.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue() / (double) this.total));
+            }
+            result.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+            return result.size() > limit ? result.subList(0, limit) : result;
+        }
+    }
+
+}
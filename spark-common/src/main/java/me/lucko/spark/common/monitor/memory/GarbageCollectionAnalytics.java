@@ -0,0 +1,255 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.memory;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import me.lucko.spark.common.util.LogHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuously derives statistics about the garbage collector from GC notifications.
+ *
+ * <ul>
+ *     <li>Pause durations are recorded in {@link LogHistogram}s.</li>
+ *     <li>The allocation rate is derived from the heap usage before each GC, less the
+ *     heap usage after the previous one.</li>
+ *     <li>The promotion rate is derived from the growth of the old generation during
+ *     young collections.</li>
+ * </ul>
+ *
+ * <p>Statistics are kept in one minute slots, which are merged to answer queries over
+ * the last 1, 5 or 15 minutes. A query merges that many complete slots as well as the
+ * partially complete current one, so always covers at least the requested length of time.</p>
+ */
+public class GarbageCollectionAnalytics implements GarbageCollectionMonitor.Listener {
+    private static final long SLOT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // enough for the longest window, plus the current partial slot
+    private static final int SLOTS = 16;
+
+    /** The names of the heap memory pools */
+    private final Set<String> heapPools = new HashSet<>();
+    /** The names of the old generation memory pools */
+    private final Set<String> oldGenPools = new HashSet<>();
+
+    private final Slot[] slots = new Slot[SLOTS];
+    private final Slot total = new Slot();
+    private final long startTime = System.currentTimeMillis();
+
+    /** The total heap usage after the last GC, or -1 if no GCs have happened yet */
+    private long lastHeapUsedAfterGc = -1;
+    /** The old generation usage after the last GC, or null if unknown */
+    private MemoryUsage lastOldGenAfterGc = null;
+
+    public GarbageCollectionAnalytics() {
+        for (int i = 0; i < SLOTS; i++) {
+            this.slots[i] = new Slot();
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            this.heapPools.add(pool.getName());
+            if (isOldGenPool(pool.getName())) {
+                this.oldGenPools.add(pool.getName());
+            }
+        }
+    }
+
+    private static boolean isOldGenPool(String name) {
+        return name.contains("Old Gen") || name.contains("Tenured");
+    }
+
+    @Override
+    public synchronized void onGc(GarbageCollectionNotificationInfo data) {
+        GcInfo info = data.getGcInfo();
+        Map<String, MemoryUsage> before = info.getMemoryUsageBeforeGc();
+        Map<String, MemoryUsage> after = info.getMemoryUsageAfterGc();
+
+        long heapBefore = 0, heapAfter = 0;
+        long oldBefore = 0, oldAfter = 0, oldCommitted = 0, oldMax = 0;
+        for (String pool : this.heapPools) {
+            MemoryUsage poolBefore = before.get(pool);
+            MemoryUsage poolAfter = after.get(pool);
+            if (poolBefore == null || poolAfter == null) {
+                continue;
+            }
+            heapBefore += poolBefore.getUsed();
+            heapAfter += poolAfter.getUsed();
+            if (this.oldGenPools.contains(pool)) {
+                oldBefore += poolBefore.getUsed();
+                oldAfter += poolAfter.getUsed();
+                oldCommitted += poolAfter.getCommitted();
+                oldMax = (oldMax == -1 || poolAfter.getMax() == -1) ? -1 : oldMax + poolAfter.getMax();
+            }
+        }
+
+        Slot slot = currentSlot();
+
+        if (GarbageCollectionMonitor.isPause(data)) {
+            slot.pauses.record(info.getDuration());
+            this.total.pauses.record(info.getDuration());
+        }
+
+        if (this.lastHeapUsedAfterGc != -1) {
+            long allocated = Math.max(0, heapBefore - this.lastHeapUsedAfterGc);
+            slot.allocated += allocated;
+            this.total.allocated += allocated;
+        }
+        this.lastHeapUsedAfterGc = heapAfter;
+
+        if (!this.oldGenPools.isEmpty()) {
+            if (data.getGcAction().equals("end of minor GC")) {
+                long promoted = Math.max(0, oldAfter - oldBefore);
+                slot.promoted += promoted;
+                this.total.promoted += promoted;
+            }
+            oldCommitted = Math.max(oldCommitted, oldAfter);
+            this.lastOldGenAfterGc = new MemoryUsage(-1, oldAfter, oldCommitted, oldMax == -1 ? -1 : Math.max(oldMax, oldCommitted));
+        }
+    }
+
+    private Slot currentSlot() {
+        long minute = System.currentTimeMillis() / SLOT_MILLIS;
+        Slot slot = this.slots[(int) (minute % SLOTS)];
+        if (slot.minute != minute) {
+            slot.reset(minute);
+        }
+        return slot;
+    }
+
+    private Slot merge(Window window) {
+        if (window == Window.ALL) {
+            return this.total;
+        }
+
+        Slot merged = new Slot();
+        long minute = System.currentTimeMillis() / SLOT_MILLIS;
+        for (Slot slot : this.slots) {
+            if (slot.minute >= minute - window.minutes && slot.minute <= minute) {
+                merged.pauses.add(slot.pauses);
+                merged.allocated += slot.allocated;
+                merged.promoted += slot.promoted;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Gets the length of time (in seconds) covered by the given window.
+     */
+    private double windowSeconds(Window window) {
+        long now = System.currentTimeMillis();
+        long elapsed = now - this.startTime;
+        if (window != Window.ALL) {
+            // the complete slots, plus however much of the current slot has passed
+            long windowMillis = window.minutes * SLOT_MILLIS + (now % SLOT_MILLIS);
+            elapsed = Math.min(elapsed, windowMillis);
+        }
+        return Math.max(1, elapsed) / 1000d;
+    }
+
+    /**
+     * Gets a histogram of the GC pause durations (in milliseconds) within the window.
+     *
+     * @param window the window
+     * @return a copy of the histogram
+     */
+    public synchronized LogHistogram getPauses(Window window) {
+        LogHistogram histogram = new LogHistogram();
+        histogram.add(merge(window).pauses);
+        return histogram;
+    }
+
+    /**
+     * Gets the average rate at which memory was allocated within the window.
+     *
+     * @param window the window
+     * @return the allocation rate in bytes per second
+     */
+    public synchronized double getAllocationRate(Window window) {
+        return merge(window).allocated / windowSeconds(window);
+    }
+
+    /**
+     * Gets the average rate at which memory was promoted to the old generation within the window.
+     *
+     * @param window the window
+     * @return the promotion rate in bytes per second, or -1 if the old generation is unknown
+     */
+    public synchronized double getPromotionRate(Window window) {
+        if (this.oldGenPools.isEmpty()) {
+            return -1;
+        }
+        return merge(window).promoted / windowSeconds(window);
+    }
+
+    /**
+     * Gets the usage of the old generation after the most recent GC.
+     *
+     * @return the usage, or null if unknown
+     */
+    public synchronized MemoryUsage getOldGenAfterGc() {
+        return this.lastOldGenAfterGc;
+    }
+
+    public enum Window {
+        ONE_MINUTE(1, "1m"),
+        FIVE_MINUTES(5, "5m"),
+        FIFTEEN_MINUTES(15, "15m"),
+        ALL(-1, "all");
+
+        private final int minutes;
+        private final String name;
+
+        Window(int minutes, String name) {
+            this.minutes = minutes;
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+    }
+
+    private static final class Slot {
+        private final LogHistogram pauses = new LogHistogram();
+        private long minute = -1;
+        private long allocated = 0;
+        private long promoted = 0;
+
+        void reset(long minute) {
+            this.pauses.reset();
+            this.minute = minute;
+            this.allocated = 0;
+            this.promoted = 0;
+        }
+    }
+
+}
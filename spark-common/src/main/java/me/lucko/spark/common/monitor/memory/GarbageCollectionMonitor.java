@@ -84,6 +84,18 @@ public class GarbageCollectionMonitor implements NotificationListener, AutoClose
         this.listeners.clear();
     }
 
+    /**
+     * Gets if a collection paused the application, rather than being a concurrent cycle
+     * which runs alongside it (e.g. the cycles of ZGC or Shenandoah).
+     *
+     * @param data the notification data
+     * @return if the collection was a pause
+     */
+    public static boolean isPause(GarbageCollectionNotificationInfo data) {
+        String name = data.getGcName();
+        return !name.contains("Cycles") && !name.contains("Concurrent");
+    }
+
     public interface Listener {
         void onGc(GarbageCollectionNotificationInfo data);
     }
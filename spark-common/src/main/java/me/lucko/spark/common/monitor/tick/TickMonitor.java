@@ -73,8 +73,8 @@ public abstract class TickMonitor implements TickHook.Callback, GarbageCollectio
     }
 
     @Override
-    public void onTick(int currentTick) {
-        double now = ((double) System.nanoTime()) / 1000000d;
+    public void onTick(int currentTick, long startTime) {
+        double now = ((double) startTime) / 1000000d;
 
         // init
         if (this.state == null) {
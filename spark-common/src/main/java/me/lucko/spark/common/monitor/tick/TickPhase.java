@@ -0,0 +1,62 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+/**
+ * The phases of a server tick which are timed by a {@link TickPhaseProfiler}.
+ */
+public enum TickPhase {
+
+    /** Ticking each world (dimension) */
+    WORLDS("worlds", null),
+    /** Ticking the chunk source of each world - chunk loading, mob spawning and random ticks */
+    CHUNK_SOURCE("chunk source", WORLDS),
+    /** Ticking entities */
+    ENTITIES("entities", WORLDS),
+    /** Ticking block entities (tile entities) */
+    BLOCK_ENTITIES("block entities", WORLDS),
+    /** Handling network connections and incoming packets */
+    CONNECTIONS("connections", null),
+    /** Periodically saving players, worlds and chunks */
+    AUTOSAVE("autosave", null);
+
+    private final String name;
+    private final TickPhase parent;
+
+    TickPhase(String name, TickPhase parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the phase which this phase runs within, if any.
+     *
+     * @return the parent phase, or null
+     */
+    public TickPhase getParent() {
+        return this.parent;
+    }
+
+}
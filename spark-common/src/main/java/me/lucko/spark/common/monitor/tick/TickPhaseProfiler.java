@@ -0,0 +1,142 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.common.sampler.tick.TickDispatcher;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Times the {@link TickPhase phases} of each server tick.
+ *
+ * <p>Platforms call the start and end methods from the server thread, at the boundaries
+ * of each phase. The durations for each tick are handed off to a spark thread through a
+ * {@link TickDispatcher} before being passed to the callbacks.</p>
+ *
+ * <p>A phase may be entered more than once per tick (e.g. once per world), in which case
+ * the durations are summed.</p>
+ */
+public class TickPhaseProfiler implements AutoCloseable {
+    private static final TickPhase[] PHASES = TickPhase.values();
+    /** The dispatcher record index used to mark the end of a tick */
+    private static final int END_OF_TICK = -1;
+
+    private final TickDispatcher<TickPhaseProfiler> dispatcher = new TickDispatcher<>("spark-tick-phases", (profiler, index, time, duration) -> profiler.consume(index, duration));
+    private final Set<Callback> callbacks = new CopyOnWriteArraySet<>();
+
+    // written by the server thread
+    private final long[] starts = new long[PHASES.length];
+    private final long[] totals = new long[PHASES.length];
+    private long tickStart = 0;
+
+    // written by the dispatcher thread
+    private final double[] durations = new double[PHASES.length];
+
+    public TickPhaseProfiler() {
+        this.dispatcher.addCallback(this);
+    }
+
+    /**
+     * Starts the profiler (e.g. registers any listeners it needs).
+     */
+    public void start() {
+
+    }
+
+    public void addCallback(Callback callback) {
+        this.callbacks.add(callback);
+    }
+
+    public void removeCallback(Callback callback) {
+        this.callbacks.remove(callback);
+    }
+
+    public void startTick() {
+        this.tickStart = System.nanoTime();
+    }
+
+    public void endTick() {
+        if (this.tickStart == 0) {
+            return;
+        }
+
+        // publish the whole tick or none of it, so a partial tick is never combined with the next
+        long now = System.nanoTime();
+        boolean publish = this.dispatcher.reserve(PHASES.length + 1);
+        for (int i = 0; i < PHASES.length; i++) {
+            if (publish) {
+                this.dispatcher.publish(i, now, this.totals[i] / 1000000d);
+            }
+            this.totals[i] = 0;
+            this.starts[i] = 0;
+        }
+        if (publish) {
+            this.dispatcher.publish(END_OF_TICK, now, (now - this.tickStart) / 1000000d);
+        }
+        this.tickStart = 0;
+    }
+
+    public void startPhase(TickPhase phase) {
+        this.starts[phase.ordinal()] = System.nanoTime();
+    }
+
+    public void endPhase(TickPhase phase) {
+        int i = phase.ordinal();
+        long start = this.starts[i];
+        if (start != 0) {
+            this.totals[i] += System.nanoTime() - start;
+            this.starts[i] = 0;
+        }
+    }
+
+    private void consume(int index, double duration) {
+        if (index != END_OF_TICK) {
+            this.durations[index] = duration;
+            return;
+        }
+
+        for (Callback callback : this.callbacks) {
+            callback.onTick(this.durations, duration);
+        }
+        Arrays.fill(this.durations, 0);
+    }
+
+    @Override
+    public void close() {
+        this.dispatcher.close();
+    }
+
+    public interface Callback {
+
+        /**
+         * Called after each tick.
+         *
+         * <p>The array is reused for the next tick, so must not be retained.</p>
+         *
+         * @param phaseDurations the time spent in each phase, in milliseconds, indexed by {@link TickPhase#ordinal()}
+         * @param duration the duration of the whole tick, in milliseconds
+         */
+        void onTick(double[] phaseDurations, double duration);
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.common.util.RollingHistogram;
+import me.lucko.spark.proto.SparkProtos.SamplerMetadata;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps rolling statistics about the time spent in each {@link TickPhase}.
+ */
+public class TickPhaseStatistics implements TickPhaseProfiler.Callback {
+    private static final int TPS = 20;
+    private static final TickPhase[] PHASES = TickPhase.values();
+
+    private final RollingHistogram[] phases10Sec = new RollingHistogram[PHASES.length];
+    private final RollingHistogram[] phases1Min = new RollingHistogram[PHASES.length];
+    private final RollingHistogram tickDuration10Sec = new RollingHistogram(TPS * 10);
+    private final RollingHistogram tickDuration1Min = new RollingHistogram(TPS * 60);
+
+    private final List<Breakdown> breakdowns = new CopyOnWriteArrayList<>();
+
+    public TickPhaseStatistics() {
+        for (int i = 0; i < PHASES.length; i++) {
+            this.phases10Sec[i] = new RollingHistogram(TPS * 10);
+            this.phases1Min[i] = new RollingHistogram(TPS * 60);
+        }
+    }
+
+    @Override
+    public void onTick(double[] phaseDurations, double duration) {
+        for (int i = 0; i < PHASES.length; i++) {
+            this.phases10Sec[i].add(phaseDurations[i]);
+            this.phases1Min[i].add(phaseDurations[i]);
+        }
+        this.tickDuration10Sec.add(duration);
+        this.tickDuration1Min.add(duration);
+
+        for (Breakdown breakdown : this.breakdowns) {
+            breakdown.record(phaseDurations, duration);
+        }
+    }
+
+    public RollingHistogram phase10Sec(TickPhase phase) {
+        return this.phases10Sec[phase.ordinal()];
+    }
+
+    public RollingHistogram phase1Min(TickPhase phase) {
+        return this.phases1Min[phase.ordinal()];
+    }
+
+    public RollingHistogram duration10Sec() {
+        return this.tickDuration10Sec;
+    }
+
+    public RollingHistogram duration1Min() {
+        return this.tickDuration1Min;
+    }
+
+    /**
+     * Starts accumulating the time spent in each phase, for ticks which last at least the given threshold.
+     *
+     * @param thresholdMillis the minimum tick duration to include, in milliseconds
+     * @return the breakdown
+     */
+    public Breakdown startBreakdown(double thresholdMillis) {
+        Breakdown breakdown = new Breakdown(thresholdMillis);
+        this.breakdowns.add(breakdown);
+        return breakdown;
+    }
+
+    /**
+     * The total time spent in each phase over a period, e.g. the duration of a profile.
+     */
+    public final class Breakdown {
+        private final double thresholdMillis;
+        private final double[] phases = new double[PHASES.length];
+        private double tickTime = 0;
+        private long ticks = 0;
+
+        Breakdown(double thresholdMillis) {
+            this.thresholdMillis = thresholdMillis;
+        }
+
+        private synchronized void record(double[] phaseDurations, double duration) {
+            if (duration < this.thresholdMillis) {
+                return;
+            }
+            for (int i = 0; i < PHASES.length; i++) {
+                this.phases[i] += phaseDurations[i];
+            }
+            this.tickTime += duration;
+            this.ticks++;
+        }
+
+        public void stop() {
+            TickPhaseStatistics.this.breakdowns.remove(this);
+        }
+
+        public synchronized long getTicks() {
+            return this.ticks;
+        }
+
+        /**
+         * Gets the average time spent in the given phase, per tick.
+         *
+         * @param phase the phase
+         * @return the average time in milliseconds
+         */
+        public synchronized double getAverage(TickPhase phase) {
+            return this.ticks == 0 ? 0 : this.phases[phase.ordinal()] / this.ticks;
+        }
+
+        public synchronized double getAverageTickTime() {
+            return this.ticks == 0 ? 0 : this.tickTime / this.ticks;
+        }
+
+        public synchronized SamplerMetadata.TickPhases toProto() {
+            SamplerMetadata.TickPhases.Builder proto = SamplerMetadata.TickPhases.newBuilder()
+                    .setTicks(this.ticks)
+                    .setTickTime(this.tickTime);
+
+            for (TickPhase phase : PHASES) {
+                SamplerMetadata.TickPhases.Phase.Builder phaseProto = SamplerMetadata.TickPhases.Phase.newBuilder()
+                        .setName(phase.getName())
+                        .setTime(this.phases[phase.ordinal()]);
+                if (phase.getParent() != null) {
+                    phaseProto.setParent(phase.getParent().getName());
+                }
+                proto.addPhases(phaseProto.build());
+            }
+            return proto.build();
+        }
+    }
+
+}
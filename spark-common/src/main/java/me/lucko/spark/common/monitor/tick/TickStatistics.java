@@ -20,13 +20,19 @@
 
 package me.lucko.spark.common.monitor.tick;
 
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import me.lucko.spark.common.monitor.memory.GarbageCollectionMonitor;
 import me.lucko.spark.common.sampler.tick.TickHook;
 import me.lucko.spark.common.sampler.tick.TickReporter;
-import me.lucko.spark.common.util.RollingAverage;
+import me.lucko.spark.common.util.RollingHistogram;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Calculates the servers TPS (ticks per second) rate.
@@ -39,12 +45,18 @@ import java.util.concurrent.TimeUnit;
  * rather avoid that. Secondly, it allows us to generate rolling averages over a shorter period of
  * time.</p>
  */
-public class TickStatistics implements TickHook.Callback, TickReporter.Callback {
+public class TickStatistics implements TickHook.Callback, TickReporter.Callback, GarbageCollectionMonitor.Listener {
 
     private static final long SEC_IN_NANO = TimeUnit.SECONDS.toNanos(1);
     private static final int TPS = 20;
     private static final int TPS_SAMPLE_INTERVAL = 20;
-    private static final BigDecimal TPS_BASE = new BigDecimal(SEC_IN_NANO).multiply(new BigDecimal(TPS_SAMPLE_INTERVAL));
+    /** The number of tick times to retain */
+    private static final int TICK_TIMES = TPS * 60;
+
+    /** The {@link System#nanoTime()} when the JVM started, used to convert tick times to GC times (relative to the start of the JVM) */
+    private static final long JVM_START_NANO_TIME = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+    /** How long to wait after a tick ends for notifications of GC pauses which overlapped it */
+    private static final long GC_NOTIFICATION_DELAY_MILLIS = 1000;
 
     private final TpsRollingAverage tps5Sec = new TpsRollingAverage(5);
     private final TpsRollingAverage tps10Sec = new TpsRollingAverage(10);
@@ -53,10 +65,29 @@ public class TickStatistics implements TickHook.Callback, TickReporter.Callback
     private final TpsRollingAverage tps15Min = new TpsRollingAverage(60 * 15);
     private final TpsRollingAverage[] tpsAverages = {this.tps5Sec, this.tps10Sec, this.tps1Min, this.tps5Min, this.tps15Min};
 
+    /** The {@link System#nanoTime()} at the start of each recent tick, indexed by tick count modulo {@link #TICK_TIMES} */
+    private final AtomicLongArray tickTimes = new AtomicLongArray(TICK_TIMES);
+    /** The number of ticks recorded in {@link #tickTimes} */
+    private volatile long tickCount = 0;
+
     private boolean durationSupported = false;
-    private final RollingAverage tickDuration10Sec = new RollingAverage(TPS * 10);
-    private final RollingAverage tickDuration1Min = new RollingAverage(TPS * 60);
-    private final RollingAverage[] tickDurationAverages = {this.tickDuration10Sec, this.tickDuration1Min};
+    private final RollingHistogram tickDuration10Sec = new RollingHistogram(TPS * 10);
+    private final RollingHistogram tickDuration1Min = new RollingHistogram(TPS * 60);
+    private final RollingHistogram[] tickDurationAverages = {this.tickDuration10Sec, this.tickDuration1Min};
+
+    // tick durations excluding the time spent in GC pauses, the time spent in GC pauses, and
+    // whether the tick contained a pause (1 or 0) - recorded once pending ticks are resolved
+    private final RollingHistogram adjustedTickDuration10Sec = new RollingHistogram(TPS * 10);
+    private final RollingHistogram adjustedTickDuration1Min = new RollingHistogram(TPS * 60);
+    private final RollingHistogram gcTime10Sec = new RollingHistogram(TPS * 10);
+    private final RollingHistogram gcTime1Min = new RollingHistogram(TPS * 60);
+    private final RollingHistogram gcTicks10Sec = new RollingHistogram(TPS * 10);
+    private final RollingHistogram gcTicks1Min = new RollingHistogram(TPS * 60);
+
+    /** Ticks (start, end) which may still overlap a pause that hasn't been notified yet */
+    private final Deque<double[]> pendingTicks = new ArrayDeque<>();
+    /** Recent GC pauses (start, end), in milliseconds since the JVM started */
+    private final Deque<long[]> recentPauses = new ArrayDeque<>();
 
     private long last = 0;
 
@@ -65,35 +96,82 @@ public class TickStatistics implements TickHook.Callback, TickReporter.Callback
     }
 
     @Override
-    public void onTick(int currentTick) {
+    public void onTick(int currentTick, long startTime) {
+        // only the tick dispatcher thread writes, so the count can be published without a CAS
+        long tickCount = this.tickCount;
+        this.tickTimes.lazySet((int) (tickCount % TICK_TIMES), startTime);
+        this.tickCount = tickCount + 1;
+
         if (currentTick % TPS_SAMPLE_INTERVAL != 0) {
             return;
         }
 
-        long now = System.nanoTime();
-
         if (this.last == 0) {
-            this.last = now;
+            this.last = startTime;
             return;
         }
 
-        long diff = now - this.last;
-        BigDecimal currentTps = TPS_BASE.divide(new BigDecimal(diff), 30, RoundingMode.HALF_UP);
-        BigDecimal total = currentTps.multiply(new BigDecimal(diff));
-
+        long diff = startTime - this.last;
         for (TpsRollingAverage rollingAverage : this.tpsAverages) {
-            rollingAverage.add(currentTps, diff, total);
+            rollingAverage.add(diff);
         }
 
-        this.last = now;
+        this.last = startTime;
     }
 
     @Override
-    public void onTick(double duration) {
+    public void onTick(double duration, long endTime) {
         this.durationSupported = true;
-        BigDecimal decimal = new BigDecimal(duration);
-        for (RollingAverage rollingAverage : this.tickDurationAverages) {
-            rollingAverage.add(decimal);
+        for (RollingHistogram histogram : this.tickDurationAverages) {
+            histogram.add(duration);
+        }
+
+        // GC notifications are delivered asynchronously, so the overlap between a tick and
+        // any GC pauses is only calculated once the pauses are likely to have been notified
+        double end = (endTime - JVM_START_NANO_TIME) / 1000000d;
+        this.pendingTicks.add(new double[]{end - duration, end});
+
+        synchronized (this.recentPauses) {
+            double[] tick;
+            while ((tick = this.pendingTicks.peek()) != null && tick[1] < end - GC_NOTIFICATION_DELAY_MILLIS) {
+                this.pendingTicks.remove();
+                resolveTick(tick[0], tick[1]);
+            }
+
+            // pauses which ended before the oldest pending tick started are no longer needed
+            double oldest = tick != null ? tick[0] : end;
+            while (!this.recentPauses.isEmpty() && this.recentPauses.peek()[1] < oldest) {
+                this.recentPauses.remove();
+            }
+        }
+    }
+
+    private void resolveTick(double start, double end) {
+        double gcTime = 0;
+        for (long[] pause : this.recentPauses) {
+            gcTime += Math.max(0, Math.min(end, pause[1]) - Math.max(start, pause[0]));
+        }
+
+        double adjusted = end - start - gcTime;
+        double containedPause = gcTime > 0 ? 1 : 0;
+
+        this.gcTime10Sec.add(gcTime);
+        this.gcTime1Min.add(gcTime);
+        this.adjustedTickDuration10Sec.add(adjusted);
+        this.adjustedTickDuration1Min.add(adjusted);
+        this.gcTicks10Sec.add(containedPause);
+        this.gcTicks1Min.add(containedPause);
+    }
+
+    @Override
+    public void onGc(GarbageCollectionNotificationInfo data) {
+        if (!GarbageCollectionMonitor.isPause(data)) {
+            return;
+        }
+
+        GcInfo info = data.getGcInfo();
+        synchronized (this.recentPauses) {
+            this.recentPauses.add(new long[]{info.getStartTime(), info.getEndTime()});
         }
     }
 
@@ -117,62 +195,152 @@ public class TickStatistics implements TickHook.Callback, TickReporter.Callback
         return this.tps15Min.getAverage();
     }
 
-    public RollingAverage duration10Sec() {
+    /**
+     * Gets the {@link System#nanoTime()} at the start of each tick in roughly the last minute.
+     *
+     * <p>The times are copied without blocking the thread recording them, and any which were
+     * overwritten by new ticks during the copy are discarded.</p>
+     *
+     * @return the tick times, oldest first
+     */
+    public long[] recentTickTimes() {
+        long end = this.tickCount;
+        long start = Math.max(0, end - TICK_TIMES);
+        long[] times = new long[(int) (end - start)];
+        for (long i = start; i < end; i++) {
+            times[(int) (i - start)] = this.tickTimes.get((int) (i % TICK_TIMES));
+        }
+
+        // the slot after the newest may already be being overwritten, so discard it too
+        long overwritten = this.tickCount - TICK_TIMES + 1 - start;
+        if (overwritten > 0) {
+            return overwritten >= times.length ? new long[0] : Arrays.copyOfRange(times, (int) overwritten, times.length);
+        }
+        return times;
+    }
+
+    /**
+     * Gets the intervals between the starts of the ticks in roughly the last minute.
+     *
+     * <p>Unlike the tick durations, these are available on every platform, and include any
+     * time the server spent sleeping between ticks.</p>
+     *
+     * @return the tick intervals in milliseconds, or null if there have not been enough ticks
+     */
+    public RollingHistogram tickIntervals1Min() {
+        long[] times = recentTickTimes();
+        if (times.length < 2) {
+            return null;
+        }
+        RollingHistogram intervals = new RollingHistogram(times.length - 1);
+        for (int i = 1; i < times.length; i++) {
+            intervals.add((times[i] - times[i - 1]) / 1000000d);
+        }
+        return intervals;
+    }
+
+    public RollingHistogram duration10Sec() {
         if (!this.durationSupported) {
             return null;
         }
         return this.tickDuration10Sec;
     }
 
-    public RollingAverage duration1Min() {
+    public RollingHistogram duration1Min() {
         if (!this.durationSupported) {
             return null;
         }
         return this.tickDuration1Min;
     }
 
+    /**
+     * Gets the tick durations from the last 10 seconds, excluding time spent in GC pauses.
+     *
+     * <p>Ticks are only included once any GC pauses which overlapped them have been
+     * notified, so this lags slightly behind {@link #duration10Sec()}.</p>
+     *
+     * @return the GC-adjusted durations
+     */
+    public RollingHistogram adjustedDuration10Sec() {
+        if (!this.durationSupported) {
+            return null;
+        }
+        return this.adjustedTickDuration10Sec;
+    }
+
+    public RollingHistogram adjustedDuration1Min() {
+        if (!this.durationSupported) {
+            return null;
+        }
+        return this.adjustedTickDuration1Min;
+    }
+
+    /**
+     * Gets the proportion of tick time in the last 10 seconds which was spent in GC pauses.
+     *
+     * @return the GC share of tick time, between 0 and 1
+     */
+    public double gcShare10Sec() {
+        return gcShare(this.gcTime10Sec, this.adjustedTickDuration10Sec);
+    }
+
+    public double gcShare1Min() {
+        return gcShare(this.gcTime1Min, this.adjustedTickDuration1Min);
+    }
+
+    private static double gcShare(RollingHistogram gcTime, RollingHistogram adjustedDuration) {
+        double gc = gcTime.getAverage();
+        double total = gc + adjustedDuration.getAverage();
+        return total == 0 ? 0 : gc / total;
+    }
+
+    /**
+     * Gets the proportion of ticks in the last 10 seconds which contained a GC pause.
+     *
+     * @return the proportion of ticks, between 0 and 1
+     */
+    public double gcTicks10Sec() {
+        return this.gcTicks10Sec.getAverage();
+    }
+
+    public double gcTicks1Min() {
+        return this.gcTicks1Min.getAverage();
+    }
+
 
     /**
      * Rolling average calculator.
      *
-     * <p>This code is taken from PaperMC/Paper, licensed under MIT.</p>
+     * <p>This code is adapted from PaperMC/Paper, licensed under MIT. Each sample's TPS
+     * multiplied by its duration is always the sample interval, so only the durations are
+     * kept, and the average is the total number of ticks over the total duration.</p>
      *
      * @author aikar (PaperMC) https://github.com/PaperMC/Paper/blob/master/Spigot-Server-Patches/0021-Further-improve-server-tick-loop.patch
      */
     public static final class TpsRollingAverage {
         private final int size;
-        private long time;
-        private BigDecimal total;
-        private int index = 0;
-        private final BigDecimal[] samples;
         private final long[] times;
+        private int index = 0;
+        /** The sum of {@link #times}, written only by the tick dispatcher thread */
+        private volatile long time;
 
         TpsRollingAverage(int size) {
             this.size = size;
             this.time = size * SEC_IN_NANO;
-            this.total = new BigDecimal(TPS).multiply(new BigDecimal(SEC_IN_NANO)).multiply(new BigDecimal(size));
-            this.samples = new BigDecimal[size];
             this.times = new long[size];
-            for (int i = 0; i < size; i++) {
-                this.samples[i] = new BigDecimal(TPS);
-                this.times[i] = SEC_IN_NANO;
-            }
+            Arrays.fill(this.times, SEC_IN_NANO);
         }
 
-        public void add(BigDecimal x, long t, BigDecimal total) {
-            this.time -= this.times[this.index];
-            this.total = this.total.subtract(this.samples[this.index].multiply(new BigDecimal(this.times[this.index])));
-            this.samples[this.index] = x;
+        void add(long t) {
+            this.time = this.time - this.times[this.index] + t;
             this.times[this.index] = t;
-            this.time += t;
-            this.total = this.total.add(total);
             if (++this.index == this.size) {
                 this.index = 0;
             }
         }
 
         public double getAverage() {
-            return this.total.divide(new BigDecimal(this.time), 30, RoundingMode.HALF_UP).doubleValue();
+            return (double) SEC_IN_NANO * TPS_SAMPLE_INTERVAL * this.size / this.time;
         }
     }
 
@@ -0,0 +1,120 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.common.sampler.tick.WorldTickReporter;
+import me.lucko.spark.common.util.RollingHistogram;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps rolling statistics about the ticks of each world.
+ */
+public class WorldTickStatistics implements WorldTickReporter.Callback {
+    private static final int TPS = 20;
+    /** Entities & chunks are counted about once per second */
+    private static final int COUNTS_PER_MINUTE = 60;
+
+    private final Map<String, World> worlds = new ConcurrentHashMap<>();
+
+    @Override
+    public void onWorldTick(String world, double duration, int entities, int chunks) {
+        World stats = this.worlds.computeIfAbsent(world, World::new);
+        stats.duration10Sec.add(duration);
+        stats.duration1Min.add(duration);
+        if (entities >= 0) {
+            stats.entities1Min.add(entities);
+            stats.entities = entities;
+        }
+        if (chunks >= 0) {
+            stats.chunks1Min.add(chunks);
+            stats.chunks = chunks;
+        }
+    }
+
+    /**
+     * Gets the statistics for each world, ordered by the average tick duration over the last minute.
+     *
+     * @return the worlds
+     */
+    public List<World> getWorlds() {
+        List<World> worlds = new ArrayList<>(this.worlds.values());
+        worlds.sort(Comparator.comparingDouble((World w) -> w.duration1Min.getAverage()).reversed());
+        return worlds;
+    }
+
+    public static final class World {
+        private final String name;
+        private final RollingHistogram duration10Sec = new RollingHistogram(TPS * 10);
+        private final RollingHistogram duration1Min = new RollingHistogram(TPS * 60);
+        private final RollingHistogram entities1Min = new RollingHistogram(COUNTS_PER_MINUTE);
+        private final RollingHistogram chunks1Min = new RollingHistogram(COUNTS_PER_MINUTE);
+        private volatile int entities = -1;
+        private volatile int chunks = -1;
+
+        World(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public RollingHistogram duration10Sec() {
+            return this.duration10Sec;
+        }
+
+        public RollingHistogram duration1Min() {
+            return this.duration1Min;
+        }
+
+        public RollingHistogram entities1Min() {
+            return this.entities1Min;
+        }
+
+        public RollingHistogram chunks1Min() {
+            return this.chunks1Min;
+        }
+
+        /**
+         * Gets the most recently sampled entity count.
+         *
+         * @return the entity count, or -1 if not yet sampled
+         */
+        public int getEntities() {
+            return this.entities;
+        }
+
+        /**
+         * Gets the most recently sampled loaded chunk count.
+         *
+         * @return the chunk count, or -1 if not yet sampled
+         */
+        public int getChunks() {
+            return this.chunks;
+        }
+    }
+
+}
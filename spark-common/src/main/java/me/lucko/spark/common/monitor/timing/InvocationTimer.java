@@ -0,0 +1,134 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.timing;
+
+import me.lucko.spark.common.util.LogHistogram;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the invocations of something (e.g. an event listener), and the time they take.
+ *
+ * <p>The counters are striped, so a timer can be updated from many threads at once
+ * without contention. Timers can optionally also keep a histogram of the durations,
+ * which is locked when updated.</p>
+ */
+public final class InvocationTimer {
+    private final String source;
+    private final String type;
+    private final String name;
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    /** The histogram of durations in nanoseconds, or null if not kept */
+    private final LogHistogram histogram;
+
+    public InvocationTimer(String source, String type, String name, boolean histogram) {
+        this.source = source;
+        this.type = type;
+        this.name = name;
+        this.histogram = histogram ? new LogHistogram() : null;
+    }
+
+    public void record(long nanos) {
+        this.invocations.increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+        if (this.histogram != null) {
+            synchronized (this.histogram) {
+                this.histogram.record(nanos);
+            }
+        }
+    }
+
+    void reset() {
+        this.invocations.reset();
+        this.totalNanos.reset();
+        this.maxNanos.reset();
+        if (this.histogram != null) {
+            synchronized (this.histogram) {
+                this.histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * Gets the plugin or mod which owns the timed code.
+     *
+     * @return the source
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * Gets the type of invocation, e.g. the event type.
+     *
+     * @return the type
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the name of what was invoked, e.g. the listener method.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    public long getInvocations() {
+        return this.invocations.sum();
+    }
+
+    public long getTotalNanos() {
+        return this.totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return this.maxNanos.get();
+    }
+
+    public double getAverageNanos() {
+        long invocations = getInvocations();
+        return invocations == 0 ? 0 : (double) getTotalNanos() / invocations;
+    }
+
+    /**
+     * Gets the duration at the given percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the duration in nanoseconds, or -1 if a histogram isn't kept
+     */
+    public double getPercentileNanos(double percentile) {
+        if (this.histogram == null) {
+            return -1;
+        }
+        synchronized (this.histogram) {
+            return this.histogram.getPercentile(percentile);
+        }
+    }
+
+}
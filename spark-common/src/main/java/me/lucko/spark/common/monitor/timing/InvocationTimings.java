@@ -0,0 +1,162 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.timing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of {@link InvocationTimer}s, recorded by instrumentation which the platform
+ * installs when enabled, and removes again when disabled.
+ *
+ * <p>Instrumentation is expected to look up its timers once and keep hold of them, so
+ * timers are never removed - resetting only clears their counters.</p>
+ */
+public abstract class InvocationTimings implements AutoCloseable {
+    /** The type of timers for invocations on the main (server) thread, where timings distinguish them */
+    public static final String SYNC = "sync";
+    /** The type of timers for invocations on any other thread */
+    public static final String ASYNC = "async";
+
+    private final Map<String, InvocationTimer> timers = new ConcurrentHashMap<>();
+    /** If the timers should keep a histogram of durations */
+    private final boolean histograms;
+
+    private boolean enabled = false;
+    private volatile long startTime = System.nanoTime();
+
+    protected InvocationTimings(boolean histograms) {
+        this.histograms = histograms;
+    }
+
+    /**
+     * Installs the instrumentation.
+     *
+     * <p>If this throws, {@link #uninstall()} is called to remove whatever was
+     * installed before the failure.</p>
+     *
+     * @return the number of things (e.g. listeners) which were instrumented
+     * @throws Exception if an error occurs
+     */
+    protected abstract int install() throws Exception;
+
+    /**
+     * Removes the instrumentation, restoring the original state.
+     *
+     * @throws Exception if an error occurs
+     */
+    protected abstract void uninstall() throws Exception;
+
+    /**
+     * Resets the timers and installs the instrumentation, if not already enabled.
+     *
+     * @return the number of things which were instrumented, or -1 if already enabled
+     * @throws Exception if an error occurs
+     */
+    public synchronized int enable() throws Exception {
+        if (this.enabled) {
+            return -1;
+        }
+        reset();
+        int count;
+        try {
+            count = install();
+        } catch (Exception e) {
+            try {
+                uninstall();
+            } catch (Exception suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        this.enabled = true;
+        return count;
+    }
+
+    public synchronized void disable() throws Exception {
+        if (!this.enabled) {
+            return;
+        }
+        this.enabled = false;
+        uninstall();
+    }
+
+    public synchronized boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public void reset() {
+        for (InvocationTimer timer : this.timers.values()) {
+            timer.reset();
+        }
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Gets the timer for the given key, creating it if necessary.
+     *
+     * @param source the plugin or mod which owns the timed code
+     * @param type the type of invocation
+     * @param name the name of what was invoked
+     * @return the timer
+     */
+    public InvocationTimer getTimer(String source, String type, String name) {
+        return this.timers.computeIfAbsent(source + '\n' + type + '\n' + name, k -> new InvocationTimer(source, type, name, this.histograms));
+    }
+
+    /**
+     * Gets the timers which have recorded invocations, ordered by total time (highest first).
+     *
+     * @return the timers
+     */
+    public List<InvocationTimer> getTimers() {
+        List<InvocationTimer> timers = new ArrayList<>();
+        for (InvocationTimer timer : this.timers.values()) {
+            if (timer.getInvocations() != 0) {
+                timers.add(timer);
+            }
+        }
+        timers.sort(Comparator.comparingLong(InvocationTimer::getTotalNanos).reversed());
+        return timers;
+    }
+
+    /**
+     * Gets the time since the timers were last reset.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - this.startTime;
+    }
+
+    @Override
+    public void close() {
+        try {
+            disable();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+}
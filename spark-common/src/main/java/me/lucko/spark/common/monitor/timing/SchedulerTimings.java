@@ -0,0 +1,87 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.timing;
+
+/**
+ * {@link InvocationTimings} for the tasks run by a scheduler.
+ *
+ * <p>Timers keep a histogram of durations, and have a type of either {@link #SYNC} or
+ * {@link #ASYNC}.</p>
+ */
+public abstract class SchedulerTimings extends InvocationTimings {
+
+    protected SchedulerTimings() {
+        super(true);
+    }
+
+    /**
+     * Gets the current state of the executor used to run async tasks.
+     *
+     * @return the status
+     */
+    public abstract ExecutorStatus getExecutorStatus();
+
+    public static final class ExecutorStatus {
+        private final int runningTasks;
+        private final int scheduledTasks;
+        private final int poolSize;
+        private final int activeThreads;
+        private final int queuedTasks;
+
+        /**
+         * Creates a new status. Values which are unknown should be -1.
+         *
+         * @param runningTasks the number of async tasks currently running
+         * @param scheduledTasks the number of async tasks scheduled to run in the future
+         * @param poolSize the number of threads in the pool
+         * @param activeThreads the number of threads in the pool which are busy
+         * @param queuedTasks the number of tasks waiting in the pool's queue
+         */
+        public ExecutorStatus(int runningTasks, int scheduledTasks, int poolSize, int activeThreads, int queuedTasks) {
+            this.runningTasks = runningTasks;
+            this.scheduledTasks = scheduledTasks;
+            this.poolSize = poolSize;
+            this.activeThreads = activeThreads;
+            this.queuedTasks = queuedTasks;
+        }
+
+        public int getRunningTasks() {
+            return this.runningTasks;
+        }
+
+        public int getScheduledTasks() {
+            return this.scheduledTasks;
+        }
+
+        public int getPoolSize() {
+            return this.poolSize;
+        }
+
+        public int getActiveThreads() {
+            return this.activeThreads;
+        }
+
+        public int getQueuedTasks() {
+            return this.queuedTasks;
+        }
+    }
+
+}
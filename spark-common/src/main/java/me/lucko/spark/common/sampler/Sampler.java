@@ -24,6 +24,7 @@ package me.lucko.spark.common.sampler;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
 import me.lucko.spark.common.platform.PlatformInfo;
 import me.lucko.spark.common.sampler.aggregator.DataAggregator;
 import me.lucko.spark.common.sampler.aggregator.SimpleDataAggregator;
@@ -31,12 +32,12 @@ import me.lucko.spark.common.sampler.aggregator.TickedDataAggregator;
 import me.lucko.spark.common.sampler.node.MergeMode;
 import me.lucko.spark.common.sampler.node.ThreadNode;
 import me.lucko.spark.common.sampler.tick.TickHook;
+import me.lucko.spark.common.util.ClassSourceLookup;
+import me.lucko.spark.common.util.ParallelGzipCompressor;
 import me.lucko.spark.proto.SparkProtos.SamplerData;
 import me.lucko.spark.proto.SparkProtos.SamplerMetadata;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
@@ -50,7 +51,6 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Main sampler class.
@@ -85,6 +85,17 @@ public class Sampler implements Runnable {
 
     private int annotationId;
 
+    /** The source of the tick phase breakdown, if the platform supports it */
+    private TickPhaseStatistics tickPhaseStatistics = null;
+    private double tickPhaseThreshold = 0;
+    /** The time spent in each tick phase whilst sampling */
+    private TickPhaseStatistics.Breakdown tickPhases = null;
+
+    /** Used to attribute the sampled frames to plugins or mods, if the platform supports it */
+    private ClassSourceLookup classSourceLookup = null;
+    /** The time attributed to each plugin or mod, computed once the sampler has stopped */
+    private SourceRollup sourceRollup = null;
+
     public Sampler(int interval, ThreadDumper threadDumper, ThreadGrouper threadGrouper, long endTime, boolean ignoreSleeping, boolean ignoreNative) {
         this.threadDumper = threadDumper;
         this.dataAggregator = new SimpleDataAggregator(this.workerPool, threadGrouper, interval, ignoreSleeping, ignoreNative);
@@ -99,11 +110,36 @@ public class Sampler implements Runnable {
         this.endTime = endTime;
     }
 
+    /**
+     * Records the time spent in each tick phase whilst the sampler is running.
+     *
+     * <p>Must be called before the sampler is started.</p>
+     *
+     * @param tickPhaseStatistics the tick phase statistics
+     * @param thresholdMillis only include ticks which last at least this long
+     */
+    void trackTickPhases(TickPhaseStatistics tickPhaseStatistics, double thresholdMillis) {
+        this.tickPhaseStatistics = tickPhaseStatistics;
+        this.tickPhaseThreshold = thresholdMillis;
+    }
+
+    /**
+     * Attributes the sampled frames to the plugin or mod which owns them.
+     *
+     * @param classSourceLookup the lookup used to identify the source of each class
+     */
+    void attributeSources(ClassSourceLookup classSourceLookup) {
+        this.classSourceLookup = classSourceLookup;
+    }
+
     /**
      * Starts the sampler.
      */
     public void start() {
         this.startTime = System.currentTimeMillis();
+        if (this.tickPhaseStatistics != null) {
+            this.tickPhases = this.tickPhaseStatistics.startBreakdown(this.tickPhaseThreshold);
+        }
         if (SparkPlatform.GRAFANA_CLIENT != null) {
             workerPool.execute(() -> {
                 try {
@@ -127,6 +163,10 @@ public class Sampler implements Runnable {
         return this.endTime;
     }
 
+    public int getInterval() {
+        return this.interval;
+    }
+
     public CompletableFuture<Sampler> getFuture() {
         return this.future;
     }
@@ -134,6 +174,37 @@ public class Sampler implements Runnable {
     public void cancel() {
         this.endTime = System.currentTimeMillis();
         this.task.cancel(false);
+        if (this.tickPhases != null) {
+            this.tickPhases.stop();
+        }
+    }
+
+    /**
+     * Gets the time spent in each tick phase whilst sampling, if the platform supports it.
+     *
+     * <p>If the sampler only records ticks over a threshold, only those ticks are included.</p>
+     *
+     * @return the breakdown, or null
+     */
+    public TickPhaseStatistics.Breakdown getTickPhases() {
+        return this.tickPhases;
+    }
+
+    /**
+     * Gets the time attributed to each plugin or mod.
+     *
+     * <p>The sampler should be stopped before this method is called.</p>
+     *
+     * @return the rollup, or null if sources are not being attributed
+     */
+    public synchronized SourceRollup getSourceRollup() {
+        if (this.classSourceLookup == null || this.classSourceLookup == ClassSourceLookup.NO_OP) {
+            return null;
+        }
+        if (this.sourceRollup == null) {
+            this.sourceRollup = SourceRollup.create(getData(), this.classSourceLookup);
+        }
+        return this.sourceRollup;
     }
 
     @Override
@@ -159,6 +230,17 @@ public class Sampler implements Runnable {
         return annotationId;
     }
 
+    /**
+     * Gets the sampling data collected so far, grouped by thread.
+     *
+     * <p>The sampler should be stopped before this method is called.</p>
+     *
+     * @return the sampling data
+     */
+    public Map<String, ThreadNode> getData() {
+        return this.dataAggregator.getData();
+    }
+
     private static final class InsertDataTask implements Runnable {
         private final DataAggregator dataAggregator;
         private final ThreadInfo[] threadDumps;
@@ -192,6 +274,10 @@ public class Sampler implements Runnable {
             metadata.setComment(comment);
         }
 
+        if (this.tickPhases != null) {
+            metadata.setTickPhases(this.tickPhases.toProto());
+        }
+
         SamplerData.Builder proto = SamplerData.newBuilder();
         proto.setMetadata(metadata.build());
 
@@ -202,19 +288,17 @@ public class Sampler implements Runnable {
             proto.addThreads(entry.getValue().toProto(mergeMode));
         }
 
+        SourceRollup sourceRollup = getSourceRollup();
+        if (sourceRollup != null) {
+            proto.addAllSources(sourceRollup.toProto());
+        }
+
         return proto.build();
     }
 
     public byte[] formCompressedDataPayload(PlatformInfo platformInfo, CommandSender creator, Comparator<? super Map.Entry<String, ThreadNode>> outputOrder, String comment, MergeMode mergeMode) {
         SamplerData proto = toProto(platformInfo, creator, outputOrder, comment, mergeMode);
-
-        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-        try (OutputStream out = new GZIPOutputStream(byteOut)) {
-            proto.writeTo(out);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return byteOut.toByteArray();
+        return ParallelGzipCompressor.compressData(proto);
     }
 
 }
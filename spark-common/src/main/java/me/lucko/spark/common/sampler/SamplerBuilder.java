@@ -20,7 +20,9 @@
 
 package me.lucko.spark.common.sampler;
 
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
 import me.lucko.spark.common.sampler.tick.TickHook;
+import me.lucko.spark.common.util.ClassSourceLookup;
 
 import java.util.concurrent.TimeUnit;
 
@@ -38,6 +40,8 @@ public class SamplerBuilder {
 
     private int ticksOver = -1;
     private TickHook tickHook = null;
+    private TickPhaseStatistics tickPhaseStatistics = null;
+    private ClassSourceLookup classSourceLookup = null;
 
     public SamplerBuilder() {
     }
@@ -71,6 +75,16 @@ public class SamplerBuilder {
         return this;
     }
 
+    public SamplerBuilder tickPhases(TickPhaseStatistics tickPhaseStatistics) {
+        this.tickPhaseStatistics = tickPhaseStatistics;
+        return this;
+    }
+
+    public SamplerBuilder classSourceLookup(ClassSourceLookup classSourceLookup) {
+        this.classSourceLookup = classSourceLookup;
+        return this;
+    }
+
     public SamplerBuilder ignoreSleeping(boolean ignoreSleeping) {
         this.ignoreSleeping = ignoreSleeping;
         return this;
@@ -91,6 +105,14 @@ public class SamplerBuilder {
             sampler = new Sampler(intervalMicros, this.threadDumper, this.threadGrouper, this.timeout, this.ignoreSleeping, this.ignoreNative, this.tickHook, this.ticksOver);
         }
 
+        if (this.tickPhaseStatistics != null) {
+            sampler.trackTickPhases(this.tickPhaseStatistics, this.ticksOver == -1 ? 0 : this.ticksOver);
+        }
+
+        if (this.classSourceLookup != null) {
+            sampler.attributeSources(this.classSourceLookup);
+        }
+
         sampler.start();
         return sampler;
     }
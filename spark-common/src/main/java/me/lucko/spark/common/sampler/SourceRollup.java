@@ -0,0 +1,254 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler;
+
+import me.lucko.spark.common.sampler.node.AbstractNode;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
+import me.lucko.spark.common.sampler.node.ThreadNode;
+import me.lucko.spark.common.util.ClassSourceLookup;
+import me.lucko.spark.proto.SparkProtos.SourceNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rolls up the time in a set of sampling data by the source (plugin or mod) of the
+ * frames which were executing.
+ *
+ * <p>The self time of each node is attributed to the innermost frame on its path which
+ * has a known source, so time spent in server or library code called by a plugin counts
+ * towards that plugin, but time spent in another plugin's event listener does not.
+ * Frames from {@link ClassSourceLookup#getPlatformSources() platform sources} (e.g. the
+ * game itself on modded platforms) only take the time when no plugin or mod is below
+ * them in the stack.</p>
+ *
+ * <p>Within each thread, the time is further broken down by the "entry point" - the
+ * outermost frame of the run of frames belonging to the source.</p>
+ */
+public class SourceRollup {
+
+    private final ClassSourceLookup lookup;
+    private final Set<String> platformSources;
+    private final Map<String, Source> sources = new HashMap<>();
+
+    private SourceRollup(ClassSourceLookup lookup) {
+        this.lookup = lookup;
+        this.platformSources = lookup.getPlatformSources();
+    }
+
+    /**
+     * Rolls up the given sampling data.
+     *
+     * @param data the sampling data, keyed by thread (group) name
+     * @param lookup the lookup used to identify the source of each class
+     * @return the rollup
+     */
+    public static SourceRollup create(Map<String, ThreadNode> data, ClassSourceLookup lookup) {
+        SourceRollup rollup = new SourceRollup(lookup);
+        for (Map.Entry<String, ThreadNode> entry : data.entrySet()) {
+            String threadName = entry.getKey();
+            ThreadNode thread = entry.getValue();
+            rollup.walk(threadName, thread.getTotalTime(), thread, null, null);
+        }
+        return rollup;
+    }
+
+    private void walk(String threadName, double threadTime, AbstractNode node, String source, StackTraceNode entryPoint) {
+        if (node instanceof StackTraceNode) {
+            StackTraceNode frame = (StackTraceNode) node;
+            String frameSource = this.lookup.identifyClassName(frame.getClassName());
+            if (frameSource != null && !frameSource.equals(source) && (source == null || !this.platformSources.contains(frameSource))) {
+                source = frameSource;
+                entryPoint = frame;
+            }
+
+            if (source != null) {
+                double selfTime = node.getSelfTime();
+                if (selfTime > 0) {
+                    this.sources.computeIfAbsent(source, name -> new Source(name, this.platformSources.contains(name))).record(threadName, threadTime, entryPoint, selfTime);
+                }
+            }
+        }
+
+        for (StackTraceNode child : node.getChildren()) {
+            walk(threadName, threadTime, child, source, entryPoint);
+        }
+    }
+
+    /**
+     * Gets the sources, ordered by the time attributed to them (highest first).
+     *
+     * @return the sources
+     */
+    public List<Source> getSources() {
+        List<Source> sources = new ArrayList<>(this.sources.values());
+        sources.sort(Comparator.comparingDouble(Source::getTime).reversed());
+        return sources;
+    }
+
+    public List<SourceNode> toProto() {
+        List<SourceNode> protos = new ArrayList<>();
+        for (Source source : getSources()) {
+            protos.add(source.toProto());
+        }
+        return protos;
+    }
+
+    public static final class Source {
+        private final String name;
+        private final boolean platform;
+        private final Map<String, SourceThread> threads = new HashMap<>();
+        private double time = 0;
+
+        Source(String name, boolean platform) {
+            this.name = name;
+            this.platform = platform;
+        }
+
+        void record(String threadName, double threadTime, StackTraceNode entryPoint, double time) {
+            this.time += time;
+            this.threads.computeIfAbsent(threadName, n -> new SourceThread(n, threadTime)).record(entryPoint, time);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets if the source belongs to the platform itself, rather than a plugin or mod.
+         *
+         * @return if the source is a platform source
+         */
+        public boolean isPlatform() {
+            return this.platform;
+        }
+
+        /**
+         * Gets the total time attributed to the source.
+         *
+         * @return the time in milliseconds
+         */
+        public double getTime() {
+            return this.time;
+        }
+
+        /**
+         * Gets the threads in which time was attributed to the source, ordered by the
+         * proportion of the thread's time which was attributed (highest first).
+         *
+         * @return the threads
+         */
+        public List<SourceThread> getThreads() {
+            List<SourceThread> threads = new ArrayList<>(this.threads.values());
+            threads.sort(Comparator.comparingDouble(SourceThread::getShare).reversed());
+            return threads;
+        }
+
+        SourceNode toProto() {
+            SourceNode.Builder proto = SourceNode.newBuilder()
+                    .setName(this.name)
+                    .setTime(this.time)
+                    .setPlatform(this.platform);
+
+            List<SourceThread> threads = new ArrayList<>(this.threads.values());
+            threads.sort(Comparator.comparingDouble(SourceThread::getTime).reversed());
+            for (SourceThread thread : threads) {
+                proto.addThreads(thread.toProto());
+            }
+            return proto.build();
+        }
+    }
+
+    public static final class SourceThread {
+        private final String name;
+        private final double totalTime;
+        private final Map<String, EntryPoint> entryPoints = new HashMap<>();
+        private double time = 0;
+
+        SourceThread(String name, double totalTime) {
+            this.name = name;
+            this.totalTime = totalTime;
+        }
+
+        void record(StackTraceNode entryPoint, double time) {
+            this.time += time;
+            String key = entryPoint.getClassName() + '.' + entryPoint.getMethodName();
+            this.entryPoints.computeIfAbsent(key, k -> new EntryPoint(entryPoint.getClassName(), entryPoint.getMethodName())).time += time;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets the time within this thread attributed to the source.
+         *
+         * @return the time in milliseconds
+         */
+        public double getTime() {
+            return this.time;
+        }
+
+        /**
+         * Gets the proportion of the thread's time attributed to the source.
+         *
+         * @return the share, between 0 and 1
+         */
+        public double getShare() {
+            return this.totalTime == 0 ? 0 : this.time / this.totalTime;
+        }
+
+        SourceNode.Thread toProto() {
+            SourceNode.Thread.Builder proto = SourceNode.Thread.newBuilder()
+                    .setName(this.name)
+                    .setTime(this.time)
+                    .setTotalTime(this.totalTime);
+
+            List<EntryPoint> entryPoints = new ArrayList<>(this.entryPoints.values());
+            entryPoints.sort(Comparator.comparingDouble((EntryPoint e) -> e.time).reversed());
+            for (EntryPoint entryPoint : entryPoints) {
+                proto.addEntryPoints(SourceNode.EntryPoint.newBuilder()
+                        .setClassName(entryPoint.className)
+                        .setMethodName(entryPoint.methodName)
+                        .setTime(entryPoint.time)
+                        .build()
+                );
+            }
+            return proto.build();
+        }
+    }
+
+    private static final class EntryPoint {
+        private final String className;
+        private final String methodName;
+        private double time = 0;
+
+        EntryPoint(String className, String methodName) {
+            this.className = className;
+            this.methodName = methodName;
+        }
+    }
+
+}
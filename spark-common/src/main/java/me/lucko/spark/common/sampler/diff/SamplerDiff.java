@@ -0,0 +1,366 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.diff;
+
+import me.lucko.spark.proto.SparkProtos;
+import me.lucko.spark.proto.SparkProtos.SamplerData;
+import me.lucko.spark.proto.SparkProtos.SamplerMetadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The difference between two sampler profiles.
+ *
+ * <p>The thread and stack trace trees of both profiles are aligned by frame (class, method
+ * and method descriptor - line numbers are ignored, as they tend to change between versions).
+ * Each node then records the time spent in both profiles, and the delta between them.</p>
+ *
+ * <p>Normalised deltas compare each node's share of the total sampled time in each profile,
+ * so profiles of different lengths can still be meaningfully compared.</p>
+ */
+public final class SamplerDiff {
+
+    /**
+     * Decodes a sampler payload, as uploaded to bytebin.
+     *
+     * @param buf the payload, optionally gzip compressed
+     * @return the decoded data
+     * @throws IOException if the data could not be read
+     */
+    public static SamplerData decode(byte[] buf) throws IOException {
+        boolean compressed = buf.length >= 2 && (buf[0] & 0xFF) == 0x1F && (buf[1] & 0xFF) == 0x8B;
+        try (InputStream in = compressed ? new GZIPInputStream(new ByteArrayInputStream(buf)) : new ByteArrayInputStream(buf)) {
+            return SamplerData.parseFrom(in);
+        }
+    }
+
+    /**
+     * Compares two profiles.
+     *
+     * @param before the baseline profile
+     * @param after the profile to compare against the baseline
+     * @return the diff
+     */
+    public static SamplerDiff compare(SamplerData before, SamplerData after) {
+        SamplerDiff diff = new SamplerDiff(before, after);
+        for (SparkProtos.ThreadNode thread : before.getThreadsList()) {
+            diff.getThread(thread.getName()).add(thread, true);
+        }
+        for (SparkProtos.ThreadNode thread : after.getThreadsList()) {
+            diff.getThread(thread.getName()).add(thread, false);
+        }
+        diff.beforeTotal = diff.threads.values().stream().mapToDouble(n -> n.before).sum();
+        diff.afterTotal = diff.threads.values().stream().mapToDouble(n -> n.after).sum();
+        return diff;
+    }
+
+    private final SamplerData before;
+    private final SamplerData after;
+    private final Map<String, Node> threads = new LinkedHashMap<>();
+    private double beforeTotal;
+    private double afterTotal;
+
+    private SamplerDiff(SamplerData before, SamplerData after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    private Node getThread(String name) {
+        return this.threads.computeIfAbsent(name, n -> new Node(null));
+    }
+
+    public double getBeforeTotal() {
+        return this.beforeTotal;
+    }
+
+    public double getAfterTotal() {
+        return this.afterTotal;
+    }
+
+    /**
+     * Gets the share of the total time in the "before" profile represented by the given time.
+     *
+     * @param time the time
+     * @return the share, between 0 and 1
+     */
+    private double beforeShare(double time) {
+        return this.beforeTotal == 0 ? 0 : time / this.beforeTotal;
+    }
+
+    private double afterShare(double time) {
+        return this.afterTotal == 0 ? 0 : time / this.afterTotal;
+    }
+
+    /**
+     * Computes the per-method self time deltas, with the largest regressions first.
+     *
+     * <p>Self time is summed for each method regardless of where it appears in the tree.</p>
+     *
+     * @return the method deltas
+     */
+    public List<MethodDelta> getMethodDeltas() {
+        Map<Frame, double[]> selfTimes = new HashMap<>();
+        for (Node thread : this.threads.values()) {
+            thread.accumulateSelfTimes(selfTimes);
+        }
+
+        return selfTimes.entrySet().stream()
+                .map(e -> new MethodDelta(e.getKey(), e.getValue()[0], e.getValue()[1], afterShare(e.getValue()[1]) - beforeShare(e.getValue()[0])))
+                .sorted(Comparator.comparingDouble(MethodDelta::getNormalisedDelta).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Exports the diff as sampler data, so it can be opened in the viewer.
+     *
+     * <p>The time of each node is the normalised delta, expressed in terms of the "after"
+     * profile's total time. (when both profiles sampled for the same total time, this is simply
+     * the absolute delta)</p>
+     *
+     * @return the sampler data
+     */
+    public SamplerData toProto() {
+        SamplerMetadata.Builder metadata = this.after.getMetadata().toBuilder();
+        metadata.setComment("Diff: " + describe(this.before) + " -> " + describe(this.after));
+
+        SamplerData.Builder proto = SamplerData.newBuilder().setMetadata(metadata);
+        for (Map.Entry<String, Node> thread : this.threads.entrySet()) {
+            Node node = thread.getValue();
+            SparkProtos.ThreadNode.Builder threadProto = SparkProtos.ThreadNode.newBuilder()
+                    .setName(thread.getKey())
+                    .setTime(scaledDelta(node));
+            for (Node child : node.sortedChildren()) {
+                threadProto.addChildren(child.toProto());
+            }
+            proto.addThreads(threadProto);
+        }
+        return proto.build();
+    }
+
+    public byte[] formCompressedDataPayload() {
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(byteOut)) {
+            toProto().writeTo(out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return byteOut.toByteArray();
+    }
+
+    private double scaledDelta(Node node) {
+        return (afterShare(node.after) - beforeShare(node.before)) * this.afterTotal;
+    }
+
+    private static String describe(SamplerData data) {
+        SamplerMetadata metadata = data.getMetadata();
+        String comment = metadata.getComment();
+        return comment.isEmpty() ? String.valueOf(metadata.getStartTime()) : comment;
+    }
+
+    /**
+     * A node in the diff tree.
+     */
+    private final class Node {
+        private final Frame frame;
+        private final Map<Frame, Node> children = new HashMap<>();
+        private double before;
+        private double after;
+
+        Node(Frame frame) {
+            this.frame = frame;
+        }
+
+        void add(SparkProtos.ThreadNode thread, boolean before) {
+            addTime(thread.getTime(), before);
+            for (SparkProtos.StackTraceNode child : thread.getChildrenList()) {
+                getChild(child).add(child, before);
+            }
+        }
+
+        void add(SparkProtos.StackTraceNode node, boolean before) {
+            addTime(node.getTime(), before);
+            for (SparkProtos.StackTraceNode child : node.getChildrenList()) {
+                getChild(child).add(child, before);
+            }
+        }
+
+        private void addTime(double time, boolean before) {
+            if (before) {
+                this.before += time;
+            } else {
+                this.after += time;
+            }
+        }
+
+        private Node getChild(SparkProtos.StackTraceNode node) {
+            Frame frame = new Frame(node.getClassName(), node.getMethodName(), node.getMethodDesc());
+            return this.children.computeIfAbsent(frame, Node::new);
+        }
+
+        void accumulateSelfTimes(Map<Frame, double[]> selfTimes) {
+            double beforeSelf = this.before;
+            double afterSelf = this.after;
+            for (Node child : this.children.values()) {
+                beforeSelf -= child.before;
+                afterSelf -= child.after;
+                child.accumulateSelfTimes(selfTimes);
+            }
+
+            if (this.frame != null) {
+                double[] times = selfTimes.computeIfAbsent(this.frame, f -> new double[2]);
+                times[0] += Math.max(0, beforeSelf);
+                times[1] += Math.max(0, afterSelf);
+            }
+        }
+
+        List<Node> sortedChildren() {
+            List<Node> list = new ArrayList<>(this.children.values());
+            list.sort(Comparator.comparingDouble(SamplerDiff.this::scaledDelta).reversed());
+            return list;
+        }
+
+        SparkProtos.StackTraceNode toProto() {
+            SparkProtos.StackTraceNode.Builder proto = SparkProtos.StackTraceNode.newBuilder()
+                    .setTime(scaledDelta(this))
+                    .setClassName(this.frame.className)
+                    .setMethodName(this.frame.methodName);
+
+            if (!this.frame.methodDesc.isEmpty()) {
+                proto.setMethodDesc(this.frame.methodDesc);
+            }
+
+            for (Node child : sortedChildren()) {
+                proto.addChildren(child.toProto());
+            }
+            return proto.build();
+        }
+    }
+
+    /**
+     * A frame used to align nodes between profiles.
+     */
+    public static final class Frame {
+        private final String className;
+        private final String methodName;
+        private final String methodDesc;
+
+        Frame(String className, String methodName, String methodDesc) {
+            this.className = className;
+            this.methodName = methodName;
+            this.methodDesc = methodDesc;
+        }
+
+        public String getClassName() {
+            return this.className;
+        }
+
+        public String getMethodName() {
+            return this.methodName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Frame frame = (Frame) o;
+            return this.className.equals(frame.className) &&
+                    this.methodName.equals(frame.methodName) &&
+                    this.methodDesc.equals(frame.methodDesc);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.className, this.methodName, this.methodDesc);
+        }
+
+        @Override
+        public String toString() {
+            return this.className + "." + this.methodName + "()";
+        }
+    }
+
+    /**
+     * The change in self time for a method between the two profiles.
+     */
+    public static final class MethodDelta {
+        private final Frame frame;
+        private final double before;
+        private final double after;
+        private final double normalisedDelta;
+
+        MethodDelta(Frame frame, double before, double after, double normalisedDelta) {
+            this.frame = frame;
+            this.before = before;
+            this.after = after;
+            this.normalisedDelta = normalisedDelta;
+        }
+
+        public Frame getFrame() {
+            return this.frame;
+        }
+
+        /**
+         * Gets the self time in the "before" profile, in milliseconds.
+         *
+         * @return the time
+         */
+        public double getBefore() {
+            return this.before;
+        }
+
+        /**
+         * Gets the self time in the "after" profile, in milliseconds.
+         *
+         * @return the time
+         */
+        public double getAfter() {
+            return this.after;
+        }
+
+        public double getAbsoluteDelta() {
+            return this.after - this.before;
+        }
+
+        /**
+         * Gets the change in the method's share of the total time, between -1 and 1.
+         *
+         * @return the normalised delta
+         */
+        public double getNormalisedDelta() {
+            return this.normalisedDelta;
+        }
+    }
+
+}
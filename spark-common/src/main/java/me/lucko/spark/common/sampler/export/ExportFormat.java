@@ -0,0 +1,144 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.export;
+
+import me.lucko.spark.common.sampler.Sampler;
+import me.lucko.spark.common.sampler.node.ThreadNode;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Formats that {@link Sampler} results can be exported to disk in, as an alternative
+ * to uploading them to the viewer.
+ */
+public enum ExportFormat {
+
+    /**
+     * Gzipped "profile.proto", as read by 'go tool pprof'
+     */
+    PPROF(".pb.gz") {
+        @Override
+        protected void write(Sampler sampler, List<Map.Entry<String, ThreadNode>> threads, String comment, OutputStream out) throws IOException {
+            try (GZIPOutputStream compressionOut = new GZIPOutputStream(out, 1024 * 64)) {
+                new PprofWriter(sampler, comment).writeTo(threads, compressionOut);
+            }
+        }
+    },
+
+    /**
+     * Folded stacks, as read by FlameGraph's flamegraph.pl (and most other flame graph tools)
+     */
+    FOLDED(".folded") {
+        @Override
+        protected void write(Sampler sampler, List<Map.Entry<String, ThreadNode>> threads, String comment, OutputStream out) throws IOException {
+            new FoldedStackWriter(sampler).writeTo(threads, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+    },
+
+    /**
+     * speedscope's JSON file format
+     */
+    SPEEDSCOPE(".speedscope.json") {
+        @Override
+        protected void write(Sampler sampler, List<Map.Entry<String, ThreadNode>> threads, String comment, OutputStream out) throws IOException {
+            new SpeedscopeWriter(comment).writeTo(threads, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+    };
+
+    private final String fileExtension;
+
+    ExportFormat(String fileExtension) {
+        this.fileExtension = fileExtension;
+    }
+
+    public String getFileExtension() {
+        return this.fileExtension;
+    }
+
+    /**
+     * Exports the results of the sampler to a new file in the given directory.
+     *
+     * @param sampler the sampler
+     * @param outputOrder the order to write threads in
+     * @param comment the comment to attach to the output, nullable
+     * @param directory the directory to write the file to
+     * @return the file that was written
+     * @throws IOException if an error occurs whilst writing
+     */
+    public Path export(Sampler sampler, Comparator<? super Map.Entry<String, ThreadNode>> outputOrder, String comment, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve("profile-" + DateTimeFormatter.ofPattern("yyyy-MM-dd_HH.mm.ss").format(LocalDateTime.now()) + this.fileExtension);
+
+        List<Map.Entry<String, ThreadNode>> threads = new ArrayList<>(sampler.getData().entrySet());
+        threads.sort(outputOrder);
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1024 * 64)) {
+            write(sampler, threads, comment, out);
+        }
+        return file;
+    }
+
+    protected abstract void write(Sampler sampler, List<Map.Entry<String, ThreadNode>> threads, String comment, OutputStream out) throws IOException;
+
+    /**
+     * Gets the export format with the given name, ignoring case.
+     *
+     * @param name the name
+     * @return the format, or null if there isn't one with the given name
+     */
+    public static ExportFormat parse(String name) {
+        for (ExportFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the export format a file was written in, from its extension.
+     *
+     * @param fileName the file name
+     * @return the format, or null if the name doesn't have the extension of any format
+     */
+    public static ExportFormat fromFileName(String fileName) {
+        for (ExportFormat format : values()) {
+            if (fileName.endsWith(format.fileExtension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+}
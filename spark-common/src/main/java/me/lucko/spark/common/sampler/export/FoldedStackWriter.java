@@ -0,0 +1,82 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.export;
+
+import me.lucko.spark.common.sampler.Sampler;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
+import me.lucko.spark.common.sampler.node.ThreadNode;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the results of a {@link Sampler} in the "folded stacks" format used by
+ * Brendan Gregg's FlameGraph scripts.
+ *
+ * <p>Each line is one path through the tree, with frames separated by semicolons, followed
+ * by a space and the number of samples recorded with that path on top of the stack.</p>
+ */
+public class FoldedStackWriter extends NodeWalker {
+
+    /** The interval between samples, in microseconds */
+    private final int interval;
+
+    private Writer writer;
+    private String threadName;
+
+    public FoldedStackWriter(Sampler sampler) {
+        this.interval = sampler.getInterval();
+    }
+
+    /**
+     * Writes the given threads to the writer.
+     *
+     * @param threads the threads to include
+     * @param writer the writer
+     * @throws IOException if an error occurs whilst writing
+     */
+    public void writeTo(List<Map.Entry<String, ThreadNode>> threads, Writer writer) throws IOException {
+        this.writer = writer;
+        for (Map.Entry<String, ThreadNode> thread : threads) {
+            this.threadName = thread.getKey().replace(';', ':');
+            walk(thread.getValue());
+        }
+        writer.flush();
+    }
+
+    @Override
+    protected void visitPath(StackTraceNode[] path, int length, double selfTime) throws IOException {
+        Writer writer = this.writer;
+        writer.write(this.threadName);
+        for (int i = 0; i < length; i++) {
+            writer.write(';');
+            writer.write(path[i].getClassName());
+            writer.write('.');
+            writer.write(path[i].getMethodName());
+        }
+        writer.write(' ');
+        writer.write(Long.toString(Math.max(1, Math.round((selfTime * 1000d) / this.interval))));
+        writer.write('\n');
+    }
+
+}
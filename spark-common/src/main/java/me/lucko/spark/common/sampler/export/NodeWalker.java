@@ -0,0 +1,80 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.export;
+
+import me.lucko.spark.common.sampler.node.AbstractNode;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Walks an {@link AbstractNode} tree depth-first, passing each path which has
+ * self time to {@link #visitPath(StackTraceNode[], int, double)}.
+ *
+ * <p>The path array is reused between calls, so memory use only depends on the depth
+ * of the tree, not its size.</p>
+ */
+abstract class NodeWalker {
+
+    /** The nodes between the root and the node currently being visited */
+    private StackTraceNode[] path = new StackTraceNode[64];
+
+    /**
+     * Walks the tree below the given root node.
+     *
+     * @param root the root node
+     * @throws IOException if thrown by the visitor
+     */
+    protected void walk(AbstractNode root) throws IOException {
+        walk(root, 0);
+    }
+
+    private void walk(AbstractNode node, int depth) throws IOException {
+        if (depth > 0) {
+            double selfTime = node.getSelfTime();
+            if (selfTime > 0) {
+                visitPath(this.path, depth, selfTime);
+            }
+        }
+
+        if (depth == this.path.length) {
+            this.path = Arrays.copyOf(this.path, depth * 2);
+        }
+
+        for (StackTraceNode child : node.getChildren()) {
+            this.path[depth] = child;
+            walk(child, depth + 1);
+        }
+        this.path[depth] = null;
+    }
+
+    /**
+     * Visits a path through the tree.
+     *
+     * @param path the path, root first. only the first {@code length} elements are valid
+     * @param length the length of the path
+     * @param selfTime the self time of the last node in the path, in milliseconds
+     * @throws IOException if an error occurs
+     */
+    protected abstract void visitPath(StackTraceNode[] path, int length, double selfTime) throws IOException;
+
+}
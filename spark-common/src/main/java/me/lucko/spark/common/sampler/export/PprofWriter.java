@@ -0,0 +1,210 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.export;
+
+import com.google.protobuf.CodedOutputStream;
+import me.lucko.spark.common.monitor.tick.TickPhase;
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
+import me.lucko.spark.common.sampler.Sampler;
+import me.lucko.spark.common.sampler.node.AbstractNode;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
+import me.lucko.spark.common.sampler.node.ThreadNode;
+import me.lucko.spark.proto.PprofProtos.Function;
+import me.lucko.spark.proto.PprofProtos.Label;
+import me.lucko.spark.proto.PprofProtos.Line;
+import me.lucko.spark.proto.PprofProtos.Location;
+import me.lucko.spark.proto.PprofProtos.Profile;
+import me.lucko.spark.proto.PprofProtos.Sample;
+import me.lucko.spark.proto.PprofProtos.ValueType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the results of a {@link Sampler} in the pprof "profile.proto" format.
+ *
+ * <p>Samples are streamed to the output whilst the node tree is walked. The function,
+ * location and string tables are written afterwards - protobuf doesn't care about the
+ * order fields appear in on the wire.</p>
+ */
+public class PprofWriter {
+
+    /** The interval between samples, in microseconds */
+    private final int interval;
+    private final long startTime;
+    private final long endTime;
+    private final String comment;
+    private final TickPhaseStatistics.Breakdown tickPhases;
+
+    // string table - index 0 must always be the empty string
+    private final Map<String, Long> strings = new HashMap<>();
+    private final List<String> stringTable = new ArrayList<>();
+
+    // function & location tables, keyed by "class.method" and (function id, line) respectively
+    private final Map<String, Long> functionIds = new HashMap<>();
+    private final List<Function> functions = new ArrayList<>();
+    private final Map<Long, Long> locationIds = new HashMap<>();
+    private final List<Location> locations = new ArrayList<>();
+
+    /** The location ids of the frames between the root and the node currently being written */
+    private long[] stack = new long[64];
+
+    public PprofWriter(Sampler sampler, String comment) {
+        this.interval = sampler.getInterval();
+        this.startTime = sampler.getStartTime();
+        this.endTime = sampler.getEndTime() == -1 ? System.currentTimeMillis() : sampler.getEndTime();
+        this.comment = comment;
+        this.tickPhases = sampler.getTickPhases();
+        intern("");
+    }
+
+    /**
+     * Writes a profile containing the given threads to the output stream.
+     *
+     * @param threads the threads to include
+     * @param out the output stream
+     * @throws IOException if an error occurs whilst writing
+     */
+    public void writeTo(List<Map.Entry<String, ThreadNode>> threads, OutputStream out) throws IOException {
+        CodedOutputStream proto = CodedOutputStream.newInstance(out, 1024 * 64);
+
+        ValueType samplesType = ValueType.newBuilder().setType(intern("samples")).setUnit(intern("count")).build();
+        ValueType wallType = ValueType.newBuilder().setType(intern("wall")).setUnit(intern("nanoseconds")).build();
+        proto.writeMessage(Profile.SAMPLE_TYPE_FIELD_NUMBER, samplesType);
+        proto.writeMessage(Profile.SAMPLE_TYPE_FIELD_NUMBER, wallType);
+
+        long threadKey = intern("thread");
+        for (Map.Entry<String, ThreadNode> thread : threads) {
+            Label threadLabel = Label.newBuilder().setKey(threadKey).setStr(intern(thread.getKey())).build();
+            writeSamples(proto, thread.getValue(), 0, threadLabel);
+        }
+
+        for (Location location : this.locations) {
+            proto.writeMessage(Profile.LOCATION_FIELD_NUMBER, location);
+        }
+        for (Function function : this.functions) {
+            proto.writeMessage(Profile.FUNCTION_FIELD_NUMBER, function);
+        }
+
+        proto.writeInt64(Profile.TIME_NANOS_FIELD_NUMBER, this.startTime * 1000000L);
+        proto.writeInt64(Profile.DURATION_NANOS_FIELD_NUMBER, (this.endTime - this.startTime) * 1000000L);
+        proto.writeMessage(Profile.PERIOD_TYPE_FIELD_NUMBER, wallType);
+        proto.writeInt64(Profile.PERIOD_FIELD_NUMBER, this.interval * 1000L);
+        if (this.comment != null) {
+            proto.writeInt64(Profile.COMMENT_FIELD_NUMBER, intern(this.comment));
+        }
+        if (this.tickPhases != null && this.tickPhases.getTicks() > 0) {
+            proto.writeInt64(Profile.COMMENT_FIELD_NUMBER, intern(String.format("ticks: %d, %.2f ms/tick", this.tickPhases.getTicks(), this.tickPhases.getAverageTickTime())));
+            for (TickPhase phase : TickPhase.values()) {
+                proto.writeInt64(Profile.COMMENT_FIELD_NUMBER, intern(String.format("tick phase %s: %.2f ms/tick", phase.getName(), this.tickPhases.getAverage(phase))));
+            }
+        }
+        proto.writeInt64(Profile.DEFAULT_SAMPLE_TYPE_FIELD_NUMBER, 1);
+
+        // all strings have been interned by this point
+        for (String string : this.stringTable) {
+            proto.writeString(Profile.STRING_TABLE_FIELD_NUMBER, string);
+        }
+
+        proto.flush();
+    }
+
+    private void writeSamples(CodedOutputStream proto, AbstractNode node, int depth, Label threadLabel) throws IOException {
+        double selfTime = node.getSelfTime();
+        if (selfTime > 0 && depth > 0) {
+            Sample.Builder sample = Sample.newBuilder();
+            // pprof expects the leaf frame first
+            for (int i = depth - 1; i >= 0; i--) {
+                sample.addLocationId(this.stack[i]);
+            }
+            sample.addValue(Math.max(1, Math.round((selfTime * 1000d) / this.interval)));
+            sample.addValue(Math.round(selfTime * 1000000d));
+            sample.addLabel(threadLabel);
+            proto.writeMessage(Profile.SAMPLE_FIELD_NUMBER, sample.build());
+        }
+
+        if (depth == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, depth * 2);
+        }
+
+        for (StackTraceNode child : node.getChildren()) {
+            this.stack[depth] = getLocationId(child);
+            writeSamples(proto, child, depth + 1, threadLabel);
+        }
+    }
+
+    private long getLocationId(StackTraceNode node) {
+        long functionId = getFunctionId(node);
+        long key = (functionId << 32) | (node.getLineNumber() & 0xFFFFFFFFL);
+
+        Long id = this.locationIds.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        id = (long) this.locations.size() + 1;
+        Line.Builder line = Line.newBuilder().setFunctionId(functionId);
+        if (node.getLineNumber() >= 0) {
+            line.setLine(node.getLineNumber());
+        }
+        this.locations.add(Location.newBuilder().setId(id).addLine(line).build());
+        this.locationIds.put(key, id);
+        return id;
+    }
+
+    private long getFunctionId(StackTraceNode node) {
+        String name = node.getClassName() + "." + node.getMethodName();
+
+        Long id = this.functionIds.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        id = (long) this.functions.size() + 1;
+        long nameIndex = intern(name);
+        this.functions.add(Function.newBuilder()
+                .setId(id)
+                .setName(nameIndex)
+                .setSystemName(nameIndex)
+                .build()
+        );
+        this.functionIds.put(name, id);
+        return id;
+    }
+
+    private long intern(String string) {
+        Long index = this.strings.get(string);
+        if (index != null) {
+            return index;
+        }
+
+        index = (long) this.stringTable.size();
+        this.stringTable.add(string);
+        this.strings.put(string, index);
+        return index;
+    }
+
+}
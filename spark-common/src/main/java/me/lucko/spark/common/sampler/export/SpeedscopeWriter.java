@@ -0,0 +1,137 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.export;
+
+import com.google.gson.stream.JsonWriter;
+import me.lucko.spark.common.sampler.Sampler;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
+import me.lucko.spark.common.sampler.node.ThreadNode;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the results of a {@link Sampler} as a speedscope "sampled" profile.
+ *
+ * <p>Each thread is written as a separate profile. The shared frame table is written
+ * last, after all of the samples that reference it.</p>
+ *
+ * @see <a href="https://github.com/jlfwong/speedscope/wiki/Importing-from-custom-sources">speedscope file format</a>
+ */
+public class SpeedscopeWriter extends NodeWalker {
+    private static final String SCHEMA = "https://www.speedscope.app/file-format-schema.json";
+
+    private final String comment;
+
+    // frame table, keyed by class name then method name
+    private final Map<String, Map<String, Integer>> frameIds = new HashMap<>();
+    private final List<String> frames = new ArrayList<>();
+
+    private JsonWriter writer;
+    private boolean writingWeights;
+
+    public SpeedscopeWriter(String comment) {
+        this.comment = comment;
+    }
+
+    /**
+     * Writes the given threads to the writer.
+     *
+     * @param threads the threads to include
+     * @param writer the writer
+     * @throws IOException if an error occurs whilst writing
+     */
+    public void writeTo(List<Map.Entry<String, ThreadNode>> threads, Writer writer) throws IOException {
+        JsonWriter json = this.writer = new JsonWriter(writer);
+        json.beginObject();
+        json.name("$schema").value(SCHEMA);
+        json.name("exporter").value("spark");
+        json.name("name").value(this.comment != null ? this.comment : "spark profile");
+        json.name("activeProfileIndex").value(0);
+
+        json.name("profiles").beginArray();
+        for (Map.Entry<String, ThreadNode> thread : threads) {
+            ThreadNode node = thread.getValue();
+
+            json.beginObject();
+            json.name("type").value("sampled");
+            json.name("name").value(thread.getKey());
+            json.name("unit").value("milliseconds");
+            json.name("startValue").value(0);
+            json.name("endValue").value(node.getTotalTime());
+
+            // the samples and weights arrays are parallel, so walk the tree twice
+            this.writingWeights = false;
+            json.name("samples").beginArray();
+            walk(node);
+            json.endArray();
+
+            this.writingWeights = true;
+            json.name("weights").beginArray();
+            walk(node);
+            json.endArray();
+
+            json.endObject();
+        }
+        json.endArray();
+
+        json.name("shared").beginObject();
+        json.name("frames").beginArray();
+        for (String frame : this.frames) {
+            json.beginObject().name("name").value(frame).endObject();
+        }
+        json.endArray();
+        json.endObject();
+
+        json.endObject();
+        json.flush();
+    }
+
+    @Override
+    protected void visitPath(StackTraceNode[] path, int length, double selfTime) throws IOException {
+        if (this.writingWeights) {
+            this.writer.value(selfTime);
+            return;
+        }
+
+        this.writer.beginArray();
+        for (int i = 0; i < length; i++) {
+            this.writer.value(getFrameId(path[i]));
+        }
+        this.writer.endArray();
+    }
+
+    private int getFrameId(StackTraceNode node) {
+        Map<String, Integer> methods = this.frameIds.computeIfAbsent(node.getClassName(), k -> new HashMap<>());
+        Integer id = methods.get(node.getMethodName());
+        if (id == null) {
+            id = this.frames.size();
+            this.frames.add(node.getClassName() + "." + node.getMethodName());
+            methods.put(node.getMethodName(), id);
+        }
+        return id;
+    }
+
+}
@@ -22,6 +22,7 @@
 package me.lucko.spark.common.sampler.node;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +55,29 @@ public abstract class AbstractNode {
         return this.totalTime.longValue() / 1000d;
     }
 
+    /**
+     * Returns the sample time for this node in milliseconds, excluding the time
+     * accounted for by its children.
+     *
+     * @return the self time
+     */
+    public double getSelfTime() {
+        long selfTime = this.totalTime.longValue();
+        for (StackTraceNode child : this.children.values()) {
+            selfTime -= ((AbstractNode) child).totalTime.longValue();
+        }
+        return Math.max(0, selfTime) / 1000d;
+    }
+
+    /**
+     * Gets the children of this node, in no particular order.
+     *
+     * @return the children
+     */
+    public Collection<StackTraceNode> getChildren() {
+        return this.children.values();
+    }
+
     /**
      * Merge {@code other} into {@code this}.
      *
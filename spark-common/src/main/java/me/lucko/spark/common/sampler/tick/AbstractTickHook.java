@@ -20,18 +20,13 @@
 
 package me.lucko.spark.common.sampler.tick;
 
-import java.util.HashSet;
-import java.util.Set;
-
 public abstract class AbstractTickHook implements TickHook {
 
-    private final Set<Callback> tasks = new HashSet<>();
+    private final TickDispatcher<Callback> dispatcher = new TickDispatcher<>("spark-tick-hook", (callback, tick, time, duration) -> callback.onTick(tick, time));
     private int tick = 0;
 
     protected void onTick() {
-        for (Callback r : this.tasks) {
-            r.onTick(this.tick);
-        }
+        this.dispatcher.publish(this.tick, System.nanoTime(), 0);
         this.tick++;
     }
 
@@ -40,14 +35,24 @@ public abstract class AbstractTickHook implements TickHook {
         return this.tick;
     }
 
+    @Override
+    public long getLastTickTime() {
+        return this.dispatcher.getLastPublishTime();
+    }
+
     @Override
     public void addCallback(Callback runnable) {
-        this.tasks.add(runnable);
+        this.dispatcher.addCallback(runnable);
     }
 
     @Override
     public void removeCallback(Callback runnable) {
-        this.tasks.remove(runnable);
+        this.dispatcher.removeCallback(runnable);
+    }
+
+    @Override
+    public void close() {
+        this.dispatcher.close();
     }
 
 }
@@ -20,26 +20,26 @@
 
 package me.lucko.spark.common.sampler.tick;
 
-import java.util.HashSet;
-import java.util.Set;
-
 public abstract class AbstractTickReporter implements TickReporter {
-    private final Set<Callback> tasks = new HashSet<>();
+    private final TickDispatcher<Callback> dispatcher = new TickDispatcher<>("spark-tick-reporter", (callback, tick, time, duration) -> callback.onTick(duration, time));
 
     protected void onTick(double duration) {
-        for (Callback r : this.tasks) {
-            r.onTick(duration);
-        }
+        this.dispatcher.publish(0, System.nanoTime(), duration);
     }
 
     @Override
     public void addCallback(Callback runnable) {
-        this.tasks.add(runnable);
+        this.dispatcher.addCallback(runnable);
     }
 
     @Override
     public void removeCallback(Callback runnable) {
-        this.tasks.remove(runnable);
+        this.dispatcher.removeCallback(runnable);
+    }
+
+    @Override
+    public void close() {
+        this.dispatcher.close();
     }
 
 }
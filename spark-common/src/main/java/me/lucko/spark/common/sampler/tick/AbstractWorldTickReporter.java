@@ -0,0 +1,153 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.tick;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class for {@link WorldTickReporter}s.
+ *
+ * <p>Platforms call {@link #startWorld()} and {@link #endWorld(Object)} from the server
+ * thread around each world's tick. Worlds are mapped to an index so that records can be
+ * passed through a {@link TickDispatcher} without allocating.</p>
+ *
+ * @param <W> the platform world type
+ */
+public abstract class AbstractWorldTickReporter<W> implements WorldTickReporter {
+    /** How often entities and chunks are counted in each world */
+    private static final long COUNT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // the entity & chunk counts are packed into the "time" of each record, as it isn't needed
+    private final TickDispatcher<Callback> dispatcher = new TickDispatcher<>("spark-world-tick-reporter", (callback, index, counts, duration) ->
+            callback.onWorldTick(this.names.get(index), duration, (int) (counts >> 32), (int) counts));
+
+    /** The world names, indexed by the world index */
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    // accessed only by the server thread
+    private final Map<W, WorldState> worlds = new WeakHashMap<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+    private long start = 0;
+    private boolean closed = false;
+
+    /**
+     * Gets the name of the world, e.g. the dimension key.
+     *
+     * @param world the world
+     * @return the name
+     */
+    protected abstract String getName(W world);
+
+    /**
+     * Counts the entities in the world.
+     *
+     * @param world the world
+     * @return the number of entities
+     */
+    protected abstract int countEntities(W world);
+
+    /**
+     * Counts the loaded chunks in the world.
+     *
+     * @param world the world
+     * @return the number of loaded chunks
+     */
+    protected abstract int countChunks(W world);
+
+    protected void startWorld() {
+        this.start = System.nanoTime();
+    }
+
+    protected void endWorld(W world) {
+        if (this.closed || this.start == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        double duration = (now - this.start) / 1000000d;
+        this.start = 0;
+
+        WorldState state = this.worlds.get(world);
+        if (state == null) {
+            state = new WorldState(indexOf(getName(world)), now - COUNT_INTERVAL_NANOS);
+            this.worlds.put(world, state);
+        }
+
+        int entities = -1;
+        int chunks = -1;
+        if (now - state.lastCount >= COUNT_INTERVAL_NANOS) {
+            state.lastCount = now;
+            entities = countEntities(world);
+            chunks = countChunks(world);
+        }
+
+        this.dispatcher.publish(state.index, ((long) entities << 32) | (chunks & 0xFFFFFFFFL), duration);
+    }
+
+    /**
+     * Forgets the state kept for a world which has been unloaded.
+     *
+     * @param world the world
+     */
+    protected void unloadWorld(W world) {
+        this.worlds.remove(world);
+    }
+
+    private int indexOf(String name) {
+        // a world which is unloaded and loaded again keeps the same index
+        return this.indices.computeIfAbsent(name, n -> {
+            this.names.add(n);
+            return this.names.size() - 1;
+        });
+    }
+
+    @Override
+    public void addCallback(Callback callback) {
+        this.dispatcher.addCallback(callback);
+    }
+
+    @Override
+    public void removeCallback(Callback callback) {
+        this.dispatcher.removeCallback(callback);
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.dispatcher.close();
+    }
+
+    private static final class WorldState {
+        private final int index;
+        private long lastCount;
+
+        WorldState(int index, long lastCount) {
+            this.index = index;
+            this.lastCount = lastCount;
+        }
+    }
+
+}
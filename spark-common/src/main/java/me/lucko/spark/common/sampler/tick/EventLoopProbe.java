@@ -0,0 +1,278 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.tick;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Measures the responsiveness of a set of event loops (e.g. the Netty event loops of a
+ * proxy), as a stand-in for the tick loop on platforms which don't have one.
+ *
+ * <p>Every 50 milliseconds, a probe task is submitted to each event loop, and the delay
+ * from submission until the loop starts running it is recorded. Once every probe in a round
+ * has run, the round counts as a "tick", with a duration equal to the worst delay of any
+ * loop.</p>
+ *
+ * <p>A round waits at most {@value #STALL_MILLIS} milliseconds for its probes. If any has
+ * not run by then, the round is published as a late tick lasting the time waited. No new
+ * probe is sent to that loop until the outstanding one runs; the following rounds wait on
+ * it instead, counting only the time since the round started. A stall therefore shows up
+ * as a run of late ticks adding up to its length, and a drop in the tick rate.</p>
+ *
+ * <p>Rounds are published to listeners from a single spark-owned thread, so they can be
+ * passed straight to a {@link TickDispatcher}.</p>
+ */
+public class EventLoopProbe {
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long STALL_MILLIS = 1000;
+
+    private final List<Executor> eventLoops;
+    /** The probe submitted to each event loop which hasn't run yet, if any */
+    private final AtomicReferenceArray<Probe> outstanding;
+    private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+    private ScheduledExecutorService executor = null;
+
+    public EventLoopProbe(List<Executor> eventLoops) {
+        if (eventLoops.isEmpty()) {
+            throw new IllegalArgumentException("no event loops");
+        }
+        this.eventLoops = eventLoops;
+        this.outstanding = new AtomicReferenceArray<>(eventLoops.size());
+    }
+
+    /**
+     * Finds the event loops held by the fields of the given object.
+     *
+     * <p>An event loop group is recognised as an {@link ExecutorService} which is
+     * {@link Iterable} over its loops (as Netty's {@code EventLoopGroup} is), so no
+     * compile time dependency on Netty is needed.</p>
+     *
+     * @param holder the object holding the event loop groups
+     * @return the event loops
+     */
+    public static List<Executor> findEventLoops(Object holder) {
+        Set<Executor> loops = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Class<?> clazz = holder.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    Object value = field.get(holder);
+                    if (!(value instanceof ExecutorService) || !(value instanceof Iterable)) {
+                        continue;
+                    }
+                    for (Object loop : (Iterable<?>) value) {
+                        if (loop instanceof Executor) {
+                            loops.add((Executor) loop);
+                        }
+                    }
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+        return new ArrayList<>(loops);
+    }
+
+    public int getEventLoopCount() {
+        return this.eventLoops.size();
+    }
+
+    public synchronized void addListener(Listener listener) {
+        this.listeners.add(listener);
+        if (this.executor == null) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = Executors.defaultThreadFactory().newThread(r);
+                thread.setName("spark-event-loop-probe");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.execute(() -> round(executor));
+            this.executor = executor;
+        }
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+        if (this.listeners.isEmpty() && this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Runs a round of probes, and schedules the next round on the same executor.
+     *
+     * <p>Each chain of rounds is tied to the executor which started it, and ends once that
+     * executor is shut down, so a restarted probe never has two chains running at once.</p>
+     *
+     * @param executor the executor running this round
+     */
+    private void round(ScheduledExecutorService executor) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS);
+
+        Probe[] probes = new Probe[this.eventLoops.size()];
+        for (int i = 0; i < probes.length; i++) {
+            Probe probe = this.outstanding.get(i);
+            if (probe == null) {
+                probe = new Probe();
+                try {
+                    this.eventLoops.get(i).execute(probe);
+                } catch (RejectedExecutionException e) {
+                    continue; // the loop is shutting down
+                }
+                this.outstanding.set(i, probe);
+            }
+            probes[i] = probe;
+        }
+
+        long queueDelay = 0;
+        for (int i = 0; i < probes.length; i++) {
+            Probe probe = probes[i];
+            if (probe == null) {
+                continue;
+            }
+
+            // a probe sent in an earlier round only counts from the start of this one
+            long since = Math.max(probe.submitted, start);
+            try {
+                if (!probe.done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    queueDelay = Math.max(queueDelay, System.nanoTime() - since);
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return; // stopped
+            }
+            this.outstanding.set(i, null);
+            queueDelay = Math.max(queueDelay, probe.started - since);
+        }
+
+        if (executor.isShutdown()) {
+            return;
+        }
+        for (Listener listener : this.listeners) {
+            listener.onRound(queueDelay / 1e6d);
+        }
+
+        long delay = Math.max(0, INTERVAL_NANOS - (System.nanoTime() - start));
+        try {
+            executor.schedule(() -> round(executor), delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    private static final class Probe implements Runnable {
+        private final long submitted = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long started;
+
+        @Override
+        public void run() {
+            this.started = System.nanoTime();
+            this.done.countDown();
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called when every event loop has run the probe for a round, or the round has stalled.
+         *
+         * @param queueDelay the worst delay before any event loop started the probe, or the
+         *                   longest wait so far if the round stalled, in milliseconds
+         */
+        void onRound(double queueDelay);
+    }
+
+    /**
+     * A {@link TickHook} which ticks once per round.
+     */
+    public static final class Hook extends AbstractTickHook implements Listener {
+        private final EventLoopProbe probe;
+
+        public Hook(EventLoopProbe probe) {
+            this.probe = probe;
+        }
+
+        @Override
+        public void start() {
+            this.probe.addListener(this);
+        }
+
+        @Override
+        public void onRound(double queueDelay) {
+            onTick();
+        }
+
+        @Override
+        public void close() {
+            this.probe.removeListener(this);
+            super.close();
+        }
+    }
+
+    /**
+     * A {@link TickReporter} which reports the worst queueing delay of each round as the tick duration.
+     */
+    public static final class Reporter extends AbstractTickReporter implements Listener {
+        private final EventLoopProbe probe;
+
+        public Reporter(EventLoopProbe probe) {
+            this.probe = probe;
+        }
+
+        @Override
+        public void start() {
+            this.probe.addListener(this);
+        }
+
+        @Override
+        public void onRound(double queueDelay) {
+            onTick(queueDelay);
+        }
+
+        @Override
+        public void close() {
+            this.probe.removeListener(this);
+            super.close();
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.tick;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands tick records from the game thread to a spark-owned thread, which calls the
+ * registered callbacks.
+ *
+ * <p>Records are written into a single-producer, single-consumer ring buffer, so the cost
+ * to the game thread is a few array stores regardless of how many callbacks there are or
+ * how long they take. If the consumer falls so far behind that the ring fills, new records
+ * are dropped rather than blocking the game.</p>
+ *
+ * @param <C> the callback type
+ */
+public class TickDispatcher<C> implements AutoCloseable {
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    /** The longest the consumer parks for before checking for records again, in case a wake up is missed */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final String threadName;
+    private final Sink<C> sink;
+    private final Set<C> callbacks = new CopyOnWriteArraySet<>();
+
+    private final int[] ticks = new int[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private final double[] durations = new double[CAPACITY];
+
+    /** The number of records published, written only by the game thread */
+    private final AtomicLong head = new AtomicLong();
+    /** The number of records consumed, written only by the consumer thread */
+    private final AtomicLong tail = new AtomicLong();
+    /** The number of records dropped because the ring was full */
+    private volatile long dropped = 0;
+    /** The time of the last record published, written only by the game thread */
+    private volatile long lastPublishTime = 0;
+
+    private volatile Thread thread = null;
+    private volatile boolean waiting = false;
+    private volatile boolean running = true;
+
+    public TickDispatcher(String threadName, Sink<C> sink) {
+        this.threadName = threadName;
+        this.sink = sink;
+    }
+
+    public void addCallback(C callback) {
+        this.callbacks.add(callback);
+        startThread();
+    }
+
+    public void removeCallback(C callback) {
+        this.callbacks.remove(callback);
+    }
+
+    private synchronized void startThread() {
+        if (this.thread != null || !this.running) {
+            return;
+        }
+
+        Thread thread = Executors.defaultThreadFactory().newThread(this::run);
+        thread.setName(this.threadName);
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * Publishes a tick record. Must only be called from the game thread.
+     *
+     * @param tick the tick number
+     * @param time the {@link System#nanoTime()} associated with the tick
+     * @param duration the tick duration in milliseconds, if known
+     */
+    public void publish(int tick, long time, double duration) {
+        this.lastPublishTime = time;
+        Thread thread = this.thread;
+        if (thread == null) {
+            return; // no callbacks have been added yet
+        }
+
+        long head = this.head.get();
+        if (head - this.tail.get() >= CAPACITY) {
+            this.dropped++;
+            return;
+        }
+
+        int index = (int) head & MASK;
+        this.ticks[index] = tick;
+        this.times[index] = time;
+        this.durations[index] = duration;
+        this.head.set(head + 1);
+
+        if (this.waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Checks that there is room to publish a group of records, so that they can either all
+     * be published or all be dropped. Must only be called from the game thread.
+     *
+     * <p>If there isn't room, the group is counted as dropped.</p>
+     *
+     * @param count the number of records in the group
+     * @return true if the records can be published
+     */
+    public boolean reserve(int count) {
+        if (this.thread == null) {
+            return false; // no callbacks have been added yet
+        }
+        if (this.head.get() - this.tail.get() + count > CAPACITY) {
+            this.dropped += count;
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        while (this.running) {
+            long tail = this.tail.get();
+            long head = this.head.get();
+
+            if (tail == head) {
+                this.waiting = true;
+                if (this.head.get() == tail && this.running) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                this.waiting = false;
+                continue;
+            }
+
+            for (; tail < head; tail++) {
+                int index = (int) tail & MASK;
+                int tick = this.ticks[index];
+                long time = this.times[index];
+                double duration = this.durations[index];
+
+                for (C callback : this.callbacks) {
+                    try {
+                        this.sink.dispatch(callback, tick, time, duration);
+                    } catch (Throwable e) {
+                        Logger.getLogger("Spark").log(Level.WARNING, "Exception thrown by tick callback " + callback, e);
+                    }
+                }
+            }
+            this.tail.lazySet(head);
+        }
+    }
+
+    /**
+     * Gets the time of the last record published by the game thread, regardless of whether
+     * the callbacks have caught up with it.
+     *
+     * @return the {@link System#nanoTime()} of the last record, or 0 if none have been published
+     */
+    public long getLastPublishTime() {
+        return this.lastPublishTime;
+    }
+
+    /**
+     * Gets the number of records which were dropped because the callbacks couldn't keep up.
+     *
+     * @return the number of dropped records
+     */
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        Thread thread = this.thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Passes a record to a callback.
+     *
+     * @param <C> the callback type
+     */
+    @FunctionalInterface
+    public interface Sink<C> {
+        void dispatch(C callback, int tick, long time, double duration);
+    }
+
+}
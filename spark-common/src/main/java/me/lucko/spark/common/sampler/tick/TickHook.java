@@ -44,7 +44,19 @@ public interface TickHook extends AutoCloseable {
     int getCurrentTick();
 
     /**
-     * Adds a callback to be called each time the tick increments
+     * Gets the time the current tick started, as recorded by the game thread.
+     *
+     * <p>Unlike the time passed to callbacks, this doesn't lag behind while the callbacks
+     * are catching up.</p>
+     *
+     * @return the {@link System#nanoTime()} when the current tick started, or 0 if no tick has started
+     */
+    long getLastTickTime();
+
+    /**
+     * Adds a callback to be called each time the tick increments.
+     *
+     * <p>Callbacks are called asynchronously, shortly after the tick starts.</p>
      *
      * @param runnable the task
      */
@@ -58,7 +70,14 @@ public interface TickHook extends AutoCloseable {
     void removeCallback(Callback runnable);
 
     interface Callback {
-        void onTick(int currentTick);
+
+        /**
+         * Called when a tick starts.
+         *
+         * @param currentTick the tick number
+         * @param startTime the {@link System#nanoTime()} when the tick started
+         */
+        void onTick(int currentTick, long startTime);
     }
 
 }
@@ -37,7 +37,9 @@ public interface TickReporter extends AutoCloseable {
     void close();
 
     /**
-     * Adds a callback to be called each time the tick increments
+     * Adds a callback to be called each time the tick increments.
+     *
+     * <p>Callbacks are called asynchronously, shortly after the tick ends.</p>
      *
      * @param runnable the callback
      */
@@ -51,7 +53,14 @@ public interface TickReporter extends AutoCloseable {
     void removeCallback(Callback runnable);
 
     interface Callback {
-        void onTick(double duration);
+
+        /**
+         * Called when a tick ends.
+         *
+         * @param duration the duration of the tick in milliseconds
+         * @param endTime the {@link System#nanoTime()} when the tick ended
+         */
+        void onTick(double duration, long endTime);
     }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler.tick;
+
+public interface WorldTickReporter extends AutoCloseable {
+
+    /**
+     * Starts the reporter
+     */
+    void start();
+
+    /**
+     * Stops the reporter
+     */
+    @Override
+    void close();
+
+    /**
+     * Adds a callback to be called each time a world is ticked.
+     *
+     * <p>Callbacks are called asynchronously, shortly after the world tick ends.</p>
+     *
+     * @param callback the callback
+     */
+    void addCallback(Callback callback);
+
+    /**
+     * Removes a callback
+     *
+     * @param callback callback
+     */
+    void removeCallback(Callback callback);
+
+    interface Callback {
+
+        /**
+         * Called when a world tick ends.
+         *
+         * <p>Entity and chunk counts are only sampled periodically, and are -1 when they
+         * were not sampled on this tick.</p>
+         *
+         * @param world the name of the world
+         * @param duration the duration of the world tick in milliseconds
+         * @param entities the number of entities in the world, or -1
+         * @param chunks the number of loaded chunks in the world, or -1
+         */
+        void onWorldTick(String world, double duration, int entities, int chunks);
+    }
+
+}
@@ -124,6 +124,24 @@ public class BytebinClient extends AbstractHttpClient {
         makeHttpRequest(request).close();
     }
 
+    /**
+     * GETs content from bytebin.
+     *
+     * @param key the key of the content
+     * @return the content
+     * @throws IOException if an error occurs
+     */
+    public byte[] getContent(String key) throws IOException {
+        Request request = new Request.Builder()
+                .url(this.url + key)
+                .header("User-Agent", this.userAgent)
+                .build();
+
+        try (Response response = makeHttpRequest(request)) {
+            return response.body().bytes();
+        }
+    }
+
     public static final class Content {
         private final String key;
         private final boolean modifiable;
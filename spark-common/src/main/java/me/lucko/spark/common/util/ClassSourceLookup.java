@@ -0,0 +1,327 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * A function which identifies the "source" (the plugin or mod) of a class.
+ */
+public interface ClassSourceLookup {
+
+    /**
+     * A no-op lookup which doesn't identify any sources.
+     */
+    ClassSourceLookup NO_OP = new ClassSourceLookup() {
+        @Override
+        public String identify(Class<?> clazz) {
+            return null;
+        }
+    };
+
+    /**
+     * Identifies the given class.
+     *
+     * @param clazz the class
+     * @return the name of the source of the class, or null if unknown
+     * @throws Exception if an error occurs
+     */
+    String identify(Class<?> clazz) throws Exception;
+
+    /**
+     * Gets the class loaders which should be searched when resolving a class by name.
+     *
+     * <p>Classes owned by plugins or mods may not be visible from the loader which
+     * loaded spark, so platforms should return their plugin loaders here.</p>
+     *
+     * @return the class loaders
+     */
+    default Collection<ClassLoader> getClassLoaders() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Gets the sources which belong to the platform itself (e.g. the game or the mod
+     * loader), rather than to a plugin or mod.
+     *
+     * <p>When attributing samples, frames from these sources are counted towards the
+     * plugin or mod which called into them, if there is one.</p>
+     *
+     * @return the platform sources
+     */
+    default Set<String> getPlatformSources() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Discards any results which have been cached, for example because plugins have been
+     * enabled or disabled since.
+     */
+    default void invalidate() {
+
+    }
+
+    /**
+     * Resolves and identifies the class with the given name.
+     *
+     * <p>Array types are identified by their element type.</p>
+     *
+     * @param className the class name, as given in a class histogram
+     * @return the name of the source of the class, or null if unknown
+     */
+    default String identifyClassName(String className) {
+        Class<?> clazz = findClass(className);
+        if (clazz == null) {
+            return null;
+        }
+        try {
+            return identify(clazz);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds a loaded class by name, by searching the loaders returned by
+     * {@link #getClassLoaders()}, followed by the loader which loaded spark.
+     *
+     * <p>Only classes which have already been loaded are returned - this never causes a
+     * class to be loaded, as doing so could define a copy of it in the wrong loader.</p>
+     *
+     * @param className the class name
+     * @return the class, or null if it couldn't be found
+     */
+    default Class<?> findClass(String className) {
+        while (className.endsWith("[]")) {
+            className = className.substring(0, className.length() - 2);
+        }
+
+        // classes spun at runtime for lambdas can't be looked up by name - use the class which defined them
+        int lambda = className.indexOf("$$Lambda");
+        if (lambda != -1) {
+            className = className.substring(0, lambda);
+        }
+
+        if (className.indexOf('.') == -1) {
+            return null; // primitive or default package
+        }
+
+        Set<ClassLoader> loaders = new LinkedHashSet<>(getClassLoaders());
+        loaders.add(ClassSourceLookup.class.getClassLoader());
+        for (ClassLoader loader : loaders) {
+            Class<?> clazz = LoadedClasses.find(loader, className);
+            if (clazz != null) {
+                return clazz;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wraps a lookup so that the result for each class name is only resolved once.
+     *
+     * @param lookup the lookup to wrap
+     * @return the caching lookup
+     */
+    static ClassSourceLookup cached(ClassSourceLookup lookup) {
+        return lookup == NO_OP || lookup instanceof Cached ? lookup : new Cached(lookup);
+    }
+
+    /**
+     * Looks up classes which a loader has already loaded, using {@link ClassLoader}'s
+     * protected {@code findLoadedClass} method.
+     *
+     * <p>On Java 16+ the method is only accessible if java.lang is opened to spark. If it
+     * isn't, a warning is logged the first time a lookup is attempted, and no classes are
+     * found.</p>
+     */
+    final class LoadedClasses {
+        private static final AtomicBoolean WARNED = new AtomicBoolean(false);
+        private static final Method FIND_LOADED_CLASS;
+
+        static {
+            Method method;
+            try {
+                method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+                method.setAccessible(true);
+            } catch (Exception e) {
+                warnUnavailable(e);
+                method = null;
+            }
+            FIND_LOADED_CLASS = method;
+        }
+
+        private LoadedClasses() {}
+
+        static Class<?> find(ClassLoader loader, String className) {
+            if (FIND_LOADED_CLASS == null || loader == null) {
+                return null;
+            }
+            try {
+                return (Class<?>) FIND_LOADED_CLASS.invoke(loader, className);
+            } catch (IllegalAccessException e) {
+                warnUnavailable(e);
+                return null;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static void warnUnavailable(Exception e) {
+            if (WARNED.compareAndSet(false, true)) {
+                Logger.getLogger("Spark").warning("Unable to look up loaded classes by name (" + e + "), so classes in heap summaries " +
+                        "won't be attributed to plugins or mods. Add '--add-opens java.base/java.lang=ALL-UNNAMED' to the JVM flags to allow it.");
+            }
+        }
+    }
+
+    /**
+     * A {@link ClassSourceLookup} which caches the source of each class name.
+     *
+     * <p>The same classes are identified repeatedly when attributing samples, and resolving
+     * a class by name means searching every class loader.</p>
+     *
+     * <p>The cache holds the {@value #MAX_SIZE} most recently used class names, so that heap
+     * summaries (which identify every loaded class) don't grow it without bound, while the
+     * classes seen most often stay cached.</p>
+     */
+    final class Cached implements ClassSourceLookup {
+        /** Marks class names which couldn't be identified, as the map can't contain nulls */
+        private static final String UNKNOWN = "";
+        private static final int MAX_SIZE = 16384;
+
+        private final ClassSourceLookup delegate;
+        private final Map<String, String> cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+
+        Cached(ClassSourceLookup delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String identify(Class<?> clazz) throws Exception {
+            return this.delegate.identify(clazz);
+        }
+
+        @Override
+        public Collection<ClassLoader> getClassLoaders() {
+            return this.delegate.getClassLoaders();
+        }
+
+        @Override
+        public Set<String> getPlatformSources() {
+            return this.delegate.getPlatformSources();
+        }
+
+        @Override
+        public Class<?> findClass(String className) {
+            return this.delegate.findClass(className);
+        }
+
+        @Override
+        public void invalidate() {
+            synchronized (this.cache) {
+                this.cache.clear();
+            }
+            this.delegate.invalidate();
+        }
+
+        @Override
+        public String identifyClassName(String className) {
+            String source;
+            synchronized (this.cache) {
+                source = this.cache.get(className);
+            }
+            if (source == null) {
+                // resolved outside of the lock, as it searches every class loader
+                String result = this.delegate.identifyClassName(className);
+                source = result == null ? UNKNOWN : result;
+                synchronized (this.cache) {
+                    this.cache.put(className, source);
+                }
+            }
+            return source.equals(UNKNOWN) ? null : source;
+        }
+    }
+
+    /**
+     * A {@link ClassSourceLookup} which identifies classes by the jar file they were loaded from.
+     *
+     * <p>Used on platforms where all plugins or mods share a single class loader.</p>
+     */
+    abstract class ByCodeSource implements ClassSourceLookup {
+
+        @Override
+        public String identify(Class<?> clazz) throws URISyntaxException {
+            ProtectionDomain protectionDomain = clazz.getProtectionDomain();
+            if (protectionDomain == null) {
+                return null;
+            }
+            CodeSource codeSource = protectionDomain.getCodeSource();
+            if (codeSource == null) {
+                return null;
+            }
+            URL url = codeSource.getLocation();
+            return url == null ? null : identifyUrl(url);
+        }
+
+        /**
+         * Identifies the source of a class from the location of its code source.
+         *
+         * @param url the location
+         * @return the name of the source, or null if unknown
+         * @throws URISyntaxException if the url is malformed
+         */
+        protected String identifyUrl(URL url) throws URISyntaxException {
+            if (!url.getProtocol().equals("file")) {
+                return null;
+            }
+            return identifyFile(Paths.get(url.toURI()).toAbsolutePath().normalize());
+        }
+
+        /**
+         * Identifies the source of a class from the file it was loaded from.
+         *
+         * @param path the path to the jar file or directory
+         * @return the name of the source, or null if unknown
+         */
+        protected abstract String identifyFile(Path path);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+/**
+ * Maps non-negative long values to logarithmically sized buckets.
+ *
+ * <p>Values below the number of sub-buckets each have a bucket of their own. Above that, each
+ * power of two is split into the same number of linear sub-buckets (as in HdrHistogram), so a
+ * bucket is never wider than <code>1 / subBuckets</code> of the values in it.</p>
+ *
+ * <p>Bucket indexes are in the same order as the values they hold.</p>
+ */
+final class LogBuckets {
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int count;
+
+    LogBuckets(int subBucketBits) {
+        if (subBucketBits < 1 || subBucketBits > 16) {
+            throw new IllegalArgumentException("subBucketBits must be between 1 and 16");
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBuckets = 1 << subBucketBits;
+        this.count = (64 - subBucketBits) * this.subBuckets;
+    }
+
+    /**
+     * Gets the number of buckets, enough to hold any non-negative long.
+     *
+     * @return the number of buckets
+     */
+    int count() {
+        return this.count;
+    }
+
+    int index(long value) {
+        if (value < this.subBuckets) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - this.subBucketBits;
+        return ((shift + 1) << this.subBucketBits) + (int) ((value >>> shift) & (this.subBuckets - 1));
+    }
+
+    long lowerBound(int index) {
+        if (index < this.subBuckets) {
+            return index;
+        }
+        int shift = (index >>> this.subBucketBits) - 1;
+        return ((long) (this.subBuckets | (index & (this.subBuckets - 1)))) << shift;
+    }
+
+    long width(int index) {
+        return index < this.subBuckets ? 1 : 1L << ((index >>> this.subBucketBits) - 1);
+    }
+
+}
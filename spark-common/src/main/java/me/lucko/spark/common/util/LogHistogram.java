@@ -0,0 +1,128 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative long values, using logarithmically sized buckets.
+ *
+ * <p>Each power of two is split into {@value #SUB_BUCKETS} linear sub-buckets (as in
+ * HdrHistogram), so recorded values are kept to within ~6% of their true value using a
+ * fixed amount of memory, regardless of how many values are recorded.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public class LogHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final LogBuckets BUCKETS = new LogBuckets(SUB_BUCKET_BITS);
+
+    private final long[] counts = new long[BUCKETS.count()];
+    private long count = 0;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value cannot be negative: " + value);
+        }
+        this.counts[BUCKETS.index(value)]++;
+        this.count++;
+        this.total += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Adds all of the values recorded by another histogram to this one.
+     *
+     * @param other the other histogram
+     */
+    public void add(LogHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.total += other.total;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.total = 0;
+        this.min = Long.MAX_VALUE;
+        this.max = 0;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getTotal() {
+        return this.total;
+    }
+
+    public long getMin() {
+        return this.count == 0 ? 0 : this.min;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    public double getMean() {
+        return this.count == 0 ? 0 : (double) this.total / this.count;
+    }
+
+    /**
+     * Gets the value at the given percentile.
+     *
+     * <p>The result is the midpoint of the bucket containing the percentile, clamped to
+     * the exact minimum and maximum recorded values.</p>
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value
+     */
+    public double getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentage " + percentile);
+        }
+        if (this.count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil((percentile / 100d) * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                double value = BUCKETS.lowerBound(i) + (BUCKETS.width(i) - 1) / 2d;
+                return Math.max(this.min, Math.min(this.max, value));
+            }
+        }
+        return this.max;
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * Compresses data by splitting it into fixed size blocks, which are compressed concurrently
+ * on a worker pool and then written to the output in order.
+ *
+ * <p>Input files are read using positional {@link FileChannel} reads from the worker threads,
+ * so reading is parallelised as well as compression.</p>
+ *
+ * <p>Instances are single use - they may accumulate state (checksums, indexes) as
+ * blocks are written.</p>
+ *
+ * @param <B> the type of a compressed block
+ */
+public abstract class ParallelCompressor<B> {
+
+    private final int blockSize;
+    private final int dictionarySize;
+    private final int threads;
+
+    /**
+     * Creates a new compressor.
+     *
+     * @param blockSize the size of each block of input
+     * @param dictionarySize the amount of preceding input to pass along with each block, which
+     *                       can be used to prime the compressor's dictionary
+     * @param threads the number of worker threads
+     */
+    protected ParallelCompressor(int blockSize, int dictionarySize, int threads) {
+        this.blockSize = blockSize;
+        this.dictionarySize = dictionarySize;
+        this.threads = threads;
+    }
+
+    /**
+     * Compresses the contents of a file.
+     *
+     * @param file the file to compress
+     * @param out the stream to write the compressed output to
+     * @param progressHandler receives the number of input bytes processed so far
+     * @throws IOException if an error occurs
+     */
+    public void compress(Path file, OutputStream out, LongConsumer progressHandler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            compress((position, buf) -> {
+                ByteBuffer buffer = ByteBuffer.wrap(buf);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) == -1) {
+                        throw new EOFException();
+                    }
+                }
+            }, channel.size(), out, progressHandler);
+        }
+    }
+
+    /**
+     * Compresses the given data.
+     *
+     * @param data the data
+     * @return the compressed data
+     */
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        try {
+            compress((position, buf) -> System.arraycopy(data, (int) position, buf, 0, buf.length), data.length, out, progress -> {});
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a stream which compresses the data written to it. Blocks are handed to the
+     * workers as they fill, so the whole input never needs to be held in memory.
+     *
+     * <p>The compressed stream is completed when the returned stream is closed. The
+     * underlying stream is not closed.</p>
+     *
+     * @param out the stream to write the compressed output to
+     * @return the stream to write input to
+     * @throws IOException if an error occurs writing the header
+     */
+    public OutputStream createOutputStream(OutputStream out) throws IOException {
+        return new BlockOutputStream(out);
+    }
+
+    private void compress(Source source, long length, OutputStream out, LongConsumer progressHandler) throws IOException {
+        long blocks = Math.max(1, (length + this.blockSize - 1) / this.blockSize);
+
+        try (Pipeline pipeline = new Pipeline(out, (int) Math.min(this.threads, blocks))) {
+            writeHeader(out);
+
+            for (long i = 0; i < blocks; i++) {
+                long start = i * this.blockSize;
+                int len = (int) Math.min(this.blockSize, length - start);
+                int dictLen = (int) Math.min(this.dictionarySize, start);
+                boolean last = i == blocks - 1;
+
+                long written = pipeline.submit(() -> {
+                    byte[] buf = new byte[dictLen + len];
+                    source.read(start - dictLen, buf);
+                    return compressBlock(buf, dictLen, len, last);
+                }, last);
+                progressHandler.accept(Math.min(length, written * this.blockSize));
+            }
+
+            progressHandler.accept(Math.min(length, pipeline.finish() * this.blockSize));
+            writeTrailer(out);
+        }
+    }
+
+    private static <B> B await(Future<B> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted whilst compressing", e);
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Writes the header of the compressed stream.
+     *
+     * @param out the output
+     * @throws IOException if an error occurs
+     */
+    protected abstract void writeHeader(OutputStream out) throws IOException;
+
+    /**
+     * Compresses a block of input. Called concurrently from the worker threads.
+     *
+     * @param buf the buffer, containing the dictionary followed by the block's input
+     * @param dictLen the length of the dictionary at the start of the buffer
+     * @param len the length of the block's input
+     * @param last if this is the final block
+     * @return the compressed block
+     * @throws IOException if an error occurs
+     */
+    protected abstract B compressBlock(byte[] buf, int dictLen, int len, boolean last) throws IOException;
+
+    /**
+     * Writes a compressed block to the output. Blocks are written in order.
+     *
+     * @param block the block
+     * @param out the output
+     * @throws IOException if an error occurs
+     */
+    protected abstract void writeBlock(B block, OutputStream out) throws IOException;
+
+    /**
+     * Writes the trailer of the compressed stream.
+     *
+     * @param out the output
+     * @throws IOException if an error occurs
+     */
+    protected abstract void writeTrailer(OutputStream out) throws IOException;
+
+    @FunctionalInterface
+    private interface Source {
+        void read(long position, byte[] buf) throws IOException;
+    }
+
+    /**
+     * Compresses blocks on the worker pool and writes them to the output in order.
+     *
+     * <p>The pool is only created once a second block is submitted - a single block is
+     * compressed on the calling thread.</p>
+     */
+    private final class Pipeline implements AutoCloseable {
+        private final OutputStream out;
+        private final int threads;
+        private final Deque<Future<B>> pending;
+        private ExecutorService executor = null;
+        private long written = 0;
+
+        Pipeline(OutputStream out, int threads) {
+            this.out = out;
+            this.threads = threads;
+            // limit the number of blocks in flight, so memory usage stays bounded
+            this.pending = new ArrayDeque<>(threads * 2);
+        }
+
+        /**
+         * Submits a block for compression.
+         *
+         * @param task the task to compress the block
+         * @param last if this is the final block
+         * @return the number of blocks written to the output so far
+         * @throws IOException if an error occurs
+         */
+        long submit(Callable<B> task, boolean last) throws IOException {
+            if (this.executor == null && (last || this.threads <= 1)) {
+                write(call(task));
+                return this.written;
+            }
+
+            if (this.executor == null) {
+                this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactoryBuilder()
+                        .setNameFormat("spark-compression-worker-%d")
+                        .setDaemon(true)
+                        .build()
+                );
+            }
+
+            this.pending.add(this.executor.submit(task));
+            if (this.pending.size() >= this.threads * 2) {
+                write(await(this.pending.poll()));
+            }
+            return this.written;
+        }
+
+        /**
+         * Waits for the remaining blocks and writes them to the output.
+         *
+         * @return the number of blocks written to the output
+         * @throws IOException if an error occurs
+         */
+        long finish() throws IOException {
+            while (!this.pending.isEmpty()) {
+                write(await(this.pending.poll()));
+            }
+            return this.written;
+        }
+
+        private void write(B block) throws IOException {
+            writeBlock(block, this.out);
+            this.written++;
+        }
+
+        private B call(Callable<B> task) throws IOException {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw asIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Splits the data written to it into blocks, which are passed to a {@link Pipeline}.
+     *
+     * <p>A full block is only submitted once more data arrives (or the stream is closed),
+     * so that the final block can be marked as such.</p>
+     */
+    private final class BlockOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final Pipeline pipeline;
+
+        private byte[] buf;
+        private int dictLen = 0;
+        private int len = 0;
+        private boolean closed = false;
+
+        BlockOutputStream(OutputStream out) throws IOException {
+            this.out = out;
+            this.pipeline = new Pipeline(out, ParallelCompressor.this.threads);
+            this.buf = new byte[ParallelCompressor.this.blockSize];
+            writeHeader(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                if (this.len == ParallelCompressor.this.blockSize) {
+                    nextBlock();
+                }
+                int n = Math.min(len, ParallelCompressor.this.blockSize - this.len);
+                System.arraycopy(b, off, this.buf, this.dictLen + this.len, n);
+                this.len += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void nextBlock() throws IOException {
+            byte[] buf = this.buf;
+            int dictLen = this.dictLen;
+            int len = this.len;
+            this.pipeline.submit(() -> compressBlock(buf, dictLen, len, false), false);
+
+            // start the next block with the end of this one as its dictionary
+            this.dictLen = Math.min(ParallelCompressor.this.dictionarySize, len);
+            this.len = 0;
+            this.buf = new byte[this.dictLen + ParallelCompressor.this.blockSize];
+            System.arraycopy(buf, dictLen + len - this.dictLen, this.buf, 0, this.dictLen);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+
+            try {
+                byte[] buf = this.buf;
+                int dictLen = this.dictLen;
+                int len = this.len;
+                this.pipeline.submit(() -> compressBlock(buf, dictLen, len, true), true);
+                this.pipeline.finish();
+                writeTrailer(this.out);
+            } finally {
+                this.pipeline.close();
+            }
+        }
+    }
+
+}
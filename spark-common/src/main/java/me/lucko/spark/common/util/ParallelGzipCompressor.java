@@ -0,0 +1,207 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import com.google.protobuf.MessageLite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip compressor which deflates blocks of input concurrently, in the style of pigz.
+ *
+ * <p>Each block is deflated independently (primed with the last 32KB of the previous block
+ * as a dictionary), and ends with a sync flush so the blocks can simply be concatenated
+ * into a single deflate stream. The result is a normal, single member gzip file.</p>
+ */
+public class ParallelGzipCompressor extends ParallelCompressor<ParallelGzipCompressor.Block> {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /**
+     * Serializes and compresses the given message using all available processors.
+     *
+     * <p>The message is streamed into the compressor, and messages smaller than a single
+     * block are compressed on the calling thread.</p>
+     *
+     * @param message the message
+     * @return the compressed data
+     */
+    public static byte[] compressData(MessageLite message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(message.getSerializedSize() / 4);
+        try (OutputStream compressed = new ParallelGzipCompressor().createOutputStream(out)) {
+            message.writeTo(compressed);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private long crc = 0;
+    private long totalLength = 0;
+
+    public ParallelGzipCompressor(int threads) {
+        super(BLOCK_SIZE, DICTIONARY_SIZE, threads);
+    }
+
+    public ParallelGzipCompressor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    protected void writeHeader(OutputStream out) throws IOException {
+        out.write(HEADER);
+    }
+
+    @Override
+    protected Block compressBlock(byte[] buf, int dictLen, int len, boolean last) {
+        CRC32 crc = new CRC32();
+        crc.update(buf, dictLen, len);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 64);
+        byte[] tmp = new byte[1024 * 64];
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictLen != 0) {
+                deflater.setDictionary(buf, 0, dictLen);
+            }
+            deflater.setInput(buf, dictLen, len);
+
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(tmp);
+                    out.write(tmp, 0, n);
+                }
+            } else {
+                // sync flush to end the block on a byte boundary
+                int n;
+                do {
+                    n = deflater.deflate(tmp, 0, tmp.length, Deflater.SYNC_FLUSH);
+                    out.write(tmp, 0, n);
+                } while (n == tmp.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return new Block(out.toByteArray(), crc.getValue(), len);
+    }
+
+    @Override
+    protected void writeBlock(Block block, OutputStream out) throws IOException {
+        out.write(block.data);
+        this.crc = crc32Combine(this.crc, block.crc, block.length);
+        this.totalLength += block.length;
+    }
+
+    @Override
+    protected void writeTrailer(OutputStream out) throws IOException {
+        writeInt(out, (int) this.crc);
+        writeInt(out, (int) this.totalLength); // ISIZE is the length modulo 2^32
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+
+    /*
+     * Combines two CRC-32 values, where crc2 was computed over len2 bytes immediately
+     * following the data crc1 was computed over. Ported from zlib's crc32_combine.
+     */
+    static long crc32Combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        // operators for two and four zero bits
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // apply len2 zeros to crc1
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+
+    static final class Block {
+        private final byte[] data;
+        private final long crc;
+        private final int length;
+
+        Block(byte[] data, long crc, int length) {
+            this.data = data;
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+
+}
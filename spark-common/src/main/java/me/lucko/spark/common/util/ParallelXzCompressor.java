@@ -0,0 +1,197 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An xz compressor which compresses blocks of input concurrently.
+ *
+ * <p>Each block is compressed into a standalone xz stream by its worker. The compressed
+ * block is then extracted from that stream, and the blocks are assembled into a single
+ * stream with a combined index - the same layout produced by {@code xz -T}.</p>
+ */
+public class ParallelXzCompressor extends ParallelCompressor<ParallelXzCompressor.Block> {
+    private static final byte[] HEADER_MAGIC = {(byte) 0xFD, '7', 'z', 'X', 'Z', 0};
+    private static final byte[] FOOTER_MAGIC = {'Y', 'Z'};
+    private static final byte[] STREAM_FLAGS = {0, XZ.CHECK_CRC64};
+    private static final int STREAM_HEADER_SIZE = 12;
+    private static final int STREAM_FOOTER_SIZE = 12;
+
+    /**
+     * Gets the number of threads to compress with, limited so that the encoders (and the
+     * blocks in flight) fit comfortably in the heap.
+     */
+    private static int threads(LZMA2Options options, int blockSize) {
+        long perThread = options.getEncoderMemoryUsage() * 1024L + blockSize * 4L;
+        long budget = Runtime.getRuntime().maxMemory() / 4;
+        return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), budget / perThread));
+    }
+
+    /**
+     * Gets the block size to use, three times the dictionary size (as xz does by default).
+     */
+    private static int blockSize(LZMA2Options options) {
+        return Math.max(1024 * 1024, options.getDictSize() * 3);
+    }
+
+    private final LZMA2Options options;
+    private final List<long[]> records = new ArrayList<>();
+
+    public ParallelXzCompressor(LZMA2Options options) {
+        super(blockSize(options), 0, threads(options, blockSize(options)));
+        this.options = options;
+    }
+
+    public ParallelXzCompressor() {
+        this(new LZMA2Options());
+    }
+
+    @Override
+    protected void writeHeader(OutputStream out) throws IOException {
+        out.write(HEADER_MAGIC);
+        out.write(STREAM_FLAGS);
+        writeInt(out, crc32(STREAM_FLAGS, 0, STREAM_FLAGS.length));
+    }
+
+    @Override
+    protected Block compressBlock(byte[] buf, int dictLen, int len, boolean last) throws IOException {
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(len / 2 + 64);
+        try (XZOutputStream out = new XZOutputStream(byteOut, this.options, XZ.CHECK_CRC64)) {
+            out.write(buf, dictLen, len);
+        }
+        byte[] stream = byteOut.toByteArray();
+
+        // locate the index using the backward size in the stream footer
+        int footer = stream.length - STREAM_FOOTER_SIZE;
+        int indexSize = (readInt(stream, footer + 4) + 1) * 4;
+        int index = footer - indexSize;
+
+        // read the records from the index: indicator, count, then (unpadded size, uncompressed size) pairs
+        int[] pos = {index + 1};
+        long count = readVarInt(stream, pos);
+        long[][] records = new long[(int) count][];
+        for (int i = 0; i < count; i++) {
+            records[i] = new long[]{readVarInt(stream, pos), readVarInt(stream, pos)};
+        }
+
+        byte[] blocks = new byte[index - STREAM_HEADER_SIZE];
+        System.arraycopy(stream, STREAM_HEADER_SIZE, blocks, 0, blocks.length);
+        return new Block(blocks, records);
+    }
+
+    @Override
+    protected void writeBlock(Block block, OutputStream out) throws IOException {
+        out.write(block.data);
+        for (long[] record : block.records) {
+            this.records.add(record);
+        }
+    }
+
+    @Override
+    protected void writeTrailer(OutputStream out) throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        index.write(0);
+        writeVarInt(index, this.records.size());
+        for (long[] record : this.records) {
+            writeVarInt(index, record[0]);
+            writeVarInt(index, record[1]);
+        }
+        while (index.size() % 4 != 0) {
+            index.write(0);
+        }
+        byte[] indexBytes = index.toByteArray();
+
+        out.write(indexBytes);
+        writeInt(out, crc32(indexBytes, 0, indexBytes.length));
+
+        // footer: crc32 of (backward size, stream flags), backward size, stream flags, magic
+        int backwardSize = (indexBytes.length + 4) / 4 - 1;
+        byte[] footer = new byte[6];
+        footer[0] = (byte) backwardSize;
+        footer[1] = (byte) (backwardSize >>> 8);
+        footer[2] = (byte) (backwardSize >>> 16);
+        footer[3] = (byte) (backwardSize >>> 24);
+        footer[4] = STREAM_FLAGS[0];
+        footer[5] = STREAM_FLAGS[1];
+
+        writeInt(out, crc32(footer, 0, footer.length));
+        out.write(footer);
+        out.write(FOOTER_MAGIC);
+    }
+
+    private static int crc32(byte[] buf, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(buf, off, len);
+        return (int) crc.getValue();
+    }
+
+    private static int readInt(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | (buf[off + 1] & 0xFF) << 8 | (buf[off + 2] & 0xFF) << 16 | (buf[off + 3] & 0xFF) << 24;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+
+    static long readVarInt(byte[] buf, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static void writeVarInt(OutputStream out, long value) throws IOException {
+        while (value >= 0x80) {
+            out.write((int) (value | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static final class Block {
+        private final byte[] data;
+        private final long[][] records;
+
+        Block(byte[] data, long[][] records) {
+            this.data = data;
+            this.records = records;
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+/**
+ * Keeps a rolling window of the most recent values, and answers average, minimum, maximum
+ * and percentile queries over them.
+ *
+ * <p>Values are held in a fixed size ring, alongside a running total and a histogram of the
+ * window using the same {@link LogBuckets} as {@link LogHistogram}, with
+ * {@value #SUB_BUCKETS} sub-buckets per power of two. Values are bucketed in fixed point,
+ * with {@value #FRACTION_BITS} fractional bits. Recording a value is O(1) and never
+ * allocates.</p>
+ *
+ * <p>Percentile queries walk the histogram to find the bucket containing the requested rank,
+ * and then select the exact value from the samples within that bucket, so results are the
+ * same as sorting the whole window, without copying or sorting it. The minimum and maximum
+ * are tracked as values are added, and only recalculated when one of them is evicted.</p>
+ */
+public class RollingHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final LogBuckets BUCKETS = new LogBuckets(SUB_BUCKET_BITS);
+
+    /** The number of fractional bits kept when bucketing, so values down to 2^-16 are told apart */
+    private static final int FRACTION_BITS = 16;
+
+    private final int size;
+    private final double[] samples;
+    private final int[] counts = new int[BUCKETS.count()];
+    /** Working space for percentile queries */
+    private final double[] scratch;
+
+    private int index = 0;
+    private int count = 0;
+    private double total = 0;
+    /** The number of values added since the total was last recalculated from scratch */
+    private int addsSinceResum = 0;
+
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    /** If the minimum or maximum has been evicted, and needs to be found again */
+    private boolean minMaxStale = false;
+
+    public RollingHistogram(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.size = size;
+        this.samples = new double[size];
+        this.scratch = new double[size];
+    }
+
+    /**
+     * Gets the bucket for a value.
+     *
+     * <p>Negative values are put into the first bucket, and values too large for a long in
+     * fixed point into the last.</p>
+     *
+     * @param value the value
+     * @return the bucket index
+     */
+    private static int bucketIndex(double value) {
+        if (!(value > 0)) {
+            return 0;
+        }
+        return BUCKETS.index((long) Math.scalb(value, FRACTION_BITS));
+    }
+
+    public synchronized void add(double value) {
+        if (this.count == this.size) {
+            double evicted = this.samples[this.index];
+            this.counts[bucketIndex(evicted)]--;
+            this.total -= evicted;
+            if (evicted <= this.min || evicted >= this.max) {
+                this.minMaxStale = true;
+            }
+        } else {
+            this.count++;
+        }
+
+        this.samples[this.index] = value;
+        this.counts[bucketIndex(value)]++;
+        this.total += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+        if (++this.index == this.size) {
+            this.index = 0;
+        }
+
+        // stop rounding errors from accumulating in the running total
+        if (++this.addsSinceResum == this.size) {
+            this.addsSinceResum = 0;
+            double total = 0;
+            for (int i = 0; i < this.count; i++) {
+                total += this.samples[i];
+            }
+            this.total = total;
+        }
+    }
+
+    public synchronized double getAverage() {
+        if (this.count == 0) {
+            return 0;
+        }
+        return this.total / this.count;
+    }
+
+    public synchronized double getMax() {
+        if (this.count == 0) {
+            return 0;
+        }
+        updateMinMax();
+        return this.max;
+    }
+
+    public synchronized double getMin() {
+        if (this.count == 0) {
+            return 0;
+        }
+        updateMinMax();
+        return this.min;
+    }
+
+    public double getMedian() {
+        return getPercentile(50);
+    }
+
+    public synchronized double getPercentile(int percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentage " + percentile);
+        }
+        if (this.count == 0) {
+            return 0;
+        }
+
+        int rank = Math.min((int) Math.ceil((percentile / 100d) * this.count), this.count - 1);
+        if (rank == 0 || rank == this.count - 1) {
+            updateMinMax();
+            return rank == 0 ? this.min : this.max;
+        }
+        return select(rank);
+    }
+
+    /**
+     * Recalculates the minimum and maximum from the window, if either has been evicted
+     * since they were last calculated.
+     */
+    private void updateMinMax() {
+        if (!this.minMaxStale) {
+            return;
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.count; i++) {
+            min = Math.min(min, this.samples[i]);
+            max = Math.max(max, this.samples[i]);
+        }
+        this.min = min;
+        this.max = max;
+        this.minMaxStale = false;
+    }
+
+    /**
+     * Gets the value which would be at the given index if the window were sorted.
+     *
+     * <p>The bucket containing the index is found from the counts, and the exact value is
+     * then selected from the samples in that bucket.</p>
+     *
+     * @param rank the index
+     * @return the value
+     */
+    private double select(int rank) {
+        int bucket = 0;
+        int below = 0;
+        while (below + this.counts[bucket] <= rank) {
+            below += this.counts[bucket];
+            bucket++;
+        }
+
+        int n = 0;
+        for (int i = 0; i < this.count; i++) {
+            double sample = this.samples[i];
+            if (bucketIndex(sample) == bucket) {
+                this.scratch[n++] = sample;
+            }
+        }
+        return quickSelect(this.scratch, n, rank - below);
+    }
+
+    private static double quickSelect(double[] values, int length, int k) {
+        int lo = 0;
+        int hi = length - 1;
+        while (lo < hi) {
+            double pivot = values[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+}
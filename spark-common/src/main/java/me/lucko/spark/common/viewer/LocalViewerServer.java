@@ -0,0 +1,368 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.viewer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * An embedded HTTP server which can stand in for bytebin (and optionally the viewer),
+ * for networks where spark can't reach the public instances.
+ *
+ * <p>Payloads are stored in the plugin directory and served using the same content API as
+ * bytebin, under {@code /bytebin/}. If a build of the viewer is placed in the
+ * {@code viewer} folder of the plugin directory, it is served from the root.</p>
+ */
+public class LocalViewerServer implements AutoCloseable {
+
+    /** If the server is enabled */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("me.lucko.spark.localServer.enabled"));
+    /** The address to bind to */
+    public static final String ADDRESS = System.getProperty("me.lucko.spark.localServer.address", "127.0.0.1");
+    /** The port to bind to */
+    public static final int PORT = Integer.getInteger("me.lucko.spark.localServer.port", 3100);
+    /** The URL clients use to reach the server */
+    public static final String PUBLIC_URL = stripTrailingSlash(System.getProperty("me.lucko.spark.localServer.url", "http://" + ADDRESS + ":" + PORT));
+
+    /** The maximum size of an uploaded payload */
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024 * 1024;
+    private static final Pattern KEY_PATTERN = Pattern.compile("[a-zA-Z0-9]{1,32}");
+    private static final char[] KEY_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+    private final Path contentDirectory;
+    private final Path viewerDirectory;
+    private final SecureRandom random = new SecureRandom();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public LocalViewerServer(Path pluginDirectory) {
+        this.contentDirectory = pluginDirectory.resolve("viewer-content");
+        this.viewerDirectory = pluginDirectory.resolve("viewer");
+    }
+
+    /**
+     * Gets the URL bytebin content should be posted to, when the server is in use.
+     *
+     * @return the bytebin url
+     */
+    public static String bytebinUrl() {
+        return PUBLIC_URL + "/bytebin/";
+    }
+
+    /**
+     * Gets the URL of the viewer, when the server is in use.
+     *
+     * @return the viewer url
+     */
+    public static String viewerUrl() {
+        return PUBLIC_URL + "/#";
+    }
+
+    public void start() throws IOException {
+        Files.createDirectories(this.contentDirectory);
+
+        this.executor = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setName("spark-viewer-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(ADDRESS, PORT), 0);
+        this.server.createContext("/bytebin/", this::handleContent);
+        this.server.createContext("/", this::handleViewer);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    @Override
+    public void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+        if (this.executor != null) {
+            this.executor.shutdown();
+            try {
+                this.executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.executor = null;
+        }
+    }
+
+    private void handleContent(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath().substring("/bytebin/".length());
+
+            if (method.equals("OPTIONS")) {
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("Access-Control-Allow-Methods", "GET, POST, PUT, OPTIONS");
+                headers.set("Access-Control-Allow-Headers", "Content-Type, Content-Encoding, Allow-Modification, Modification-Key");
+                headers.set("Access-Control-Expose-Headers", "Location, Modification-Key");
+                sendEmpty(exchange, 204);
+            } else if (method.equals("POST") && path.equals("post")) {
+                handlePost(exchange);
+            } else if (!KEY_PATTERN.matcher(path).matches()) {
+                sendEmpty(exchange, 404);
+            } else if (method.equals("GET")) {
+                handleGet(exchange, path);
+            } else if (method.equals("PUT")) {
+                handlePut(exchange, path);
+            } else {
+                sendEmpty(exchange, 405);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            sendEmpty(exchange, 500);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handlePost(HttpExchange exchange) throws IOException {
+        byte[] content = readBody(exchange);
+        if (content == null) {
+            sendEmpty(exchange, 413);
+            return;
+        }
+
+        String key;
+        do {
+            key = generateKey(10);
+        } while (Files.exists(this.contentDirectory.resolve(key)));
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+        Properties metadata = new Properties();
+        metadata.setProperty("content-type", orDefault(requestHeaders.getFirst("Content-Type"), "text/plain"));
+        metadata.setProperty("content-encoding", orDefault(requestHeaders.getFirst("Content-Encoding"), ""));
+
+        String modificationKey = null;
+        if ("true".equalsIgnoreCase(requestHeaders.getFirst("Allow-Modification"))) {
+            modificationKey = generateKey(32);
+            metadata.setProperty("modification-key", modificationKey);
+        }
+
+        Files.write(this.contentDirectory.resolve(key), content);
+        writeMetadata(key, metadata);
+
+        exchange.getResponseHeaders().set("Location", key);
+        if (modificationKey != null) {
+            exchange.getResponseHeaders().set("Modification-Key", modificationKey);
+        }
+        sendEmpty(exchange, 201);
+    }
+
+    private void handlePut(HttpExchange exchange, String key) throws IOException {
+        Properties metadata = readMetadata(key);
+        if (metadata == null) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        String modificationKey = metadata.getProperty("modification-key");
+        if (modificationKey == null || !modificationKey.equals(exchange.getRequestHeaders().getFirst("Modification-Key"))) {
+            sendEmpty(exchange, 403);
+            return;
+        }
+
+        byte[] content = readBody(exchange);
+        if (content == null) {
+            sendEmpty(exchange, 413);
+            return;
+        }
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+        metadata.setProperty("content-type", orDefault(requestHeaders.getFirst("Content-Type"), metadata.getProperty("content-type")));
+        metadata.setProperty("content-encoding", orDefault(requestHeaders.getFirst("Content-Encoding"), ""));
+
+        Files.write(this.contentDirectory.resolve(key), content);
+        writeMetadata(key, metadata);
+        sendEmpty(exchange, 200);
+    }
+
+    private void handleGet(HttpExchange exchange, String key) throws IOException {
+        Properties metadata = readMetadata(key);
+        Path file = this.contentDirectory.resolve(key);
+        if (metadata == null || !Files.isRegularFile(file)) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", metadata.getProperty("content-type", "text/plain"));
+        String encoding = metadata.getProperty("content-encoding", "");
+        if (!encoding.isEmpty()) {
+            headers.set("Content-Encoding", encoding);
+        }
+        headers.set("Cache-Control", "public, max-age=604800");
+
+        exchange.sendResponseHeaders(200, Files.size(file));
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(file, out);
+        }
+    }
+
+    private void handleViewer(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendEmpty(exchange, 405);
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            Path file = this.viewerDirectory.resolve(path.substring(1)).normalize();
+            if (Files.isDirectory(file)) {
+                file = file.resolve("index.html");
+            }
+
+            if (!file.startsWith(this.viewerDirectory) || !Files.isRegularFile(file)) {
+                if (path.equals("/")) {
+                    byte[] message = ("spark local server - no viewer is installed.\n" +
+                            "Place a build of the spark viewer in " + this.viewerDirectory + " to view data here.\n").getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, message.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(message);
+                    }
+                } else {
+                    sendEmpty(exchange, 404);
+                }
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", guessContentType(file.getFileName().toString()));
+            exchange.sendResponseHeaders(200, Files.size(file));
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(file, out);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            sendEmpty(exchange, 500);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Properties readMetadata(String key) throws IOException {
+        Path file = this.contentDirectory.resolve(key + ".properties");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        Properties metadata = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            metadata.load(reader);
+        }
+        return metadata;
+    }
+
+    private void writeMetadata(String key, Properties metadata) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(this.contentDirectory.resolve(key + ".properties"), StandardCharsets.UTF_8)) {
+            metadata.store(writer, null);
+        }
+    }
+
+    private String generateKey(int length) {
+        char[] key = new char[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = KEY_CHARS[this.random.nextInt(KEY_CHARS.length)];
+        }
+        return new String(key);
+    }
+
+    /**
+     * Reads the request body, returning null if it exceeds the maximum content length.
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024 * 16];
+        try (InputStream in = exchange.getRequestBody()) {
+            int r;
+            while ((r = in.read(buf)) != -1) {
+                out.write(buf, 0, r);
+                if (out.size() > MAX_CONTENT_LENGTH) {
+                    return null;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void sendEmpty(HttpExchange exchange, int code) throws IOException {
+        exchange.sendResponseHeaders(code, -1);
+    }
+
+    private static String guessContentType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        switch (dot == -1 ? "" : fileName.substring(dot + 1).toLowerCase()) {
+            case "html":
+                return "text/html; charset=utf-8";
+            case "js":
+                return "application/javascript";
+            case "css":
+                return "text/css";
+            case "json":
+                return "application/json";
+            case "svg":
+                return "image/svg+xml";
+            case "png":
+                return "image/png";
+            case "ico":
+                return "image/x-icon";
+            case "woff2":
+                return "font/woff2";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    private static String orDefault(String value, String def) {
+        return value == null ? def : value;
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import me.lucko.spark.common.heapdump.HeapDumpAnalysis.Retainer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeapDumpAnalysisTest {
+
+    // ids used in the synthetic dump
+    private static final long NODE_NAME = 1, FIELD_A = 2, FIELD_B = 3;
+    private static final long NODE_CLASS = 100;
+    private static final long A = 201, B = 202, C = 203, D = 204, E = 205, F = 206, ARRAY = 207, GARBAGE = 208;
+
+    // estimated shallow sizes, with 8 byte ids
+    private static final long NODE_SIZE = 32; // 16 byte header + 2 references
+    private static final long CLASS_SIZE = 16; // header, no static fields
+    private static final long ARRAY_SIZE = 120; // header + length + 100 bytes
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /*
+     * The object graph:
+     *
+     *   root -> A, A.a -> B, A.b -> C, B.a -> D, C.a -> D, D.a -> E
+     *   root -> F, F.a -> byte[100]
+     *   GARBAGE is unreachable, and references A
+     *
+     * Every instance also references the Node class, so the class is only dominated by
+     * the super root. D is reachable through both B and C, so is dominated by A.
+     */
+    private Path writeDump() throws IOException {
+        HprofWriter hprof = new HprofWriter();
+        hprof.string(NODE_NAME, "Node");
+        hprof.string(FIELD_A, "a");
+        hprof.string(FIELD_B, "b");
+        hprof.loadClass(NODE_CLASS, NODE_NAME);
+
+        DataOutputStream heap = hprof.heap;
+        heap.writeByte(0xFF); // ROOT UNKNOWN
+        heap.writeLong(A);
+        heap.writeByte(0x01); // ROOT JNI GLOBAL
+        heap.writeLong(F);
+        heap.writeLong(0);
+
+        heap.writeByte(0x20); // CLASS DUMP
+        heap.writeLong(NODE_CLASS);
+        heap.writeInt(0);
+        for (int i = 0; i < 6; i++) {
+            heap.writeLong(0); // super, loader, signers, protection domain, reserved
+        }
+        heap.writeInt(16);
+        heap.writeShort(0); // constant pool
+        heap.writeShort(0); // static fields
+        heap.writeShort(2); // instance fields
+        heap.writeLong(FIELD_A);
+        heap.writeByte(HprofFile.TYPE_OBJECT);
+        heap.writeLong(FIELD_B);
+        heap.writeByte(HprofFile.TYPE_OBJECT);
+
+        hprof.node(A, B, C);
+        hprof.node(B, D, 0);
+        hprof.node(C, D, 0);
+        hprof.node(D, E, 0);
+        hprof.node(E, 0, 0);
+        hprof.node(F, ARRAY, 0);
+        hprof.node(GARBAGE, A, 0);
+
+        heap.writeByte(0x23); // PRIMITIVE ARRAY DUMP
+        heap.writeLong(ARRAY);
+        heap.writeInt(0);
+        heap.writeInt(100);
+        heap.writeByte(HprofFile.TYPE_BYTE);
+        heap.write(new byte[100]);
+
+        Path file = this.folder.newFile("test.hprof").toPath();
+        Files.write(file, hprof.toByteArray());
+        return file;
+    }
+
+    @Test
+    public void testRetainedSizes() throws IOException {
+        HeapDumpAnalysis analysis = HeapDumpAnalysis.analyse(writeDump(), this.folder.newFolder("work").toPath(), message -> {});
+
+        assertEquals(8, analysis.getObjectCount());
+        assertEquals(NODE_SIZE * 6 + ARRAY_SIZE + CLASS_SIZE, analysis.getTotalSize());
+
+        List<Retainer> retainers = analysis.getRetainers();
+        assertEquals(3, retainers.size());
+
+        // A retains B, C, D and E
+        assertEquals("Node", retainers.get(0).getType());
+        assertEquals(NODE_SIZE, retainers.get(0).getShallowSize());
+        assertEquals(NODE_SIZE * 5, retainers.get(0).getRetainedSize());
+
+        // F retains the array
+        assertEquals("Node", retainers.get(1).getType());
+        assertEquals(NODE_SIZE + ARRAY_SIZE, retainers.get(1).getRetainedSize());
+
+        // the class is referenced from both, so is only retained by itself
+        assertEquals("class Node", retainers.get(2).getType());
+        assertEquals(CLASS_SIZE, retainers.get(2).getRetainedSize());
+    }
+
+    @Test
+    public void testPathToRoot() throws IOException {
+        HeapDumpAnalysis analysis = HeapDumpAnalysis.analyse(writeDump(), this.folder.newFolder("work").toPath(), message -> {});
+
+        List<HeapDumpAnalysis.PathElement> path = analysis.getRetainers().get(0).getPathToRoot();
+        assertEquals(1, path.size());
+        assertEquals("Node", path.get(0).getType());
+        assertEquals("GC root", path.get(0).getReference());
+    }
+
+    @Test
+    public void testHistogram() throws IOException {
+        HeapDumpAnalysis analysis = HeapDumpAnalysis.analyse(writeDump(), this.folder.newFolder("work").toPath(), message -> {});
+
+        // the unreachable object is not counted
+        List<HeapDumpSummary.Entry> histogram = analysis.getHistogram();
+        assertEquals(3, histogram.size());
+        assertEquals("Node", histogram.get(0).getType());
+        assertEquals(6, histogram.get(0).getInstances());
+        assertEquals(NODE_SIZE * 6, histogram.get(0).getBytes());
+        assertEquals("byte[]", histogram.get(1).getType());
+        assertEquals(ARRAY_SIZE, histogram.get(1).getBytes());
+        assertEquals("java.lang.Class", histogram.get(2).getType());
+    }
+
+    /**
+     * Writes a minimal HPROF file, with 8 byte identifiers and a single heap dump segment.
+     */
+    private static final class HprofWriter {
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream heapBytes = new ByteArrayOutputStream();
+        final DataOutputStream heap = new DataOutputStream(this.heapBytes);
+
+        private void record(int tag, byte[] body) throws IOException {
+            DataOutputStream out = new DataOutputStream(this.records);
+            out.writeByte(tag);
+            out.writeInt(0);
+            out.writeInt(body.length);
+            out.write(body);
+        }
+
+        void string(long id, String value) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeLong(id);
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+            record(0x01, body.toByteArray());
+        }
+
+        void loadClass(long classId, long nameId) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(1);
+            out.writeLong(classId);
+            out.writeInt(0);
+            out.writeLong(nameId);
+            record(0x02, body.toByteArray());
+        }
+
+        void node(long id, long a, long b) throws IOException {
+            this.heap.writeByte(0x21); // INSTANCE DUMP
+            this.heap.writeLong(id);
+            this.heap.writeInt(0);
+            this.heap.writeLong(NODE_CLASS);
+            this.heap.writeInt(16);
+            this.heap.writeLong(a);
+            this.heap.writeLong(b);
+        }
+
+        byte[] toByteArray() throws IOException {
+            record(0x1C, this.heapBytes.toByteArray());
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(file);
+            out.write("JAVA PROFILE 1.0.2".getBytes(StandardCharsets.US_ASCII));
+            out.writeByte(0);
+            out.writeInt(8);
+            out.writeLong(0);
+            this.records.writeTo(out);
+            return file.toByteArray();
+        }
+    }
+
+}
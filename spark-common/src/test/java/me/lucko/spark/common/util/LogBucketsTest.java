@@ -0,0 +1,83 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogBucketsTest {
+    private static final int[] SUB_BUCKET_BITS = {4, 6};
+
+    @Test
+    public void testSmallValuesHaveExactBuckets() {
+        for (int bits : SUB_BUCKET_BITS) {
+            LogBuckets buckets = new LogBuckets(bits);
+            for (long value = 0; value < (1 << bits); value++) {
+                int index = buckets.index(value);
+                assertEquals(value, index);
+                assertEquals(value, buckets.lowerBound(index));
+                assertEquals(1, buckets.width(index));
+            }
+        }
+    }
+
+    @Test
+    public void testBucketContainsValue() {
+        long[] values = {16, 17, 31, 32, 33, 63, 64, 65, 1000, 1023, 1024, 1025, Integer.MAX_VALUE, 1L << 40, (1L << 40) - 1, Long.MAX_VALUE - 1, Long.MAX_VALUE};
+        for (int bits : SUB_BUCKET_BITS) {
+            LogBuckets buckets = new LogBuckets(bits);
+            for (long value : values) {
+                int index = buckets.index(value);
+                long lower = buckets.lowerBound(index);
+                assertTrue(value + " below bucket " + index, lower <= value);
+                assertTrue(value + " above bucket " + index, value - lower < buckets.width(index));
+            }
+        }
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (int bits : SUB_BUCKET_BITS) {
+            LogBuckets buckets = new LogBuckets(bits);
+            int last = buckets.index(Long.MAX_VALUE);
+            assertEquals(buckets.count() - 1, last);
+            for (int index = 0; index < last; index++) {
+                long next = buckets.lowerBound(index) + buckets.width(index);
+                assertEquals(index + 1, buckets.index(next));
+                assertEquals(next, buckets.lowerBound(index + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testBucketWidthIsWithinRelativeError() {
+        for (int bits : SUB_BUCKET_BITS) {
+            LogBuckets buckets = new LogBuckets(bits);
+            for (int exponent = bits; exponent < 63; exponent++) {
+                long value = 1L << exponent;
+                int index = buckets.index(value);
+                assertTrue(buckets.width(index) / (double) value <= 1d / (1 << bits));
+            }
+        }
+    }
+
+}
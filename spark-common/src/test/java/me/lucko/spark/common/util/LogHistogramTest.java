@@ -0,0 +1,102 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getPercentile(50), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LogHistogram histogram = new LogHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getTotal());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+
+        // clamped to the exact minimum and maximum
+        assertEquals(1, histogram.getPercentile(0), 0);
+        assertEquals(1000, histogram.getPercentile(100), 0);
+
+        assertEquals(500, histogram.getPercentile(50), 500 / 16d);
+        assertEquals(990, histogram.getPercentile(99), 990 / 16d);
+    }
+
+    @Test
+    public void testSingleValue() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(12345);
+        assertEquals(12345, histogram.getPercentile(0), 0);
+        assertEquals(12345, histogram.getPercentile(50), 0);
+        assertEquals(12345, histogram.getPercentile(100), 0);
+    }
+
+    @Test
+    public void testAddAndReset() {
+        LogHistogram a = new LogHistogram();
+        LogHistogram b = new LogHistogram();
+        a.record(5);
+        b.record(100);
+        b.record(200);
+
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(305, a.getTotal());
+        assertEquals(5, a.getMin());
+        assertEquals(200, a.getMax());
+
+        a.add(new LogHistogram());
+        assertEquals(5, a.getMin());
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getMin());
+        assertEquals(0, a.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeValue() {
+        new LogHistogram().record(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new LogHistogram().getPercentile(101);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelGzipCompressorTest {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static long crc32(byte[] data, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return crc.getValue();
+    }
+
+    private static byte[] data(int length) {
+        // compressible, but not trivially so
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (random.nextInt(16) + (i % 7));
+        }
+        return data;
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return readAll(in);
+        }
+    }
+
+    @Test
+    public void testCrc32Combine() {
+        byte[] data = data(10000);
+        for (int split : new int[]{0, 1, 100, 4096, 9999, 10000}) {
+            long combined = ParallelGzipCompressor.crc32Combine(crc32(data, 0, split), crc32(data, split, data.length - split), data.length - split);
+            assertEquals("split at " + split, crc32(data, 0, data.length), combined);
+        }
+    }
+
+    @Test
+    public void testCrc32CombineMany() {
+        byte[] data = data(100000);
+        long crc = 0;
+        int pos = 0;
+        Random random = new Random(1);
+        while (pos < data.length) {
+            int len = Math.min(data.length - pos, random.nextInt(5000));
+            crc = ParallelGzipCompressor.crc32Combine(crc, crc32(data, pos, len), len);
+            pos += len;
+        }
+        assertEquals(crc32(data, 0, data.length), crc);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        int[] lengths = {0, 1, 1000, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, BLOCK_SIZE * 3 + 12345};
+        for (int length : lengths) {
+            byte[] data = data(length);
+            assertArrayEquals("length " + length, data, gunzip(new ParallelGzipCompressor(4).compress(data)));
+            assertArrayEquals("length " + length, data, gunzip(new ParallelGzipCompressor(1).compress(data)));
+        }
+    }
+
+    @Test
+    public void testOutputStreamRoundTrip() throws IOException {
+        int[] lengths = {0, 1, BLOCK_SIZE, BLOCK_SIZE + 1, BLOCK_SIZE * 2 + 777};
+        Random random = new Random(2);
+        for (int length : lengths) {
+            byte[] data = data(length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OutputStream compressed = new ParallelGzipCompressor(4).createOutputStream(out)) {
+                // write in uneven pieces, so blocks are filled across several writes
+                int pos = 0;
+                while (pos < length) {
+                    int len = Math.min(length - pos, 1 + random.nextInt(100000));
+                    compressed.write(data, pos, len);
+                    pos += len;
+                }
+            }
+            assertArrayEquals("length " + length, data, gunzip(out.toByteArray()));
+        }
+    }
+
+}
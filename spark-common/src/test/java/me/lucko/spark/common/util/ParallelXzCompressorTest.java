@@ -0,0 +1,118 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ParallelXzCompressorTest {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ParallelXzCompressor compressor() throws IOException {
+        // a small dictionary gives the smallest (1MB) blocks
+        LZMA2Options options = new LZMA2Options();
+        options.setDictSize(LZMA2Options.DICT_SIZE_MIN);
+        return new ParallelXzCompressor(options);
+    }
+
+    private static byte[] data(int length) {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (random.nextInt(16) + (i % 5));
+        }
+        return data;
+    }
+
+    @Test
+    public void testVarIntRoundTrip() throws IOException {
+        long[] values = {0, 1, 0x7F, 0x80, 0x3FFF, 0x4000, 0xFFFFFFFFL, 1L << 56, Long.MAX_VALUE};
+        int[] lengths = {1, 1, 1, 2, 2, 3, 5, 9, 9};
+
+        for (int i = 0; i < values.length; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ParallelXzCompressor.writeVarInt(out, values[i]);
+            byte[] bytes = out.toByteArray();
+            assertEquals("length of " + values[i], lengths[i], bytes.length);
+
+            int[] pos = {0};
+            assertEquals(values[i], ParallelXzCompressor.readVarInt(bytes, pos));
+            assertEquals(bytes.length, pos[0]);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        int[] lengths = {0, 1, 1000, BLOCK_SIZE, BLOCK_SIZE + 1, BLOCK_SIZE * 2 + 12345};
+        for (int length : lengths) {
+            byte[] data = data(length);
+            byte[] compressed = compressor().compress(data);
+            try (InputStream in = new XZInputStream(new ByteArrayInputStream(compressed))) {
+                assertArrayEquals("length " + length, data, ParallelGzipCompressorTest.readAll(in));
+            }
+        }
+    }
+
+    @Test
+    public void testIndex() throws IOException {
+        int length = BLOCK_SIZE * 2 + 12345;
+        byte[] data = data(length);
+        Path input = this.folder.newFile("input").toPath();
+        Path output = this.folder.newFile("output.xz").toPath();
+        Files.write(input, data);
+
+        try (OutputStream out = Files.newOutputStream(output)) {
+            compressor().compress(input, out, progress -> {});
+        }
+
+        // the seekable reader validates the index and uses it to locate each block
+        try (SeekableXZInputStream in = new SeekableXZInputStream(new SeekableFileInputStream(output.toFile()))) {
+            assertEquals(3, in.getBlockCount());
+            assertEquals(length, in.length());
+            for (int block = 0; block < 3; block++) {
+                assertEquals(block * (long) BLOCK_SIZE, in.getBlockPos(block));
+            }
+
+            in.seek(BLOCK_SIZE + 10);
+            assertEquals(data[BLOCK_SIZE + 10], (byte) in.read());
+        }
+    }
+
+}
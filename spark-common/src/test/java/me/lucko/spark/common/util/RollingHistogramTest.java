@@ -0,0 +1,175 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RollingHistogramTest {
+
+    private static int rank(int percentile, int size) {
+        return Math.min((int) Math.ceil((percentile / 100d) * size), size - 1);
+    }
+
+    @Test
+    public void testEmpty() {
+        RollingHistogram histogram = new RollingHistogram(10);
+        assertEquals(0, histogram.getAverage(), 0);
+        assertEquals(0, histogram.getMin(), 0);
+        assertEquals(0, histogram.getMax(), 0);
+        assertEquals(0, histogram.getMedian(), 0);
+        assertEquals(0, histogram.getPercentile(95), 0);
+    }
+
+    @Test
+    public void testSingleValue() {
+        RollingHistogram histogram = new RollingHistogram(10);
+        histogram.add(50.3);
+        assertEquals(50.3, histogram.getAverage(), 0);
+        assertEquals(50.3, histogram.getMin(), 0);
+        assertEquals(50.3, histogram.getMax(), 0);
+        assertEquals(50.3, histogram.getMedian(), 0);
+    }
+
+    @Test
+    public void testPercentilesMatchSortedWindow() {
+        Random random = new Random(0);
+        int size = 1200;
+        RollingHistogram histogram = new RollingHistogram(size);
+        double[] window = new double[size];
+        for (int i = 0; i < size * 3; i++) {
+            double value = 1 + random.nextDouble() * 200;
+            window[i % size] = value;
+            histogram.add(value);
+        }
+        double[] sorted = window.clone();
+        Arrays.sort(sorted);
+
+        assertEquals(sorted[0], histogram.getMin(), 0);
+        assertEquals(sorted[size - 1], histogram.getMax(), 0);
+        for (int percentile = 0; percentile <= 100; percentile++) {
+            assertEquals("percentile " + percentile, sorted[rank(percentile, size)], histogram.getPercentile(percentile), 0);
+        }
+    }
+
+    @Test
+    public void testPartiallyFilledWindow() {
+        Random random = new Random(1);
+        RollingHistogram histogram = new RollingHistogram(100);
+        double[] values = new double[37];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 50;
+            histogram.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (int percentile : new int[]{0, 1, 25, 50, 75, 95, 99, 100}) {
+            assertEquals("percentile " + percentile, values[rank(percentile, values.length)], histogram.getPercentile(percentile), 0);
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        RollingHistogram histogram = new RollingHistogram(10);
+        for (int i = 1; i <= 10; i++) {
+            histogram.add(i);
+        }
+        assertEquals(5.5, histogram.getAverage(), 1e-9);
+        assertEquals(1, histogram.getMin(), 0);
+
+        for (int i = 0; i < 10; i++) {
+            histogram.add(100);
+        }
+        assertEquals(100, histogram.getAverage(), 1e-9);
+        assertEquals(100, histogram.getMin(), 0);
+        assertEquals(100, histogram.getMax(), 0);
+    }
+
+    @Test
+    public void testMinMaxAfterEachEviction() {
+        Random random = new Random(2);
+        int size = 50;
+        RollingHistogram histogram = new RollingHistogram(size);
+        double[] window = new double[size];
+        for (int i = 0; i < size * 20; i++) {
+            double value = random.nextDouble() * 100;
+            window[i % size] = value;
+            histogram.add(value);
+
+            double[] sorted = Arrays.copyOf(window, Math.min(i + 1, size));
+            Arrays.sort(sorted);
+            assertEquals(sorted[0], histogram.getMin(), 0);
+            assertEquals(sorted[sorted.length - 1], histogram.getMax(), 0);
+            assertEquals(sorted[rank(90, sorted.length)], histogram.getPercentile(90), 0);
+        }
+    }
+
+    @Test
+    public void testAverageStaysAccurate() {
+        RollingHistogram histogram = new RollingHistogram(100);
+        for (int i = 0; i < 100000; i++) {
+            histogram.add(i % 2 == 0 ? 1e6 : 1e-3);
+        }
+        assertEquals((1e6 + 1e-3) / 2, histogram.getAverage(), 1e-6);
+    }
+
+    @Test
+    public void testOutOfRangeValues() {
+        RollingHistogram histogram = new RollingHistogram(4);
+        histogram.add(0);
+        histogram.add(-5);
+        histogram.add(1e-9);
+        histogram.add(1e12);
+
+        // values outside the bucketed range still report exactly
+        assertEquals(-5, histogram.getMin(), 0);
+        assertEquals(1e12, histogram.getMax(), 0);
+        assertEquals(1e-9, histogram.getMedian(), 0);
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        // powers of two are the lower bound of a bucket, and the value just below is in the previous one
+        for (int exponent = -16; exponent < 24; exponent++) {
+            double value = Math.scalb(1d, exponent);
+            RollingHistogram histogram = new RollingHistogram(2);
+            histogram.add(value);
+            histogram.add(Math.nextDown(value));
+            assertEquals(Math.nextDown(value), histogram.getMin(), 0);
+            assertEquals(value, histogram.getMax(), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new RollingHistogram(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new RollingHistogram(1).getPercentile(-1);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.fabric;
+
+import com.google.common.collect.ImmutableSet;
+import me.lucko.spark.common.util.ClassSourceLookup;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Identifies classes by the mod jar they were loaded from.
+ *
+ * <p>Fabric loads all mods with a single class loader, so the jar of each class is
+ * matched against the origin of each mod.</p>
+ */
+public class FabricClassSourceLookup extends ClassSourceLookup.ByCodeSource {
+    /** The mods which make up the game & loader, rather than being installed by the user */
+    private static final Set<String> PLATFORM_MODS = ImmutableSet.of("minecraft", "java", "fabricloader");
+
+    private Map<Path, String> pathToModMap = null;
+
+    private synchronized Map<Path, String> getPathToModMap() {
+        if (this.pathToModMap == null) {
+            Map<Path, String> map = new HashMap<>();
+            for (ModContainer container : FabricLoader.getInstance().getAllMods()) {
+                // the origin of a mod is only exposed by the loader implementation
+                if (!(container instanceof net.fabricmc.loader.ModContainer)) {
+                    continue;
+                }
+                try {
+                    URL origin = ((net.fabricmc.loader.ModContainer) container).getOriginUrl();
+                    if (origin.getProtocol().equals("file")) {
+                        map.putIfAbsent(Paths.get(origin.toURI()).toAbsolutePath().normalize(), container.getMetadata().getId());
+                    }
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+            this.pathToModMap = map;
+        }
+        return this.pathToModMap;
+    }
+
+    @Override
+    protected String identifyFile(Path path) {
+        return getPathToModMap().get(path);
+    }
+
+    @Override
+    public Set<String> getPlatformSources() {
+        return PLATFORM_MODS;
+    }
+}
@@ -20,6 +20,8 @@
 
 package me.lucko.spark.fabric;
 
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
+
 import java.util.function.Predicate;
 
 public enum FabricSparkGameHooks {
@@ -37,4 +39,26 @@ public enum FabricSparkGameHooks {
         return this.chatSendCallback.test(message);
     }
 
+    // Called from mixins in the server tick loop
+    private volatile TickPhaseProfiler tickPhaseProfiler = null;
+
+    public void setTickPhaseProfiler(TickPhaseProfiler tickPhaseProfiler) {
+        this.tickPhaseProfiler = tickPhaseProfiler;
+    }
+
+    public TickPhaseProfiler getTickPhaseProfiler() {
+        return this.tickPhaseProfiler;
+    }
+
+    // Called from mixins in the world tick
+    private volatile FabricWorldTickReporter worldTickReporter = null;
+
+    public void setWorldTickReporter(FabricWorldTickReporter worldTickReporter) {
+        this.worldTickReporter = worldTickReporter;
+    }
+
+    public FabricWorldTickReporter getWorldTickReporter() {
+        return this.worldTickReporter;
+    }
+
 }
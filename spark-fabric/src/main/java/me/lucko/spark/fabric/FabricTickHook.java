@@ -40,6 +40,7 @@ public abstract class FabricTickHook extends AbstractTickHook implements TickHoo
     @Override
     public void close() {
         this.closed = true;
+        super.close();
     }
 
     public static final class Server extends FabricTickHook implements ServerTickEvents.StartTick {
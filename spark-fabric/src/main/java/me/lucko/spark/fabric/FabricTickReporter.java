@@ -56,6 +56,7 @@ public abstract class FabricTickReporter extends AbstractTickReporter implements
     @Override
     public void close() {
         this.closed = true;
+        super.close();
     }
 
     public static final class Server extends FabricTickReporter implements ServerTickEvents.StartTick, ServerTickEvents.EndTick {
@@ -0,0 +1,69 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.fabric;
+
+import me.lucko.spark.common.sampler.tick.AbstractWorldTickReporter;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.world.ServerWorld;
+
+public class FabricWorldTickReporter extends AbstractWorldTickReporter<ServerWorld> {
+
+    public void onWorldTickStart() {
+        startWorld();
+    }
+
+    public void onWorldTickEnd(ServerWorld world) {
+        endWorld(world);
+    }
+
+    @Override
+    protected String getName(ServerWorld world) {
+        return world.getRegistryKey().getValue().toString();
+    }
+
+    @Override
+    protected int countEntities(ServerWorld world) {
+        int count = 0;
+        for (Entity ignored : world.iterateEntities()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    protected int countChunks(ServerWorld world) {
+        return world.getChunkManager().getLoadedChunkCount();
+    }
+
+    @Override
+    public void start() {
+        FabricSparkGameHooks.INSTANCE.setWorldTickReporter(this);
+    }
+
+    @Override
+    public void close() {
+        if (FabricSparkGameHooks.INSTANCE.getWorldTickReporter() == this) {
+            FabricSparkGameHooks.INSTANCE.setWorldTickReporter(null);
+        }
+        super.close();
+    }
+
+}
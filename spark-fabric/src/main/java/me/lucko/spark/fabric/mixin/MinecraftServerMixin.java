@@ -0,0 +1,104 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.fabric.mixin;
+
+import me.lucko.spark.common.monitor.tick.TickPhase;
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
+import me.lucko.spark.fabric.FabricSparkGameHooks;
+import net.minecraft.server.MinecraftServer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.function.BooleanSupplier;
+
+// only the start and end of the tick are required - if any of the other injection points
+// fail to apply, that phase is simply reported as zero
+@Mixin(MinecraftServer.class)
+public abstract class MinecraftServerMixin {
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", at = @At("HEAD"))
+    public void onTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        TickPhaseProfiler profiler = FabricSparkGameHooks.INSTANCE.getTickPhaseProfiler();
+        if (profiler != null) {
+            profiler.startTick();
+        }
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", at = @At("RETURN"))
+    public void onTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        TickPhaseProfiler profiler = FabricSparkGameHooks.INSTANCE.getTickPhaseProfiler();
+        if (profiler != null) {
+            profiler.endTick();
+        }
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/PlayerManager;saveAllPlayerData()V"))
+    public void onAutosaveStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        startPhase(TickPhase.AUTOSAVE);
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/MinecraftServer;save(ZZZ)Z", shift = At.Shift.AFTER))
+    public void onAutosaveEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        endPhase(TickPhase.AUTOSAVE);
+    }
+
+    @Inject(method = "tickWorlds(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/world/ServerWorld;tick(Ljava/util/function/BooleanSupplier;)V"))
+    public void onWorldTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        startPhase(TickPhase.WORLDS);
+    }
+
+    @Inject(method = "tickWorlds(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/world/ServerWorld;tick(Ljava/util/function/BooleanSupplier;)V", shift = At.Shift.AFTER))
+    public void onWorldTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        endPhase(TickPhase.WORLDS);
+    }
+
+    @Inject(method = "tickWorlds(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/ServerNetworkIo;tick()V"))
+    public void onConnectionsTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        startPhase(TickPhase.CONNECTIONS);
+    }
+
+    @Inject(method = "tickWorlds(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/ServerNetworkIo;tick()V", shift = At.Shift.AFTER))
+    public void onConnectionsTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        endPhase(TickPhase.CONNECTIONS);
+    }
+
+    private static void startPhase(TickPhase phase) {
+        TickPhaseProfiler profiler = FabricSparkGameHooks.INSTANCE.getTickPhaseProfiler();
+        if (profiler != null) {
+            profiler.startPhase(phase);
+        }
+    }
+
+    private static void endPhase(TickPhase phase) {
+        TickPhaseProfiler profiler = FabricSparkGameHooks.INSTANCE.getTickPhaseProfiler();
+        if (profiler != null) {
+            profiler.endPhase(phase);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.fabric.mixin;
+
+import me.lucko.spark.common.monitor.tick.TickPhase;
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
+import me.lucko.spark.fabric.FabricSparkGameHooks;
+import me.lucko.spark.fabric.FabricWorldTickReporter;
+import net.minecraft.server.world.ServerWorld;
+import org.objectweb.asm.Opcodes;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.function.BooleanSupplier;
+
+// none of these injection points are required - if one fails to apply, that phase is simply reported as zero
+@Mixin(ServerWorld.class)
+public abstract class ServerWorldMixin {
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0, at = @At("HEAD"))
+    public void onTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        FabricWorldTickReporter reporter = FabricSparkGameHooks.INSTANCE.getWorldTickReporter();
+        if (reporter != null) {
+            reporter.onWorldTickStart();
+        }
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0, at = @At("RETURN"))
+    public void onTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        FabricWorldTickReporter reporter = FabricSparkGameHooks.INSTANCE.getWorldTickReporter();
+        if (reporter != null) {
+            reporter.onWorldTickEnd((ServerWorld) (Object) this);
+        }
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/world/ServerChunkManager;tick(Ljava/util/function/BooleanSupplier;)V"))
+    public void onChunkSourceTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        startPhase(TickPhase.CHUNK_SOURCE);
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/world/ServerChunkManager;tick(Ljava/util/function/BooleanSupplier;)V", shift = At.Shift.AFTER))
+    public void onChunkSourceTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        endPhase(TickPhase.CHUNK_SOURCE);
+    }
+
+    // inEntityTick is set to true before the entity loop, and back to false after it
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "FIELD", target = "Lnet/minecraft/server/world/ServerWorld;inEntityTick:Z", opcode = Opcodes.PUTFIELD, ordinal = 0))
+    public void onEntitiesTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        startPhase(TickPhase.ENTITIES);
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "FIELD", target = "Lnet/minecraft/server/world/ServerWorld;inEntityTick:Z", opcode = Opcodes.PUTFIELD, ordinal = 1))
+    public void onEntitiesTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        endPhase(TickPhase.ENTITIES);
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/world/ServerWorld;tickBlockEntities()V"))
+    public void onBlockEntitiesTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        startPhase(TickPhase.BLOCK_ENTITIES);
+    }
+
+    @Inject(method = "tick(Ljava/util/function/BooleanSupplier;)V", require = 0,
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/server/world/ServerWorld;tickBlockEntities()V", shift = At.Shift.AFTER))
+    public void onBlockEntitiesTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        endPhase(TickPhase.BLOCK_ENTITIES);
+    }
+
+    private static void startPhase(TickPhase phase) {
+        TickPhaseProfiler profiler = FabricSparkGameHooks.INSTANCE.getTickPhaseProfiler();
+        if (profiler != null) {
+            profiler.startPhase(phase);
+        }
+    }
+
+    private static void endPhase(TickPhase phase) {
+        TickPhaseProfiler profiler = FabricSparkGameHooks.INSTANCE.getTickPhaseProfiler();
+        if (profiler != null) {
+            profiler.endPhase(phase);
+        }
+    }
+}
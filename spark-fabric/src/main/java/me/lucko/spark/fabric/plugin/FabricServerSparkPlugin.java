@@ -26,14 +26,18 @@ import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 import com.mojang.brigadier.suggestion.Suggestions;
 import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
 import me.lucko.spark.common.platform.PlatformInfo;
 import me.lucko.spark.common.sampler.tick.TickHook;
 import me.lucko.spark.common.sampler.tick.TickReporter;
+import me.lucko.spark.common.sampler.tick.WorldTickReporter;
 import me.lucko.spark.fabric.FabricCommandSender;
 import me.lucko.spark.fabric.FabricPlatformInfo;
 import me.lucko.spark.fabric.FabricSparkMod;
+import me.lucko.spark.fabric.FabricTickPhaseProfiler;
 import me.lucko.spark.fabric.FabricTickHook;
 import me.lucko.spark.fabric.FabricTickReporter;
+import me.lucko.spark.fabric.FabricWorldTickReporter;
 import net.fabricmc.fabric.api.command.v1.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.minecraft.entity.player.PlayerEntity;
@@ -136,6 +140,16 @@ public class FabricServerSparkPlugin extends FabricSparkPlugin implements Comman
         return new FabricTickReporter.Server();
     }
 
+    @Override
+    public TickPhaseProfiler createTickPhaseProfiler() {
+        return new FabricTickPhaseProfiler();
+    }
+
+    @Override
+    public WorldTickReporter createWorldTickReporter() {
+        return new FabricWorldTickReporter();
+    }
+
     @Override
     public PlatformInfo getPlatformInfo() {
         return new FabricPlatformInfo(PlatformInfo.Type.SERVER);
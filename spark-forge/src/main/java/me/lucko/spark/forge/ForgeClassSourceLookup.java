@@ -0,0 +1,81 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.forge;
+
+import com.google.common.collect.ImmutableSet;
+import me.lucko.spark.common.util.ClassSourceLookup;
+import net.minecraftforge.fml.ModList;
+import net.minecraftforge.fml.loading.moddiscovery.ModFileInfo;
+import net.minecraftforge.forgespi.language.IModInfo;
+
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Identifies classes by the mod file they were loaded from.
+ *
+ * <p>Mod classes are loaded from {@code modjar://<modid>} urls, so the mod id can be
+ * read directly from their code source. Other classes are matched against the paths
+ * of the loaded mod files.</p>
+ */
+public class ForgeClassSourceLookup extends ClassSourceLookup.ByCodeSource {
+    /** The mods which make up the game & loader, rather than being installed by the user */
+    private static final Set<String> PLATFORM_MODS = ImmutableSet.of("minecraft", "forge");
+
+    private Map<Path, String> pathToModMap = null;
+
+    private synchronized Map<Path, String> getPathToModMap() {
+        if (this.pathToModMap == null) {
+            Map<Path, String> map = new HashMap<>();
+            for (ModFileInfo modFile : ModList.get().getModFiles()) {
+                List<IModInfo> mods = modFile.getMods();
+                if (!mods.isEmpty()) {
+                    map.put(modFile.getFile().getFilePath().toAbsolutePath().normalize(), mods.get(0).getModId());
+                }
+            }
+            this.pathToModMap = map;
+        }
+        return this.pathToModMap;
+    }
+
+    @Override
+    protected String identifyUrl(URL url) throws URISyntaxException {
+        if (url.getProtocol().equals("modjar")) {
+            return url.getHost();
+        }
+        return super.identifyUrl(url);
+    }
+
+    @Override
+    protected String identifyFile(Path path) {
+        return getPathToModMap().get(path);
+    }
+
+    @Override
+    public Set<String> getPlatformSources() {
+        return PLATFORM_MODS;
+    }
+}
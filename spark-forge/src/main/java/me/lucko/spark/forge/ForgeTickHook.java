@@ -54,6 +54,7 @@ public class ForgeTickHook extends AbstractTickHook implements TickHook {
     @Override
     public void close() {
         MinecraftForge.EVENT_BUS.unregister(this);
+        super.close();
     }
 
 }
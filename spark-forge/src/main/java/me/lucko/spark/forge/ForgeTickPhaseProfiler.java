@@ -0,0 +1,79 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.forge;
+
+import me.lucko.spark.common.monitor.tick.TickPhase;
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.LogicalSide;
+
+/**
+ * Times tick phases using the tick events fired by Forge.
+ *
+ * <p>Forge only fires events around the whole tick and around each world's tick, so the
+ * other phases are not available.</p>
+ */
+public class ForgeTickPhaseProfiler extends TickPhaseProfiler {
+
+    // listen at the extremes so that other mods' listeners are counted inside the phase
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    public void onServerTickStart(TickEvent.ServerTickEvent e) {
+        if (e.phase == TickEvent.Phase.START) {
+            startTick();
+        }
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onServerTickEnd(TickEvent.ServerTickEvent e) {
+        if (e.phase == TickEvent.Phase.END) {
+            endTick();
+        }
+    }
+
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    public void onWorldTickStart(TickEvent.WorldTickEvent e) {
+        if (e.phase == TickEvent.Phase.START && e.side == LogicalSide.SERVER) {
+            startPhase(TickPhase.WORLDS);
+        }
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onWorldTickEnd(TickEvent.WorldTickEvent e) {
+        if (e.phase == TickEvent.Phase.END && e.side == LogicalSide.SERVER) {
+            endPhase(TickPhase.WORLDS);
+        }
+    }
+
+    @Override
+    public void start() {
+        MinecraftForge.EVENT_BUS.register(this);
+    }
+
+    @Override
+    public void close() {
+        MinecraftForge.EVENT_BUS.unregister(this);
+        super.close();
+    }
+
+}
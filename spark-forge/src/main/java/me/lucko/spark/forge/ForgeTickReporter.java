@@ -66,6 +66,7 @@ public class ForgeTickReporter extends AbstractTickReporter implements TickRepor
     @Override
     public void close() {
         MinecraftForge.EVENT_BUS.unregister(this);
+        super.close();
     }
 
 }
@@ -0,0 +1,85 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.forge;
+
+import me.lucko.spark.common.sampler.tick.AbstractWorldTickReporter;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.LogicalSide;
+
+/**
+ * Times the tick of each world using the world tick events fired by Forge.
+ */
+public class ForgeWorldTickReporter extends AbstractWorldTickReporter<ServerWorld> {
+
+    // listen at the extremes so that other mods' listeners are counted inside the world tick
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    public void onWorldTickStart(TickEvent.WorldTickEvent e) {
+        if (e.phase == TickEvent.Phase.START && e.side == LogicalSide.SERVER) {
+            startWorld();
+        }
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onWorldTickEnd(TickEvent.WorldTickEvent e) {
+        if (e.phase == TickEvent.Phase.END && e.side == LogicalSide.SERVER && e.world instanceof ServerWorld) {
+            endWorld((ServerWorld) e.world);
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload e) {
+        if (e.getWorld() instanceof ServerWorld) {
+            unloadWorld((ServerWorld) e.getWorld());
+        }
+    }
+
+    @Override
+    protected String getName(ServerWorld world) {
+        return world.getDimensionKey().getLocation().toString();
+    }
+
+    @Override
+    protected int countEntities(ServerWorld world) {
+        return (int) world.getEntities().count();
+    }
+
+    @Override
+    protected int countChunks(ServerWorld world) {
+        return world.getChunkProvider().getLoadedChunksCount();
+    }
+
+    @Override
+    public void start() {
+        MinecraftForge.EVENT_BUS.register(this);
+    }
+
+    @Override
+    public void close() {
+        MinecraftForge.EVENT_BUS.unregister(this);
+        super.close();
+    }
+
+}
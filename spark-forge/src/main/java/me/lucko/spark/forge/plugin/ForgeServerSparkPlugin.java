@@ -27,14 +27,18 @@ import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 import com.mojang.brigadier.suggestion.Suggestions;
 import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import me.lucko.spark.common.monitor.tick.TickPhaseProfiler;
 import me.lucko.spark.common.platform.PlatformInfo;
 import me.lucko.spark.common.sampler.tick.TickHook;
 import me.lucko.spark.common.sampler.tick.TickReporter;
+import me.lucko.spark.common.sampler.tick.WorldTickReporter;
 import me.lucko.spark.forge.ForgeCommandSender;
 import me.lucko.spark.forge.ForgePlatformInfo;
 import me.lucko.spark.forge.ForgeSparkMod;
 import me.lucko.spark.forge.ForgeTickHook;
+import me.lucko.spark.forge.ForgeTickPhaseProfiler;
 import me.lucko.spark.forge.ForgeTickReporter;
+import me.lucko.spark.forge.ForgeWorldTickReporter;
 import net.minecraft.command.CommandSource;
 import net.minecraft.command.ICommandSource;
 import net.minecraft.entity.player.PlayerEntity;
@@ -144,6 +148,16 @@ public class ForgeServerSparkPlugin extends ForgeSparkPlugin implements Command<
         return new ForgeTickReporter(TickEvent.Type.SERVER);
     }
 
+    @Override
+    public TickPhaseProfiler createTickPhaseProfiler() {
+        return new ForgeTickPhaseProfiler();
+    }
+
+    @Override
+    public WorldTickReporter createWorldTickReporter() {
+        return new ForgeWorldTickReporter();
+    }
+
     @Override
     public PlatformInfo getPlatformInfo() {
         return new ForgePlatformInfo(PlatformInfo.Type.SERVER);
@@ -0,0 +1,82 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.sponge;
+
+import com.google.common.collect.ImmutableSet;
+import me.lucko.spark.common.util.ClassSourceLookup;
+import org.spongepowered.api.Game;
+import org.spongepowered.api.Platform;
+import org.spongepowered.api.plugin.PluginContainer;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Identifies classes by the plugin jar they were loaded from.
+ *
+ * <p>Sponge loads all plugins with a single class loader, so the jar of each class is
+ * matched against the source of each {@link PluginContainer}.</p>
+ */
+public class SpongeClassSourceLookup extends ClassSourceLookup.ByCodeSource {
+    private static final Set<String> FORGE_PLUGINS = ImmutableSet.of("mcp", "FML", "forge");
+
+    private final Game game;
+    private Map<Path, String> pathToPluginMap = null;
+    private Set<String> platformPlugins = null;
+
+    public SpongeClassSourceLookup(Game game) {
+        this.game = game;
+    }
+
+    private synchronized Map<Path, String> getPathToPluginMap() {
+        if (this.pathToPluginMap == null) {
+            Map<Path, String> map = new HashMap<>();
+            for (PluginContainer container : this.game.getPluginManager().getPlugins()) {
+                container.getSource().ifPresent(path -> map.putIfAbsent(path.toAbsolutePath().normalize(), container.getId()));
+            }
+            this.pathToPluginMap = map;
+        }
+        return this.pathToPluginMap;
+    }
+
+    @Override
+    protected String identifyFile(Path path) {
+        return getPathToPluginMap().get(path);
+    }
+
+    @Override
+    public synchronized Set<String> getPlatformSources() {
+        if (this.platformPlugins == null) {
+            Set<String> plugins = new HashSet<>();
+            for (Platform.Component component : Platform.Component.values()) {
+                plugins.add(this.game.getPlatform().getContainer(component).getId());
+            }
+            // SpongeForge also exposes Forge itself as plugins
+            plugins.addAll(FORGE_PLUGINS);
+            this.platformPlugins = Collections.unmodifiableSet(plugins);
+        }
+        return this.platformPlugins;
+    }
+}
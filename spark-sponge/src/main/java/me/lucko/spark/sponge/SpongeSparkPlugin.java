@@ -26,6 +26,7 @@ import me.lucko.spark.common.SparkPlugin;
 import me.lucko.spark.common.platform.PlatformInfo;
 import me.lucko.spark.common.sampler.ThreadDumper;
 import me.lucko.spark.common.sampler.tick.TickHook;
+import me.lucko.spark.common.util.ClassSourceLookup;
 import net.kyori.adventure.platform.spongeapi.SpongeAudiences;
 import org.spongepowered.api.Game;
 import org.spongepowered.api.command.CommandCallable;
@@ -131,6 +132,11 @@ public class SpongeSparkPlugin implements SparkPlugin {
         return new SpongeTickHook(this);
     }
 
+    @Override
+    public ClassSourceLookup createClassSourceLookup() {
+        return new SpongeClassSourceLookup(this.game);
+    }
+
     @Override
     public PlatformInfo getPlatformInfo() {
         return new SpongePlatformInfo(this.game);
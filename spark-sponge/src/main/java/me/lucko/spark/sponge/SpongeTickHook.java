@@ -45,6 +45,7 @@ public class SpongeTickHook extends AbstractTickHook implements TickHook, Runnab
     @Override
     public void close() {
         this.task.cancel();
+        super.close();
     }
 
 }
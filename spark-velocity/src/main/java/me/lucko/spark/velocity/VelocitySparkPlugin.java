@@ -33,10 +33,16 @@ import com.velocitypowered.api.proxy.ProxyServer;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.SparkPlugin;
 import me.lucko.spark.common.platform.PlatformInfo;
+import me.lucko.spark.common.sampler.tick.EventLoopProbe;
+import me.lucko.spark.common.sampler.tick.TickHook;
+import me.lucko.spark.common.sampler.tick.TickReporter;
 import org.checkerframework.checker.optional.qual.MaybePresent;
 
+import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
 import java.util.stream.Stream;
 
 @Plugin(
@@ -52,6 +58,7 @@ public class VelocitySparkPlugin implements SparkPlugin, Command {
     private final Path configDirectory;
 
     private SparkPlatform platform;
+    private EventLoopProbe eventLoopProbe = null;
 
     @Inject
     public VelocitySparkPlugin(ProxyServer proxy, @DataDirectory Path configDirectory) {
@@ -109,6 +116,43 @@ public class VelocitySparkPlugin implements SparkPlugin, Command {
         this.proxy.getScheduler().buildTask(this, task).schedule();
     }
 
+    @Override
+    public TickHook createTickHook() {
+        EventLoopProbe probe = getEventLoopProbe();
+        if (probe == null) {
+            Logger.getLogger("Spark").warning("Unable to find the Netty event loops, tick monitoring will not be available");
+            return null;
+        }
+        return new EventLoopProbe.Hook(probe);
+    }
+
+    @Override
+    public TickReporter createTickReporter() {
+        EventLoopProbe probe = getEventLoopProbe();
+        return probe == null ? null : new EventLoopProbe.Reporter(probe);
+    }
+
+    /**
+     * Gets a probe for the Netty event loops, which are held by the connection manager.
+     *
+     * @return the probe, or null if the event loops couldn't be found
+     */
+    private EventLoopProbe getEventLoopProbe() {
+        if (this.eventLoopProbe == null) {
+            try {
+                Field connectionManagerField = this.proxy.getClass().getDeclaredField("cm");
+                connectionManagerField.setAccessible(true);
+                List<Executor> eventLoops = EventLoopProbe.findEventLoops(connectionManagerField.get(this.proxy));
+                if (!eventLoops.isEmpty()) {
+                    this.eventLoopProbe = new EventLoopProbe(eventLoops);
+                }
+            } catch (ReflectiveOperationException e) {
+                // unsupported
+            }
+        }
+        return this.eventLoopProbe;
+    }
+
     @Override
     public PlatformInfo getPlatformInfo() {
         return new VelocityPlatformInfo(this.proxy);